@@ -0,0 +1,270 @@
+package com.example.lawrence.esketch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * checks the autosave gives the drawing back, and measures a cold restore of a big one:
+ * only the journal since the last snapshot is read and replayed, and that's all of the
+ * journal that is kept on disk.
+ */
+public class AutosaveTest extends AndroidTestCase {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int POINTS = 100; // per stroke
+    private static final int SNAPSHOT_INTERVAL = 100; // Autosave's
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private File mDir;
+    private Bitmap mDrawing;
+    private Canvas mCanvas;
+    private Paint mPaint;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = new File(getContext().getCacheDir(), "autosave-test");
+        deleteDir();
+        mDrawing = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        mDrawing.eraseColor(Color.WHITE);
+        mCanvas = new Canvas(mDrawing);
+        mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mPaint.setStrokeWidth(5);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDir();
+        mDrawing.recycle();
+        super.tearDown();
+    }
+
+    private void deleteDir() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        mDir.delete();
+    }
+
+    // the autosave is used on the UI thread, like the view does
+    private void onMainThread(final Runnable runnable) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                runnable.run();
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+    }
+
+    // what a restore gave back
+    private static class Restored implements Autosave.Target {
+        boolean snapshot;
+        Autosave.Snapshot layers;
+        final List<Stroke> strokes = new ArrayList<>();
+        int undos;
+        int redos;
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        @Override
+        public void onRestoreSnapshot(Autosave.Snapshot snapshot) {
+            this.snapshot = true;
+            layers = snapshot;
+        }
+
+        @Override
+        public void onRestoreStroke(Stroke stroke) {
+            strokes.add(stroke);
+        }
+
+        @Override
+        public void onRestoreUndo() {
+            ++undos;
+        }
+
+        @Override
+        public void onRestoreRedo() {
+            ++redos;
+        }
+
+        @Override
+        public void onRestoreFinished() {
+            finished.countDown();
+        }
+    }
+
+    // a new autosave on the directory loads what's in it, like after the process died
+    private Restored restore(Autosave autosave) throws InterruptedException {
+        Restored restored = new Restored();
+        autosave.restore(restored);
+        assertTrue(restored.finished.await(60, TimeUnit.SECONDS));
+        return restored;
+    }
+
+    // a finger wandering across the screen, drawn into the drawing
+    private Stroke stroke(Random random) {
+        float[] points = new float[POINTS * 2];
+        float x = random.nextFloat() * WIDTH, y = random.nextFloat() * HEIGHT;
+        for (int i = 0; i < POINTS; ++i) {
+            x = Math.max(0, Math.min(WIDTH, x + random.nextFloat() * 16 - 8));
+            y = Math.max(0, Math.min(HEIGHT, y + random.nextFloat() * 16 - 8));
+            points[i * 2] = x;
+            points[i * 2 + 1] = y;
+            if (i > 0) mCanvas.drawLine(points[i * 2 - 2], points[i * 2 - 1], x, y, mPaint);
+        }
+        return new Stroke(Color.BLACK, 5, points, POINTS);
+    }
+
+    // record count strokes, then write everything out
+    private void draw(final Autosave autosave, final Random random, final int count) throws InterruptedException {
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; ++i) {
+                    autosave.stroke(stroke(random), mDrawing);
+                }
+                autosave.sync();
+            }
+        });
+    }
+
+    private long journalBytes() {
+        long bytes = 0;
+        for (File file : mDir.listFiles()) {
+            if (file.getName().startsWith("journal")) bytes += file.length();
+        }
+        return bytes;
+    }
+
+    public void testRestoresStrokesUndoAndRedo() throws InterruptedException {
+        final Autosave autosave = new Autosave(mDir);
+        restore(autosave); // nothing there yet
+        final Random random = new Random(1);
+        final List<Stroke> strokes = new ArrayList<>();
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 3; ++i) {
+                    strokes.add(stroke(random));
+                    autosave.stroke(strokes.get(i), mDrawing);
+                }
+                autosave.undo(mDrawing);
+                autosave.undo(mDrawing);
+                autosave.redo(mDrawing);
+                autosave.sync();
+            }
+        });
+
+        Restored restored = restore(new Autosave(mDir));
+        assertFalse(restored.snapshot);
+        assertEquals(3, restored.strokes.size());
+        assertEquals(2, restored.undos);
+        assertEquals(1, restored.redos);
+        for (int s = 0; s < 3; ++s) {
+            Stroke stroke = strokes.get(s), copy = restored.strokes.get(s);
+            assertEquals(stroke.getPointCount(), copy.getPointCount());
+            for (int i = 0; i < stroke.getPointCount(); ++i) {
+                assertEquals(stroke.getX(i), copy.getX(i), 1f / 16); // 1/8 px fixed point
+                assertEquals(stroke.getY(i), copy.getY(i), 1f / 16);
+            }
+        }
+    }
+
+    public void testLayersComeBackAsTheyWere() throws InterruptedException {
+        final Autosave autosave = new Autosave(mDir);
+        restore(autosave);
+        final Bitmap top = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        top.eraseColor(Color.TRANSPARENT);
+        top.setPixel(10, 20, 0x80FF0000);
+
+        // the background, an empty layer, and a faded one with a pixel on it, drawn on
+        autosave.setLayerSource(new Autosave.LayerSource() {
+            @Override
+            public Autosave.Snapshot snapshot() {
+                Autosave.Snapshot snapshot = new Autosave.Snapshot(2);
+                snapshot.layers.add(new Autosave.Layer(mDrawing.copy(Bitmap.Config.ARGB_8888, false),
+                        true, false, 255));
+                snapshot.layers.add(new Autosave.Layer(null, false, true, 255));
+                snapshot.layers.add(new Autosave.Layer(top.copy(Bitmap.Config.ARGB_8888, false),
+                        false, true, 100));
+                return snapshot;
+            }
+        });
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                autosave.layersChanged(top);
+                autosave.sync();
+            }
+        });
+
+        Autosave.Snapshot layers = restore(new Autosave(mDir)).layers;
+        assertEquals(3, layers.layers.size());
+        assertEquals(2, layers.active);
+        assertTrue(layers.layers.get(0).background);
+        assertFalse(layers.layers.get(0).visible); // hidden, not left out
+        assertEquals(Color.WHITE, layers.layers.get(0).image.getPixel(0, 0));
+        assertNull(layers.layers.get(1).image);
+        assertFalse(layers.layers.get(2).background);
+        assertEquals(100, layers.layers.get(2).opacity); // not baked into the pixels
+        assertEquals(0x80FF0000, layers.layers.get(2).image.getPixel(10, 20));
+        assertEquals(Color.TRANSPARENT, layers.layers.get(2).image.getPixel(0, 0));
+        top.recycle();
+    }
+
+    public void testRestoringAfterARestoreKeepsEverything() throws InterruptedException {
+        Random random = new Random(2);
+        Autosave first = new Autosave(mDir);
+        restore(first);
+        draw(first, random, 30);
+
+        // the second one writes to a journal file of its own, after the first one's
+        Autosave second = new Autosave(mDir);
+        assertEquals(30, restore(second).strokes.size());
+        draw(second, random, 20);
+
+        assertEquals(50, restore(new Autosave(mDir)).strokes.size());
+    }
+
+    public void testColdRestoreOfALargeDrawing() throws InterruptedException {
+        // each snapshot waits for the background thread in a copy of the drawing, so not too many
+        int strokes = 5 * SNAPSHOT_INTERVAL + SNAPSHOT_INTERVAL / 2;
+        Autosave autosave = new Autosave(mDir);
+        restore(autosave);
+        draw(autosave, new Random(3), strokes);
+
+        Autosave restoring = new Autosave(mDir);
+        Restored restored = restore(restoring);
+        File snapshot = new File(mDir, "snapshot");
+        Log.i("eSketch", "cold restore of " + strokes + " strokes: " + restoring.getRestoreMillis() + " ms, "
+                + restoring.getRestoredSteps() + " journal steps, " + restoring.getRestoredBytes() + " bytes ("
+                + snapshot.length() + " snapshot, " + journalBytes() + " journal)");
+
+        // just the steps since the last snapshot, and just those are still on disk
+        assertTrue(restored.snapshot);
+        assertEquals(SNAPSHOT_INTERVAL / 2, restored.strokes.size());
+        assertEquals(SNAPSHOT_INTERVAL / 2, restoring.getRestoredSteps());
+        assertEquals(snapshot.length() + journalBytes(), restoring.getRestoredBytes());
+
+        // and the journal is compact, 8 bytes a point as floats
+        long points = (long) SNAPSHOT_INTERVAL / 2 * POINTS;
+        assertTrue(journalBytes() + " journal bytes for " + points + " points", journalBytes() < points * 3);
+    }
+}
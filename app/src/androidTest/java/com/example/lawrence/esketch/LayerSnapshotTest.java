@@ -0,0 +1,71 @@
+package com.example.lawrence.esketch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.test.AndroidTestCase;
+
+/**
+ * checks that a layer drawn in one ink comes back from its mask as it was, and that the
+ * mask is a quarter of the size.
+ */
+public class LayerSnapshotTest extends AndroidTestCase {
+
+    private static final int WIDTH = 120;
+    private static final int HEIGHT = 80;
+
+    private final LayerSnapshot.Masker mMasker = new LayerSnapshot.Masker();
+
+    // anti-aliased lines and circles of color over background
+    private static Bitmap drawn(int background, int color) {
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(background);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(color);
+        paint.setStrokeWidth(7);
+        canvas.drawLine(5, 5, 110, 70, paint);
+        canvas.drawLine(10, 70, 100, 12, paint);
+        canvas.drawCircle(60, 40, 15, paint);
+        return bitmap;
+    }
+
+    private void assertComesBack(int background, int color) {
+        Bitmap layer = drawn(background, color);
+        int ink = LayerSnapshot.addInk(LayerSnapshot.NO_INK, color);
+        LayerSnapshot snapshot = LayerSnapshot.ofInk(layer, background, ink, mMasker);
+        assertTrue(snapshot.isMask());
+        assertEquals(layer.getByteCount() / 4, snapshot.getByteCount());
+
+        Bitmap back = snapshot.toBitmap(background);
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                int expected = layer.getPixel(x, y), actual = back.getPixel(x, y);
+                assertTrue(x + "," + y + " is " + Integer.toHexString(actual) + ", not " + Integer.toHexString(expected),
+                        Math.abs(Color.alpha(expected) - Color.alpha(actual)) <= 1
+                                && Math.abs(Color.red(expected) - Color.red(actual)) <= 1
+                                && Math.abs(Color.green(expected) - Color.green(actual)) <= 1
+                                && Math.abs(Color.blue(expected) - Color.blue(actual)) <= 1);
+            }
+        }
+    }
+
+    public void testMaskOnWhiteComesBack() {
+        assertComesBack(Color.WHITE, Color.rgb(30, 90, 200));
+    }
+
+    public void testMaskOnTransparentComesBack() {
+        assertComesBack(Color.TRANSPARENT, Color.rgb(200, 40, 40));
+    }
+
+    public void testTranslucentInkComesBack() {
+        assertComesBack(Color.WHITE, Color.argb(128, 0, 0, 0));
+    }
+
+    public void testInkIsMixedOnceColorsAre() {
+        int ink = LayerSnapshot.addInk(LayerSnapshot.NO_INK, Color.BLACK);
+        assertEquals(Color.BLACK, LayerSnapshot.addInk(ink, Color.argb(100, 0, 0, 0)));
+        assertEquals(LayerSnapshot.MIXED_INK, LayerSnapshot.addInk(ink, Color.RED));
+    }
+}
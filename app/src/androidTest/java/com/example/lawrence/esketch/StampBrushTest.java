@@ -0,0 +1,100 @@
+package com.example.lawrence.esketch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.test.AndroidTestCase;
+
+/**
+ * checks that stamped strokes look like stroked paths: hard ones like the same path,
+ * soft ones as soft across as a single tip, not built up to solid by overlapping stamps.
+ */
+public class StampBrushTest extends AndroidTestCase {
+
+    private static final int WIDTH = 200;
+    private static final int HEIGHT = 100;
+
+    private final StampBrush mBrush = new StampBrush(64 * 1024);
+
+    // black on white, so the red channel is 255 minus the coverage
+    private Bitmap stamped(Stroke stroke) {
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.WHITE);
+        mBrush.draw(new Canvas(bitmap), stroke);
+        return bitmap;
+    }
+
+    // the stroke as eSketchView strokes a hard one: its replayed path, anti-aliased, round
+    private static Bitmap stroked(Stroke stroke) {
+        final Path path = new Path();
+        StrokeBuilder.replay(stroke, new SegmentSink() {
+            @Override
+            public void moveTo(int pointer, float x, float y) {
+                path.moveTo(x, y);
+            }
+
+            @Override
+            public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+                path.quadTo(controlX, controlY, endX, endY);
+            }
+
+            @Override
+            public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                                float endX, float endY) {
+                path.cubicTo(control1X, control1Y, control2X, control2Y, endX, endY);
+            }
+        });
+
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        paint.setStrokeJoin(Paint.Join.ROUND);
+        paint.setStrokeWidth(stroke.getWidth());
+        paint.setColor(stroke.getColor());
+
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.WHITE);
+        new Canvas(bitmap).drawPath(path, paint);
+        return bitmap;
+    }
+
+    public void testHardStampsLookLikeThePath() {
+        Stroke stroke = new Stroke(Color.BLACK, 20, 1,
+                new float[]{20, 50, 60, 30, 100, 70, 140, 50, 180, 50}, 5, false);
+        Bitmap stamped = stamped(stroke);
+        Bitmap stroked = stroked(stroke);
+
+        // stamps are filtered at fractional positions, so the edge is a little blurrier,
+        // but the stroke is no wider or darker
+        long total = 0;
+        int worst = 0;
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                int difference = Math.abs(Color.red(stamped.getPixel(x, y)) - Color.red(stroked.getPixel(x, y)));
+                total += difference;
+                worst = Math.max(worst, difference);
+            }
+        }
+        assertTrue("worst pixel is " + worst + " off", worst <= 96);
+        assertTrue("pixels are " + (float) total / (WIDTH * HEIGHT) + " off on average",
+                total <= 2L * WIDTH * HEIGHT);
+    }
+
+    public void testSoftStrokesAreAsSoftAsOneTip() {
+        // hardness 0: a tip fades linearly from its center to its edge, 20px away
+        Stroke stroke = new Stroke(Color.BLACK, 40, 0, new float[]{20, 50, 100, 50, 180, 50}, 3, false);
+        Bitmap stamped = stamped(stroke);
+
+        // across the middle of the stroke it fades the same way. overlapping stamps
+        // blended over each other would be nearly black out to the edge.
+        for (int distance = 0; distance <= 15; distance += 5) {
+            int expected = Math.round(255 * distance / 20f);
+            int above = Color.red(stamped.getPixel(100, 50 - distance));
+            int below = Color.red(stamped.getPixel(100, 50 + distance));
+            assertTrue(distance + "px above is " + above + ", not " + expected, Math.abs(above - expected) <= 24);
+            assertTrue(distance + "px below is " + below + ", not " + expected, Math.abs(below - expected) <= 24);
+        }
+    }
+}
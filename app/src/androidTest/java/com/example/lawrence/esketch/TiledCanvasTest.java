@@ -0,0 +1,211 @@
+package com.example.lawrence.esketch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * measures the memory of the tiles of a typical drawing, checks the ink mask tiles
+ * look the same as drawing in full color, and that tiles on disk come back without
+ * draw() waiting for them.
+ */
+public class TiledCanvasTest extends AndroidTestCase {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int TILE_BYTES = TiledCanvas.TILE_SIZE * TiledCanvas.TILE_SIZE;
+
+    private TiledCanvas mTiles;
+    private Paint mPaint;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTiles = new TiledCanvas(getContext(), 256 * 1024 * 1024); // nothing goes to disk
+        mTiles.clear();
+        mPaint = new Paint();
+        mPaint.setAntiAlias(true);
+        mPaint.setStyle(Paint.Style.STROKE);
+        mPaint.setStrokeCap(Paint.Cap.ROUND);
+        mPaint.setStrokeWidth(5);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mTiles.clear();
+        super.tearDown();
+    }
+
+    // a sketch: strokes wandering over a phone sized part of the canvas
+    private void sketch(Random random, int strokes, float left, float top, float size) {
+        for (int s = 0; s < strokes; ++s) {
+            Path path = new Path();
+            float x = left + random.nextFloat() * size, y = top + random.nextFloat() * size;
+            path.moveTo(x, y);
+            for (int i = 0; i < 40; ++i) {
+                x = Math.max(left, Math.min(left + size, x + random.nextFloat() * 40 - 20));
+                y = Math.max(top, Math.min(top + size, y + random.nextFloat() * 40 - 20));
+                path.lineTo(x, y);
+            }
+            mTiles.drawPath(path, mPaint);
+        }
+    }
+
+    public void testOneColorTakesAQuarterOfTheMemory() {
+        Random random = new Random(1);
+        mPaint.setColor(Color.BLACK);
+        for (int i = 0; i < 12; ++i) {
+            sketch(random, 10, random.nextFloat() * WIDTH, random.nextFloat() * HEIGHT, 300);
+        }
+
+        int inked = mTiles.getInkedTileCount();
+        long fullColorBytes = (long) inked * TILE_BYTES * 4;
+        Log.i("eSketch", inked + " tiles: " + mTiles.getMemoryBytes() + " bytes, "
+                + fullColorBytes + " in full color");
+        assertTrue(inked > 0);
+        assertEquals(0, mTiles.getFullTileCount());
+        assertEquals(fullColorBytes / 4, mTiles.getMemoryBytes());
+    }
+
+    public void testOnlyTilesWhereColorsMixAreFullColor() {
+        Random random = new Random(2);
+        mPaint.setColor(Color.BLACK);
+        for (int i = 0; i < 12; ++i) {
+            sketch(random, 10, random.nextFloat() * WIDTH, random.nextFloat() * HEIGHT, 300);
+        }
+        // a few red strokes in one corner, over black ones
+        sketch(random, 10, 0, 0, 300);
+        mPaint.setColor(Color.RED);
+        sketch(random, 5, 0, 0, 300);
+
+        int inked = mTiles.getInkedTileCount();
+        int full = mTiles.getFullTileCount();
+        long fullColorBytes = (long) inked * TILE_BYTES * 4;
+        Log.i("eSketch", inked + " tiles, " + full + " full color: " + mTiles.getMemoryBytes()
+                + " bytes, " + fullColorBytes + " in full color");
+        assertTrue(full > 0 && full <= 4); // at most the tiles under the corner
+        assertEquals((long) full * TILE_BYTES * 4 + (long) (inked - full) * TILE_BYTES, mTiles.getMemoryBytes());
+        assertTrue(mTiles.getMemoryBytes() * 3 < fullColorBytes);
+    }
+
+    // the loads are handed back on the UI thread, so use the canvas there
+    private void onMainThread(final Runnable runnable) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                runnable.run();
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+    }
+
+    private static void assertSameColors(Bitmap expected, Bitmap actual) {
+        for (int y = 0; y < expected.getHeight(); ++y) {
+            for (int x = 0; x < expected.getWidth(); ++x) {
+                int a = expected.getPixel(x, y), b = actual.getPixel(x, y);
+                assertTrue("pixel " + x + "," + y + ": " + Integer.toHexString(a) + " " + Integer.toHexString(b),
+                        Math.abs(Color.red(a) - Color.red(b)) <= 3
+                                && Math.abs(Color.green(a) - Color.green(b)) <= 3
+                                && Math.abs(Color.blue(a) - Color.blue(b)) <= 3);
+            }
+        }
+    }
+
+    public void testTilesOnDiskLoadInTheBackground() throws InterruptedException {
+        // room for the 9 tiles a 512 px view can touch, not for the 36 the paths cover
+        final TiledCanvas tiles = new TiledCanvas(getContext(), 12 * TILE_BYTES);
+        final Bitmap expected = Bitmap.createBitmap(512, 512, Bitmap.Config.ARGB_8888);
+        final Bitmap actual = Bitmap.createBitmap(512, 512, Bitmap.Config.ARGB_8888);
+        final int[] loading = new int[1];
+        try {
+            onMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    tiles.clear();
+                    expected.eraseColor(Color.WHITE);
+                    Canvas canvas = new Canvas(expected);
+                    mPaint.setColor(Color.BLACK);
+                    for (int i = 0; i < 5; ++i) {
+                        Path path = new Path();
+                        path.moveTo(0, i * 256 + 100);
+                        path.lineTo(5 * 256, i * 256 + 30);
+                        path.lineTo(i * 256 + 50, 5 * 256);
+                        canvas.drawPath(path, mPaint);
+                        tiles.drawPath(path, mPaint);
+                    }
+
+                    // the top left tiles were the first to go to disk
+                    actual.eraseColor(Color.WHITE);
+                    tiles.draw(new Canvas(actual), 0, 0, 1, 512, 512, new Paint());
+                    loading[0] = tiles.getLoadingTileCount();
+                }
+            });
+            assertTrue("nothing to load", loading[0] > 0);
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (loading[0] > 0) {
+                assertTrue("timed out", System.nanoTime() < deadline);
+                Thread.sleep(10);
+                onMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        loading[0] = tiles.getLoadingTileCount();
+                    }
+                });
+            }
+
+            onMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    actual.eraseColor(Color.WHITE);
+                    tiles.draw(new Canvas(actual), 0, 0, 1, 512, 512, new Paint());
+                    loading[0] = tiles.getLoadingTileCount();
+                }
+            });
+            assertEquals(0, loading[0]);
+            assertSameColors(expected, actual);
+        } finally {
+            onMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    tiles.clear();
+                }
+            });
+        }
+    }
+
+    public void testMasksLookLikeFullColor() {
+        Bitmap expected = Bitmap.createBitmap(512, 512, Bitmap.Config.ARGB_8888);
+        expected.eraseColor(Color.WHITE);
+        Canvas canvas = new Canvas(expected);
+        mPaint.setStrokeWidth(20);
+
+        // translucent ink in a mask tile, and a second color that makes a tile full color
+        int[] colors = {0x80336699, Color.BLACK, 0xC0FF8000};
+        for (int i = 0; i < colors.length; ++i) {
+            mPaint.setColor(colors[i]);
+            Path path = new Path();
+            path.moveTo(20 + i * 100, 20);
+            path.quadTo(250, 400, 200 + i * 100, 480);
+            canvas.drawPath(path, mPaint);
+            mTiles.drawPath(path, mPaint);
+        }
+
+        Bitmap actual = Bitmap.createBitmap(512, 512, Bitmap.Config.ARGB_8888);
+        actual.eraseColor(Color.WHITE);
+        mTiles.draw(new Canvas(actual), 0, 0, 1, 512, 512, new Paint());
+        assertSameColors(expected, actual);
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.lawrence.esketch;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.view.MotionEvent;
+
+/**
+ * checks that drawing with the fingers doesn't allocate (and so doesn't cause GC pauses),
+ * and that a cancelled gesture ends its strokes.
+ */
+public class eSketchViewTest extends AndroidTestCase {
+
+    private static final int POINTERS = 3;
+    private static final int MOVES = 500;
+
+    private eSketchView mView;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mView = new eSketchView(getContext(), null);
+        mView.layout(0, 0, 800, 800); // creates the bitmap through onSizeChanged()
+    }
+
+    // build a MotionEvent with POINTERS fingers at the given offset
+    private static MotionEvent obtain(long downTime, int action, float offset) {
+        MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[POINTERS];
+        MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[POINTERS];
+        for (int i = 0; i < POINTERS; ++i) {
+            properties[i] = new MotionEvent.PointerProperties();
+            properties[i].id = i;
+            properties[i].toolType = MotionEvent.TOOL_TYPE_FINGER;
+            coords[i] = new MotionEvent.PointerCoords();
+            coords[i].x = 100 + i * 200 + offset;
+            coords[i].y = 100 + offset % 500;
+        }
+        return MotionEvent.obtain(downTime, SystemClock.uptimeMillis(), action,
+                POINTERS, properties, coords, 0, 0, 1, 1, 0, 0, 0, 0);
+    }
+
+    public void testMoveDoesNotAllocate() {
+        long downTime = SystemClock.uptimeMillis();
+
+        // create the events up front, they are not what we are measuring
+        MotionEvent down = obtain(downTime, MotionEvent.ACTION_DOWN, 0);
+        MotionEvent[] moves = new MotionEvent[MOVES];
+        for (int i = 0; i < MOVES; ++i) {
+            moves[i] = obtain(downTime, MotionEvent.ACTION_MOVE, 1 + i * 7);
+        }
+
+        // start the strokes (this may create the Paths) and warm up
+        mView.onTouchEvent(down);
+        for (int i = 1; i < POINTERS; ++i) {
+            MotionEvent pointerDown = obtain(downTime,
+                    MotionEvent.ACTION_POINTER_DOWN | (i << MotionEvent.ACTION_POINTER_INDEX_SHIFT), 0);
+            mView.onTouchEvent(pointerDown);
+            pointerDown.recycle();
+        }
+        for (int i = 0; i < 10; ++i) {
+            mView.onTouchEvent(moves[i]);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 10; i < MOVES; ++i) {
+            mView.onTouchEvent(moves[i]);
+        }
+        Debug.stopAllocCounting();
+
+        assertEquals("allocations during MOVE events", 0, Debug.getThreadAllocCount());
+
+        down.recycle();
+        for (MotionEvent move : moves) {
+            move.recycle();
+        }
+    }
+
+    public void testCancelEndsTheStrokes() {
+        long downTime = SystemClock.uptimeMillis();
+        MotionEvent down = obtain(downTime, MotionEvent.ACTION_DOWN, 0);
+        MotionEvent pointerDown = obtain(downTime,
+                MotionEvent.ACTION_POINTER_DOWN | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), 0);
+        MotionEvent move = obtain(downTime, MotionEvent.ACTION_MOVE, 50);
+        MotionEvent cancel = obtain(downTime, MotionEvent.ACTION_CANCEL, 50);
+        mView.onTouchEvent(down);
+        mView.onTouchEvent(pointerDown);
+        mView.onTouchEvent(move);
+        mView.onTouchEvent(cancel);
+
+        // both fingers' strokes were kept, and nothing is still drawing
+        assertTrue("undo after a cancel", mView.undo());
+        assertTrue("undo the other finger's stroke", mView.undo());
+        assertFalse(mView.undo());
+        assertTrue(mView.redo());
+
+        down.recycle();
+        pointerDown.recycle();
+        move.recycle();
+        cancel.recycle();
+    }
+}
@@ -0,0 +1,658 @@
+package com.example.lawrence.esketch;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * keeps the drawing in app-private storage so it survives rotation and process death.
+ *
+ * Every stroke, undo and redo is appended to a journal, in the compact StrokeEncoder
+ * format (undo and redo are marks in it). Every SNAPSHOT_INTERVAL steps the drawing is
+ * also saved as a compressed snapshot, and the journal starts over in a new file: the
+ * snapshot names the first journal file after it, and the older files are deleted once
+ * it's on disk. Restoring loads the snapshot and replays only the journal after it, so
+ * it costs about the same however big the drawing is, and so does the storage.
+ *
+ * A snapshot has every layer (each one's image as a PNG, whether it's the background,
+ * visible, and its opacity) and which one is drawn on, so the drawing comes back as it
+ * was, not flattened. The steps are only of the active layer.
+ *
+ * Steps are collected in memory on the UI thread and written in batches on a background
+ * thread. sync() writes them right away and fsyncs the journal, call it from onPause().
+ * All the public methods must be called on the UI thread.
+ */
+public class Autosave {
+
+    private static final String TAG = "eSketch";
+
+    private static final int SNAPSHOT_INTERVAL = 100;  // journal steps between snapshots
+    private static final long FLUSH_DELAY = 2000;      // ms a step may wait in memory
+    private static final int MAX_BUFFERED = 64 * 1024; // bytes that may wait in memory
+
+    private static final int SNAPSHOT_MAGIC = 0x65536B33; // "eSk3"
+    private static final int FLAT_SNAPSHOT_MAGIC = 0x65536B32; // "eSk2", one picture, from before layers
+    private static final int LAYER_BACKGROUND = 1; // flags of a layer in a snapshot
+    private static final int LAYER_VISIBLE = 2;
+    private static final String JOURNAL_PREFIX = "journal.";
+
+    // journal marks, and the steps load() finds
+    private static final int MARK_UNDO = 0;
+    private static final int MARK_REDO = 1;
+    private static final byte OP_STROKE = 1;
+    private static final byte OP_UNDO = 2;
+    private static final byte OP_REDO = 3;
+
+    /**
+     * gets the saved drawing back, on the UI thread, in this order: the snapshot (if any),
+     * then each step of the journal after it, then onRestoreFinished().
+     */
+    public interface Target {
+        // the images are the target's now
+        void onRestoreSnapshot(Snapshot snapshot);
+
+        void onRestoreStroke(Stroke stroke);
+
+        void onRestoreUndo();
+
+        void onRestoreRedo();
+
+        void onRestoreFinished();
+    }
+
+    /**
+     * makes what a snapshot saves, when the drawing is more than the bitmap the steps are
+     * drawn on (e.g. layers).
+     */
+    public interface LayerSource {
+        // copies of the layers as they are now, the autosave recycles the images
+        Snapshot snapshot();
+    }
+
+    /**
+     * the layers of a drawing, bottom first, and the index of the one that is drawn on.
+     */
+    public static class Snapshot {
+        public final List<Layer> layers = new ArrayList<>();
+        public final int active;
+
+        public Snapshot(int active) {
+            this.active = active;
+        }
+    }
+
+    /**
+     * a layer of a snapshot. the images of a snapshot are all the same size, a layer that
+     * was never drawn on has none.
+     */
+    public static class Layer {
+        public final Bitmap image;
+        public final boolean background;
+        public final boolean visible;
+        public final int opacity; // 0-255
+
+        public Layer(Bitmap image, boolean background, boolean visible, int opacity) {
+            this.image = image;
+            this.background = background;
+            this.visible = visible;
+            this.opacity = opacity;
+        }
+    }
+
+    // one thread for all instances, so a new view's restore runs after the old view's writes
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    private final File mDir;
+    private final File mSnapshotFile;
+    private final File mSnapshotTempFile;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // steps waiting to be written (UI thread). the encoder starts a new journal file after
+    // each snapshot, its header goes first.
+    private final ByteArrayOutputStream mBuffer = new ByteArrayOutputStream();
+    private StrokeEncoder mEncoder;
+    private boolean mFlushScheduled;
+
+    // what the journal after the last snapshot can replay (UI thread). an undo or redo
+    // that reaches past it needs a new snapshot, or restoring couldn't repeat it.
+    private int mStepsSinceSnapshot;
+    private int mUndoable; // strokes after the snapshot that are drawn
+    private int mRedoable; // strokes after the snapshot that were undone
+    private LayerSource mLayers;
+
+    // what the last restore() did (UI thread)
+    private int mRestoredSteps;
+    private long mRestoredBytes;
+    private long mRestoreMillis;
+
+    // the journal file being written, -1 until load() or the first write looks (background thread)
+    private int mJournalNumber = -1;
+    private FileOutputStream mJournal;
+
+    public Autosave(Context context) {
+        this(new File(context.getFilesDir(), "autosave"));
+    }
+
+    // keep the drawing in dir, which nothing else may use
+    public Autosave(File dir) {
+        mDir = dir;
+        mSnapshotFile = new File(dir, "snapshot");
+        mSnapshotTempFile = new File(dir, "snapshot.tmp");
+        startJournal();
+    }
+
+    // snapshot the layers source gives instead of the bitmaps passed in (null to go back)
+    public void setLayerSource(LayerSource layers) {
+        mLayers = layers;
+    }
+
+    // load the saved drawing into target. has to be called before anything is recorded.
+    public void restore(final Target target) {
+        final long start = SystemClock.elapsedRealtime();
+
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Restored restored = load();
+                final long loaded = SystemClock.elapsedRealtime();
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mRestoredSteps = restored.ops.length;
+                        mRestoredBytes = restored.bytesRead;
+                        apply(restored, target, start);
+                        long applied = SystemClock.elapsedRealtime();
+                        Log.i(TAG, "autosave restore: " + restored.ops.length + " journal steps, "
+                                + restored.bytesRead + " bytes read, load " + (loaded - start)
+                                + " ms, replay " + (applied - loaded) + " ms");
+                    }
+                });
+            }
+        });
+    }
+
+    // how many journal steps the last restore replayed after the snapshot
+    public int getRestoredSteps() {
+        return mRestoredSteps;
+    }
+
+    // how many bytes of snapshot and journal the last restore read
+    public long getRestoredBytes() {
+        return mRestoredBytes;
+    }
+
+    // how long the last restore took, from restore() until target had everything
+    public long getRestoreMillis() {
+        return mRestoreMillis;
+    }
+
+    // record a stroke that was just added to the drawing
+    public void stroke(Stroke stroke, Bitmap drawing) {
+        strokes(Collections.singletonList(stroke), drawing);
+    }
+
+    // record strokes that were just added to the drawing together. a snapshot is only
+    // taken after the last one, the drawing has all of them.
+    public void strokes(List<Stroke> strokes, Bitmap drawing) {
+        if (strokes.isEmpty()) return;
+        try {
+            for (Stroke stroke : strokes) {
+                mEncoder.write(stroke);
+            }
+            mEncoder.flush(); // into mBuffer
+        } catch (IOException e) {
+            throw new AssertionError(e); // writes to memory don't fail
+        }
+        mUndoable += strokes.size();
+        mRedoable = 0;
+        stepsAdded(drawing, strokes.size(), false);
+    }
+
+    // record an undo that was just done on the drawing
+    public void undo(Bitmap drawing) {
+        boolean replayable = mUndoable > 0;
+        if (replayable) {
+            --mUndoable;
+            ++mRedoable;
+            mark(MARK_UNDO);
+        }
+        stepAdded(drawing, !replayable);
+    }
+
+    // record a redo that was just done on the drawing
+    public void redo(Bitmap drawing) {
+        boolean replayable = mRedoable > 0;
+        if (replayable) {
+            --mRedoable;
+            ++mUndoable;
+            mark(MARK_REDO);
+        }
+        stepAdded(drawing, !replayable);
+    }
+
+    // record that strokes were erased from the drawing. the journal can't replay that
+    // (it only knows strokes, undo and redo), so the drawing is saved as a snapshot.
+    public void erase(Bitmap drawing) {
+        stepAdded(drawing, true);
+    }
+
+    // record a bucket fill. the journal can't replay that either, so the filled drawing
+    // is saved as a snapshot.
+    public void fill(Bitmap drawing) {
+        stepAdded(drawing, true);
+    }
+
+    // record that the layers changed (added, removed, moved, hidden, faded, or another one
+    // is drawn on). only the snapshot has them, so one is taken.
+    public void layersChanged(Bitmap drawing) {
+        stepAdded(drawing, true);
+    }
+
+    // the drawing was erased, forget everything saved
+    public void clear() {
+        if (mFlushScheduled) {
+            mMainHandler.removeCallbacks(flushRunnable);
+            mFlushScheduled = false;
+        }
+        mStepsSinceSnapshot = 0;
+        mUndoable = 0;
+        mRedoable = 0;
+        startJournal();
+
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                nextJournal();
+                mSnapshotFile.delete();
+                deleteJournalsBefore(mJournalNumber);
+            }
+        });
+    }
+
+    // write everything recorded so far and make sure it reached the disk
+    public void sync() {
+        flush();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mJournal != null) mJournal.getFD().sync();
+                } catch (IOException e) {
+                    Log.e(TAG, "autosave sync failed", e);
+                }
+            }
+        });
+    }
+
+    // forget what's buffered and start a new journal file in the buffer
+    private void startJournal() {
+        mBuffer.reset();
+        try {
+            mEncoder = new StrokeEncoder(mBuffer);
+            mEncoder.flush();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void mark(int mark) {
+        try {
+            mEncoder.mark(mark);
+            mEncoder.flush();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void stepAdded(Bitmap drawing, boolean needsSnapshot) {
+        stepsAdded(drawing, 1, needsSnapshot);
+    }
+
+    private void stepsAdded(Bitmap drawing, int count, boolean needsSnapshot) {
+        mStepsSinceSnapshot += count;
+        if (needsSnapshot || mStepsSinceSnapshot >= SNAPSHOT_INTERVAL) {
+            snapshot(drawing);
+        } else if (mBuffer.size() >= MAX_BUFFERED) {
+            flush();
+        } else if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mMainHandler.postDelayed(flushRunnable, FLUSH_DELAY);
+        }
+    }
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // hand the buffered steps to the background thread
+    private void flush() {
+        if (mFlushScheduled) {
+            mMainHandler.removeCallbacks(flushRunnable);
+            mFlushScheduled = false;
+        }
+        if (mBuffer.size() == 0) return;
+
+        final byte[] steps = mBuffer.toByteArray();
+        mBuffer.reset();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    openJournal();
+                    mJournal.write(steps);
+                } catch (IOException e) {
+                    Log.e(TAG, "autosave write failed", e);
+                }
+            }
+        });
+    }
+
+    // save the drawing as it is now, the journal before this point isn't needed to restore
+    private void snapshot(Bitmap drawing) {
+        flush();
+        mStepsSinceSnapshot = 0;
+        mUndoable = 0;
+        mRedoable = 0;
+        startJournal(); // the steps after the snapshot go into the next file
+
+        // compressing takes a while, so give the background thread its own copies
+        final Snapshot snapshot;
+        if (mLayers != null) {
+            snapshot = mLayers.snapshot();
+        } else {
+            snapshot = new Snapshot(0);
+            snapshot.layers.add(new Layer(drawing.copy(Bitmap.Config.ARGB_8888, false), true, true, 255));
+        }
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    nextJournal();
+                    writeSnapshot(snapshot, mJournalNumber);
+                    deleteJournalsBefore(mJournalNumber); // all in the snapshot now
+                } catch (IOException e) {
+                    // the old snapshot and all the journal files after it are still there
+                    Log.e(TAG, "autosave snapshot failed", e);
+                } finally {
+                    recycle(snapshot);
+                }
+            }
+        });
+    }
+
+    private static void recycle(Snapshot snapshot) {
+        for (Layer layer : snapshot.layers) {
+            if (layer.image != null) layer.image.recycle();
+        }
+    }
+
+    // ---- background thread ----
+
+    private File journalFile(int number) {
+        return new File(mDir, JOURNAL_PREFIX + number);
+    }
+
+    // the numbers of the journal files there are, in order
+    private int[] journalNumbers() {
+        String[] names = mDir.list();
+        if (names == null) return new int[0];
+
+        int[] numbers = new int[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (!name.startsWith(JOURNAL_PREFIX)) continue;
+            try {
+                numbers[count++] = Integer.parseInt(name.substring(JOURNAL_PREFIX.length()));
+            } catch (NumberFormatException e) {
+                // not one of ours
+            }
+        }
+        numbers = Arrays.copyOf(numbers, count);
+        Arrays.sort(numbers);
+        return numbers;
+    }
+
+    // append to a new journal file from now on, after all the ones there are
+    private void nextJournal() {
+        closeJournal();
+        if (mJournalNumber < 0) {
+            int[] numbers = journalNumbers();
+            mJournalNumber = numbers.length == 0 ? 0 : numbers[numbers.length - 1];
+        }
+        ++mJournalNumber;
+    }
+
+    private void openJournal() throws IOException {
+        if (mJournal != null) return;
+        if (mJournalNumber < 0) nextJournal();
+
+        mDir.mkdirs();
+        mJournal = new FileOutputStream(journalFile(mJournalNumber), true);
+    }
+
+    private void closeJournal() {
+        if (mJournal == null) return;
+        try {
+            mJournal.close();
+        } catch (IOException e) {
+            Log.e(TAG, "autosave close failed", e);
+        }
+        mJournal = null;
+    }
+
+    private void deleteJournalsBefore(int number) {
+        for (int old : journalNumbers()) {
+            if (old < number) journalFile(old).delete();
+        }
+    }
+
+    // write the snapshot next to the old one and swap them, so a crash leaves one of them
+    // whole. the journal files before the first one it names are only deleted after that.
+    // each layer's PNG goes after its length, since decoding one may read past its end.
+    private void writeSnapshot(Snapshot snapshot, int firstJournal) throws IOException {
+        mDir.mkdirs();
+        FileOutputStream file = new FileOutputStream(mSnapshotTempFile);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(firstJournal); // the steps after the snapshot start in this file
+            out.writeInt(snapshot.layers.size());
+            out.writeInt(snapshot.active);
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            for (Layer layer : snapshot.layers) {
+                out.writeByte((layer.background ? LAYER_BACKGROUND : 0) | (layer.visible ? LAYER_VISIBLE : 0));
+                out.writeByte(layer.opacity);
+                png.reset();
+                if (layer.image != null) layer.image.compress(Bitmap.CompressFormat.PNG, 100, png);
+                out.writeInt(png.size()); // 0 without an image
+                png.writeTo(out);
+            }
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        if (!mSnapshotTempFile.renameTo(mSnapshotFile)) {
+            throw new IOException("could not replace " + mSnapshotFile);
+        }
+    }
+
+    // what load() found on disk
+    private static class Restored {
+        Snapshot snapshot;
+        byte[] ops = new byte[0];
+        final List<Stroke> strokes = new ArrayList<>();
+        long bytesRead;
+    }
+
+    // read the snapshot and the journal files after it, and start a new journal file for
+    // what's recorded from now on. a half written step at the end of a file (the app died
+    // while writing it) is left out.
+    private Restored load() {
+        Restored restored = new Restored();
+        int firstJournal = 0;
+
+        if (mSnapshotFile.exists()) {
+            try {
+                DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(mSnapshotFile)));
+                try {
+                    int magic = in.readInt();
+                    if (magic == SNAPSHOT_MAGIC) {
+                        firstJournal = in.readInt();
+                        restored.snapshot = readLayers(in);
+                    } else if (magic == FLAT_SNAPSHOT_MAGIC) {
+                        firstJournal = in.readInt();
+                        restored.snapshot = new Snapshot(0);
+                        restored.snapshot.layers.add(new Layer(BitmapFactory.decodeStream(in), true, true, 255));
+                    }
+                } finally {
+                    in.close();
+                }
+                restored.bytesRead += mSnapshotFile.length();
+            } catch (IOException e) {
+                Log.e(TAG, "autosave snapshot unreadable", e);
+                firstJournal = 0;
+            }
+        }
+
+        // files before the snapshot's are left over from a crash right after it was written
+        deleteJournalsBefore(firstJournal);
+
+        ByteArrayOutputStream ops = new ByteArrayOutputStream();
+        for (int number : journalNumbers()) {
+            File journal = journalFile(number);
+            try {
+                InputStream in = new BufferedInputStream(new FileInputStream(journal));
+                try {
+                    readJournal(new StrokeDecoder(in), ops, restored.strokes);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "autosave journal " + journal + " unreadable", e);
+            }
+            restored.bytesRead += journal.length();
+        }
+        restored.ops = ops.toByteArray();
+
+        // the encoder starts over, and so does its file: after the others and the snapshot's
+        int[] numbers = journalNumbers();
+        mJournalNumber = Math.max(firstJournal, numbers.length == 0 ? 0 : numbers[numbers.length - 1]);
+        nextJournal();
+        return restored;
+    }
+
+    // read the layers of a snapshot, after its header
+    private static Snapshot readLayers(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Snapshot snapshot = new Snapshot(in.readInt());
+        try {
+            for (int i = 0; i < count; ++i) {
+                int flags = in.readUnsignedByte();
+                int opacity = in.readUnsignedByte();
+                int length = in.readInt();
+                if (length < 0) throw new IOException("layer " + i + " is " + length + " bytes");
+                byte[] png = new byte[length];
+                in.readFully(png);
+                Bitmap image = null;
+                if (png.length > 0) {
+                    image = BitmapFactory.decodeByteArray(png, 0, png.length);
+                    if (image == null) throw new IOException("layer " + i + " isn't a picture");
+                }
+                snapshot.layers.add(new Layer(image, (flags & LAYER_BACKGROUND) != 0,
+                        (flags & LAYER_VISIBLE) != 0, opacity));
+            }
+        } catch (IOException e) {
+            recycle(snapshot);
+            throw e;
+        }
+        if (count < 1 || snapshot.active < 0 || snapshot.active >= count) {
+            recycle(snapshot);
+            throw new IOException("no layer " + snapshot.active + " of " + count);
+        }
+        return snapshot;
+    }
+
+    // read journal steps until the end of the file
+    private static void readJournal(StrokeDecoder decoder, ByteArrayOutputStream ops,
+                                    List<Stroke> strokes) throws IOException {
+        try {
+            while (true) {
+                Stroke stroke = decoder.readRecord();
+                if (stroke != null) {
+                    strokes.add(stroke);
+                    ops.write(OP_STROKE);
+                } else if (decoder.getMark() == MARK_UNDO) {
+                    ops.write(OP_UNDO);
+                } else if (decoder.getMark() == MARK_REDO) {
+                    ops.write(OP_REDO);
+                } else {
+                    break; // zeroes or garbage where a crash cut the file off
+                }
+            }
+        } catch (EOFException e) {
+            // end of the file, or a step cut short by a crash
+        }
+    }
+
+    // ---- UI thread ----
+
+    private void apply(Restored restored, Target target, long start) {
+        mUndoable = 0;
+        mRedoable = 0;
+        if (restored.snapshot != null) {
+            target.onRestoreSnapshot(restored.snapshot);
+        }
+
+        int stroke = 0;
+        for (byte op : restored.ops) {
+            switch (op) {
+                case OP_STROKE:
+                    target.onRestoreStroke(restored.strokes.get(stroke++));
+                    ++mUndoable;
+                    mRedoable = 0;
+                    break;
+                case OP_UNDO:
+                    target.onRestoreUndo();
+                    --mUndoable;
+                    ++mRedoable;
+                    break;
+                case OP_REDO:
+                    target.onRestoreRedo();
+                    --mRedoable;
+                    ++mUndoable;
+                    break;
+            }
+        }
+        mStepsSinceSnapshot = restored.ops.length;
+        mRestoreMillis = SystemClock.elapsedRealtime() - start;
+        target.onRestoreFinished();
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.lawrence.esketch;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * keeps a few unused ARGB_8888 bitmaps so they can be used again instead of allocating
+ * new multi-megabyte ones (and fragmenting the heap) every time.
+ */
+public class BitmapPool {
+
+    private final long mMaxBytes;
+    private final List<Bitmap> mBitmaps = new ArrayList<>();
+    private long mBytes;
+
+    // keep at most maxBytes of unused bitmaps
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    // return a mutable bitmap of the given size. its pixels are left over from its last use.
+    public Bitmap obtain(int width, int height) {
+        for (int i = mBitmaps.size() - 1; i >= 0; --i) {
+            Bitmap bitmap = mBitmaps.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                mBitmaps.remove(i);
+                mBytes -= bitmap.getByteCount();
+                return bitmap;
+            }
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    // give back a bitmap that isn't used anymore
+    public void release(Bitmap bitmap) {
+        if (bitmap.isRecycled()) return;
+
+        if (bitmap.isMutable() && bitmap.getConfig() == Bitmap.Config.ARGB_8888
+                && mBytes + bitmap.getByteCount() <= mMaxBytes) {
+            mBitmaps.add(bitmap);
+            mBytes += bitmap.getByteCount();
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    // free all the kept bitmaps
+    public void clear() {
+        for (Bitmap bitmap : mBitmaps) {
+            bitmap.recycle();
+        }
+        mBitmaps.clear();
+        mBytes = 0;
+    }
+}
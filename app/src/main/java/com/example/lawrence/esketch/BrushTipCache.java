@@ -0,0 +1,74 @@
+package com.example.lawrence.esketch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RadialGradient;
+import android.graphics.Shader;
+import android.util.LruCache;
+
+/**
+ * pre-rasterized brush tips, the most recently used ones kept up to a number of bytes.
+ *
+ * A tip is how much an anti-aliased disc as wide as the brush covers each pixel, as an
+ * opaque gray: white out to hardness times its radius, fading to black at the edge from
+ * there (see StampBrush for why it's not in the brush's color). The bitmap has a pixel
+ * of black around the disc, so filtering it at fractional positions doesn't cut the edge
+ * off. Tips are keyed by width (rounded to 1/4 px) and hardness (to 1/255), so drawing
+ * with the same brush again doesn't rasterize anything.
+ * Evicted tips aren't recycled, a stroke may still be stamping with one.
+ */
+public class BrushTipCache {
+
+    private final LruCache<Long, Bitmap> mTips;
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    public BrushTipCache(int maxBytes) {
+        mTips = new LruCache<Long, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap tip) {
+                return tip.getByteCount();
+            }
+        };
+    }
+
+    // return the tip for a brush, rasterizing it if it isn't cached
+    public Bitmap get(float width, float hardness) {
+        int quarters = Math.max(1, Math.round(width * 4));
+        int hard = Math.round(Math.max(0, Math.min(1, hardness)) * 255);
+        long key = (long) quarters << 8 | hard;
+
+        Bitmap tip = mTips.get(key);
+        if (tip == null) {
+            tip = createTip(quarters / 4f, hard / 255f);
+            mTips.put(key, tip);
+        }
+        return tip;
+    }
+
+    // forget all the tips
+    public void clear() {
+        mTips.evictAll();
+    }
+
+    private Bitmap createTip(float width, float hardness) {
+        int size = (int) Math.ceil(width) + 2;
+        Bitmap tip = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        tip.eraseColor(Color.BLACK);
+        float center = size / 2f;
+        float radius = width / 2;
+
+        // a white disc fading to transparent, over black
+        mPaint.setColor(Color.WHITE);
+        if (hardness < 1) {
+            mPaint.setShader(new RadialGradient(center, center, radius,
+                    new int[]{Color.WHITE, Color.WHITE, 0x00FFFFFF},
+                    new float[]{0, hardness, 1}, Shader.TileMode.CLAMP));
+        } else {
+            mPaint.setShader(null);
+        }
+        new Canvas(tip).drawCircle(center, center, radius, mPaint);
+        return tip;
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.lawrence.esketch;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.v4.app.DialogFragment;
+import android.view.View;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.TextView;
+
+/**
+ * This is the dialog to host a shared drawing, join one at another device's address,
+ * or leave it.
+ */
+public class CollaborateDialogFragment extends DialogFragment {
+
+    private eSketchView mSketchView;
+    private EditText mHostEditText;
+
+    // create AlertDialog and return it
+    @NonNull
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        View collaborateDialogView = getActivity()
+                .getLayoutInflater().inflate(R.layout.fragment_collaborate, null);
+        builder.setView(collaborateDialogView); // add GUI to dialog
+        builder.setTitle(R.string.title_collaborate_dialog);
+
+        mSketchView = getSketchFragment().getSketchView();
+        mHostEditText = (EditText) collaborateDialogView.findViewById(R.id.hostEditText);
+        TextView sessionTextView = (TextView) collaborateDialogView.findViewById(R.id.sessionTextView);
+        Button hostButton = (Button) collaborateDialogView.findViewById(R.id.hostButton);
+        Button joinButton = (Button) collaborateDialogView.findViewById(R.id.joinButton);
+        Button leaveButton = (Button) collaborateDialogView.findViewById(R.id.leaveButton);
+
+        // what the others need to join this device
+        String address = Collaboration.getLocalAddress();
+        if (mSketchView.isHostingSession()) {
+            sessionTextView.setText(getString(R.string.label_hosting, address));
+        } else if (mSketchView.isInSession()) {
+            sessionTextView.setText(R.string.label_joined);
+        } else if (address != null) {
+            sessionTextView.setText(getString(R.string.label_drawing_alone, address));
+        } else {
+            sessionTextView.setText(R.string.label_no_network);
+        }
+        boolean alone = !mSketchView.isInSession();
+        mHostEditText.setEnabled(alone);
+        hostButton.setEnabled(alone && address != null);
+        joinButton.setEnabled(alone);
+        leaveButton.setEnabled(!alone);
+
+        hostButton.setOnClickListener(buttonListener);
+        joinButton.setOnClickListener(buttonListener);
+        leaveButton.setOnClickListener(buttonListener);
+
+        builder.setPositiveButton(R.string.button_close, null);
+        return builder.create();
+    }
+
+    // helper to get ref to MainActivityFragment
+    private MainActivityFragment getSketchFragment(){
+        return (MainActivityFragment) getFragmentManager().findFragmentById(R.id.esketchFragment);
+    }
+
+    // tell MainActivityFragment that dialog is now displayed
+    @Override
+    public void onAttach(Activity activity) {
+        super.onAttach(activity);
+
+        MainActivityFragment fragment = getSketchFragment();
+        if( fragment != null )  fragment.setDialogOnScreen(true);
+    }
+
+    // tell MainActivityFragment that dialog is no longer displayed
+    @Override
+    public void onDetach() {
+        super.onDetach();
+
+        MainActivityFragment fragment = getSketchFragment();
+        if( fragment != null )  fragment.setDialogOnScreen(false);
+    }
+
+    // the fragment tells how joining goes, the dialog is done either way
+    private final View.OnClickListener buttonListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            switch (view.getId()) {
+                case R.id.hostButton:
+                    mSketchView.hostSession();
+                    break;
+                case R.id.joinButton:
+                    String host = mHostEditText.getText().toString().trim();
+                    if (host.isEmpty()) return;
+                    mSketchView.joinSession(host);
+                    break;
+                case R.id.leaveButton:
+                    mSketchView.leaveSession();
+                    break;
+                default:
+                    break;
+            }
+            dismiss();
+        }
+    };
+}
@@ -0,0 +1,174 @@
+package com.example.lawrence.esketch;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * connects to a SyncServer to draw together with other devices, or runs one for them.
+ *
+ * The host runs the server on PORT and joins it over the loopback address like everyone
+ * else, the others join with the host's address. What the server sends is handed to the
+ * listener on the UI thread. Batches from a connection that was left are dropped, so the
+ * listener only hears about the current one.
+ * All the public methods must be called on the UI thread.
+ */
+public class Collaboration {
+
+    public static final int PORT = 8765;
+
+    /**
+     * told on the UI thread what the server sends.
+     */
+    public interface OnSyncListener {
+        // joined a drawing, as peer
+        void onJoined(int peer);
+
+        // a batch from peer (maybe this one), in the server's order
+        void onBatch(int peer, byte[] batch);
+
+        // not drawing together anymore. error is null if leave() was called.
+        void onLeft(IOException error);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // at most one background thread for starting the server, which goes away when idle
+    private final Executor mExecutor = new ThreadPoolExecutor(
+            0, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>()
+    );
+
+    private OnSyncListener mListener;
+    private SyncServer mServer;
+    private SyncClient mClient;
+    private int mConnection; // counts connections, so late news from a left one is dropped
+
+    public void setOnSyncListener(OnSyncListener listener) {
+        mListener = listener;
+    }
+
+    // start a server here and join it
+    public void host() {
+        leave();
+        final int connection = mConnection;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final SyncServer server = new SyncServer(PORT, false);
+                    server.start();
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (connection != mConnection) {
+                                server.close(); // left before it started
+                                return;
+                            }
+                            mServer = server;
+                            connect("localhost");
+                        }
+                    });
+                } catch (IOException e) {
+                    left(connection, e);
+                }
+            }
+        });
+    }
+
+    // join the drawing of the device at host
+    public void join(String host) {
+        leave();
+        connect(host);
+    }
+
+    // return whether this device is drawing with others, or trying to
+    public boolean isConnected() {
+        return mClient != null;
+    }
+
+    public boolean isHosting() {
+        return mServer != null;
+    }
+
+    // send a batch of this peer's operations
+    public void send(byte[] batch) {
+        if (mClient != null) mClient.send(batch);
+    }
+
+    // stop drawing together, the server stops too if it's this one
+    public void leave() {
+        ++mConnection;
+        if (mClient != null) mClient.close();
+        mClient = null;
+        if (mServer != null) mServer.close();
+        mServer = null;
+    }
+
+    // the address other devices on the network can join this one at, null if there's none
+    public static String getLocalAddress() {
+        try {
+            for (NetworkInterface network : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (network.isLoopback() || !network.isUp()) continue;
+                for (InetAddress address : Collections.list(network.getInetAddresses())) {
+                    if (address instanceof Inet4Address) return address.getHostAddress();
+                }
+            }
+        } catch (SocketException e) {
+            // no network
+        }
+        return null;
+    }
+
+    private void connect(String host) {
+        final int connection = mConnection;
+        mClient = new SyncClient(new SyncClient.Listener() {
+            @Override
+            public void onJoined(final int peer) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (connection == mConnection && mListener != null) mListener.onJoined(peer);
+                    }
+                });
+            }
+
+            @Override
+            public void onBatch(final int peer, final byte[] batch) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (connection == mConnection && mListener != null) mListener.onBatch(peer, batch);
+                    }
+                });
+            }
+
+            @Override
+            public void onClosed(IOException e) {
+                left(connection, e);
+            }
+        });
+        mClient.connect(host, PORT);
+    }
+
+    // the connection went away by itself
+    private void left(final int connection, final IOException error) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (connection != mConnection) return; // left on purpose, or joined another
+                leave();
+                if (mListener != null) mListener.onLeft(error);
+            }
+        });
+    }
+}
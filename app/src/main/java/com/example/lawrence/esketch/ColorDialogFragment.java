@@ -49,8 +49,8 @@ public class ColorDialogFragment extends DialogFragment{
         mBlueSeekBar.setOnSeekBarChangeListener(colorChangedListener);
 
         // use current drawing color to set init seekbar vals
-        final eSketchView sketchView = getSketchFragment().getSketchView();
-        mColor = sketchView.getDrawingsColor();
+        final SketchSurface sketch = getSketchFragment().getSketchSurface();
+        mColor = sketch.getDrawingsColor();
         mAlphaSeekBar.setProgress(Color.alpha(mColor));
         mRedSeekBar.setProgress(Color.red(mColor));
         mGreenSeekBar.setProgress(Color.green(mColor));
@@ -62,7 +62,7 @@ public class ColorDialogFragment extends DialogFragment{
                 new DialogInterface.OnClickListener() {
                     @Override
                     public void onClick(DialogInterface dialogInterface, int i) {
-                        sketchView.setDrawingColor(mColor);
+                        sketch.setDrawingColor(mColor);
                     }
                 }
         );
@@ -22,7 +22,7 @@ public class EraseImageDialogFragment extends DialogFragment {
         builder.setPositiveButton(R.string.button_erase,
                 new DialogInterface.OnClickListener() {
                     public void onClick(DialogInterface dialog, int id) {
-                        getSketchFragment().getSketchView().clear(); // clear image
+                        getSketchFragment().getSketchSurface().clear(); // clear image
                     }
                 }
         );
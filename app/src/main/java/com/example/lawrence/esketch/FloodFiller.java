@@ -0,0 +1,120 @@
+package com.example.lawrence.esketch;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * bucket fills a bitmap with FloodFill on a background thread.
+ *
+ * The bitmap's pixels are copied into an int[] in one getPixels() call, filled there, and
+ * only the box around what changed is copied back with setPixels(). The pixel array and
+ * the fill's bit set are as big as the bitmap, so they're let go once a fill is done
+ * rather than held between fills, which are seconds apart. While a fill runs the
+ * listener is told how many pixels it filled every PROGRESS_MILLIS. One fill at a time;
+ * the bitmap must not be drawn on until the listener is told it's finished.
+ * All the public methods must be called on the UI thread.
+ */
+public class FloodFiller {
+
+    private static final long PROGRESS_MILLIS = 50;
+
+    /**
+     * told on the UI thread how a fill goes.
+     */
+    public interface OnFillListener {
+        void onFillProgress(long filledPixels);
+
+        // changed is the part of the bitmap that was filled, null if nothing was (or it was cancelled)
+        void onFillFinished(Rect changed);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // at most one background thread, which goes away when idle
+    private final Executor mExecutor = new ThreadPoolExecutor(
+            0, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>()
+    );
+
+    private OnFillListener mListener;
+    private FloodFill mFill; // of the running fill
+    private boolean mRunning;
+    private boolean mCancelled; // the fill may have finished already, so don't copy it back
+
+    public void setOnFillListener(OnFillListener listener) {
+        mListener = listener;
+    }
+
+    // return whether a fill is in progress
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    // fill the region around (x, y) of bitmap with color, where the channels are within
+    // tolerance (0-255) of that pixel's. return false if another fill is still running.
+    public boolean fill(final Bitmap bitmap, final int x, final int y, final int color, final int tolerance) {
+        if (mRunning) return false;
+        mRunning = true;
+        mCancelled = false;
+
+        final int width = bitmap.getWidth(), height = bitmap.getHeight();
+        final int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        final FloodFill fill = new FloodFill(pixels, width, height);
+        mFill = fill;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY); // someone is waiting for it
+                final boolean done = fill.fill(x, y, color, tolerance);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        finished(bitmap, fill, pixels, width, done);
+                    }
+                });
+            }
+        });
+        mMainHandler.postDelayed(progressUpdate, PROGRESS_MILLIS);
+        return true;
+    }
+
+    // stop the running fill, the bitmap is left as it was. the listener is still told.
+    public void cancel() {
+        if (!mRunning) return;
+        mCancelled = true;
+        mFill.cancel();
+    }
+
+    // back on the UI thread: copy back what changed, then let the buffers go
+    private void finished(Bitmap bitmap, FloodFill fill, int[] pixels, int width, boolean done) {
+        mRunning = false;
+        mMainHandler.removeCallbacks(progressUpdate);
+        mFill = null;
+
+        Rect changed = null;
+        if (done && !mCancelled && !fill.isEmpty() && !bitmap.isRecycled()) {
+            changed = new Rect(fill.getLeft(), fill.getTop(), fill.getRight(), fill.getBottom());
+            bitmap.setPixels(pixels, changed.top * width + changed.left, width,
+                    changed.left, changed.top, changed.width(), changed.height());
+        }
+        if (mListener != null) mListener.onFillFinished(changed);
+    }
+
+    private final Runnable progressUpdate = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) return;
+            if (mListener != null) mListener.onFillProgress(mFill.getFilledCount());
+            mMainHandler.postDelayed(this, PROGRESS_MILLIS);
+        }
+    };
+}
@@ -0,0 +1,311 @@
+package com.example.lawrence.esketch;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.provider.MediaStore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * saves the drawing to the gallery without blocking the UI thread.
+ *
+ * export() copies the drawing into a second bitmap (reused between saves) and
+ * compresses and writes that copy on a background thread, so the user can keep
+ * drawing. Saves asked for while one is running are merged into one more save of
+ * the latest drawing once it's done. That drawing is copied right away too, into a
+ * second reused bitmap, since the one passed in may be gone or drawn over by then.
+ *
+ * exportVector() writes the strokes themselves as an SVG or PDF file instead, on the
+ * same thread, so the drawing can be printed at any size.
+ *
+ * All the public methods must be called on the UI thread.
+ */
+public class ImageExporter {
+
+    /**
+     * told on the UI thread when a save is done.
+     */
+    public interface OnExportListener {
+        void onExportFinished(boolean success);
+    }
+
+    private final ContentResolver mResolver;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // at most one background thread, which goes away when there is nothing to save
+    private final Executor mExecutor = new ThreadPoolExecutor(
+            0, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>()
+    );
+
+    /**
+     * file formats for exportVector().
+     */
+    public enum VectorFormat {
+        SVG, PDF
+    }
+
+    private OnExportListener mListener;
+    private PerfMonitor mPerf; // told how long saves take, may be null
+    private Bitmap.CompressFormat mFormat = Bitmap.CompressFormat.JPEG;
+    private int mQuality = 100;
+
+    // copy of the drawing that the background thread compresses, and a second buffer
+    // for a save asked for while it runs. both are reused.
+    private Bitmap mSnapshot;
+    private Canvas mSnapshotCanvas;
+    private Bitmap mPending;
+    private Canvas mPendingCanvas;
+
+    private boolean mRunning;     // a save is on the background thread
+    private boolean mHasPending;  // mPending is to be saved once it's done
+
+    public ImageExporter(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    public void setOnExportListener(OnExportListener listener) {
+        mListener = listener;
+    }
+
+    public void setPerfMonitor(PerfMonitor perf) {
+        mPerf = perf;
+    }
+
+    // choose the file format, and quality (0-100) for the lossy ones
+    public void setFormat(Bitmap.CompressFormat format, int quality) {
+        mFormat = format;
+        mQuality = quality;
+    }
+
+    public Bitmap.CompressFormat getFormat() {
+        return mFormat;
+    }
+
+    public int getQuality() {
+        return mQuality;
+    }
+
+    // return whether a save is in progress
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    // save the top left width x height pixels of source to the gallery. source is copied
+    // before this returns, the caller may change or recycle it right after.
+    public void export(Bitmap source, int width, int height) {
+        if (mRunning) {
+            // only the latest drawing matters, earlier pending saves are overwritten
+            if (mPending == null || mPending.getWidth() != width || mPending.getHeight() != height) {
+                if (mPending != null) mPending.recycle();
+                mPending = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                mPendingCanvas = new Canvas(mPending);
+            }
+            mPending.eraseColor(Color.TRANSPARENT);
+            mPendingCanvas.drawBitmap(source, 0, 0, null);
+            mHasPending = true;
+            return;
+        }
+
+        // copy the drawing into the reused snapshot bitmap, much cheaper than compressing it here
+        if (mSnapshot == null || mSnapshot.getWidth() != width || mSnapshot.getHeight() != height) {
+            if (mSnapshot != null) mSnapshot.recycle();
+            mSnapshot = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mSnapshotCanvas = new Canvas(mSnapshot);
+        }
+        mSnapshot.eraseColor(Color.TRANSPARENT);
+        mSnapshotCanvas.drawBitmap(source, 0, 0, null);
+        start();
+    }
+
+    // compress mSnapshot on the background thread
+    private void start() {
+        mRunning = true;
+        final long exportStart = System.nanoTime();
+        final Bitmap snapshot = mSnapshot;
+        final Bitmap.CompressFormat format = mFormat;
+        final int quality = mQuality;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final boolean success = write(snapshot, format, quality);
+                recordSave(exportStart);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        finished(success);
+                    }
+                });
+            }
+        });
+    }
+
+    // save strokes drawn on top of start (null = blank) as a width x height vector file
+    // in the Downloads folder. start is copied, the strokes are used as they are.
+    public void exportVector(final VectorFormat format, Bitmap start, final List<Stroke> strokes,
+                             final int width, final int height) {
+        final long exportStart = System.nanoTime();
+        final Bitmap startCopy = start == null ? null : start.copy(Bitmap.Config.ARGB_8888, false);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final boolean success = writeVector(format, startCopy, strokes, width, height);
+                recordSave(exportStart);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mListener != null) mListener.onExportFinished(success);
+                    }
+                });
+            }
+        });
+    }
+
+    // time from the export call until the file is written (background thread)
+    private void recordSave(long start) {
+        if (mPerf != null) mPerf.recordSave((System.nanoTime() - start) / 1000);
+    }
+
+    // back on the UI thread after a save
+    private void finished(boolean success) {
+        mRunning = false;
+        if (mListener != null) mListener.onExportFinished(success);
+
+        if (mHasPending) {
+            // the buffers trade places, the old snapshot takes the next pending save
+            mHasPending = false;
+            Bitmap pending = mPending;
+            Canvas pendingCanvas = mPendingCanvas;
+            mPending = mSnapshot;
+            mPendingCanvas = mSnapshotCanvas;
+            mSnapshot = pending;
+            mSnapshotCanvas = pendingCanvas;
+            start();
+        }
+    }
+
+    // compress bitmap into a new gallery image (background thread)
+    private boolean write(Bitmap bitmap, Bitmap.CompressFormat format, int quality) {
+        fixMediaDir(); // fixes bug in Android 4.4
+
+        // name file eSketch + timestamp
+        long now = System.currentTimeMillis();
+        String filename = "eSketch" + now + extension(format);
+
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Images.Media.TITLE, filename);
+        values.put(MediaStore.Images.Media.DISPLAY_NAME, filename);
+        values.put(MediaStore.Images.Media.DESCRIPTION, "eSketch Drawing");
+        values.put(MediaStore.Images.Media.MIME_TYPE, mimeType(format));
+        values.put(MediaStore.Images.Media.DATE_ADDED, now / 1000);
+        values.put(MediaStore.Images.Media.DATE_TAKEN, now);
+
+        Uri uri = null;
+        try {
+            uri = mResolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+            if (uri == null) return false;
+
+            boolean compressed;
+            OutputStream out = mResolver.openOutputStream(uri);
+            try {
+                compressed = bitmap.compress(format, quality, out);
+            } finally {
+                out.close();
+            }
+
+            if (!compressed) mResolver.delete(uri, null, null);
+            return compressed;
+        } catch (IOException | RuntimeException e) {
+            // don't leave an empty entry in the gallery
+            if (uri != null) mResolver.delete(uri, null, null);
+            return false;
+        }
+    }
+
+    // stream the strokes into a new file in Downloads (background thread).
+    // no bitmap is made at print size, only start (if any) is compressed, at screen size.
+    private boolean writeVector(VectorFormat format, Bitmap start, List<Stroke> strokes, int width, int height) {
+        File dir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
+        File file = new File(dir, "eSketch" + System.currentTimeMillis()
+                + (format == VectorFormat.SVG ? ".svg" : ".pdf"));
+        try {
+            dir.mkdirs();
+            OutputStream out = new FileOutputStream(file);
+            try {
+                VectorWriter writer = format == VectorFormat.SVG
+                        ? new SvgWriter(out, width, height) : new PdfWriter(out, width, height);
+                if (start != null) {
+                    ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+                    start.compress(Bitmap.CompressFormat.JPEG, 95, jpeg);
+                    writer.image(jpeg.toByteArray(), start.getWidth(), start.getHeight());
+                }
+                for (int i = 0; i < strokes.size(); ++i) {
+                    writer.write(strokes.get(i));
+                }
+                writer.finish();
+            } finally {
+                out.close();
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            file.delete(); // don't leave half a file
+            return false;
+        } finally {
+            if (start != null) start.recycle();
+        }
+    }
+
+    private static String extension(Bitmap.CompressFormat format) {
+        switch (format) {
+            case PNG:
+                return ".png";
+            case WEBP:
+                return ".webp";
+            default:
+                return ".jpg";
+        }
+    }
+
+    private static String mimeType(Bitmap.CompressFormat format) {
+        switch (format) {
+            case PNG:
+                return "image/png";
+            case WEBP:
+                return "image/webp";
+            default:
+                return "image/jpeg";
+        }
+    }
+
+    // this fixes a bug in Android 4.4 (https://code.google.com/p/android/issues/detail?id=75447)
+    // where it happens when the user hasn't taken a photo on the device before (i.e. gallery is empty and hasn't been initialized.)
+    private static void fixMediaDir() {
+        File sdcard = Environment.getExternalStorageDirectory();
+        if (sdcard != null) {
+            File mediaDir = new File(sdcard, "DCIM/Camera");
+            if (!mediaDir.exists()) {
+                mediaDir.mkdirs();
+            }
+        }
+    }
+}
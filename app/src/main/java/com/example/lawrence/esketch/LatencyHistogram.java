@@ -0,0 +1,130 @@
+package com.example.lawrence.esketch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * counts how often durations (in microseconds) fall in log-spaced buckets.
+ * Other positive values (e.g. counts) work the same way, with their own unit.
+ *
+ * Values below 16 get a bucket each, above that every power of two is split in
+ * 8 buckets, so a percentile is off by at most 12.5%. record() is lock-free and
+ * can be called from any thread; it never allocates.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 8;   // buckets per power of two
+    private static final int LINEAR_LIMIT = 16; // values below this have a bucket each
+    private static final int BUCKETS = LINEAR_LIMIT + (63 - 4) * SUB_BUCKETS;
+
+    private final String mName;
+    private final String mUnit;
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this(name, "us");
+    }
+
+    public LatencyHistogram(String name, String unit) {
+        mName = name;
+        mUnit = unit;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    // add one duration in microseconds (negative ones count as 0)
+    public void record(long micros) {
+        if (micros < 0) micros = 0;
+
+        mCounts.incrementAndGet(bucket(micros));
+        mCount.incrementAndGet();
+        mSum.addAndGet(micros);
+
+        long max = mMax.get();
+        while (micros > max && !mMax.compareAndSet(max, micros)) {
+            max = mMax.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    // return the average, 0 if nothing was recorded
+    public long getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    // return the smallest value of the bucket holding the given percentile (0-100)
+    public long getPercentile(double percentile) {
+        long count = mCount.get();
+        if (count == 0) return 0;
+
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; ++b) {
+            seen += mCounts.get(b);
+            if (seen >= rank && seen > 0) return lowestValue(b);
+        }
+        return mMax.get();
+    }
+
+    // how many buckets there are, for going through them with the two methods below
+    public int getBucketCount() {
+        return BUCKETS;
+    }
+
+    // values recorded in a bucket
+    public long getCountInBucket(int bucket) {
+        return mCounts.get(bucket);
+    }
+
+    // smallest value that goes in a bucket
+    public long getBucketValue(int bucket) {
+        return lowestValue(bucket);
+    }
+
+    // forget everything recorded
+    public void reset() {
+        for (int b = 0; b < BUCKETS; ++b) {
+            mCounts.set(b, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    // one line summary, e.g. for the log
+    @Override
+    public String toString() {
+        return mName + ": n=" + getCount() + " mean=" + getMean() + mUnit + " p50=" + getPercentile(50)
+                + mUnit + " p90=" + getPercentile(90) + mUnit + " p99=" + getPercentile(99) + mUnit
+                + " max=" + getMax() + mUnit;
+    }
+
+    static int bucket(long value) {
+        if (value < LINEAR_LIMIT) return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // >= 4
+        int sub = (int) (value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - 4) * SUB_BUCKETS + sub;
+    }
+
+    static long lowestValue(int bucket) {
+        if (bucket < LINEAR_LIMIT) return bucket;
+
+        int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 4;
+        int sub = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        return (1L << exponent) + ((long) sub << (exponent - 3));
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.lawrence.esketch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+import java.nio.ByteBuffer;
+
+/**
+ * a copy of a layer, as the undo history keeps it.
+ *
+ * While everything drawn on a layer is one color (its ink), every pixel is the layer's
+ * background (white, or transparent) blended toward the ink by some amount: how much the
+ * strokes covered it times how opaque they were. Then the copy is only that amount, as
+ * an ALPHA_8 mask, and the ink: a quarter of the memory of an ARGB_8888 copy. Drawn back
+ * in the ink over the background, it gives the same pixels give or take one level. A
+ * layer with more than one color is copied as an ARGB_8888 bitmap.
+ */
+public class LayerSnapshot {
+
+    // inks that aren't a color: nothing is drawn, or several colors are. colors are
+    // kept opaque, so these are never one.
+    public static final int NO_INK = 0;
+    public static final int MIXED_INK = 1;
+
+    private final Bitmap mImage; // ALPHA_8 mask, or ARGB_8888 copy
+    private final int mInk; // what a mask is drawn in
+
+    private LayerSnapshot(Bitmap image, int ink) {
+        mImage = image;
+        mInk = ink;
+    }
+
+    // the ink that layers drawn in ink, then in color, are: NO_INK, the color made opaque
+    // (its alpha is in the mask), or MIXED_INK
+    public static int addInk(int ink, int color) {
+        color |= 0xFF000000;
+        return ink == NO_INK || ink == color ? color : MIXED_INK;
+    }
+
+    // an ARGB_8888 copy, which the snapshot keeps
+    public static LayerSnapshot ofColors(Bitmap copy) {
+        return new LayerSnapshot(copy, MIXED_INK);
+    }
+
+    // a mask of a layer of one ink (or none) over background
+    public static LayerSnapshot ofInk(Bitmap layer, int background, int ink, Masker masker) {
+        return new LayerSnapshot(masker.mask(layer, background, ink), ink);
+    }
+
+    public boolean isMask() {
+        return mImage.getConfig() == Bitmap.Config.ALPHA_8;
+    }
+
+    public int getInk() {
+        return mInk;
+    }
+
+    public Bitmap getImage() {
+        return mImage;
+    }
+
+    public long getByteCount() {
+        return mImage.getByteCount();
+    }
+
+    // draw it on canvas, over the layer's background. paint is used for masks.
+    public void draw(Canvas canvas, Paint paint) {
+        if (isMask()) {
+            paint.setColor(mInk);
+            canvas.drawBitmap(mImage, 0, 0, paint);
+        } else {
+            canvas.drawBitmap(mImage, 0, 0, null);
+        }
+    }
+
+    // a new ARGB_8888 bitmap of it over background
+    public Bitmap toBitmap(int background) {
+        Bitmap bitmap = Bitmap.createBitmap(mImage.getWidth(), mImage.getHeight(), Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(background);
+        draw(new Canvas(bitmap), new Paint());
+        return bitmap;
+    }
+
+    // it won't be used again: copies go back to pool, masks are recycled
+    public void release(BitmapPool pool) {
+        if (isMask()) mImage.recycle();
+        else pool.release(mImage);
+    }
+
+    /**
+     * works out masks, reusing its buffers from one to the next.
+     */
+    public static class Masker {
+        private int[] mRow = new int[0];
+        private byte[] mBytes = new byte[0];
+
+        // a new ALPHA_8 bitmap of how far each pixel of layer is blended from background
+        // (white or transparent) toward ink. on white it's told by the channel the ink is
+        // darkest in, on transparent it's the alpha.
+        public Bitmap mask(Bitmap layer, int background, int ink) {
+            int width = layer.getWidth(), height = layer.getHeight();
+            Bitmap mask = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+            int rowBytes = mask.getRowBytes();
+            if (mRow.length < width) mRow = new int[width];
+            if (mBytes.length < rowBytes * height) mBytes = new byte[rowBytes * height];
+
+            boolean transparent = Color.alpha(background) == 0;
+            int shift = 16, depth = 255 - Color.red(ink);
+            if (255 - Color.green(ink) > depth) {
+                shift = 8;
+                depth = 255 - Color.green(ink);
+            }
+            if (255 - Color.blue(ink) > depth) {
+                shift = 0;
+                depth = 255 - Color.blue(ink);
+            }
+
+            for (int y = 0; y < height; ++y) {
+                layer.getPixels(mRow, 0, width, 0, y, width, 1);
+                int offset = y * rowBytes;
+                for (int x = 0; x < width; ++x) {
+                    int amount;
+                    if (transparent) {
+                        amount = mRow[x] >>> 24;
+                    } else if (depth == 0) {
+                        amount = 0; // white ink on white, nothing to see
+                    } else {
+                        int lighter = 255 - (mRow[x] >> shift & 0xFF);
+                        amount = Math.min(255, (lighter * 255 + depth / 2) / depth);
+                    }
+                    mBytes[offset + x] = (byte) amount;
+                }
+            }
+            mask.copyPixelsFromBuffer(ByteBuffer.wrap(mBytes, 0, rowBytes * height));
+            return mask;
+        }
+    }
+}
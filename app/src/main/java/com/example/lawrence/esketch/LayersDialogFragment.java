@@ -0,0 +1,173 @@
+package com.example.lawrence.esketch;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.v4.app.DialogFragment;
+import android.view.View;
+import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
+import android.widget.SeekBar;
+import android.widget.SeekBar.OnSeekBarChangeListener;
+import android.widget.TextView;
+
+/**
+ * This is the dialog to pick the layer to draw on, and to add, remove, move, hide
+ * and fade layers. Changes show on the drawing right away.
+ */
+public class LayersDialogFragment extends DialogFragment {
+
+    private static final float MEGABYTE = 1024 * 1024;
+
+    private eSketchView mSketchView;
+    private TextView mLayerTextView;
+    private TextView mMemoryTextView;
+    private CheckBox mVisibleCheckBox;
+    private SeekBar mOpacitySeekBar;
+    private Button mBelowButton;
+    private Button mAboveButton;
+    private Button mDownButton;
+    private Button mUpButton;
+    private Button mRemoveButton;
+    private boolean mUpdating; // the controls are being set to the active layer's values
+
+    // create AlertDialog and return it
+    @NonNull
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        View layersDialogView = getActivity()
+                .getLayoutInflater().inflate(R.layout.fragment_layers, null);
+        builder.setView(layersDialogView); // add GUI to dialog
+        builder.setTitle(R.string.title_layers_dialog);
+
+        mSketchView = getSketchFragment().getSketchView();
+        mLayerTextView = (TextView) layersDialogView.findViewById(R.id.layerTextView);
+        mMemoryTextView = (TextView) layersDialogView.findViewById(R.id.layerMemoryTextView);
+        mVisibleCheckBox = (CheckBox) layersDialogView.findViewById(R.id.layerVisibleCheckBox);
+        mOpacitySeekBar = (SeekBar) layersDialogView.findViewById(R.id.layerOpacitySeekBar);
+        mBelowButton = (Button) layersDialogView.findViewById(R.id.layerBelowButton);
+        mAboveButton = (Button) layersDialogView.findViewById(R.id.layerAboveButton);
+        mDownButton = (Button) layersDialogView.findViewById(R.id.moveLayerDownButton);
+        mUpButton = (Button) layersDialogView.findViewById(R.id.moveLayerUpButton);
+        mRemoveButton = (Button) layersDialogView.findViewById(R.id.removeLayerButton);
+        Button addButton = (Button) layersDialogView.findViewById(R.id.addLayerButton);
+
+        mBelowButton.setOnClickListener(buttonListener);
+        mAboveButton.setOnClickListener(buttonListener);
+        mDownButton.setOnClickListener(buttonListener);
+        mUpButton.setOnClickListener(buttonListener);
+        mRemoveButton.setOnClickListener(buttonListener);
+        addButton.setOnClickListener(buttonListener);
+        mVisibleCheckBox.setOnCheckedChangeListener(visibleListener);
+        mOpacitySeekBar.setOnSeekBarChangeListener(opacityListener);
+        updateControls();
+
+        builder.setPositiveButton(R.string.button_close, null);
+        return builder.create();
+    }
+
+    // helper to get ref to MainActivityFragment
+    private MainActivityFragment getSketchFragment(){
+        return (MainActivityFragment) getFragmentManager().findFragmentById(R.id.esketchFragment);
+    }
+
+    // tell MainActivityFragment that dialog is now displayed
+    @Override
+    public void onAttach(Activity activity) {
+        super.onAttach(activity);
+
+        MainActivityFragment fragment = getSketchFragment();
+        if( fragment != null )  fragment.setDialogOnScreen(true);
+    }
+
+    // tell MainActivityFragment that dialog is no longer displayed
+    @Override
+    public void onDetach() {
+        super.onDetach();
+
+        MainActivityFragment fragment = getSketchFragment();
+        if( fragment != null )  fragment.setDialogOnScreen(false);
+    }
+
+    // show the active layer's name, settings and memory
+    private void updateControls() {
+        int active = mSketchView.getActiveLayer();
+        int count = mSketchView.getLayerCount();
+
+        String name = mSketchView.isBackgroundLayer(active)
+                ? getString(R.string.layer_background)
+                : getString(R.string.layer_name, mSketchView.getLayerId(active));
+        mLayerTextView.setText(getString(R.string.label_layer, name, active + 1, count));
+        mMemoryTextView.setText(getString(R.string.label_layer_memory,
+                mSketchView.getLayerByteCount(active) / MEGABYTE, mSketchView.getLayersByteCount() / MEGABYTE));
+
+        mUpdating = true;
+        mVisibleCheckBox.setChecked(mSketchView.isLayerVisible(active));
+        mOpacitySeekBar.setProgress(mSketchView.getLayerOpacity(active));
+        mUpdating = false;
+
+        mBelowButton.setEnabled(active > 0);
+        mDownButton.setEnabled(active > 0);
+        mAboveButton.setEnabled(active < count - 1);
+        mUpButton.setEnabled(active < count - 1);
+        mRemoveButton.setEnabled(count > 1);
+    }
+
+    private final View.OnClickListener buttonListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            int active = mSketchView.getActiveLayer();
+            switch (view.getId()) {
+                case R.id.layerBelowButton:
+                    mSketchView.setActiveLayer(active - 1);
+                    break;
+                case R.id.layerAboveButton:
+                    mSketchView.setActiveLayer(active + 1);
+                    break;
+                case R.id.moveLayerDownButton:
+                    mSketchView.moveLayer(active, active - 1);
+                    break;
+                case R.id.moveLayerUpButton:
+                    mSketchView.moveLayer(active, active + 1);
+                    break;
+                case R.id.addLayerButton:
+                    mSketchView.addLayer();
+                    break;
+                case R.id.removeLayerButton:
+                    mSketchView.removeLayer(active);
+                    break;
+                default:
+                    break;
+            }
+            updateControls();
+        }
+    };
+
+    private final CompoundButton.OnCheckedChangeListener visibleListener = new CompoundButton.OnCheckedChangeListener() {
+        @Override
+        public void onCheckedChanged(CompoundButton button, boolean isChecked) {
+            if( mUpdating ) return;
+            mSketchView.setLayerVisible(mSketchView.getActiveLayer(), isChecked);
+            updateControls();
+        }
+    };
+
+    // the opacity is set when the bar is let go, so dragging it doesn't save the drawing over and over
+    private final OnSeekBarChangeListener opacityListener = new OnSeekBarChangeListener() {
+        @Override
+        public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) { /* not used */ }
+
+        @Override
+        public void onStartTrackingTouch(SeekBar seekBar) { /* not used */ }
+
+        @Override
+        public void onStopTrackingTouch(SeekBar seekBar) {
+            mSketchView.setLayerOpacity(mSketchView.getActiveLayer(), seekBar.getProgress());
+            updateControls();
+        }
+    };
+}
@@ -7,7 +7,6 @@ import android.content.DialogInterface;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Paint;
 import android.media.Image;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
@@ -18,10 +17,19 @@ import android.widget.SeekBar;
 import android.widget.SeekBar.OnSeekBarChangeListener;
 
 /**
- * This is the dialog to choose the line's (pencil) width.
+ * This is the dialog to choose the line's (pencil) width and how hard its edge is.
+ * The preview is stamped by the same brush engine as the drawing.
  */
 public class LineWidthDialogFragment extends DialogFragment{
+    // a gentle curve across the preview, as a stroke of one cubic
+    private static final float[] PREVIEW_CURVE = {30, 50, 143, 30, 257, 70, 370, 50};
+
     private ImageView mWidthImageView;
+    private SeekBar mWidthSeekBar;
+    private SeekBar mHardnessSeekBar;
+    private final StampBrush mBrush = new StampBrush(64 * 1024);
+    private final Bitmap mPreview = Bitmap.createBitmap(400, 100, Bitmap.Config.ARGB_8888);
+    private final Canvas mPreviewCanvas = new Canvas(mPreview); // draws into mPreview
 
     // create AlertDialgo and return it
     @NonNull
@@ -39,11 +47,23 @@ public class LineWidthDialogFragment extends DialogFragment{
         // get ImageView
         mWidthImageView = (ImageView) lineWidthDialogView.findViewById(R.id.widthImageView);
 
-        // configure widthSeekBar
-        final eSketchView sketchView = getSketchFragment().getSketchView();
-        final SeekBar widthSeekBar = (SeekBar) lineWidthDialogView.findViewById(R.id.widthSeekBar);
-        widthSeekBar.setOnSeekBarChangeListener(lineWidthChangeListener);
-        widthSeekBar.setProgress(sketchView.getLineWidth());
+        // configure widthSeekBar and hardnessSeekBar. only eSketchView has soft brushes,
+        // the render thread surface draws hard lines.
+        final SketchSurface sketch = getSketchFragment().getSketchSurface();
+        final eSketchView sketchView = sketch instanceof eSketchView ? (eSketchView) sketch : null;
+        mWidthSeekBar = (SeekBar) lineWidthDialogView.findViewById(R.id.widthSeekBar);
+        mHardnessSeekBar = (SeekBar) lineWidthDialogView.findViewById(R.id.hardnessSeekBar);
+        if (sketchView != null) {
+            mHardnessSeekBar.setProgress(Math.round(sketchView.getBrushHardness() * 100));
+        } else {
+            mHardnessSeekBar.setProgress(100);
+            mHardnessSeekBar.setVisibility(View.GONE);
+            lineWidthDialogView.findViewById(R.id.hardnessLabel).setVisibility(View.GONE);
+        }
+        mWidthSeekBar.setProgress(sketch.getLineWidth());
+        mWidthSeekBar.setOnSeekBarChangeListener(lineWidthChangeListener);
+        mHardnessSeekBar.setOnSeekBarChangeListener(lineWidthChangeListener);
+        updatePreview();
 
         // add button to set width change
         builder.setPositiveButton(
@@ -51,7 +71,8 @@ public class LineWidthDialogFragment extends DialogFragment{
                 new DialogInterface.OnClickListener() {
                     @Override
                     public void onClick(DialogInterface dialogInterface, int i) {
-                        sketchView.setLineWidth(widthSeekBar.getProgress());
+                        sketch.setLineWidth(mWidthSeekBar.getProgress());
+                        if (sketchView != null) sketchView.setBrushHardness(mHardnessSeekBar.getProgress() / 100f);
                     }
                 }
         );
@@ -82,22 +103,20 @@ public class LineWidthDialogFragment extends DialogFragment{
         if( fragment != null )  fragment.setDialogOnScreen(false);
     }
 
-    private final OnSeekBarChangeListener lineWidthChangeListener = new OnSeekBarChangeListener() {
-        final Bitmap bitmap = Bitmap.createBitmap(400, 100, Bitmap.Config.ARGB_8888);
-        final Canvas canvas = new Canvas(bitmap); // draws into bitmap
+    // erase the preview and stamp a line with the chosen width and hardness
+    private void updatePreview() {
+        Stroke stroke = new Stroke(getSketchFragment().getSketchSurface().getDrawingsColor(),
+                mWidthSeekBar.getProgress(), mHardnessSeekBar.getProgress() / 100f,
+                PREVIEW_CURVE, PREVIEW_CURVE.length / 2, true);
+        mPreview.eraseColor(Color.TRANSPARENT);
+        mBrush.draw(mPreviewCanvas, stroke);
+        mWidthImageView.setImageBitmap(mPreview);
+    }
 
+    private final OnSeekBarChangeListener lineWidthChangeListener = new OnSeekBarChangeListener() {
         @Override
         public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-            // configure a Paint obj for current SeekBar
-            Paint p = new Paint();
-            p.setColor(getSketchFragment().getSketchView().getDrawingsColor());
-            p.setStrokeCap(Paint.Cap.ROUND);
-            p.setStrokeWidth(progress);
-
-            // erase the bitmap and redraw the line
-            bitmap.eraseColor(Color.TRANSPARENT);
-            canvas.drawLine(30, 50, 370, 50, p);
-            mWidthImageView.setImageBitmap(bitmap);
+            updatePreview();
         }
 
         @Override
@@ -12,30 +12,34 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.Manifest;
 import android.app.AlertDialog;
-import android.content.Context;
 import android.content.DialogInterface;
 import android.content.pm.PackageManager;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
+import android.view.Gravity;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.IOException;
 
 /**
  * fragment containing a eSketch view.
  */
 public class MainActivityFragment extends Fragment {
 
-    // min threshold accel sensor to determine if a shake event took place
-    private static final int ACCELERATION_THRESHOLD = 100000;
-
     // used to identify the request for using external storage
     private static final int SAVE_IMAGE_PERMISSION_REQUEST_CODE = 1;
 
+    // menu items only eSketchView has
+    private static final int[] SKETCH_VIEW_ITEMS = {
+            R.id.undo, R.id.redo, R.id.eraser, R.id.fill, R.id.layers, R.id.tiled_canvas, R.id.collaborate,
+            R.id.save, R.id.save_svg, R.id.save_pdf, R.id.timelapse, R.id.perf_overlay, R.id.perf_dump
+    };
+
     private eSketchView mESketchView;   // reference to eSketch View object
-    private double acceleration;
-    private double currentAcceleration;
-    private double lastAcceleration;
+    private eSketchSurfaceView mSurfaceView; // draws on a render thread instead, when chosen
+    private boolean mRenderThreadMode;  // whether mSurfaceView is the one shown
+    private ShakeSensor mShakeSensor;   // erases the drawing when the device is shaken
     private boolean dialogOnScreen = false;     // flag to determine if any dialog on screen, to limit 1 dialog at a time.
+    private int mSaveItem = R.id.save;  // which save menu item was chosen last
 
     // callback when Fragment's view is created
     @Override
@@ -49,11 +53,11 @@ public class MainActivityFragment extends Fragment {
 
         // get ref to eSketchView
         mESketchView = (eSketchView) view.findViewById(R.id.eSketchView);
+        mESketchView.setOnExportListener(exportListener);
+        mESketchView.setOnSessionListener(sessionListener);
+        mSurfaceView = (eSketchSurfaceView) view.findViewById(R.id.eSketchSurfaceView);
 
-        // init acceleration vals
-        acceleration = 0.0;
-        currentAcceleration = SensorManager.GRAVITY_EARTH;
-        lastAcceleration = SensorManager.GRAVITY_EARTH;
+        mShakeSensor = new ShakeSensor(getActivity(), shakeListener);
 
         return view;
     }
@@ -63,74 +67,66 @@ public class MainActivityFragment extends Fragment {
     @Override
     public void onResume() {
         super.onResume();
-        enableAccelerometerListening(); // listen for shake event
-    }
-
-    // helper to enable accl sensor
-    private void enableAccelerometerListening() {
-        // get ref to SensorManager
-        SensorManager sensorManager =
-                (SensorManager) getActivity().getSystemService(Context.SENSOR_SERVICE);
-
-        // register to listen for accel events
-        sensorManager.registerListener(
-                sensorEventListener,
-                sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
-                SensorManager.SENSOR_DELAY_NORMAL
-        );
+        mShakeSensor.start(); // listen for shake event
     }
 
     // stop listening for accel events
     @Override
     public void onPause() {
         super.onPause();
-        disableAccelerometerListening();
+        mShakeSensor.stop();
+        mESketchView.syncAutosave(); // make sure the drawing is on disk
     }
 
-    // helper to disable accl sensor
-    private void disableAccelerometerListening() {
-        // get ref to SensorManger
-        SensorManager sensorManager =
-                (SensorManager) getActivity().getSystemService(Context.SENSOR_SERVICE);
-
-        // stop listening
-        sensorManager.unregisterListener(
-                sensorEventListener,
-                sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER)
-        );
-    }
-
-    // event handler for accel events
-    private final SensorEventListener sensorEventListener = new SensorEventListener() {
+    // erase screen when the device is shaken (ShakeDetector reports each shake once)
+    private final ShakeDetector.OnShakeListener shakeListener = new ShakeDetector.OnShakeListener() {
         @Override
-        public void onSensorChanged(SensorEvent sensorEvent) {
-            // check if dialogs are on screen
-            if (!dialogOnScreen) {
-                // get x, y, z axis values
-                double x = sensorEvent.values[0];
-                double y = sensorEvent.values[1];
-                double z = sensorEvent.values[2];
-
-                // save previous value for comparison to new x, y, z values
-                lastAcceleration = currentAcceleration;
+        public void onShake() {
+            if (!dialogOnScreen) confirmErase();
+        }
+    };
 
-                // use 3-d distance formula to compute if moved
-                currentAcceleration = x * x + y * y + z * z;
+    // tell user whether the image was saved, once the background save is done
+    private final ImageExporter.OnExportListener exportListener = new ImageExporter.OnExportListener() {
+        @Override
+        public void onExportFinished(boolean success) {
+            if (getActivity() == null) return; // fragment went away while saving
 
-                // calc change in distance
-                acceleration = currentAcceleration * (currentAcceleration - lastAcceleration);
+            int message = mSaveItem == R.id.save ? R.string.message_saved : R.string.message_saved_vector;
+            showMessage(success ? message : R.string.message_error_saving);
+        }
+    };
 
-                // erase screen if shaken "hard enough"
-                if (acceleration > ACCELERATION_THRESHOLD) confirmErase();
-            }
+    // tell the user when drawing together starts and stops
+    private final eSketchView.OnSessionListener sessionListener = new eSketchView.OnSessionListener() {
+        @Override
+        public void onSessionJoined() {
+            if (getActivity() != null) showMessage(R.string.message_session_joined);
         }
 
         @Override
-        public void onAccuracyChanged(Sensor sensor, int i) { /* not used */ }
+        public void onSessionLeft(IOException error) {
+            if (getActivity() == null) return;
+            if (error == null) showMessage(R.string.message_session_left);
+            else showMessage(getString(R.string.message_session_lost, error.getLocalizedMessage()));
+        }
     };
 
+    private void showMessage(int message) {
+        showMessage(getString(message));
+    }
+
+    private void showMessage(CharSequence message) {
+        Toast msg = Toast.makeText(getActivity(), message, Toast.LENGTH_SHORT);
+        msg.setGravity(Gravity.CENTER, msg.getXOffset()/2, msg.getYOffset()/2);
+        msg.show();
+    }
+
     // confirm dialog to erase screen
     private void confirmErase() {
+        // dialogOnScreen is only set once the dialog is attached, so also check for one being shown
+        if (getFragmentManager().findFragmentByTag("erase dialog") != null) return;
+
         EraseImageDialogFragment fragment = new EraseImageDialogFragment();
         fragment.show(getFragmentManager(), "erase dialog");
     }
@@ -142,10 +138,44 @@ public class MainActivityFragment extends Fragment {
         inflater.inflate(R.menu.esketch_fragment_menu, menu);
     }
 
+    // the eraser and the fill turn each other off, so check what the view uses.
+    // the render thread surface only has color, line width and erase.
+    @Override
+    public void onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        menu.findItem(R.id.eraser).setChecked(mESketchView.getEraserMode());
+        menu.findItem(R.id.fill).setChecked(mESketchView.getFillMode());
+        menu.findItem(R.id.tiled_canvas).setChecked(mESketchView.getTiledMode());
+        menu.findItem(R.id.render_thread).setChecked(mRenderThreadMode);
+        for (int id : SKETCH_VIEW_ITEMS) {
+            menu.findItem(id).setVisible(!mRenderThreadMode);
+        }
+    }
+
+    // show one view or the other. each keeps its own drawing, the line settings carry over.
+    private void setRenderThreadMode(boolean renderThreadMode) {
+        if (renderThreadMode == mRenderThreadMode) return;
+        SketchSurface from = getSketchSurface();
+        mRenderThreadMode = renderThreadMode;
+        SketchSurface to = getSketchSurface();
+        to.setDrawingColor(from.getDrawingsColor());
+        to.setLineWidth(from.getLineWidth());
+
+        mESketchView.setVisibility(renderThreadMode ? View.GONE : View.VISIBLE);
+        mSurfaceView.setVisibility(renderThreadMode ? View.VISIBLE : View.GONE);
+        getActivity().supportInvalidateOptionsMenu();
+    }
+
     // handle user's choice from options menu
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
+            case R.id.undo:
+                mESketchView.undo();
+                return true;
+            case R.id.redo:
+                mESketchView.redo();
+                return true;
             case R.id.color:
                 ColorDialogFragment colorDialogFragment = new ColorDialogFragment();
                 colorDialogFragment.show(getFragmentManager(), "color dialog");
@@ -154,10 +184,51 @@ public class MainActivityFragment extends Fragment {
                 LineWidthDialogFragment lineWidthDialogFragment = new LineWidthDialogFragment();
                 lineWidthDialogFragment.show(getFragmentManager(), "line width");
                 return true;
+            case R.id.eraser:
+                item.setChecked(!item.isChecked());
+                mESketchView.setEraserMode(item.isChecked());
+                if (item.isChecked()) mESketchView.setFillMode(false);
+                return true;
+            case R.id.fill:
+                item.setChecked(!item.isChecked());
+                mESketchView.setFillMode(item.isChecked());
+                if (item.isChecked()) mESketchView.setEraserMode(false);
+                return true;
+            case R.id.layers:
+                LayersDialogFragment layersDialogFragment = new LayersDialogFragment();
+                layersDialogFragment.show(getFragmentManager(), "layers dialog");
+                return true;
+            case R.id.tiled_canvas:
+                // the screen sized drawing stays as it is while the infinite canvas is used
+                mESketchView.setTiledMode(!item.isChecked());
+                if (mESketchView.getTiledMode() == item.isChecked()) showMessage(R.string.message_tiled_in_session);
+                item.setChecked(mESketchView.getTiledMode());
+                return true;
+            case R.id.collaborate:
+                CollaborateDialogFragment collaborateDialogFragment = new CollaborateDialogFragment();
+                collaborateDialogFragment.show(getFragmentManager(), "collaborate dialog");
+                return true;
             case R.id.delete_drawing:
                 confirmErase();
                 return true;
+            case R.id.render_thread:
+                setRenderThreadMode(!mRenderThreadMode);
+                return true;
+            case R.id.perf_overlay:
+                item.setChecked(!item.isChecked());
+                mESketchView.setPerfMonitorEnabled(item.isChecked());
+                return true;
+            case R.id.perf_dump:
+                dumpPerfStats();
+                return true;
+            case R.id.timelapse:
+                TimelapseDialogFragment timelapseDialogFragment = new TimelapseDialogFragment();
+                timelapseDialogFragment.show(getFragmentManager(), "timelapse");
+                return true;
             case R.id.save:
+            case R.id.save_svg:
+            case R.id.save_pdf:
+                mSaveItem = item.getItemId();
                 saveImage();
                 return true;
             // "return true" consumes the menu event
@@ -166,6 +237,24 @@ public class MainActivityFragment extends Fragment {
         return super.onOptionsItemSelected(item);
     }
 
+    // write what the performance monitor measured to the app's own files folder
+    private void dumpPerfStats() {
+        File dir = getActivity().getExternalFilesDir(null);
+        if (dir == null) dir = getActivity().getFilesDir(); // no external storage mounted
+
+        mESketchView.getPerfMonitor().dump(dir, new PerfMonitor.OnDumpListener() {
+            @Override
+            public void onDumpFinished(File file) {
+                if (getActivity() == null) return; // fragment went away while writing
+                if (file == null) {
+                    showMessage(R.string.message_error_perf_dump);
+                } else {
+                    showMessage(getString(R.string.message_perf_dumped, file.getPath()));
+                }
+            }
+        });
+    }
+
     // dialog to request for permission to save to external storage
     private void saveImage() {
 
@@ -209,10 +298,27 @@ public class MainActivityFragment extends Fragment {
 
         } else {
             // if app already has permission to write to external storage, just save image
-            mESketchView.saveImage();
+            save();
         }
     } // end saveImage()
 
+    // save the drawing the way the chosen menu item says, once permission is granted
+    private void save() {
+        boolean started = true;
+        switch (mSaveItem) {
+            case R.id.save_svg:
+                started = mESketchView.saveVector(ImageExporter.VectorFormat.SVG);
+                break;
+            case R.id.save_pdf:
+                started = mESketchView.saveVector(ImageExporter.VectorFormat.PDF);
+                break;
+            default:
+                mESketchView.saveImage();
+                break;
+        }
+        if (!started) showMessage(R.string.message_error_saving); // tiled mode and layers have no vectors
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
 
@@ -220,7 +326,7 @@ public class MainActivityFragment extends Fragment {
         switch (requestCode){
             case SAVE_IMAGE_PERMISSION_REQUEST_CODE:
                 if( grantResults[0] == PackageManager.PERMISSION_GRANTED ){
-                    mESketchView.saveImage();
+                    save();
                 }
                 break;
             default:
@@ -233,6 +339,11 @@ public class MainActivityFragment extends Fragment {
         return mESketchView;
     }
 
+    // the view that is drawn on now, eSketchView or the render thread surface
+    public SketchSurface getSketchSurface(){
+        return mRenderThreadMode ? mSurfaceView : mESketchView;
+    }
+
     // helper method to determine to display dialog or not
     public void setDialogOnScreen(boolean visible){
         dialogOnScreen = visible;
@@ -0,0 +1,140 @@
+package com.example.lawrence.esketch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * smaller and smaller copies of the drawing, for drawing it zoomed out.
+ *
+ * Level k is the drawing at 1/2^k of its size. Zoomed out, the level just above the
+ * zoom is drawn instead of the full bitmap, so a frame filters about as many pixels as
+ * the screen has, and it doesn't alias. Level 1 is made from the drawing (see Source), each
+ * level after it from the one before, by drawing it at half size with filtering (which
+ * averages each 2x2 block).
+ *
+ * Each level keeps the part of the drawing that changed since it was last made, and
+ * getLevel() only makes that part again, aligned so each level pixel is made from whole
+ * blocks. Level bitmaps are allocated the first time they're needed.
+ * All the public methods must be called on the UI thread.
+ */
+public class MipmapPyramid {
+
+    /**
+     * draws the full size drawing for level 1.
+     */
+    public interface Source {
+        // draw the region of the drawing on canvas, which is scaled and clipped to it
+        void draw(Canvas canvas, Rect region);
+    }
+
+    private final int mLevels;
+    private final Bitmap[] mBitmaps; // index 0 is unused, it's the drawing itself
+    private final Canvas[] mCanvases;
+    private final Rect[] mDirty;
+    private final Paint mPaintFilter = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mSrc = new Rect(); // reused by getLevel()
+    private final Rect mDst = new Rect();
+    private int mWidth;
+    private int mHeight;
+
+    // keep levels 1 to levels
+    public MipmapPyramid(int levels) {
+        mLevels = levels;
+        mBitmaps = new Bitmap[levels + 1];
+        mCanvases = new Canvas[levels + 1];
+        mDirty = new Rect[levels + 1];
+        for (int i = 1; i <= levels; ++i) {
+            mDirty[i] = new Rect();
+        }
+    }
+
+    // the level to draw at scale: the smallest one at least as big as what's shown, 0 for the drawing itself
+    public static int levelFor(float scale, int levels) {
+        int level = 0;
+        while (level < levels && scale <= 0.5f / (1 << level)) ++level;
+        return level;
+    }
+
+    // the drawing's size changed, the levels are made again when needed
+    public void setSize(int width, int height) {
+        if (width == mWidth && height == mHeight) return;
+        release();
+        mWidth = width;
+        mHeight = height;
+    }
+
+    // the drawing changed inside the box
+    public void invalidate(int left, int top, int right, int bottom) {
+        for (int i = 1; i <= mLevels; ++i) {
+            mDirty[i].union(left, top, right, bottom);
+        }
+    }
+
+    public void invalidate(Rect rect) {
+        invalidate(rect.left, rect.top, rect.right, rect.bottom);
+    }
+
+    // the whole drawing changed
+    public void invalidateAll() {
+        invalidate(0, 0, mWidth, mHeight);
+    }
+
+    // return level (1 to levels), making the parts of it and the levels before it that changed
+    public Bitmap getLevel(int level, Source source) {
+        for (int i = 1; i <= level; ++i) {
+            if (mBitmaps[i] == null) {
+                int size = 1 << i;
+                mBitmaps[i] = Bitmap.createBitmap((mWidth + size - 1) / size, (mHeight + size - 1) / size,
+                        Bitmap.Config.ARGB_8888);
+                mCanvases[i] = new Canvas(mBitmaps[i]);
+                mDirty[i].set(0, 0, mWidth, mHeight);
+            }
+            Rect dirty = mDirty[i];
+            if (!dirty.intersect(0, 0, mWidth, mHeight)) {
+                dirty.setEmpty();
+                continue;
+            }
+
+            // the level pixels the change touches
+            mDst.set(dirty.left >> i, dirty.top >> i,
+                    (dirty.right + (1 << i) - 1) >> i, (dirty.bottom + (1 << i) - 1) >> i);
+            Canvas canvas = mCanvases[i];
+            canvas.save();
+            canvas.clipRect(mDst);
+            if (i == 1) {
+                // the drawing pixels under them
+                mSrc.set(mDst.left << 1, mDst.top << 1, mDst.right << 1, mDst.bottom << 1);
+                canvas.scale(0.5f, 0.5f);
+                source.draw(canvas, mSrc);
+            } else {
+                // the pixels of the level before under them
+                mSrc.set(mDst.left << 1, mDst.top << 1, mDst.right << 1, mDst.bottom << 1);
+                canvas.drawBitmap(mBitmaps[i - 1], mSrc, mDst, mPaintFilter);
+            }
+            canvas.restore();
+            dirty.setEmpty();
+        }
+        return mBitmaps[level];
+    }
+
+    // memory used by the level bitmaps
+    public long getByteCount() {
+        long bytes = 0;
+        for (int i = 1; i <= mLevels; ++i) {
+            if (mBitmaps[i] != null) bytes += mBitmaps[i].getByteCount();
+        }
+        return bytes;
+    }
+
+    // free the level bitmaps, they're made again when needed
+    public void release() {
+        for (int i = 1; i <= mLevels; ++i) {
+            if (mBitmaps[i] != null) mBitmaps[i].recycle();
+            mBitmaps[i] = null;
+            mCanvases[i] = null;
+            mDirty[i].setEmpty();
+        }
+    }
+}
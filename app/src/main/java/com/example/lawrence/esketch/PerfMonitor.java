@@ -0,0 +1,154 @@
+package com.example.lawrence.esketch;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * measures the drawing pipeline of eSketchView while it's turned on.
+ *
+ * Every measurement goes into a LatencyHistogram, which is lock-free and never allocates,
+ * so the record methods cost a few atomic adds and can be called from any thread. While
+ * off they return right away, and callers check isEnabled() before taking timestamps.
+ *
+ * dump() writes the summaries and every non-empty bucket to a text file for looking at
+ * offline (e.g. adb pull, then a spreadsheet).
+ */
+public class PerfMonitor {
+
+    /**
+     * told on the UI thread when a dump is written, with null if it failed.
+     */
+    public interface OnDumpListener {
+        void onDumpFinished(File file);
+    }
+
+    private final LatencyHistogram mInputLatency = new LatencyHistogram("input-to-ink");
+    private final LatencyHistogram mFrameTimes = new LatencyHistogram("onDraw time");
+    private final LatencyHistogram mPathsPerFrame = new LatencyHistogram("paths per frame", " paths");
+    private final LatencyHistogram mCommitTimes = new LatencyHistogram("stroke commit time");
+    private final LatencyHistogram mSaveTimes = new LatencyHistogram("save time");
+    private final LatencyHistogram[] mHistograms = {
+            mInputLatency, mFrameTimes, mPathsPerFrame, mCommitTimes, mSaveTimes
+    };
+
+    private volatile boolean mEnabled;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // at most one background thread for dumps, which goes away when idle
+    private final Executor mExecutor = new ThreadPoolExecutor(
+            0, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>()
+    );
+
+    // start or stop measuring. what was measured is kept until reset().
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    // time from a touch event to the frame showing it, in microseconds
+    public void recordInputLatency(long micros) {
+        if (mEnabled) mInputLatency.record(micros);
+    }
+
+    // one onDraw(): how long it took and how many live paths it drew
+    public void recordFrame(long micros, int paths) {
+        if (!mEnabled) return;
+        mFrameTimes.record(micros);
+        mPathsPerFrame.record(paths);
+    }
+
+    // time to move a finished stroke into the bitmap (and the history)
+    public void recordCommit(long micros) {
+        if (mEnabled) mCommitTimes.record(micros);
+    }
+
+    // time from asking for a save until the file is written
+    public void recordSave(long micros) {
+        if (mEnabled) mSaveTimes.record(micros);
+    }
+
+    public LatencyHistogram getInputLatency() {
+        return mInputLatency;
+    }
+
+    public LatencyHistogram getFrameTimes() {
+        return mFrameTimes;
+    }
+
+    // all the histograms, in the order they are shown
+    public LatencyHistogram[] getHistograms() {
+        return mHistograms;
+    }
+
+    // forget everything measured
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+    }
+
+    // write everything measured so far to a new file in dir (on a background thread)
+    public void dump(final File dir, final OnDumpListener listener) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File file = new File(dir, "eSketch-perf-" + System.currentTimeMillis() + ".txt");
+                boolean written;
+                try {
+                    dir.mkdirs();
+                    Writer out = new FileWriter(file);
+                    try {
+                        write(out);
+                    } finally {
+                        out.close();
+                    }
+                    written = true;
+                } catch (IOException e) {
+                    file.delete(); // don't leave half a file
+                    written = false;
+                }
+
+                final File result = written ? file : null;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onDumpFinished(result);
+                    }
+                });
+            }
+        });
+    }
+
+    // the summary lines, then "histogram,lowest value of bucket,count" for each bucket used
+    private void write(Writer out) throws IOException {
+        out.write("# eSketch performance, " + new Date() + ", " + Build.MANUFACTURER + " " + Build.MODEL
+                + ", Android " + Build.VERSION.RELEASE + "\n");
+        for (LatencyHistogram histogram : mHistograms) {
+            out.write("# " + histogram + "\n");
+        }
+        out.write("histogram,bucket,count\n");
+        for (LatencyHistogram histogram : mHistograms) {
+            for (int b = 0; b < histogram.getBucketCount(); ++b) {
+                long count = histogram.getCountInBucket(b);
+                if (count > 0) {
+                    out.write(histogram.getName() + "," + histogram.getBucketValue(b) + "," + count + "\n");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.lawrence.esketch;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * hands touch input from the UI thread to a render thread without locks.
+ *
+ * A fixed size ring of records (what happened, which pointer, where, when) stored in
+ * plain arrays. Exactly one thread may offer() and exactly one other thread may drain().
+ * Neither ever waits for the other: offer() returns false if the ring is full.
+ */
+public class SegmentQueue {
+
+    // record types
+    public static final int START = 0; // a finger touched down at (x, y)
+    public static final int MOVE = 1;  // a finger moved to (x, y)
+    public static final int END = 2;   // a finger lifted
+    public static final int CLEAR = 3; // erase the drawing
+
+    /**
+     * gets the records taken out by drain().
+     */
+    public interface Reader {
+        void onRecord(int type, int pointer, float x, float y, long time);
+    }
+
+    private final int mMask;
+    private final int[] mTypes;
+    private final int[] mPointers;
+    private final float[] mXs;
+    private final float[] mYs;
+    private final long[] mTimes;
+
+    // records are read at mHead and written at mTail; both only grow.
+    // setting them "lazily" (ordered, without a full fence) publishes the array writes before them.
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+
+    // capacity is rounded up to a power of two
+    public SegmentQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mMask = size - 1;
+        mTypes = new int[size];
+        mPointers = new int[size];
+        mXs = new float[size];
+        mYs = new float[size];
+        mTimes = new long[size];
+    }
+
+    public int capacity() {
+        return mMask + 1;
+    }
+
+    // return how many records are waiting
+    public int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    // add a record (producer thread only), return false if the queue is full
+    public boolean offer(int type, int pointer, float x, float y, long time) {
+        long tail = mTail.get();
+        if (tail - mHead.get() > mMask) return false;
+
+        int i = (int) tail & mMask;
+        mTypes[i] = type;
+        mPointers[i] = pointer;
+        mXs[i] = x;
+        mYs[i] = y;
+        mTimes[i] = time;
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    // pass every waiting record to reader in order (consumer thread only), return how many
+    public int drain(Reader reader) {
+        long head = mHead.get();
+        long tail = mTail.get();
+
+        for (long h = head; h < tail; ++h) {
+            int i = (int) h & mMask;
+            reader.onRecord(mTypes[i], mPointers[i], mXs[i], mYs[i], mTimes[i]);
+        }
+        mHead.lazySet(tail);
+        return (int) (tail - head);
+    }
+}
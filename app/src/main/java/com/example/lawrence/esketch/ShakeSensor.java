@@ -0,0 +1,104 @@
+package com.example.lawrence.esketch;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * feeds the accelerometer to a ShakeDetector, in batches.
+ *
+ * On Android 4.4 and later the sensor is registered with a max report latency, so the
+ * sensor hub collects samples while the app sleeps and delivers them together. The
+ * samples of one delivery are buffered and handed to the detector as one batch once
+ * they have all arrived. Older devices deliver every sample on its own; the batches
+ * are just smaller there.
+ *
+ * Must be used on the UI thread.
+ */
+public class ShakeSensor implements SensorEventListener {
+
+    private static final String TAG = "eSketch";
+
+    private static final int SAMPLING_PERIOD_US = 20000;      // 50 samples per second
+    private static final int MAX_REPORT_LATENCY_US = 400000;  // wake up at most every 0.4s
+    private static final int MAX_BATCH = 128;
+
+    private final SensorManager mSensorManager;
+    private final Sensor mSensor;
+    private final ShakeDetector mDetector;
+    private final Handler mHandler = new Handler();
+
+    // the delivery being collected
+    private final long[] mTimes = new long[MAX_BATCH];
+    private final float[] mValues = new float[3 * MAX_BATCH];
+    private int mCount;
+
+    // runs after the last sample of a delivery
+    private final Runnable mProcessBatch = new Runnable() {
+        @Override
+        public void run() {
+            processBatch();
+        }
+    };
+
+    public ShakeSensor(Context context, ShakeDetector.OnShakeListener listener) {
+        mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        mSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        mDetector = new ShakeDetector(listener);
+    }
+
+    public ShakeDetector getDetector() {
+        return mDetector;
+    }
+
+    // start listening, return false if there is no accelerometer
+    public boolean start() {
+        if (mSensor == null) return false;
+
+        mDetector.reset();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            mSensorManager.registerListener(this, mSensor, SAMPLING_PERIOD_US, MAX_REPORT_LATENCY_US);
+        } else {
+            mSensorManager.registerListener(this, mSensor, SAMPLING_PERIOD_US);
+        }
+        return true;
+    }
+
+    // stop listening, to save battery
+    public void stop() {
+        if (mSensor == null) return;
+
+        mSensorManager.unregisterListener(this, mSensor);
+        mHandler.removeCallbacks(mProcessBatch);
+        mCount = 0;
+        Log.i(TAG, "shake sensor: " + mDetector.getSampleCount() + " samples in "
+                + mDetector.getBatchCount() + " batches, " + mDetector.getWakeupsSaved() + " wakeups saved");
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        // the samples of one delivery are dispatched back to back, so a runnable posted
+        // on the first one runs after the last
+        if (mCount == 0) mHandler.post(mProcessBatch);
+
+        mTimes[mCount] = event.timestamp;
+        mValues[3 * mCount] = event.values[0];
+        mValues[3 * mCount + 1] = event.values[1];
+        mValues[3 * mCount + 2] = event.values[2];
+        if (++mCount == MAX_BATCH) processBatch();
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) { /* not used */ }
+
+    private void processBatch() {
+        int count = mCount;
+        mCount = 0;
+        mDetector.process(mTimes, mValues, count);
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.lawrence.esketch;
+
+/**
+ * what the fragment and its dialogs need from a view that can be drawn on, so the same
+ * menu works with eSketchView and with eSketchSurfaceView (which draws on a render thread
+ * and does nothing but draw lines).
+ */
+public interface SketchSurface {
+
+    void setDrawingColor(int color);
+
+    int getDrawingsColor();
+
+    void setLineWidth(int width);
+
+    int getLineWidth();
+
+    // erase the whole drawing
+    void clear();
+}
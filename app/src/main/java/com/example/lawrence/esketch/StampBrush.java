@@ -0,0 +1,161 @@
+package com.example.lawrence.esketch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+
+/**
+ * draws strokes by stamping a pre-rasterized brush tip (see BrushTipCache) along them,
+ * every SPACING of the brush width of distance traveled (see Stamper), instead of
+ * stroking a Path.
+ *
+ * Stamps that far apart overlap about ten deep, and blended over each other they add up:
+ * the anti-aliased edge of a hard tip gets jagged and most of a soft tip comes out
+ * solid. So stamps go into a coverage layer instead, where each pixel keeps the most any
+ * one stamp covered it. Tips and the layer are opaque gray (coverage is the gray, black
+ * is nothing), and tips are drawn with LIGHTEN, which is max() for opaque pixels. The
+ * layer is then drawn once in the stroke's color with its gray as alpha (see
+ * setCoverageColor()), so a stroke is as soft across as one tip, and translucent colors
+ * are blended once.
+ *
+ * A finger's final segments are stamped once, straight into the coverage layer given to
+ * begin(), so a long stroke costs nothing more to show each frame. Only the end that
+ * isn't final yet is stamped again each frame, with drawPending(). draw() makes its own
+ * layer. Stamps are drawn with filtering, so they land at fractional positions.
+ * Stamping doesn't allocate once the tip is in the cache.
+ */
+public class StampBrush {
+
+    // stamps are this fraction of the brush width apart, but at least MIN_SPACING px
+    private static final float SPACING = 0.1f;
+    private static final float MIN_SPACING = 1;
+
+    private final BrushTipCache mTips;
+
+    // final segments of each finger, the end that isn't final yet, and whole strokes.
+    // each has its own targets, so drawing one doesn't disturb the others.
+    private final Tips mLiveTips = new Tips();
+    private final Stamper mLive = new Stamper(mLiveTips);
+    private final Tips mPendingTips = new Tips();
+    private final Stamper mPending = new Stamper(mPendingTips);
+    private final Tips mStrokeTips = new Tips();
+    private final Stamper mStroke = new Stamper(mStrokeTips);
+    private final Paint mStrokePaint = new Paint(); // draws draw()'s layer in the stroke's color
+
+    // tips of up to cacheBytes are kept
+    public StampBrush(int cacheBytes) {
+        mTips = new BrushTipCache(cacheBytes);
+    }
+
+    // set paint to draw a coverage layer in color: its gray times color's alpha becomes
+    // the alpha. allocates a color filter, don't call it for every frame.
+    public static void setCoverageColor(Paint paint, int color) {
+        float alpha = Color.alpha(color) / 255f;
+        paint.setColorFilter(new ColorMatrixColorFilter(new ColorMatrix(new float[]{
+                0, 0, 0, 0, Color.red(color),
+                0, 0, 0, 0, Color.green(color),
+                0, 0, 0, 0, Color.blue(color),
+                alpha, 0, 0, 0, 0,
+        })));
+    }
+
+    // start stamping pointer's stroke into a coverage layer (opaque black where nothing
+    // is stamped yet). the segments go to getSink().
+    public void begin(int pointer, Canvas coverage, float width, float hardness) {
+        mLiveTips.canvases[pointer] = coverage;
+        mLiveTips.tips[pointer] = mTips.get(width, hardness);
+        mLive.setSpacing(pointer, spacing(width));
+    }
+
+    // stamp into coverage from now on, e.g. when the layer was replaced mid-stroke
+    public void setCanvas(int pointer, Canvas coverage) {
+        mLiveTips.canvases[pointer] = coverage;
+    }
+
+    // gets the final segments of the strokes started with begin()
+    public SegmentSink getSink() {
+        return mLive;
+    }
+
+    // stamp the end of pointer's stroke that isn't final yet into a coverage layer,
+    // leaving the final stamps where they are. return false if there is no such end.
+    public boolean drawPending(Canvas coverage, int pointer, StrokeBuilder strokes) {
+        mPendingTips.canvases[pointer] = coverage;
+        mPendingTips.tips[pointer] = mLiveTips.tips[pointer];
+        mPending.continueFrom(mLive, pointer);
+        return strokes.pending(pointer, pendingSink);
+    }
+
+    // stamp a whole stroke on canvas, through a coverage layer the size of its box
+    public void draw(Canvas canvas, Stroke stroke) {
+        // the curves stay inside the box around their points
+        float left = Float.MAX_VALUE, top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE, bottom = -Float.MAX_VALUE;
+        for (int i = 0; i < stroke.getPointCount(); ++i) {
+            left = Math.min(left, stroke.getX(i));
+            top = Math.min(top, stroke.getY(i));
+            right = Math.max(right, stroke.getX(i));
+            bottom = Math.max(bottom, stroke.getY(i));
+        }
+        float pad = stroke.getWidth() / 2 + 2;
+        setCoverageColor(mStrokePaint, stroke.getColor());
+        int save = canvas.saveLayer(left - pad, top - pad, right + pad, bottom + pad, mStrokePaint,
+                Canvas.ALL_SAVE_FLAG);
+        canvas.drawColor(Color.BLACK);
+
+        mStrokeTips.canvases[0] = canvas;
+        mStrokeTips.tips[0] = mTips.get(stroke.getWidth(), stroke.getHardness());
+        mStroke.setSpacing(0, spacing(stroke.getWidth()));
+        StrokeBuilder.replay(stroke, mStroke);
+        mStrokeTips.canvases[0] = null;
+
+        canvas.restoreToCount(save);
+    }
+
+    private static float spacing(float width) {
+        return Math.max(MIN_SPACING, width * SPACING);
+    }
+
+    // the pending end starts where the final segments stop, so its moveTo isn't a new stroke
+    private final SegmentSink pendingSink = new SegmentSink() {
+        @Override
+        public void moveTo(int pointer, float x, float y) {
+            // continues from the live stamper
+        }
+
+        @Override
+        public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+            mPending.quadTo(pointer, controlX, controlY, endX, endY);
+        }
+
+        @Override
+        public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                            float endX, float endY) {
+            mPending.cubicTo(pointer, control1X, control1Y, control2X, control2Y, endX, endY);
+        }
+    };
+
+    /**
+     * stamps each pointer's tip, centered, on its coverage layer, keeping the most coverage.
+     */
+    private static class Tips implements Stamper.Target {
+        final Canvas[] canvases = new Canvas[StrokeBuilder.MAX_POINTERS];
+        final Bitmap[] tips = new Bitmap[StrokeBuilder.MAX_POINTERS];
+        final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+        Tips() {
+            paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.LIGHTEN));
+        }
+
+        @Override
+        public void stamp(int pointer, float x, float y) {
+            Bitmap tip = tips[pointer];
+            canvases[pointer].drawBitmap(tip, x - tip.getWidth() / 2f, y - tip.getHeight() / 2f, paint);
+        }
+    }
+}
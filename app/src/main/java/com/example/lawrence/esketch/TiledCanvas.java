@@ -0,0 +1,439 @@
+package com.example.lawrence.esketch;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * a drawing surface much bigger than the screen, split into TILE_SIZE x TILE_SIZE tiles.
+ *
+ * A tile's bitmap is only allocated the first time something is drawn on it, so blank
+ * parts of the canvas cost nothing. The most recently used tiles are kept in memory
+ * (up to a byte limit), the others are compressed to files in the cache directory and
+ * loaded back when they're needed again. So memory depends on how much is drawn
+ * around the part being looked at, not on how big the canvas is. Tiles that come into
+ * view are loaded on the background thread, with a placeholder drawn until they're
+ * back, so scrolling never waits for the disk (drawing on one loads it right away).
+ *
+ * Most tiles only ever get ink of one color, so a tile starts as an ALPHA_8 mask of how
+ * much ink covers each pixel plus that one color: a byte per pixel instead of four. A
+ * tile turns into a full color ARGB_8888 one when a different color is drawn on it, so
+ * only the tiles where colors mix cost the full four bytes. A translucent color draws
+ * its alpha into the mask, which comes out the same as drawing it in color. The masks
+ * are colored in when the tiles are drawn (for the screen or an export).
+ *
+ * Tile coordinates can be negative, the canvas goes on in every direction.
+ * All the public methods must be called on the UI thread.
+ */
+public class TiledCanvas {
+
+    private static final String TAG = "eSketch";
+
+    public static final int TILE_SIZE = 256;
+
+    private static final int FULL = 0; // the color of a full color tile, never an opaque one
+    private static final int PLACEHOLDER = 0x20808080; // where a tile is still being loaded
+
+    /**
+     * told on the UI thread when a tile that draw() had to leave out is loaded.
+     */
+    public interface OnTileLoadedListener {
+        void onTileLoaded();
+    }
+
+    private static class Tile {
+        final Bitmap bitmap;
+        final Canvas canvas;
+        final int color; // the ink's color (opaque) if bitmap is a mask, else FULL
+        boolean dirty; // changed since it was last written to disk
+
+        Tile(Bitmap bitmap, int color) {
+            this.bitmap = bitmap;
+            this.canvas = new Canvas(bitmap);
+            this.color = color;
+        }
+
+        boolean isMask() {
+            return color != FULL;
+        }
+    }
+
+    private final File mDir;
+    private final LruCache<Long, Tile> mTiles;
+
+    // tiles that have a file (with the tile's color), and tiles whose file is being
+    // written (still readable from memory)
+    private final Map<Long, Integer> mOnDisk = new HashMap<>();
+    private final Map<Long, Tile> mWriting = new HashMap<>();
+
+    // tiles being loaded for draw(), with the number of the load. a load whose number isn't
+    // there anymore when it's done (the tile was loaded right away, or cleared) is dropped.
+    private final Map<Long, Integer> mLoading = new HashMap<>();
+    private int mLoadCount;
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private OnTileLoadedListener mListener;
+
+    // reused while drawing
+    private final RectF mBounds = new RectF();
+    private final RectF mDst = new RectF();
+    private final Rect mSrc = new Rect(0, 0, TILE_SIZE, TILE_SIZE);
+    private final Paint mPaintMask = new Paint(); // colors in the masks
+    private final Paint mPaintPlaceholder = new Paint();
+
+    // keep at most maxBytes of tiles in memory
+    public TiledCanvas(Context context, int maxBytes) {
+        mDir = new File(context.getCacheDir(), "tiles");
+        mDir.mkdirs();
+
+        mTiles = new LruCache<Long, Tile>(maxBytes) {
+            @Override
+            protected int sizeOf(Long key, Tile tile) {
+                return tile.bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Long key, Tile tile, Tile newTile) {
+                if (evicted) evict(key, tile);
+            }
+        };
+        mPaintPlaceholder.setColor(PLACEHOLDER);
+    }
+
+    public void setOnTileLoadedListener(OnTileLoadedListener listener) {
+        mListener = listener;
+    }
+
+    // return how many tiles have ink on them, in memory or on disk
+    public int getInkedTileCount() {
+        Set<Long> keys = new HashSet<>(mOnDisk.keySet());
+        keys.addAll(mTiles.snapshot().keySet());
+        return keys.size();
+    }
+
+    // return the memory used by the tiles kept in memory
+    public int getMemoryBytes() {
+        return mTiles.size();
+    }
+
+    // return how many tiles are being loaded in the background
+    public int getLoadingTileCount() {
+        return mLoading.size();
+    }
+
+    // return how many of the tiles in memory are full color, the others are masks
+    public int getFullTileCount() {
+        int count = 0;
+        for (Tile tile : mTiles.snapshot().values()) {
+            if (!tile.isMask()) ++count;
+        }
+        return count;
+    }
+
+    // draw path (in canvas coordinates) on every tile it touches
+    public void drawPath(Path path, Paint paint) {
+        path.computeBounds(mBounds, false);
+        float pad = paint.getStrokeWidth() / 2 + 1; // half the line and the anti-aliasing
+        int left = tileIndex(mBounds.left - pad);
+        int top = tileIndex(mBounds.top - pad);
+        int right = tileIndex(mBounds.right + pad);
+        int bottom = tileIndex(mBounds.bottom + pad);
+        int color = paint.getColor() | 0xFF000000; // the alpha goes into the mask
+
+        for (int ty = top; ty <= bottom; ++ty) {
+            for (int tx = left; tx <= right; ++tx) {
+                Long key = key(tx, ty);
+                Tile tile = getTile(key);
+                if (tile == null) {
+                    tile = new Tile(Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ALPHA_8), color);
+                    mTiles.put(key, tile);
+                } else if (tile.isMask() && tile.color != color) {
+                    tile = toFullColor(key, tile);
+                }
+                int save = tile.canvas.save();
+                tile.canvas.translate(-tx * TILE_SIZE, -ty * TILE_SIZE);
+                tile.canvas.drawPath(path, paint);
+                tile.canvas.restoreToCount(save);
+                tile.dirty = true;
+            }
+        }
+    }
+
+    // draw the tiles visible in a width x height view that shows the canvas from
+    // (originX, originY) at the given scale. only those tiles are touched. the ones on disk
+    // are drawn as placeholders and loaded in the background, the listener is told when
+    // they can be drawn.
+    public void draw(Canvas canvas, float originX, float originY, float scale,
+                     int width, int height, Paint paint) {
+        draw(canvas, originX, originY, scale, width, height, paint, false);
+    }
+
+    // the same, but tiles on disk are loaded right away, e.g. for saving what the view shows
+    public void drawLoaded(Canvas canvas, float originX, float originY, float scale,
+                           int width, int height, Paint paint) {
+        draw(canvas, originX, originY, scale, width, height, paint, true);
+    }
+
+    private void draw(Canvas canvas, float originX, float originY, float scale,
+                      int width, int height, Paint paint, boolean loadNow) {
+        int left = tileIndex(originX);
+        int top = tileIndex(originY);
+        int right = tileIndex(originX + width / scale);
+        int bottom = tileIndex(originY + height / scale);
+        mPaintMask.set(paint);
+
+        for (int ty = top; ty <= bottom; ++ty) {
+            for (int tx = left; tx <= right; ++tx) {
+                Long key = key(tx, ty);
+                Tile tile = loadNow ? getTile(key) : findTile(key);
+                if (tile == null && !mLoading.containsKey(key)) continue; // blank
+
+                mDst.left = (tx * TILE_SIZE - originX) * scale;
+                mDst.top = (ty * TILE_SIZE - originY) * scale;
+                mDst.right = mDst.left + TILE_SIZE * scale;
+                mDst.bottom = mDst.top + TILE_SIZE * scale;
+                if (tile == null) {
+                    canvas.drawRect(mDst, mPaintPlaceholder);
+                } else if (tile.isMask()) {
+                    mPaintMask.setColor(tile.color); // an ALPHA_8 bitmap is drawn in the paint's color
+                    canvas.drawBitmap(tile.bitmap, mSrc, mDst, mPaintMask);
+                } else {
+                    canvas.drawBitmap(tile.bitmap, mSrc, mDst, paint);
+                }
+            }
+        }
+    }
+
+    // erase everything, in memory and on disk
+    public void clear() {
+        // removing with put(null) isn't allowed, so drop the entries without the eviction callback
+        for (Long key : mTiles.snapshot().keySet()) {
+            Tile tile = mTiles.remove(key);
+            if (tile != null) tile.bitmap.recycle();
+        }
+        mOnDisk.clear();
+        mLoading.clear(); // what they load is dropped
+        synchronized (mWriting) {
+            mWriting.clear();
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = mDir.listFiles();
+                if (files == null) return;
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        });
+    }
+
+    // which tile a canvas coordinate falls in (rounding down, also for negative ones)
+    private static int tileIndex(float coordinate) {
+        return (int) Math.floor(coordinate / TILE_SIZE);
+    }
+
+    private static long key(int tx, int ty) {
+        return ((long) tx << 32) | (ty & 0xFFFFFFFFL);
+    }
+
+    // find a tile in memory or on disk, null if it's blank
+    private Tile getTile(Long key) {
+        Tile tile = getTileInMemory(key);
+        if (tile == null && mOnDisk.containsKey(key)) {
+            mLoading.remove(key); // this load is newer than one in the background
+            int color = mOnDisk.get(key);
+            tile = load(key, color);
+            if (tile == null) failedToLoad(key);
+            else mTiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    // find a tile in memory, or start loading it in the background if it's on disk.
+    // null if it's blank or not loaded yet.
+    private Tile findTile(Long key) {
+        Tile tile = getTileInMemory(key);
+        if (tile == null && mOnDisk.containsKey(key) && !mLoading.containsKey(key)) loadLater(key);
+        return tile;
+    }
+
+    private Tile getTileInMemory(Long key) {
+        Tile tile = mTiles.get(key);
+        if (tile != null) return tile;
+
+        synchronized (mWriting) {
+            tile = mWriting.remove(key);
+        }
+        if (tile != null) {
+            tile.dirty = true; // its file may not be finished, write it again later
+            mTiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    // load a tile on the background thread, after its file is written if that's still going on
+    private void loadLater(final Long key) {
+        final int color = mOnDisk.get(key);
+        final int load = ++mLoadCount;
+        mLoading.put(key, load);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Tile tile = load(key, color);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        loaded(key, load, tile);
+                    }
+                });
+            }
+        });
+    }
+
+    private void loaded(Long key, int load, Tile tile) {
+        Integer current = mLoading.get(key);
+        if (current == null || current != load) {
+            if (tile != null) tile.bitmap.recycle(); // loaded again since, or cleared
+            return;
+        }
+        mLoading.remove(key);
+        if (tile == null) failedToLoad(key);
+        else mTiles.put(key, tile);
+        if (mListener != null) mListener.onTileLoaded();
+    }
+
+    private void failedToLoad(Long key) {
+        Log.e(TAG, "tile " + Long.toHexString(key) + " could not be loaded");
+        mOnDisk.remove(key);
+    }
+
+    // a second color is drawn on a mask tile: replace it with a full color tile with the same ink
+    private Tile toFullColor(Long key, Tile mask) {
+        Tile tile = new Tile(Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888), FULL);
+        mPaintMask.reset();
+        mPaintMask.setColor(mask.color);
+        tile.canvas.drawBitmap(mask.bitmap, 0, 0, mPaintMask);
+        tile.dirty = true;
+        mTiles.put(key, tile); // replaced, not evicted, so the mask isn't written
+        mask.bitmap.recycle();
+        return tile;
+    }
+
+    // full color tiles are PNG files, masks are their color and the deflated mask
+    private File file(long key, boolean mask) {
+        return new File(mDir, Long.toHexString(key) + (mask ? ".mask" : ".png"));
+    }
+
+    // read a tile's file, null if it can't be. called on either thread.
+    private Tile load(long key, int color) {
+        Tile tile = null;
+        if (color == FULL) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inMutable = true;
+            Bitmap bitmap = BitmapFactory.decodeFile(file(key, false).getPath(), options);
+            if (bitmap != null) tile = new Tile(bitmap, FULL);
+        } else {
+            try {
+                tile = loadMask(key, color);
+            } catch (IOException e) {
+                Log.e(TAG, "mask " + Long.toHexString(key) + " could not be read", e);
+            }
+        }
+        return tile;
+    }
+
+    private Tile loadMask(long key, int color) throws IOException {
+        DataInputStream in = new DataInputStream(new InflaterInputStream(
+                new BufferedInputStream(new FileInputStream(file(key, true)))));
+        try {
+            if (in.readInt() != color) return null;
+            byte[] pixels = new byte[TILE_SIZE * TILE_SIZE];
+            in.readFully(pixels);
+            Bitmap bitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ALPHA_8);
+            bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(pixels));
+            return new Tile(bitmap, color);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void saveMask(Bitmap mask, int color, OutputStream out) throws IOException {
+        ByteBuffer pixels = ByteBuffer.allocate(mask.getByteCount());
+        mask.copyPixelsToBuffer(pixels);
+        DeflaterOutputStream deflater = new DeflaterOutputStream(out);
+        DataOutputStream data = new DataOutputStream(deflater);
+        data.writeInt(color);
+        data.write(pixels.array());
+        deflater.finish(); // out is closed by the caller
+    }
+
+    // a tile dropped out of memory: write it to disk (if it changed) on the background thread
+    private void evict(final Long key, final Tile tile) {
+        if (!tile.dirty && mOnDisk.containsKey(key)) {
+            tile.bitmap.recycle();
+            return;
+        }
+
+        tile.dirty = false;
+        mOnDisk.put(key, tile.color);
+        synchronized (mWriting) {
+            mWriting.put(key, tile);
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    OutputStream out = new BufferedOutputStream(new FileOutputStream(file(key, tile.isMask())));
+                    try {
+                        if (tile.isMask()) {
+                            saveMask(tile.bitmap, tile.color, out);
+                        } else {
+                            tile.bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+                        }
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "tile " + Long.toHexString(key) + " could not be saved", e);
+                }
+
+                // only free it if it wasn't taken back into use while it was written
+                synchronized (mWriting) {
+                    if (mWriting.remove(key) == tile) tile.bitmap.recycle();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.lawrence.esketch;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.v4.app.DialogFragment;
+import android.view.View;
+import android.widget.SeekBar;
+import android.widget.SeekBar.OnSeekBarChangeListener;
+import android.widget.TextView;
+
+/**
+ * This is the dialog that plays the drawing back, with a seek bar and a speed bar.
+ */
+public class TimelapseDialogFragment extends DialogFragment {
+
+    private static final int DEFAULT_SPEED = 3; // speed bar position, 2^3 = 8x
+
+    private TimelapseView mTimelapseView;
+    private SeekBar mTimeSeekBar;
+    private TextView mSpeedTextView;
+    private boolean mSeeking; // the user is dragging the seek bar
+
+    // create AlertDialog and return it
+    @NonNull
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        View timelapseDialogView = getActivity()
+                .getLayoutInflater().inflate(R.layout.fragment_timelapse, null);
+        builder.setView(timelapseDialogView); // add GUI to dialog
+        builder.setTitle(R.string.title_timelapse_dialog);
+
+        // play a copy of what the sketch view recorded
+        eSketchView sketchView = getSketchFragment().getSketchView();
+        mTimelapseView = (TimelapseView) timelapseDialogView.findViewById(R.id.timelapseView);
+        mTimelapseView.setDrawing(sketchView.getTouchLog(), sketchView.getTimelapseStart(),
+                sketchView.getWidth(), sketchView.getHeight());
+        mTimelapseView.setOnProgressListener(progressListener);
+
+        mTimeSeekBar = (SeekBar) timelapseDialogView.findViewById(R.id.timeSeekBar);
+        mTimeSeekBar.setMax(mTimelapseView.getDuration());
+        mTimeSeekBar.setOnSeekBarChangeListener(timeChangeListener);
+
+        mSpeedTextView = (TextView) timelapseDialogView.findViewById(R.id.speedTextView);
+        SeekBar speedSeekBar = (SeekBar) timelapseDialogView.findViewById(R.id.speedSeekBar);
+        speedSeekBar.setOnSeekBarChangeListener(speedChangeListener);
+        speedSeekBar.setProgress(DEFAULT_SPEED);
+        speedChangeListener.onProgressChanged(speedSeekBar, DEFAULT_SPEED, false);
+
+        builder.setPositiveButton(R.string.button_close, null);
+        return builder.create();
+    }
+
+    // helper to get ref to MainActivityFragment
+    private MainActivityFragment getSketchFragment(){
+        return (MainActivityFragment) getFragmentManager().findFragmentById(R.id.esketchFragment);
+    }
+
+    // tell MainActivityFragment that dialog is now displayed
+    @Override
+    public void onAttach(Activity activity) {
+        super.onAttach(activity);
+
+        MainActivityFragment fragment = getSketchFragment();
+        if( fragment != null )  fragment.setDialogOnScreen(true);
+    }
+
+    // tell MainActivityFragment that dialog is no longer displayed
+    @Override
+    public void onDetach() {
+        super.onDetach();
+
+        MainActivityFragment fragment = getSketchFragment();
+        if( fragment != null )  fragment.setDialogOnScreen(false);
+    }
+
+    // move the seek bar along with playback, unless the user holds it
+    private final TimelapseView.OnProgressListener progressListener = new TimelapseView.OnProgressListener() {
+        @Override
+        public void onProgress(int time, int duration) {
+            if( !mSeeking ) mTimeSeekBar.setProgress(time);
+        }
+    };
+
+    private final OnSeekBarChangeListener timeChangeListener = new OnSeekBarChangeListener() {
+        private boolean mWasPlaying;
+
+        @Override
+        public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+            if( fromUser ) mTimelapseView.seekTo(progress);
+        }
+
+        // hold playback while the user drags, and carry on from where they let go
+        @Override
+        public void onStartTrackingTouch(SeekBar seekBar) {
+            mSeeking = true;
+            mWasPlaying = mTimelapseView.isPlaying();
+            mTimelapseView.setPlaying(false);
+        }
+
+        @Override
+        public void onStopTrackingTouch(SeekBar seekBar) {
+            mSeeking = false;
+            mTimelapseView.setPlaying(mWasPlaying);
+        }
+    };
+
+    // speed doubles with each step of the bar, 1x to 64x
+    private final OnSeekBarChangeListener speedChangeListener = new OnSeekBarChangeListener() {
+        @Override
+        public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+            mTimelapseView.setSpeed(1 << progress);
+            mSpeedTextView.setText(getString(R.string.label_speed, 1 << progress));
+        }
+
+        @Override
+        public void onStartTrackingTouch(SeekBar seekBar) { /* not used */ }
+
+        @Override
+        public void onStopTrackingTouch(SeekBar seekBar) { /* not used */ }
+    };
+}
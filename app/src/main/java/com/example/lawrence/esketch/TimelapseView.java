@@ -0,0 +1,415 @@
+package com.example.lawrence.esketch;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.MotionEvent;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * plays a drawing back stroke by stroke, on its own render thread.
+ *
+ * The render thread owns a Timelapse that draws into a bitmap the size of the drawing.
+ * Each frame (at most once per FRAME_MILLIS, like eSketchSurfaceView) it moves the
+ * playback time on by the time since the last frame times the speed, seeks there and
+ * posts the bitmap and the strokes still being drawn, scaled to fit the surface.
+ * seekTo(), setSpeed() and setPlaying() only set fields the render thread reads on its
+ * next frame, so dragging a seek bar never waits for drawing. Tapping the view plays
+ * or pauses.
+ */
+public class TimelapseView extends SurfaceView implements SurfaceHolder.Callback {
+
+    private static final String TAG = "eSketch";
+
+    private static final long FRAME_MILLIS = 16; // about 60 frames per second
+    private static final int CHECKPOINT_INTERVAL = 2000; // touch events
+
+    /**
+     * told on the UI thread where playback is, once a frame while it moves.
+     */
+    public interface OnProgressListener {
+        void onProgress(int time, int duration);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private OnProgressListener mListener;
+
+    // set on the UI thread, read by the render thread
+    private volatile float mSpeed = 1;
+    private volatile boolean mPlaying = true;
+    private final AtomicLong mSeekRequest = new AtomicLong(-1); // time to seek to, -1 for none
+
+    // where playback is, for the progress listener
+    private volatile int mShownTime;
+
+    // kept between render threads (the thread only lives while the surface exists)
+    private Playback mPlayback;
+    private RenderThread mRenderThread;
+
+    public TimelapseView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        getHolder().addCallback(this);
+    }
+
+    // play log, whose strokes were drawn on top of start (null = blank) in a drawing of
+    // width x height. start is copied. call before the view is shown.
+    public void setDrawing(TouchLog log, Bitmap start, int width, int height) {
+        if (mPlayback != null) mPlayback.release();
+        mPlayback = new Playback(log, start, width, height);
+    }
+
+    public void setOnProgressListener(OnProgressListener listener) {
+        mListener = listener;
+    }
+
+    // playback speed, 1 is as fast as it was drawn
+    public void setSpeed(float speed) {
+        mSpeed = speed;
+    }
+
+    public float getSpeed() {
+        return mSpeed;
+    }
+
+    public void setPlaying(boolean playing) {
+        mPlaying = playing;
+        wakeRenderThread();
+    }
+
+    public boolean isPlaying() {
+        return mPlaying;
+    }
+
+    // show the drawing as it was time ms after the first touch
+    public void seekTo(int time) {
+        mSeekRequest.set(time);
+        wakeRenderThread();
+    }
+
+    // ms from the first touch to the last
+    public int getDuration() {
+        return mPlayback == null ? 0 : mPlayback.timelapse.getDuration();
+    }
+
+    // tap to play or pause, starting over once it reached the end
+    @Override
+    public boolean onTouchEvent(MotionEvent motionEvent) {
+        if (motionEvent.getActionMasked() == MotionEvent.ACTION_UP) {
+            if (!mPlaying && mShownTime >= getDuration()) seekTo(0);
+            setPlaying(!mPlaying);
+        }
+        return true;
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        if (mPlayback == null) return;
+        mRenderThread = new RenderThread(holder, mPlayback);
+        mRenderThread.start();
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        wakeRenderThread(); // draw a frame at the new size
+    }
+
+    // the surface can't be drawn on after this returns, so wait for the render thread to stop
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        if (mRenderThread == null) return;
+        mRenderThread.quit();
+        mRenderThread = null;
+    }
+
+    // the checkpoints are only needed while the view is shown
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (mRenderThread != null) {
+            mRenderThread.quit();
+            mRenderThread = null;
+        }
+        if (mPlayback != null) {
+            mPlayback.release();
+            mPlayback = null;
+        }
+    }
+
+    private void wakeRenderThread() {
+        RenderThread thread = mRenderThread;
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
+    // tells the listener where playback is, posted from the render thread
+    private final Runnable progressUpdate = new Runnable() {
+        @Override
+        public void run() {
+            if (mListener != null && mPlayback != null) {
+                mListener.onProgress(mShownTime, mPlayback.timelapse.getDuration());
+            }
+        }
+    };
+
+    /**
+     * the timelapse and the bitmap it plays into, used by one render thread at a time.
+     * checkpoints are copies of the bitmap.
+     */
+    private static class Playback implements Timelapse.Surface<Bitmap> {
+
+        final Timelapse<Bitmap> timelapse;
+        final Bitmap bitmap;
+        final Canvas canvas;
+        final Bitmap start;
+        double time; // ms of playback shown, -1 before the first frame
+
+        // strokes still being drawn, by pointer
+        final Path[] paths = new Path[StrokeBuilder.MAX_POINTERS];
+        final Paint[] paints = new Paint[StrokeBuilder.MAX_POINTERS];
+
+        // whole strokes (someone else's, or put back from the autosave)
+        final Path wholePath = new Path();
+        final Paint wholePaint = new Paint();
+
+        Playback(TouchLog log, Bitmap start, int width, int height) {
+            this.start = start == null ? null : start.copy(Bitmap.Config.ARGB_8888, false);
+            bitmap = Bitmap.createBitmap(Math.max(1, width), Math.max(1, height), Bitmap.Config.ARGB_8888);
+            canvas = new Canvas(bitmap);
+            time = -1;
+            wholePaint.setAntiAlias(true);
+            wholePaint.setStyle(Paint.Style.STROKE);
+            wholePaint.setStrokeCap(Paint.Cap.ROUND);
+
+            // checkpoints may use an eighth of the heap, then they are thinned out
+            timelapse = new Timelapse<>(log, this, this.start, CHECKPOINT_INTERVAL,
+                    Runtime.getRuntime().maxMemory() / 8);
+        }
+
+        void release() {
+            timelapse.release();
+            bitmap.recycle();
+            if (start != null) start.recycle();
+        }
+
+        @Override
+        public Bitmap snapshot() {
+            return bitmap.copy(Bitmap.Config.ARGB_8888, false);
+        }
+
+        @Override
+        public void restore(Bitmap checkpoint) {
+            bitmap.eraseColor(Color.WHITE);
+            if (checkpoint != null) canvas.drawBitmap(checkpoint, 0, 0, null);
+        }
+
+        @Override
+        public long sizeOf(Bitmap checkpoint) {
+            return checkpoint.getByteCount();
+        }
+
+        @Override
+        public void release(Bitmap checkpoint) {
+            checkpoint.recycle();
+        }
+
+        @Override
+        public void begin(int pointer, int color, float width) {
+            if (paints[pointer] == null) {
+                paints[pointer] = new Paint();
+                paints[pointer].setAntiAlias(true);
+                paints[pointer].setStyle(Paint.Style.STROKE);
+                paints[pointer].setStrokeCap(Paint.Cap.ROUND);
+                paths[pointer] = new Path();
+            }
+            paints[pointer].setColor(color);
+            paints[pointer].setStrokeWidth(width);
+        }
+
+        @Override
+        public void end(int pointer) {
+            canvas.drawPath(paths[pointer], paints[pointer]);
+        }
+
+        @Override
+        public void draw(Stroke stroke) {
+            wholePath.rewind();
+            StrokeBuilder.replay(stroke, wholeSink);
+            wholePaint.setColor(stroke.getColor());
+            wholePaint.setStrokeWidth(stroke.getWidth());
+            canvas.drawPath(wholePath, wholePaint);
+        }
+
+        // fills are few, so the pixels aren't kept between them
+        @Override
+        public void fill(int x, int y, int color) {
+            int width = bitmap.getWidth(), height = bitmap.getHeight();
+            if (x < 0 || y < 0 || x >= width || y >= height) return;
+            int[] pixels = new int[width * height];
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            FloodFill fill = new FloodFill(pixels, width, height);
+            if (fill.fill(x, y, color, eSketchView.FILL_TOLERANCE) && !fill.isEmpty()) {
+                int left = fill.getLeft(), top = fill.getTop();
+                bitmap.setPixels(pixels, top * width + left, width,
+                        left, top, fill.getRight() - left, fill.getBottom() - top);
+            }
+        }
+
+        private final SegmentSink wholeSink = new SegmentSink() {
+            @Override
+            public void moveTo(int pointer, float x, float y) {
+                wholePath.moveTo(x, y);
+            }
+
+            @Override
+            public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+                wholePath.quadTo(controlX, controlY, endX, endY);
+            }
+
+            @Override
+            public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                                float endX, float endY) {
+                wholePath.cubicTo(control1X, control1Y, control2X, control2Y, endX, endY);
+            }
+        };
+
+        @Override
+        public void moveTo(int pointer, float x, float y) {
+            paths[pointer].rewind();
+            paths[pointer].moveTo(x, y);
+        }
+
+        @Override
+        public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+            paths[pointer].quadTo(controlX, controlY, endX, endY);
+        }
+
+        @Override
+        public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                            float endX, float endY) {
+            paths[pointer].cubicTo(control1X, control1Y, control2X, control2Y, endX, endY);
+        }
+    }
+
+    /**
+     * moves playback on and posts frames while it runs.
+     */
+    private class RenderThread extends Thread {
+
+        private final SurfaceHolder mHolder;
+        private final Playback mPlayback;
+        private volatile boolean mRunning = true;
+
+        private final Matrix mMatrix = new Matrix();
+        private final Paint mPaintBitmap = new Paint(Paint.FILTER_BITMAP_FLAG);
+        private final LatencyHistogram mSeekTimes = new LatencyHistogram("timelapse seek time");
+
+        RenderThread(SurfaceHolder holder, Playback playback) {
+            super("eSketch timelapse");
+            mHolder = holder;
+            mPlayback = playback;
+        }
+
+        // UI thread: stop, and wait for the last frame to be done
+        void quit() {
+            mRunning = false;
+            LockSupport.unpark(this);
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            Log.i(TAG, mSeekTimes.toString());
+        }
+
+        @Override
+        public void run() {
+            long lastFrame = SystemClock.uptimeMillis();
+            boolean redraw = true; // the surface is new
+            while (mRunning) {
+                long frameStart = SystemClock.uptimeMillis();
+                Timelapse<Bitmap> timelapse = mPlayback.timelapse;
+                int duration = timelapse.getDuration();
+
+                double time = mPlayback.time < 0 ? 0 : mPlayback.time;
+                long seek = mSeekRequest.getAndSet(-1);
+                if (seek >= 0) {
+                    time = seek;
+                } else if (mPlaying) {
+                    time += (frameStart - lastFrame) * mSpeed;
+                }
+                lastFrame = frameStart;
+                if (time >= duration) {
+                    time = duration;
+                    mPlaying = false;
+                }
+
+                if (time != mPlayback.time || redraw) {
+                    long seekStart = System.nanoTime();
+                    timelapse.seekTo((long) time);
+                    mSeekTimes.record((System.nanoTime() - seekStart) / 1000);
+
+                    mPlayback.time = time;
+                    mShownTime = (int) time;
+                    present();
+                    mMainHandler.post(progressUpdate);
+                    redraw = false;
+                }
+
+                if (!mPlaying && mSeekRequest.get() < 0) {
+                    // nothing moves until a seek, play or new surface size
+                    LockSupport.park(this);
+                    redraw = true;
+                    lastFrame = SystemClock.uptimeMillis();
+                    continue;
+                }
+
+                // draw at most once a frame
+                long wait = frameStart + FRAME_MILLIS - SystemClock.uptimeMillis();
+                if (wait > 0) SystemClock.sleep(wait);
+            }
+        }
+
+        // post the bitmap scaled to fit the surface, with the strokes still being drawn on top
+        private void present() {
+            Canvas canvas = mHolder.lockCanvas();
+            if (canvas == null) return; // surface is going away
+            try {
+                Bitmap bitmap = mPlayback.bitmap;
+                float scale = Math.min((float) canvas.getWidth() / bitmap.getWidth(),
+                        (float) canvas.getHeight() / bitmap.getHeight());
+                mMatrix.setScale(scale, scale);
+                mMatrix.postTranslate((canvas.getWidth() - bitmap.getWidth() * scale) / 2,
+                        (canvas.getHeight() - bitmap.getHeight() * scale) / 2);
+
+                canvas.drawColor(Color.DKGRAY);
+                int save = canvas.save();
+                canvas.concat(mMatrix);
+                canvas.drawBitmap(bitmap, 0, 0, mPaintBitmap);
+                for (int bits = mPlayback.timelapse.getActivePointers(); bits != 0; bits &= bits - 1) {
+                    int pointer = Integer.numberOfTrailingZeros(bits);
+                    canvas.drawPath(mPlayback.paths[pointer], mPlayback.paints[pointer]);
+                }
+                canvas.restoreToCount(save);
+            } finally {
+                mHolder.unlockCanvasAndPost(canvas);
+            }
+        }
+    }
+}
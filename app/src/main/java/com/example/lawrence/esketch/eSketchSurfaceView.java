@@ -0,0 +1,353 @@
+package com.example.lawrence.esketch;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.MotionEvent;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * sketch surface that draws on its own render thread instead of the UI thread.
+ *
+ * Touch input is put into a lock-free SegmentQueue and the render thread is woken up.
+ * The render thread takes everything queued since its last frame, draws it into the
+ * bitmap and posts a frame (only the changed part), at most once per FRAME_MILLIS.
+ * So touch handling never waits for drawing, and a slow frame only makes the next
+ * frame draw more input at once.
+ *
+ * The queue carries the raw touch samples rather than curve segments: the render thread
+ * runs the StrokeBuilder itself, so the per-finger curve state has one owner and the UI
+ * thread does no more than copy numbers.
+ *
+ * It draws the same way as eSketchView (with a StrokeBuilder), and keeps the same frame time and
+ * input-to-ink latency histograms so the two can be compared.
+ */
+public class eSketchSurfaceView extends SurfaceView implements SurfaceHolder.Callback, SketchSurface {
+
+    private static final String TAG = "eSketch";
+
+    private static final int FLUSH_SEGMENTS = 32;
+    private static final long FRAME_MILLIS = 16; // about 60 frames per second
+
+    private final SegmentQueue mQueue = new SegmentQueue(8192);
+    private final LatencyHistogram mFrameTimes = new LatencyHistogram("surface frame time");
+    private final LatencyHistogram mInputLatency = new LatencyHistogram("surface input-to-ink");
+
+    // line settings, the render thread reads them when a stroke starts
+    private volatile int mColor = Color.BLACK;
+    private volatile int mLineWidth = 5;
+
+    // kept between render threads (the thread only lives while the surface exists)
+    private Bitmap mBitmap;
+    private RenderThread mRenderThread;
+
+    public eSketchSurfaceView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        getHolder().addCallback(this);
+    }
+
+    @Override
+    public void setDrawingColor(int color) {
+        mColor = color;
+    }
+
+    @Override
+    public int getDrawingsColor() {
+        return mColor;
+    }
+
+    @Override
+    public void setLineWidth(int width) {
+        mLineWidth = width;
+    }
+
+    @Override
+    public int getLineWidth() {
+        return mLineWidth;
+    }
+
+    // erase the drawing (on the render thread, in order with the strokes before it)
+    @Override
+    public void clear() {
+        queue(SegmentQueue.CLEAR, 0, 0, 0, SystemClock.uptimeMillis());
+        wakeRenderThread();
+    }
+
+    // time the render thread takes to draw a frame
+    public LatencyHistogram getFrameTimes() {
+        return mFrameTimes;
+    }
+
+    // time from a touch event to the frame showing it
+    public LatencyHistogram getInputLatency() {
+        return mInputLatency;
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        mRenderThread = new RenderThread(holder, mBitmap);
+        mRenderThread.start();
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        mRenderThread.setSize(width, height);
+    }
+
+    // the surface can't be drawn on after this returns, so wait for the render thread to stop
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        mBitmap = mRenderThread.quit();
+        mRenderThread = null;
+        Log.i(TAG, mFrameTimes.toString());
+        Log.i(TAG, mInputLatency.toString());
+    }
+
+    // queue the touch for the render thread, this never blocks
+    @Override
+    public boolean onTouchEvent(MotionEvent motionEvent) {
+        int action = motionEvent.getActionMasked();
+        int actionIndex = motionEvent.getActionIndex();
+
+        if (action == MotionEvent.ACTION_DOWN || action == MotionEvent.ACTION_POINTER_DOWN) {
+            queue(SegmentQueue.START, motionEvent.getPointerId(actionIndex),
+                    motionEvent.getX(actionIndex), motionEvent.getY(actionIndex), motionEvent.getEventTime());
+        } else if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_POINTER_UP) {
+            queue(SegmentQueue.END, motionEvent.getPointerId(actionIndex), 0, 0, motionEvent.getEventTime());
+        } else if (action == MotionEvent.ACTION_CANCEL) {
+            // no UP will come for these fingers, end them where they got to
+            for (int i = 0; i < motionEvent.getPointerCount(); ++i) {
+                queue(SegmentQueue.END, motionEvent.getPointerId(i), 0, 0, motionEvent.getEventTime());
+            }
+        } else if (action == MotionEvent.ACTION_MOVE) {
+            // every batched sample, oldest first
+            int historySize = motionEvent.getHistorySize();
+            for (int h = 0; h <= historySize; ++h) {
+                long time = h < historySize ? motionEvent.getHistoricalEventTime(h) : motionEvent.getEventTime();
+                for (int i = 0; i < motionEvent.getPointerCount(); ++i) {
+                    float x = h < historySize ? motionEvent.getHistoricalX(i, h) : motionEvent.getX(i);
+                    float y = h < historySize ? motionEvent.getHistoricalY(i, h) : motionEvent.getY(i);
+                    queue(SegmentQueue.MOVE, motionEvent.getPointerId(i), x, y, time);
+                }
+            }
+        }
+
+        wakeRenderThread();
+        return true;
+    }
+
+    private void queue(int type, int pointer, float x, float y, long time) {
+        // only happens if the render thread is stuck for thousands of samples; dropping
+        // a few moves is better than blocking input
+        if (!mQueue.offer(type, pointer, x, y, time) && type != SegmentQueue.MOVE) {
+            Log.w(TAG, "render queue full, dropped touch");
+        }
+    }
+
+    private void wakeRenderThread() {
+        RenderThread thread = mRenderThread;
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
+    /**
+     * owns the bitmap and the paths while it runs; draws queued input and posts frames.
+     */
+    private class RenderThread extends Thread implements SegmentQueue.Reader, SegmentSink {
+
+        private final SurfaceHolder mHolder;
+        private volatile boolean mRunning = true;
+        private volatile int mSurfaceWidth;
+        private volatile int mSurfaceHeight;
+
+        private Bitmap mBitmap;
+        private Canvas mCanvas;
+        private final Paint mPaintLine;
+
+        // same per-finger state as eSketchView
+        private final StrokeBuilder mStrokes = new StrokeBuilder(this);
+        private final Path[] mPaths = new Path[StrokeBuilder.MAX_POINTERS];
+
+        private final Rect mDirtyRect = new Rect();
+        private long mOldestEventTime = -1; // oldest input not on screen yet
+
+        RenderThread(SurfaceHolder holder, Bitmap bitmap) {
+            super("eSketch render");
+            mHolder = holder;
+            mBitmap = bitmap;
+            if (bitmap != null) mCanvas = new Canvas(bitmap);
+
+            mPaintLine = new Paint();
+            mPaintLine.setAntiAlias(true);
+            mPaintLine.setStyle(Paint.Style.STROKE);
+            mPaintLine.setStrokeCap(Paint.Cap.ROUND);
+        }
+
+        // UI thread
+        void setSize(int width, int height) {
+            mSurfaceWidth = width;
+            mSurfaceHeight = height;
+            LockSupport.unpark(this);
+        }
+
+        // UI thread: stop drawing, return the bitmap for the next render thread
+        Bitmap quit() {
+            mRunning = false;
+            LockSupport.unpark(this);
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            return mBitmap;
+        }
+
+        @Override
+        public void run() {
+            while (mRunning) {
+                // sleep until there is input or the surface changed
+                if (mQueue.size() == 0 && !needsResize()) {
+                    LockSupport.park(this);
+                    continue;
+                }
+
+                long frameStart = SystemClock.uptimeMillis();
+                long drawStart = System.nanoTime();
+
+                if (needsResize()) resize();
+                if (mBitmap != null) {
+                    mQueue.drain(this);
+                    if (!mDirtyRect.isEmpty()) present();
+                }
+                mFrameTimes.record((System.nanoTime() - drawStart) / 1000);
+
+                // draw at most once a frame, the input arriving meanwhile is drawn together
+                long wait = frameStart + FRAME_MILLIS - SystemClock.uptimeMillis();
+                if (wait > 0) SystemClock.sleep(wait);
+            }
+        }
+
+        private boolean needsResize() {
+            int width = mSurfaceWidth;
+            int height = mSurfaceHeight;
+            return width > 0 && height > 0
+                    && (mBitmap == null || width > mBitmap.getWidth() || height > mBitmap.getHeight());
+        }
+
+        // grow the bitmap to cover the surface, keeping the drawing (like eSketchView)
+        private void resize() {
+            Bitmap old = mBitmap;
+            int width = Math.max(mSurfaceWidth, old == null ? 0 : old.getWidth());
+            int height = Math.max(mSurfaceHeight, old == null ? 0 : old.getHeight());
+
+            mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mCanvas = new Canvas(mBitmap);
+            mBitmap.eraseColor(Color.WHITE);
+            if (old != null) {
+                mCanvas.drawBitmap(old, 0, 0, null);
+                old.recycle();
+            }
+            mDirtyRect.set(0, 0, width, height);
+        }
+
+        // post a frame with the changed part of the drawing
+        private void present() {
+            Canvas canvas = mHolder.lockCanvas(mDirtyRect); // may grow mDirtyRect
+            if (canvas == null) return; // surface is going away
+            try {
+                canvas.drawBitmap(mBitmap, mDirtyRect, mDirtyRect, null);
+                for (int bits = mStrokes.getActivePointers(); bits != 0; bits &= bits - 1) {
+                    canvas.drawPath(mPaths[Integer.numberOfTrailingZeros(bits)], mPaintLine);
+                }
+            } finally {
+                mHolder.unlockCanvasAndPost(canvas);
+            }
+
+            if (mOldestEventTime >= 0) {
+                mInputLatency.record((SystemClock.uptimeMillis() - mOldestEventTime) * 1000);
+                mOldestEventTime = -1;
+            }
+            mDirtyRect.setEmpty();
+        }
+
+        // one queued input record
+        @Override
+        public void onRecord(int type, int pointer, float x, float y, long time) {
+            if (mOldestEventTime < 0) mOldestEventTime = time;
+
+            if (type == SegmentQueue.CLEAR) {
+                mStrokes.cancel();
+                mBitmap.eraseColor(Color.WHITE);
+                mDirtyRect.set(0, 0, mBitmap.getWidth(), mBitmap.getHeight());
+                return;
+            }
+
+            if (type == SegmentQueue.START) {
+                // the line settings apply from the start of a stroke
+                mPaintLine.setColor(mColor);
+                mPaintLine.setStrokeWidth(mLineWidth);
+                mStrokes.start(pointer, x, y);
+            } else if (type == SegmentQueue.MOVE) {
+                // long opaque paths go into the bitmap piece by piece
+                if (mStrokes.move(pointer, x, y) && mStrokes.getSegmentCount(pointer) >= FLUSH_SEGMENTS
+                        && Color.alpha(mPaintLine.getColor()) == 255) {
+                    mCanvas.drawPath(mPaths[pointer], mPaintLine);
+                    mPaths[pointer].reset();
+                    mPaths[pointer].moveTo(mStrokes.getEndX(pointer), mStrokes.getEndY(pointer));
+                    mStrokes.resetSegmentCount(pointer);
+                }
+            } else if (type == SegmentQueue.END && mStrokes.end(pointer)) {
+                mCanvas.drawPath(mPaths[pointer], mPaintLine);
+                mPaths[pointer].reset();
+            }
+
+            if (mStrokes.hasBounds()) {
+                addDirtyBounds(mStrokes.getBoundsLeft(), mStrokes.getBoundsTop(),
+                        mStrokes.getBoundsRight(), mStrokes.getBoundsBottom());
+                mStrokes.clearBounds();
+            }
+        }
+
+        @Override
+        public void moveTo(int pointer, float x, float y) {
+            if (mPaths[pointer] == null) mPaths[pointer] = new Path();
+            mPaths[pointer].reset();
+            mPaths[pointer].moveTo(x, y);
+        }
+
+        @Override
+        public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+            mPaths[pointer].quadTo(controlX, controlY, endX, endY);
+        }
+
+        @Override
+        public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                            float endX, float endY) {
+            mPaths[pointer].cubicTo(control1X, control1Y, control2X, control2Y, endX, endY);
+        }
+
+        private void addDirtyBounds(float left, float top, float right, float bottom) {
+            float pad = mPaintLine.getStrokeWidth() / 2 + 1;
+            mDirtyRect.union(
+                    (int) Math.floor(left - pad),
+                    (int) Math.floor(top - pad),
+                    (int) Math.ceil(right + pad),
+                    (int) Math.ceil(bottom + pad)
+            );
+        }
+    }
+}
@@ -1,47 +1,221 @@
 package com.example.lawrence.esketch;
 
 import android.content.Context;
-import android.os.Environment;
+import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.util.SparseIntArray;
 import android.view.View;
-import android.view.Gravity;
 import android.view.MotionEvent;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
-import android.graphics.Point;
-import android.provider.MediaStore;
-import android.widget.Toast;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.support.v4.view.ViewCompat;
 
-import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * view for eSketch object.
  */
-public class eSketchView extends View {
-
-    // used to determine whether user moved a finger enough to draw again
-    private static final float TOUCH_TOLERANCE = 5;
+public class eSketchView extends View implements SketchSurface {
 
     private Bitmap mBitmap; // drawing surface for displaying or saving
     private Canvas mCanvas; // used to draw on bitmap
     private final Paint mPaintScreen; // used to draw bitmap onto screen
     private final Paint mPaintLine; // used to draw lines onto bitmap
 
-    // maps of current paths being drawn and points in those paths
-    // each "finger" has a pointerID
-    private final Map<Integer, Path> pathMap = new HashMap<>();
-    private final Map<Integer, Point> previousPointMap = new HashMap<>(); // previous positions of each finger
+    // layers: mBitmap is the active layer's image, the stack keeps the layers below and
+    // above it flattened, so a frame draws at most three bitmaps however many there are.
+    // the undo history, the eraser and the fill only see the active layer, and start over
+    // when another one becomes active. the autosave keeps every layer.
+    private LayerStack<Bitmap> mLayers; // made with the bitmap
+    private final Paint mPaintLayer; // draws a layer with its opacity
+    private final Paint mPaintCopy; // copies pixels as they are, alpha too
+    private final Rect mLayerRect = new Rect(); // reused by layerSurface
+    private Bitmap mCompositeBitmap; // the composite mCompositeCanvas draws on
+    private Canvas mCompositeCanvas;
+
+    // turns each finger's touch points into smoothed segments (and keeps the points),
+    // the segments go into the paths below, indexed by pointerID (each "finger" has a pointerID).
+    // plain arrays instead of maps so touch events don't box ids or allocate anything.
+    private final StrokeBuilder mStrokes;
+    private final Path[] mPaths = new Path[StrokeBuilder.MAX_POINTERS];
+
+    // strokes are fitted with cubic curves within this many pixels of the touch points,
+    // so a slow stroke is a few curves instead of hundreds of tiny segments. the last
+    // curve of each finger isn't final yet and is kept apart in mPendingPaths.
+    private static final float SIMPLIFY_TOLERANCE = 1;
+    private final Path[] mPendingPaths = new Path[StrokeBuilder.MAX_POINTERS];
+
+    // once a live path has this many segments, everything but its end is drawn into
+    // the bitmap, so a long stroke doesn't get slower to redraw every frame
+    private static final int FLUSH_SEGMENTS = 32;
+    private boolean mIncrementalCommit = true;
+
+    // translucent strokes can't be flushed straight into the bitmap, the round caps
+    // where two pieces meet would be blended twice. they are flushed into this coverage
+    // mask instead, which is drawn in the line's color and blended once when the strokes end.
+    private Bitmap mInkMask; // ALPHA_8, only allocated once a translucent stroke is flushed
+    private Canvas mInkMaskCanvas;
+    private boolean mInkMaskInUse;
+    private final Paint mPaintOpaque; // mPaintLine without its alpha, used for the mask
+
+    // brush engine: soft brushes (hardness below 1) are stamped with a pre-rasterized tip
+    // every few pixels of distance (see StampBrush) instead of stroking their paths, hard
+    // ones too if mStampStrokes. a finger's final segments are stamped into the coverage
+    // layer as they come, only its pending end is stamped again each frame. the layer is
+    // drawn into the bitmap in the line's color when the last stamped stroke ends. tiled
+    // mode always strokes paths.
+    private static final int BRUSH_TIP_CACHE_BYTES = 1024 * 1024;
+    private final StampBrush mBrush = new StampBrush(BRUSH_TIP_CACHE_BYTES);
+    private boolean mStampStrokes;
+    private Bitmap mCoverage; // ARGB_8888, black where nothing is stamped, allocated for the first stamped stroke
+    private Canvas mCoverageCanvas;
+    private boolean mCoverageInUse;
+    private final Paint mPaintCoverage = new Paint(); // draws the coverage in the line's color
+    private float mBrushHardness = 1;
+    private int mStampedPointers; // bit i is set while pointer i's stroke is stamped
+
+    // undo/redo, with a checkpoint of the bitmap every CHECKPOINT_INTERVAL strokes. while
+    // the layer is drawn in one color (its ink) the checkpoints are ALPHA_8 masks of it, a
+    // quarter of the memory (see LayerSnapshot), so four times as many fit.
+    private static final int CHECKPOINT_INTERVAL = 20;
+    private final StrokeHistory<LayerSnapshot> mHistory;
+    private int mInk = LayerSnapshot.NO_INK; // of the active layer
+    private int mInkLayer; // the active layer's id
+    private final SparseIntArray mLayerInks = new SparseIntArray(); // of the others, by id
+    private final LayerSnapshot.Masker mMasker = new LayerSnapshot.Masker();
+    private final Paint mPaintMask = new Paint(); // draws a mask checkpoint in its ink
+    // finished strokes wait here until the last finger lifts. until then the bitmap (or the
+    // mask) has the other fingers' ink in it too, and a checkpoint or autosave snapshot of
+    // it would bring that ink back when the strokes are undone or replayed.
+    private final List<Stroke> mPendingStrokes = new ArrayList<>();
+    private final Path mReplayPath = new Path(); // used to draw strokes again
+    private final Paint mPaintReplay;
+    private Canvas mRegionCanvas; // where strokes are drawn again while the history redraws a region
+    private LayerSnapshot mRegionMask; // a mask being redrawn, in mRegionBitmap first
+    private Bitmap mRegionBitmap;
+    private int mRegionLeft, mRegionTop;
+
+    // stroke eraser mode: fingers erase the whole strokes they touch instead of drawing.
+    // samples further apart than the radius are filled in, so fast moves don't skip strokes.
+    private static final float ERASER_RADIUS = 16;
+    private boolean mEraserMode;
+    private final float[] mEraserXs = new float[StrokeBuilder.MAX_POINTERS]; // last place each finger erased
+    private final float[] mEraserYs = new float[StrokeBuilder.MAX_POINTERS];
+    private int mErasedStrokes; // erased since the gesture started
+
+    // bucket fill mode: a touch fills the region of similar color around it with the line's
+    // color. the fill runs in the background, with a progress bar at the top of the view;
+    // touches, undo and redo wait for it. the history can't draw a fill again, so it's a
+    // snapshot step there: undo goes back before it, but the strokes under it can't be
+    // erased anymore.
+    static final int FILL_TOLERANCE = 32;
+    private static final float FILL_PROGRESS_HEIGHT = 3; // dp
+    private boolean mFillMode;
+    private final FloodFiller mFiller = new FloodFiller();
+    private int mFillX, mFillY, mFillColor; // of the running fill, for the timelapse
+    private float mFillProgress = -1; // part of the bitmap filled so far, -1 when not filling
+    private final Rect mFillProgressRect = new Rect();
+    private final Paint mPaintFillProgress;
+
+    // drawing together with other devices (see Collaboration and SyncSession). the drawing
+    // starts over blank when joining, and the server sends what's been drawn so far. local
+    // strokes go out a batch per frame. remote ones show as paths while they're drawn, and
+    // are drawn into the active layer in the server's order once the local fingers lift.
+    // the eraser, the fill, undo, layers and tiled mode can't be used meanwhile, since
+    // only strokes and clears are shared.
+    private final Collaboration mCollaboration = new Collaboration();
+    private SyncSession mSession; // null when drawing alone
+    private OnSessionListener mSessionListener;
+    private boolean mSyncScheduled; // syncFrame is posted for the next frame
+    private final Path mRemotePath = new Path(); // reused for each remote stroke
+    private final Paint mPaintRemote;
+
+    // the touches that drew the drawing, for the timelapse, and everything else that went
+    // through the history (undo, redo, erase, fills, remote and restored strokes), so the
+    // timelapse ends on the drawing. it plays them on top of a copy of the autosave's
+    // snapshot (null if none), and starts over on clear(). tiled mode isn't in it.
+    private final TouchLog mTouchLog = new TouchLog();
+    private Bitmap mTimelapseStart;
+
+    private final ImageExporter mExporter; // saves images in the background
+
+    // unused full size bitmaps (dropped checkpoints, the bitmap before it grew),
+    // reused so they aren't allocated over and over
+    private final BitmapPool mBitmapPool = new BitmapPool(Runtime.getRuntime().maxMemory() / 16);
+
+    // keeps the drawing on disk. touches are ignored until it has been loaded back.
+    private final Autosave mAutosave;
+    private boolean mRestoring;
+
+    // the view shows the drawing starting at (mOriginX, mOriginY) at mScale.
+    // tiled canvas mode: strokes go into a canvas much bigger than the screen instead of
+    // mBitmap. undo and autosave only work on mBitmap, so they are off in this mode. tiles
+    // drawn in one color take a quarter of the memory of mBitmap's pixels.
+    private boolean mTiledMode;
+    private TiledCanvas mTiles; // created the first time the mode is turned on
+    private float mOriginX;
+    private float mOriginY;
+    private float mScale = 1;
+    private final Paint mPaintScaled; // filters bitmaps and tiles when they're scaled
+
+    // pinch zoom: two fingers zoom and pan instead of drawing, until they're all up. a
+    // stroke the first finger started just before the second one landed is taken back.
+    // zoomed out to 1/2 or less, the bitmap is drawn from a level of mMipmaps instead of
+    // filtering the whole full size drawing every frame. the levels are made again only
+    // where the drawing changed.
+    private static final float MIN_SCALE = 1 / 8f;
+    private static final float MAX_SCALE = 8;
+    private static final int MIPMAP_LEVELS = 3; // down to 1/8
+    private static final long TAKE_BACK_MILLIS = 250;
+    private static final int OUTSIDE_COLOR = 0xFFBDBDBD; // around the drawing when zoomed out
+    private boolean mPinchZoom = true;
+    private boolean mZooming; // two fingers are zooming
+    private boolean mZoomEnded; // the fingers left after a zoom are ignored until they're up
+    private final int[] mZoomPointers = new int[2];
+    private float mZoomStartDistance;
+    private float mZoomStartScale;
+    private float mZoomCanvasX; // where the fingers' midpoint was on the drawing when the zoom started
+    private float mZoomCanvasY;
+    private long mFirstDownTime; // when the first finger of this touch came down
+    private final MipmapPyramid mMipmaps = new MipmapPyramid(MIPMAP_LEVELS);
+    private final Rect mMipmapRect = new Rect(); // reused in drawMipmap()
+
+    // Android batches the samples between two frames into one MOVE event.
+    // when set, all of them are used instead of just the latest one, so fast strokes stay smooth.
+    private boolean mUseHistoricalSamples = true;
+
+    // part of the screen that changed since the last redraw, so we don't have
+    // to redraw the whole bitmap every time a finger moves a few pixels
+    private final Rect mDirtyRect = new Rect();
+    private final Rect mClipRect = new Rect(); // reused in onDraw()
+
+    // how long drawing, committing strokes and saving take, and how long ink takes to show
+    // up (compare with eSketchSurfaceView). only measured while turned on, with an overlay
+    // of the percentiles that is refreshed every PERF_OVERLAY_MILLIS.
+    private static final long PERF_OVERLAY_MILLIS = 500;
+    private final PerfMonitor mPerf = new PerfMonitor();
+    private long mOldestUndrawnEvent = -1; // time of the oldest touch not drawn yet
+    private String[] mPerfLines = new String[0];
+    private final Rect mPerfRect = new Rect(); // where the overlay is
+    private final Paint mPaintPerfText;
+    private final Paint mPaintPerfBox;
 
     // constructor
     public eSketchView(Context context, AttributeSet attrs) {
         super(context, attrs);  // pass context to View's constructor
 
         mPaintScreen = new Paint();
+        mPaintLayer = new Paint(Paint.FILTER_BITMAP_FLAG);
+        mPaintCopy = new Paint();
+        mPaintCopy.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
 
         mPaintLine = new Paint();
         mPaintLine.setAntiAlias(true);      // anti-alias smooths edges
@@ -50,181 +224,1753 @@ public class eSketchView extends View {
         mPaintLine.setStyle(Paint.Style.STROKE);
         mPaintLine.setStrokeWidth(5);
         mPaintLine.setStrokeCap(Paint.Cap.ROUND);
+
+        mStrokes = new StrokeBuilder(pathSink);
+        mStrokes.setSimplifyTolerance(SIMPLIFY_TOLERANCE);
+        mPaintOpaque = new Paint();
+        mPaintScaled = new Paint(Paint.FILTER_BITMAP_FLAG);
+        mPaintReplay = new Paint(mPaintLine);
+        mPaintPerfText = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mPaintPerfText.setColor(Color.WHITE);
+        mPaintPerfText.setTextSize(12 * getResources().getDisplayMetrics().scaledDensity);
+        mPaintPerfBox = new Paint();
+        mPaintPerfBox.setColor(0xB0000000);
+        mPaintFillProgress = new Paint();
+        mPaintFillProgress.setColor(0xFF2196F3);
+        mFiller.setOnFillListener(fillListener);
+        mPaintRemote = new Paint(mPaintLine);
+        mPaintRemote.setStrokeJoin(Paint.Join.ROUND);
+        mCollaboration.setOnSyncListener(syncListener);
+        mExporter = new ImageExporter(context.getContentResolver());
+        mExporter.setPerfMonitor(mPerf);
+        mAutosave = new Autosave(context);
+        mAutosave.setLayerSource(autosaveLayers);
+
+        // by default checkpoints and strokes may use a quarter of the heap
+        mHistory = new StrokeHistory<>(historySurface, CHECKPOINT_INTERVAL, Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    // puts the segments of each finger into its path, or stamps them
+    private final SegmentSink pathSink = new SegmentSink() {
+        @Override
+        public void moveTo(int pointer, float x, float y) {
+            if( isStamped(pointer) ){
+                mBrush.getSink().moveTo(pointer, x, y);
+                return;
+            }
+            Path path = mPaths[pointer];
+            if( path == null ){
+                path = new Path();
+                mPaths[pointer] = path;
+            } else {
+                path.reset(); // reset Path because new touch has started
+            }
+            path.moveTo(x, y);
+        }
+
+        @Override
+        public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+            if( isStamped(pointer) ) mBrush.getSink().quadTo(pointer, controlX, controlY, endX, endY);
+            else mPaths[pointer].quadTo(controlX, controlY, endX, endY);
+        }
+
+        @Override
+        public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                            float endX, float endY) {
+            if( isStamped(pointer) ){
+                mBrush.getSink().cubicTo(pointer, control1X, control1Y, control2X, control2Y, endX, endY);
+            } else {
+                mPaths[pointer].cubicTo(control1X, control1Y, control2X, control2Y, endX, endY);
+            }
+        }
+    };
+
+    // puts the part of each finger's path that isn't final yet into its pending path
+    private final SegmentSink pendingSink = new SegmentSink() {
+        @Override
+        public void moveTo(int pointer, float x, float y) {
+            if( mPendingPaths[pointer] == null ) mPendingPaths[pointer] = new Path();
+            mPendingPaths[pointer].moveTo(x, y);
+        }
+
+        @Override
+        public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+            mPendingPaths[pointer].quadTo(controlX, controlY, endX, endY);
+        }
+
+        @Override
+        public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                            float endX, float endY) {
+            mPendingPaths[pointer].cubicTo(control1X, control1Y, control2X, control2Y, endX, endY);
+        }
+    };
+
+    // draws strokes again from their points
+    private final SegmentSink replaySink = new SegmentSink() {
+        @Override
+        public void moveTo(int pointer, float x, float y) {
+            mReplayPath.moveTo(x, y);
+        }
+
+        @Override
+        public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+            mReplayPath.quadTo(controlX, controlY, endX, endY);
+        }
+
+        @Override
+        public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                            float endX, float endY) {
+            mReplayPath.cubicTo(control1X, control1Y, control2X, control2Y, endX, endY);
+        }
+    };
+
+    // lets the history copy, restore and draw on the bitmap
+    private final StrokeHistory.Surface<LayerSnapshot> historySurface = new StrokeHistory.Surface<LayerSnapshot>() {
+        @Override
+        public LayerSnapshot snapshot() {
+            if( mInk != LayerSnapshot.MIXED_INK ){
+                return LayerSnapshot.ofInk(mBitmap, layerBackground(), mInk, mMasker);
+            }
+            return LayerSnapshot.ofColors(copyLayer());
+        }
+
+        @Override
+        public void restore(LayerSnapshot checkpoint) {
+            mBitmap.eraseColor(layerBackground());
+            if( checkpoint != null ) checkpoint.draw(mCanvas, mPaintMask);
+        }
+
+        @Override
+        public void draw(Stroke stroke) {
+            if( usesStamps(stroke.getHardness()) ){
+                mBrush.draw(mRegionCanvas != null ? mRegionCanvas : mCanvas, stroke);
+                return;
+            }
+
+            // same smoothing as while it was drawn
+            mReplayPath.reset();
+            StrokeBuilder.replay(stroke, replaySink);
+            mPaintReplay.setColor(stroke.getColor());
+            mPaintReplay.setStrokeWidth(stroke.getWidth());
+            (mRegionCanvas != null ? mRegionCanvas : mCanvas).drawPath(mReplayPath, mPaintReplay);
+        }
+
+        @Override
+        public long sizeOf(LayerSnapshot checkpoint) {
+            return checkpoint.getByteCount();
+        }
+
+        @Override
+        public void release(LayerSnapshot checkpoint) {
+            checkpoint.release(mBitmapPool);
+        }
+
+        @Override
+        public void beginRegion(LayerSnapshot target, LayerSnapshot start, int left, int top, int right, int bottom) {
+            if( target != null && target.isMask() ){
+                // strokes (stamped ones too) need color to be drawn in, so the region is
+                // drawn in a bitmap of its own and turned into a mask at the end
+                mRegionMask = target;
+                mRegionBitmap = Bitmap.createBitmap(right - left, bottom - top, Bitmap.Config.ARGB_8888);
+                mRegionLeft = left;
+                mRegionTop = top;
+                mRegionCanvas = new Canvas(mRegionBitmap);
+                mRegionCanvas.save();
+                mRegionCanvas.translate(-left, -top);
+            } else {
+                mRegionCanvas = target == null ? mCanvas : new Canvas(target.getImage());
+                mRegionCanvas.save();
+                mRegionCanvas.clipRect(left, top, right, bottom);
+            }
+            mRegionCanvas.drawColor(layerBackground(), PorterDuff.Mode.SRC);
+            if( start != null ) start.draw(mRegionCanvas, mPaintMask);
+            if( target == null ) addDirtyCanvasRect(left, top, right, bottom);
+        }
+
+        @Override
+        public void endRegion() {
+            mRegionCanvas.restore();
+            mRegionCanvas = null;
+            if( mRegionMask != null ){
+                Bitmap region = mMasker.mask(mRegionBitmap, layerBackground(), mRegionMask.getInk());
+                new Canvas(mRegionMask.getImage()).drawBitmap(region, mRegionLeft, mRegionTop, mPaintCopy);
+                region.recycle();
+                mRegionBitmap.recycle();
+                mRegionBitmap = null;
+                mRegionMask = null;
+            }
+        }
+    };
+
+    // a copy of the active layer, out of the pool
+    private Bitmap copyLayer(){
+        // reuse a dropped checkpoint if there is one of the right size
+        Bitmap copy = mBitmapPool.obtain(mBitmap.getWidth(), mBitmap.getHeight());
+        new Canvas(copy).drawBitmap(mBitmap, 0, 0, mPaintCopy); // over what was left in it
+        return copy;
+    }
+
+    // forget what the layers were drawn in, e.g. when they're all replaced. empty layers
+    // have no ink, the others are taken to be of several colors.
+    private void resetInks(){
+        mLayerInks.clear();
+        mInkLayer = mLayers.getId(mLayers.getActive());
+        mInk = mLayers.isEmpty(mLayers.getActive()) ? LayerSnapshot.NO_INK : LayerSnapshot.MIXED_INK;
+    }
+
+    // color was drawn on the active layer, or is about to be. call before the history
+    // checkpoints it.
+    private void addInk(int color){
+        mInk = LayerSnapshot.addInk(mInk, color);
+    }
+
+    // what a blank part of the active layer is: white on the background, else transparent
+    private int layerBackground(){
+        return mLayers.isBackground(mLayers.getActive()) ? Color.WHITE : Color.TRANSPARENT;
+    }
+
+    // makes layer images out of the pool and composites them
+    private final LayerStack.Surface<Bitmap> layerSurface = new LayerStack.Surface<Bitmap>() {
+        @Override
+        public Bitmap create(int width, int height, boolean background) {
+            Bitmap image = mBitmapPool.obtain(width, height);
+            image.eraseColor(background ? Color.WHITE : Color.TRANSPARENT);
+            return image;
+        }
+
+        @Override
+        public Bitmap resize(Bitmap image, int width, int height, boolean background) {
+            Bitmap resized = create(width, height, background);
+            new Canvas(resized).drawBitmap(image, 0, 0, mPaintCopy);
+            release(image);
+            return resized;
+        }
+
+        @Override
+        public void release(Bitmap image) {
+            if( image == mCompositeBitmap ){
+                mCompositeBitmap = null;
+                mCompositeCanvas = null;
+            }
+            mBitmapPool.release(image);
+        }
+
+        @Override
+        public long sizeOf(Bitmap image) {
+            return image.getByteCount();
+        }
+
+        @Override
+        public void clear(Bitmap composite, boolean background, int left, int top, int right, int bottom) {
+            Canvas canvas = compositeCanvas(composite);
+            canvas.save();
+            canvas.clipRect(left, top, right, bottom);
+            canvas.drawColor(background ? Color.WHITE : Color.TRANSPARENT, PorterDuff.Mode.SRC);
+            canvas.restore();
+        }
+
+        @Override
+        public void draw(Bitmap composite, Bitmap layer, int opacity, int left, int top, int right, int bottom) {
+            mLayerRect.set(left, top, right, bottom);
+            mPaintLayer.setAlpha(opacity);
+            compositeCanvas(composite).drawBitmap(layer, mLayerRect, mLayerRect, mPaintLayer);
+        }
+
+        // the canvas of the last composite is kept, update() draws several layers on it
+        private Canvas compositeCanvas(Bitmap composite){
+            if( composite != mCompositeBitmap ){
+                mCompositeBitmap = composite;
+                mCompositeCanvas = new Canvas(composite);
+            }
+            return mCompositeCanvas;
+        }
+    };
+
+    // autosave snapshots are of every layer, cropped to what was drawn on any of them so
+    // a bigger drawing than the next view doesn't stay that big
+    private final Autosave.LayerSource autosaveLayers = new Autosave.LayerSource() {
+        @Override
+        public Autosave.Snapshot snapshot() {
+            int width = Math.max(1, mLayers.getDrawnWidth()), height = Math.max(1, mLayers.getDrawnHeight());
+            Autosave.Snapshot snapshot = new Autosave.Snapshot(mLayers.getActive());
+            for( int i = 0; i < mLayers.size(); ++i ){
+                Bitmap image = mLayers.getImage(i);
+                Bitmap copy = image == null || mLayers.isEmpty(i)
+                        ? null : Bitmap.createBitmap(image, 0, 0, width, height); // a new one, image is mutable
+                snapshot.layers.add(new Autosave.Layer(copy, mLayers.isBackground(i),
+                        mLayers.isVisible(i), mLayers.getOpacity(i)));
+            }
+            return snapshot;
+        }
+    };
+
+    // the overlay only refreshes while the view is on screen
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if( mPerf.isEnabled() ) perfOverlayRefresh.run();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        removeCallbacks(perfOverlayRefresh);
+        mCollaboration.leave(); // a new view takes over, if any
+        mSession = null;
     }
 
     // create Bitmap and Canvas based on View's size (the size of the screen for that device)
     // this callback is also used when apps do stuff if screen is rotated
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
-        mBitmap = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
-        // 8888 means that color is stored suing 8 bits (1 byte) for alpha, red, green, blue
+        if( mBitmap == null ){
+            // starts with the white background layer, ARGB_8888 like all the layers.
+            // 8888 means that color is stored suing 8 bits (1 byte) for alpha, red, green, blue
+            mLayers = new LayerStack<>(layerSurface, w, h);
+            mBitmap = mLayers.getActiveImage();
+            mCanvas = new Canvas(mBitmap);
+            resetInks();
+            mMipmaps.setSize(w, h);
+
+            // load the drawing back from the autosave, it was saved when the last view went away
+            mRestoring = true;
+            mAutosave.restore(restoreTarget);
+            return;
+        }
+
+        // the drawing covers the view and whatever was drawn outside of it (so that comes
+        // back when the view grows again), and no more: the blank part the old view had is
+        // cropped off rather than kept around in every layer and checkpoint
+        int width = Math.max(w, mLayers.getDrawnWidth()), height = Math.max(h, mLayers.getDrawnHeight());
+        if( width != mBitmap.getWidth() || height != mBitmap.getHeight() ) resizeDrawing(width, height);
+    }
+
+    // crop or grow all the layers to a new size. the old drawing is copied over, and the undo
+    // checkpoints still apply since they are drawn at the top left (and nothing was ever drawn
+    // where they are cropped off).
+    private void resizeDrawing(int width, int height){
+        // a fill of the old bitmap is no use anymore
+        mFiller.cancel();
+
+        mLayers.resize(width, height);
+        mBitmap = mLayers.getActiveImage();
         mCanvas = new Canvas(mBitmap);
-        mBitmap.eraseColor(Color.WHITE);
+        mMipmaps.setSize(mBitmap.getWidth(), mBitmap.getHeight());
+
+        // mask is recreated at the new size when needed
+        if( mInkMask != null ){
+            Bitmap oldMask = mInkMask;
+            mInkMask = null;
+            mInkMaskCanvas = null;
+            if( mInkMaskInUse ){
+                createInkMask();
+                mInkMaskCanvas.drawBitmap(oldMask, 0, 0, null);
+            }
+            oldMask.recycle();
+        }
+
+        // and so is the coverage layer, the strokes being stamped carry on in the new one
+        if( mCoverage != null ){
+            Bitmap oldCoverage = mCoverage;
+            mCoverage = null;
+            mCoverageCanvas = null;
+            if( mCoverageInUse ){
+                createCoverage();
+                mCoverageCanvas.drawBitmap(oldCoverage, 0, 0, null);
+            }
+            oldCoverage.recycle();
+        }
+        for( int bits = mStampedPointers; bits != 0; bits &= bits - 1 ){
+            mBrush.setCanvas(Integer.numberOfTrailingZeros(bits), mCoverageCanvas);
+        }
     }
 
-    // clear the screen
+    // puts the autosaved drawing back into the bitmap and the history
+    private final Autosave.Target restoreTarget = new Autosave.Target() {
+        @Override
+        public void onRestoreSnapshot(Autosave.Snapshot snapshot) {
+            // it's cropped to what was drawn, which may be more than this view (e.g. rotated)
+            int width = mBitmap.getWidth(), height = mBitmap.getHeight();
+            int background = -1;
+            for( int i = 0; i < snapshot.layers.size(); ++i ){
+                Autosave.Layer layer = snapshot.layers.get(i);
+                if( layer.background ) background = i;
+                if( layer.image == null ) continue;
+                width = Math.max(width, layer.image.getWidth());
+                height = Math.max(height, layer.image.getHeight());
+            }
+            if( width > mBitmap.getWidth() || height > mBitmap.getHeight() ) resizeDrawing(width, height);
+
+            // the same layers, each drawn on like it was before
+            mLayers.reset(snapshot.layers.size(), background);
+            for( int i = 0; i < snapshot.layers.size(); ++i ){
+                Autosave.Layer layer = snapshot.layers.get(i);
+                mLayers.setVisible(i, layer.visible);
+                mLayers.setOpacity(i, layer.opacity);
+                if( layer.image == null ) continue;
+                mLayers.setActive(i);
+                new Canvas(mLayers.getActiveImage()).drawBitmap(layer.image, 0, 0, null);
+                mLayers.addBounds(i, 0, 0, layer.image.getWidth(), layer.image.getHeight());
+                layer.image.recycle();
+            }
+            mLayers.setActive(snapshot.active);
+            mBitmap = mLayers.getActiveImage();
+            mCanvas = new Canvas(mBitmap);
+            resetInks(); // the layers' inks aren't saved
+            mHistory.reset(mLayers.isEmpty(snapshot.active) ? null : historySurface.snapshot());
+            // the strokes after the snapshot are logged, so they can still be undone
+            if( mTimelapseStart != null ) mBitmapPool.release(mTimelapseStart);
+            mTimelapseStart = copyLayer();
+        }
+
+        @Override
+        public void onRestoreStroke(Stroke stroke) {
+            addInk(stroke.getColor());
+            historySurface.draw(stroke);
+            addStrokeBounds(stroke);
+            mHistory.add(stroke);
+            mTouchLog.stroke(SystemClock.uptimeMillis(), stroke);
+        }
+
+        @Override
+        public void onRestoreUndo() {
+            if( mHistory.undo() ) mTouchLog.undo(SystemClock.uptimeMillis());
+        }
+
+        @Override
+        public void onRestoreRedo() {
+            if( mHistory.redo() ) mTouchLog.redo(SystemClock.uptimeMillis());
+        }
+
+        @Override
+        public void onRestoreFinished() {
+            mRestoring = false;
+            invalidateDrawing();
+        }
+    };
+
+    // clear the screen, for everyone when drawing together
+    @Override
     public void clear(){
+        if( mSession != null ){
+            mSession.clear();
+            scheduleSync();
+        }
+        clearDrawing();
+    }
+
+    // start over with a blank drawing
+    private void clearDrawing(){
         // clear data
-        pathMap.clear();
-        previousPointMap.clear();
-        mBitmap.eraseColor(Color.WHITE);
-        invalidate();   // refresh screen
+        for( int i = 0; i < mPaths.length; ++i ){
+            if( mPaths[i] != null ) mPaths[i].reset();
+            if( mPendingPaths[i] != null ) mPendingPaths[i].reset();
+        }
+        mStrokes.cancel();
+        mStrokes.clearBounds();
+        mStampedPointers = 0;
+        mFiller.cancel();
+        if( mInkMask != null ) mInkMask.eraseColor(Color.TRANSPARENT);
+        mInkMaskInUse = false;
+        if( mCoverage != null ) mCoverage.eraseColor(Color.BLACK);
+        mCoverageInUse = false;
+        mDirtyRect.setEmpty();
+        if( mTiledMode ){
+            mTiles.clear();
+        } else {
+            mHistory.clear();
+            mPendingStrokes.clear();
+            mAutosave.clear();
+            mLayers.reset(); // back to a blank background
+            mBitmap = mLayers.getActiveImage();
+            mCanvas = new Canvas(mBitmap);
+            resetInks();
+            mTouchLog.reset();
+            if( mTimelapseStart != null ) mBitmapPool.release(mTimelapseStart);
+            mTimelapseStart = null;
+        }
+        invalidateDrawing();   // refresh screen
     }
 
     // the next couple of methods are setters/getters to change the color, width
     // of the "pencil"/"finger"
     // set the line's color
+    @Override
     public void setDrawingColor(int color){
         mPaintLine.setColor(color);
     }
 
     // return the line's color
+    @Override
     public int getDrawingsColor(){
         return mPaintLine.getColor();
     }
 
     // set the painted line's width
+    @Override
     public void setLineWidth(int width) {
         mPaintLine.setStrokeWidth(width);
     }
 
     // return the painted line's width
+    @Override
     public int getLineWidth() {
         return (int) mPaintLine.getStrokeWidth();
     }
 
+    // how hard the brush's edge is, from 0 (fades out from the middle) to 1 (solid).
+    // applies from the next stroke on.
+    public void setBrushHardness(float hardness){
+        mBrushHardness = Math.max(0, Math.min(1, hardness));
+    }
+
+    public float getBrushHardness(){
+        return mBrushHardness;
+    }
+
+    // choose whether hard strokes are stamped too or stroked as paths (soft ones are always
+    // stamped). applies from the next stroke on, keep it the same while the history is used.
+    public void setStampStrokes(boolean stampStrokes){
+        mStampStrokes = stampStrokes;
+    }
+
+    public boolean getStampStrokes(){
+        return mStampStrokes;
+    }
+
+    // switch between drawing on the screen sized bitmap and on the tiled canvas.
+    // each keeps its drawing while the other one is used.
+    public void setTiledMode(boolean tiledMode){
+        if( tiledMode == mTiledMode || (tiledMode && mSession != null) ) return;
+
+        // finish the strokes in progress on the surface they started on
+        for( int bits = mStrokes.getActivePointers(); bits != 0; bits &= bits - 1 ){
+            touchEnded(Integer.numberOfTrailingZeros(bits), SystemClock.uptimeMillis());
+        }
+
+        if( tiledMode && mTiles == null ){
+            // tiles may use an eighth of the heap, the rest goes to disk
+            mTiles = new TiledCanvas(getContext(), (int) (Runtime.getRuntime().maxMemory() / 8));
+            mTiles.setOnTileLoadedListener(tileLoadedListener);
+        }
+        mTiledMode = tiledMode;
+        invalidate();
+    }
+
+    // a tile that was left out while it loaded can be drawn now
+    private final TiledCanvas.OnTileLoadedListener tileLoadedListener = new TiledCanvas.OnTileLoadedListener() {
+        @Override
+        public void onTileLoaded() {
+            if( mTiledMode ) invalidate();
+        }
+    };
+
+    public boolean getTiledMode(){
+        return mTiledMode;
+    }
+
+    // show the drawing (or the tiled canvas) from (originX, originY) scaled by scale
+    public void setViewport(float originX, float originY, float scale){
+        mOriginX = originX;
+        mOriginY = originY;
+        mScale = scale;
+        invalidate();
+    }
+
+    public float getViewportScale(){
+        return mScale;
+    }
+
+    // turn zooming and panning with two fingers on or off. when off, every finger draws.
+    public void setPinchZoom(boolean pinchZoom){
+        mPinchZoom = pinchZoom;
+    }
+
+    public boolean getPinchZoom(){
+        return mPinchZoom;
+    }
+
+    // switch between drawing and erasing whole strokes. there's no eraser in tiled mode,
+    // which keeps no strokes.
+    public void setEraserMode(boolean eraserMode){
+        mEraserMode = eraserMode;
+    }
+
+    public boolean getEraserMode(){
+        return mEraserMode;
+    }
+
+    // switch between drawing and bucket filling. there's no fill in tiled mode either.
+    public void setFillMode(boolean fillMode){
+        mFillMode = fillMode;
+    }
+
+    public boolean getFillMode(){
+        return mFillMode;
+    }
+
+    // how many layers there are, and which one is drawn on. layers are numbered from the bottom.
+    public int getLayerCount(){
+        return mLayers.size();
+    }
+
+    public int getActiveLayer(){
+        return mLayers.getActive();
+    }
+
+    // draw on another layer. like the methods below, this returns false and does nothing
+    // while a finger is drawing, a fill runs, or in tiled mode (which has no layers).
+    public boolean setActiveLayer(int index){
+        if( !canChangeLayers() ) return false;
+        mLayers.setActive(index);
+        activeLayerChanged();
+        return true;
+    }
+
+    // add an empty layer above the active one and draw on it
+    public boolean addLayer(){
+        if( !canChangeLayers() ) return false;
+        mLayers.setActive(mLayers.add());
+        activeLayerChanged();
+        return true;
+    }
+
+    // remove a layer, there is always one left. if it was the active one the one below it is drawn on.
+    public boolean removeLayer(int index){
+        if( !canChangeLayers() || mLayers.size() == 1 ) return false;
+        boolean active = index == mLayers.getActive();
+        mLayers.remove(index);
+        if( active ) activeLayerChanged();
+        else layersChanged();
+        return true;
+    }
+
+    // move a layer up or down the stack
+    public boolean moveLayer(int from, int to){
+        if( !canChangeLayers() ) return false;
+        mLayers.move(from, to);
+        layersChanged();
+        return true;
+    }
+
+    // hide or show a layer. a hidden active layer can't be drawn on.
+    public boolean setLayerVisible(int index, boolean visible){
+        if( !canChangeLayers() ) return false;
+        mLayers.setVisible(index, visible);
+        layersChanged();
+        return true;
+    }
+
+    public boolean isLayerVisible(int index){
+        return mLayers.isVisible(index);
+    }
+
+    // how opaque a layer is drawn (0-255)
+    public boolean setLayerOpacity(int index, int opacity){
+        if( !canChangeLayers() ) return false;
+        mLayers.setOpacity(index, opacity);
+        layersChanged();
+        return true;
+    }
+
+    public int getLayerOpacity(int index){
+        return mLayers.getOpacity(index);
+    }
+
+    // a number that stays with a layer when it moves, for its name
+    public int getLayerId(int index){
+        return mLayers.getId(index);
+    }
+
+    // return whether a layer is the white background the drawing started with
+    public boolean isBackgroundLayer(int index){
+        return mLayers.isBackground(index);
+    }
+
+    // bitmap memory of a layer, 0 if it was never drawn on
+    public long getLayerByteCount(int index){
+        return mLayers.getByteCount(index);
+    }
+
+    // bitmap memory of all the layers and the composites of them
+    public long getLayersByteCount(){
+        return mLayers.getByteCount();
+    }
+
+    private boolean canChangeLayers(){
+        return !mTiledMode && !mRestoring && mStrokes.getActivePointers() == 0 && !mFiller.isRunning()
+                && mSession == null;
+    }
+
+    // another layer is drawn on now, the history starts over from it
+    private void activeLayerChanged(){
+        mBitmap = mLayers.getActiveImage();
+        mCanvas = new Canvas(mBitmap);
+        mLayerInks.put(mInkLayer, mInk);
+        mInkLayer = mLayers.getId(mLayers.getActive());
+        mInk = mLayerInks.get(mInkLayer, mLayers.isEmpty(mLayers.getActive())
+                ? LayerSnapshot.NO_INK : LayerSnapshot.MIXED_INK);
+        mHistory.reset(mLayers.isEmpty(mLayers.getActive()) ? null : historySurface.snapshot());
+        mTouchLog.restart(SystemClock.uptimeMillis());
+        layersChanged();
+    }
+
+    // the flattened drawing changed
+    private void layersChanged(){
+        mAutosave.layersChanged(mBitmap);
+        invalidateDrawing();
+    }
+
+    // return whether the drawing is just the active layer's bitmap
+    private boolean isFlat(){
+        int active = mLayers.getActive();
+        return mLayers.size() == 1 && mLayers.isVisible(active) && mLayers.getOpacity(active) == 255;
+    }
+
+    // all the layers in a new bitmap, on white
+    private Bitmap flattenLayers(){
+        Bitmap flat = Bitmap.createBitmap(mBitmap.getWidth(), mBitmap.getHeight(), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(flat);
+        canvas.drawColor(Color.WHITE);
+
+        mLayers.update();
+        int active = mLayers.getActive();
+        if( mLayers.getBelow() != null ) canvas.drawBitmap(mLayers.getBelow(), 0, 0, null);
+        if( mLayers.isVisible(active) ){
+            mPaintLayer.setAlpha(mLayers.getOpacity(active));
+            canvas.drawBitmap(mBitmap, 0, 0, mPaintLayer);
+        }
+        if( mLayers.getAbove() != null ) canvas.drawBitmap(mLayers.getAbove(), 0, 0, null);
+        return flat;
+    }
+
+    // a copy of the touches that drew the drawing, for a Timelapse
+    public TouchLog getTouchLog(){
+        return mTouchLog.copy();
+    }
+
+    // what the timelapse starts from (null = blank). owned by the view, don't recycle it.
+    public Bitmap getTimelapseStart(){
+        return mTimelapseStart;
+    }
+
+    // take back the last stroke, return false if there was nothing to undo
+    public boolean undo(){
+        if( mTiledMode || mStrokes.getActivePointers() != 0 || mFiller.isRunning() || mSession != null
+                || !mHistory.undo() ) return false;
+        mTouchLog.undo(SystemClock.uptimeMillis());
+        mAutosave.undo(mBitmap);
+        invalidateDrawing();
+        return true;
+    }
+
+    // draw the last undone stroke again, return false if there was nothing to redo
+    public boolean redo(){
+        if( mTiledMode || mStrokes.getActivePointers() != 0 || mFiller.isRunning() || mSession != null
+                || !mHistory.redo() ) return false;
+        mTouchLog.redo(SystemClock.uptimeMillis());
+        mAutosave.redo(mBitmap);
+        invalidateDrawing();
+        return true;
+    }
+
+    // write the autosave to disk now, call when the app goes to the background
+    public void syncAutosave(){
+        mAutosave.sync();
+    }
+
+    // limit how much memory the undo history may use
+    public void setHistoryMemoryLimit(long bytes){
+        mHistory.setMemoryLimit(bytes);
+    }
+
+    // choose whether long strokes are drawn into the bitmap piece by piece while they're drawn
+    public void setIncrementalCommit(boolean incrementalCommit){
+        mIncrementalCommit = incrementalCommit;
+    }
+
+    // return whether long strokes are drawn into the bitmap while they're drawn
+    public boolean getIncrementalCommit(){
+        return mIncrementalCommit;
+    }
+
+    // choose whether to draw through every batched sample of a MOVE event or only the latest
+    public void setUseHistoricalSamples(boolean useHistoricalSamples){
+        mUseHistoricalSamples = useHistoricalSamples;
+    }
+
+    // fit strokes with curves within tolerance pixels of the touch points, 0 to draw
+    // through every point. applies from the next stroke on.
+    public void setSimplifyTolerance(float tolerance){
+        mStrokes.setSimplifyTolerance(tolerance);
+    }
+
+    public float getSimplifyTolerance(){
+        return mStrokes.getSimplifyTolerance();
+    }
+
+    // return whether batched samples are drawn
+    public boolean getUseHistoricalSamples(){
+        return mUseHistoricalSamples;
+    }
+
+    // measure the drawing pipeline and show the numbers on top of the drawing
+    public void setPerfMonitorEnabled(boolean enabled){
+        mPerf.setEnabled(enabled);
+        removeCallbacks(perfOverlayRefresh);
+        if( enabled ){
+            perfOverlayRefresh.run();
+        } else {
+            invalidate(mPerfRect);
+            mPerfRect.setEmpty();
+        }
+    }
+
+    public boolean isPerfMonitorEnabled(){
+        return mPerf.isEnabled();
+    }
+
+    // what was measured, e.g. to dump() it
+    public PerfMonitor getPerfMonitor(){
+        return mPerf;
+    }
+
+    // time spent in onDraw(), while the monitor is on
+    public LatencyHistogram getFrameTimes(){
+        return mPerf.getFrameTimes();
+    }
+
+    // time from a touch event to the onDraw() showing it, while the monitor is on
+    public LatencyHistogram getInputLatency(){
+        return mPerf.getInputLatency();
+    }
+
+    // rebuild the overlay's text from the histograms, and come back in a while
+    private final Runnable perfOverlayRefresh = new Runnable() {
+        @Override
+        public void run() {
+            LatencyHistogram[] histograms = mPerf.getHistograms();
+            if( mPerfLines.length != histograms.length ) mPerfLines = new String[histograms.length];
+            float width = 0;
+            for( int i = 0; i < histograms.length; ++i ){
+                LatencyHistogram histogram = histograms[i];
+                mPerfLines[i] = histogram.getName() + ": p50 " + histogram.getPercentile(50)
+                        + " p99 " + histogram.getPercentile(99) + " max " + histogram.getMax()
+                        + " (n=" + histogram.getCount() + ")";
+                width = Math.max(width, mPaintPerfText.measureText(mPerfLines[i]));
+            }
+
+            // redraw where the old text was and where the new one goes
+            invalidate(mPerfRect);
+            float lineHeight = mPaintPerfText.getFontSpacing();
+            mPerfRect.set(0, 0, (int) Math.ceil(width + lineHeight), (int) Math.ceil((mPerfLines.length + 1) * lineHeight));
+            invalidate(mPerfRect);
+
+            postDelayed(this, PERF_OVERLAY_MILLIS);
+        }
+    };
+
+    // the percentiles in a box at the top left, in view coordinates
+    private void drawPerfOverlay(Canvas canvas){
+        canvas.drawRect(mPerfRect, mPaintPerfBox);
+        float lineHeight = mPaintPerfText.getFontSpacing();
+        for( int i = 0; i < mPerfLines.length; ++i ){
+            canvas.drawText(mPerfLines[i], lineHeight / 2, (i + 1.25f) * lineHeight, mPaintPerfText);
+        }
+    }
+
     // perform custom drawing when eSketchView is refreshed
     @Override
     protected void onDraw(Canvas canvas) {
-        // draw background screen
-        canvas.drawBitmap(mBitmap, 0, 0, mPaintScreen);
+        boolean measure = mPerf.isEnabled();
+        long drawStart = measure ? System.nanoTime() : 0;
+
+        int paths;
+        if( mTiledMode ){
+            paths = drawTiled(canvas, false);
+        } else {
+            paths = drawBitmap(canvas);
+        }
+        if( mFillProgress >= 0 ) drawFillProgress(canvas);
+
+        if( measure ){
+            mPerf.recordFrame((System.nanoTime() - drawStart) / 1000, paths);
+            if( mOldestUndrawnEvent >= 0 ){
+                mPerf.recordInputLatency((SystemClock.uptimeMillis() - mOldestUndrawnEvent) * 1000);
+            }
+            drawPerfOverlay(canvas);
+        }
+        mOldestUndrawnEvent = -1;
+    }
+
+    // draw the drawing in the viewport and the paths being drawn, return how many paths were drawn
+    private int drawBitmap(Canvas canvas) {
+        int save = canvas.save();
+        canvas.scale(mScale, mScale);
+        canvas.translate(-mOriginX, -mOriginY);
+
+        // only the part that was invalidated, in drawing coordinates
+        int paths = 0;
+        if( canvas.getClipBounds(mClipRect) ){
+            if( mClipRect.left < 0 || mClipRect.top < 0
+                    || mClipRect.right > mBitmap.getWidth() || mClipRect.bottom > mBitmap.getHeight() ){
+                canvas.drawColor(OUTSIDE_COLOR);
+                canvas.clipRect(0, 0, mBitmap.getWidth(), mBitmap.getHeight());
+            }
+            if( canvas.getClipBounds(mClipRect) ){
+                mLayers.update();
+                int level = MipmapPyramid.levelFor(mScale, MIPMAP_LEVELS);
+                paths = level > 0 ? drawMipmap(canvas, level) : drawLayers(canvas);
+                if( mSession != null ) paths += drawRemoteStrokes(canvas);
+            }
+        }
+        canvas.restoreToCount(save);
+        return paths;
+    }
+
+    // draw a level of the mipmaps under the paths being drawn
+    private int drawMipmap(Canvas canvas, int level) {
+        Bitmap mipmap = mMipmaps.getLevel(level, mipmapSource);
+        int size = 1 << level;
+        mMipmapRect.set(mClipRect.left >> level, mClipRect.top >> level,
+                (mClipRect.right + size - 1) >> level, (mClipRect.bottom + size - 1) >> level);
+        mLayerRect.set(mMipmapRect.left << level, mMipmapRect.top << level,
+                mMipmapRect.right << level, mMipmapRect.bottom << level);
+        canvas.drawBitmap(mipmap, mMipmapRect, mLayerRect, mPaintScaled);
+
+        // they're drawn over all the layers until they're part of it
+        return drawInk(canvas);
+    }
+
+    // the layers flattened, for the first mipmap level
+    private final MipmapPyramid.Source mipmapSource = new MipmapPyramid.Source() {
+        @Override
+        public void draw(Canvas canvas, Rect region) {
+            canvas.drawColor(Color.WHITE);
+            int active = mLayers.getActive();
+            if( mLayers.getBelow() != null ) canvas.drawBitmap(mLayers.getBelow(), region, region, mPaintScaled);
+            if( mLayers.isVisible(active) ){
+                mPaintLayer.setAlpha(mLayers.getOpacity(active));
+                canvas.drawBitmap(mBitmap, region, region, mPaintLayer);
+            }
+            if( mLayers.getAbove() != null ) canvas.drawBitmap(mLayers.getAbove(), region, region, mPaintScaled);
+        }
+    };
 
+    // draw the layers and the paths being drawn on the active one
+    private int drawLayers(Canvas canvas) {
+        // filtered unless it's drawn 1:1
+        Paint paint = mScale == 1 ? mPaintScreen : mPaintScaled;
+
+        // the layers below, or white if nothing covers it
+        int active = mLayers.getActive();
+        boolean visible = mLayers.isVisible(active);
+        int opacity = mLayers.getOpacity(active);
+        if( mLayers.getBelow() != null ){
+            canvas.drawBitmap(mLayers.getBelow(), mClipRect, mClipRect, paint);
+        } else if( !mLayers.isBackground(active) || !visible || opacity != 255 ){
+            canvas.drawColor(Color.WHITE);
+        }
+
+        int paths = 0;
+        if( visible ){
+            int layer = opacity == 255 ? -1 : canvas.saveLayerAlpha(
+                    mClipRect.left, mClipRect.top, mClipRect.right, mClipRect.bottom,
+                    opacity, Canvas.ALL_SAVE_FLAG
+            );
+            canvas.drawBitmap(mBitmap, mClipRect, mClipRect, paint);
+            paths = drawInk(canvas);
+            if( layer >= 0 ) canvas.restoreToCount(layer);
+        }
+
+        if( mLayers.getAbove() != null ){
+            canvas.drawBitmap(mLayers.getAbove(), mClipRect, mClipRect, paint);
+        }
+        return paths;
+    }
+
+    // draw the paths being drawn, and the translucent pieces of them already flushed,
+    // and the strokes being stamped
+    private int drawInk(Canvas canvas) {
+        int stamped = 0;
+        if( mCoverageInUse ){
+            // the final stamps, and the pending ends stamped on top, drawn once in the line's color
+            int layer = canvas.saveLayer(mClipRect.left, mClipRect.top, mClipRect.right, mClipRect.bottom,
+                    mPaintCoverage, Canvas.ALL_SAVE_FLAG);
+            canvas.drawBitmap(mCoverage, mClipRect, mClipRect, null);
+            for( int bits = mStampedPointers & mStrokes.getActivePointers(); bits != 0; bits &= bits - 1 ){
+                if( mBrush.drawPending(canvas, Integer.numberOfTrailingZeros(bits), mStrokes) ) ++stamped;
+            }
+            canvas.restoreToCount(layer);
+        }
+
+        if( mInkMaskInUse ){
+            // draw the flushed pieces and the rest of the paths opaque into a layer,
+            // then blend the layer once with the line's alpha
+            int layer = canvas.saveLayerAlpha(
+                    mClipRect.left, mClipRect.top, mClipRect.right, mClipRect.bottom,
+                    Color.alpha(mPaintLine.getColor()), Canvas.ALL_SAVE_FLAG
+            );
+            canvas.drawBitmap(mInkMask, mClipRect, mClipRect, mPaintOpaque);
+            int paths = drawLivePaths(canvas, mPaintOpaque);
+            canvas.restoreToCount(layer);
+            return stamped + paths;
+        }
         // draw line for each path
-        for( Integer key : pathMap.keySet() ){
-            canvas.drawPath(pathMap.get(key), mPaintLine);
+        return stamped + drawLivePaths(canvas, mPaintLine);
+    }
+
+    // draw the visible tiles and the paths being drawn on top, in canvas coordinates.
+    // tiles that are still on disk are placeholders unless loadNow.
+    private int drawTiled(Canvas canvas, boolean loadNow) {
+        canvas.drawColor(Color.WHITE);
+        if( loadNow ) mTiles.drawLoaded(canvas, mOriginX, mOriginY, mScale, getWidth(), getHeight(), mPaintScaled);
+        else mTiles.draw(canvas, mOriginX, mOriginY, mScale, getWidth(), getHeight(), mPaintScaled);
+
+        int save = canvas.save();
+        canvas.scale(mScale, mScale);
+        canvas.translate(-mOriginX, -mOriginY);
+        int paths = drawLivePaths(canvas, mPaintLine);
+        canvas.restoreToCount(save);
+        return paths;
+    }
+
+    // draw the paths of the fingers still drawing, with their pending ends. return how many.
+    private int drawLivePaths(Canvas canvas, Paint paint) {
+        int paths = 0;
+        for( int bits = mStrokes.getActivePointers(); bits != 0; bits &= bits - 1 ){
+            int pointer = Integer.numberOfTrailingZeros(bits);
+            if( isStamped(pointer) ) continue; // drawn with the coverage layer
+            canvas.drawPath(mPaths[pointer], paint);
+            ++paths;
+            if( mPendingPaths[pointer] != null ){
+                canvas.drawPath(mPendingPaths[pointer], paint);
+                ++paths;
+            }
         }
+        return paths;
+    }
+
+    // view coordinates to drawing coordinates
+    private float toCanvasX(float x){
+        return mOriginX + x / mScale;
+    }
+
+    private float toCanvasY(float y){
+        return mOriginY + y / mScale;
     }
 
     //handle touch event
     @Override
     public boolean onTouchEvent(MotionEvent motionEvent){
+        // the drawing is still being loaded back, or filled
+        if( mRestoring || mFiller.isRunning() ) return true;
+
+        if( motionEvent.getActionMasked() == MotionEvent.ACTION_DOWN ) mFirstDownTime = motionEvent.getEventTime();
+        if( mPinchZoom && zoomTouch(motionEvent) ) return true;
+
+        // a hidden layer can't be drawn on, and only strokes are shared
+        if( !mTiledMode && !mLayers.isVisible(mLayers.getActive()) ) return true;
+        if( mSession != null && (mFillMode || mEraserMode) ) return true;
+
+        if( mFillMode && !mTiledMode && mStrokes.getActivePointers() == 0 ){
+            fillTouch(motionEvent);
+        } else if( mEraserMode && !mTiledMode && mStrokes.getActivePointers() == 0 ){
+            eraseTouch(motionEvent);
+        } else {
+            drawTouch(motionEvent);
+        }
+
+        if( !mDirtyRect.isEmpty() ){
+            if( mOldestUndrawnEvent < 0 ){
+                mOldestUndrawnEvent = motionEvent.getHistorySize() > 0
+                        ? motionEvent.getHistoricalEventTime(0) : motionEvent.getEventTime();
+            }
+            invalidate(mDirtyRect);
+            mDirtyRect.setEmpty();
+        }
+        return true;
+    }
+
+    // draw with the touch
+    private void drawTouch(MotionEvent motionEvent){
         int action = motionEvent.getActionMasked(); // event type
         int actionIndex = motionEvent.getActionIndex(); // pointer (i.e. finger)
 
         // determine whether touch started, ended, or moving
         if( action == MotionEvent.ACTION_DOWN || action == MotionEvent.ACTION_POINTER_DOWN ){
             touchStarted(
-                    motionEvent.getX(actionIndex),
-                    motionEvent.getY(actionIndex),
-                    motionEvent.getPointerId(actionIndex)
+                    toCanvasX(motionEvent.getX(actionIndex)),
+                    toCanvasY(motionEvent.getY(actionIndex)),
+                    motionEvent.getPointerId(actionIndex),
+                    motionEvent.getEventTime()
             );
         } else if( action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_POINTER_UP ){
-            touchEnded(motionEvent.getPointerId(actionIndex));
+            touchEnded(motionEvent.getPointerId(actionIndex), motionEvent.getEventTime());
+        } else if( action == MotionEvent.ACTION_CANCEL ){
+            // the gesture was taken away (a parent, palm rejection, a dialog) and no UP will
+            // come: end every finger where it got to, so what they drew is in the history
+            for( int pointer = 0; pointer < StrokeBuilder.MAX_POINTERS; ++pointer ){
+                touchEnded(pointer, motionEvent.getEventTime());
+            }
         } else {
             touchMoved(motionEvent);
         }
 
-        invalidate();       // redraw
+        // redraw only what the touch changed
+        if( mStrokes.hasBounds() ){
+            addDirtyBounds(mStrokes.getBoundsLeft(), mStrokes.getBoundsTop(),
+                    mStrokes.getBoundsRight(), mStrokes.getBoundsBottom());
+            mStrokes.clearBounds();
+        }
+    }
+
+    // erase the strokes under each finger. the history draws what was under them again
+    // and adds that to the dirty region.
+    private void eraseTouch(MotionEvent motionEvent){
+        int action = motionEvent.getActionMasked();
+        int actionIndex = motionEvent.getActionIndex();
+
+        if( action == MotionEvent.ACTION_DOWN || action == MotionEvent.ACTION_POINTER_DOWN ){
+            int pointerID = motionEvent.getPointerId(actionIndex);
+            mEraserXs[pointerID] = toCanvasX(motionEvent.getX(actionIndex));
+            mEraserYs[pointerID] = toCanvasY(motionEvent.getY(actionIndex));
+            eraseAt(mEraserXs[pointerID], mEraserYs[pointerID], ERASER_RADIUS / mScale);
+        } else if( action == MotionEvent.ACTION_MOVE ){
+            int historySize = motionEvent.getHistorySize();
+            for( int i = 0; i < motionEvent.getPointerCount(); ++i ){
+                int pointerID = motionEvent.getPointerId(i);
+                for( int h = 0; h <= historySize; ++h ){
+                    eraseTo(pointerID,
+                            toCanvasX(h < historySize ? motionEvent.getHistoricalX(i, h) : motionEvent.getX(i)),
+                            toCanvasY(h < historySize ? motionEvent.getHistoricalY(i, h) : motionEvent.getY(i)));
+                }
+            }
+        } else if( action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL ){
+            // one autosave step for the whole gesture
+            if( mErasedStrokes > 0 ) mAutosave.erase(mBitmap);
+            mErasedStrokes = 0;
+        }
+    }
+
+    // start a bucket fill where the first finger comes down
+    private void fillTouch(MotionEvent motionEvent){
+        if( motionEvent.getActionMasked() != MotionEvent.ACTION_DOWN ) return;
+        int x = (int) Math.floor(toCanvasX(motionEvent.getX()));
+        int y = (int) Math.floor(toCanvasY(motionEvent.getY()));
+        if( x < 0 || y < 0 || x >= mBitmap.getWidth() || y >= mBitmap.getHeight() ) return;
+
+        if( mFiller.fill(mBitmap, x, y, getDrawingsColor(), FILL_TOLERANCE) ){
+            mFillX = x;
+            mFillY = y;
+            mFillColor = getDrawingsColor();
+            setFillProgress(0);
+        }
+    }
+
+    // shows how a fill goes, and puts the filled drawing into the history and the autosave
+    private final FloodFiller.OnFillListener fillListener = new FloodFiller.OnFillListener() {
+        @Override
+        public void onFillProgress(long filledPixels) {
+            setFillProgress((float) filledPixels / ((long) mBitmap.getWidth() * mBitmap.getHeight()));
+        }
+
+        @Override
+        public void onFillFinished(Rect changed) {
+            setFillProgress(-1);
+            if( changed == null ) return;
+            mLayers.addBounds(mLayers.getActive(), changed.left, changed.top, changed.right, changed.bottom);
+            // the fill sets pixels to the color rather than blending it, only an opaque one
+            // is the same as ink
+            addInk(Color.alpha(mFillColor) == 255 ? mFillColor : LayerSnapshot.MIXED_INK);
+            mHistory.addSnapshot();
+            mTouchLog.fill(SystemClock.uptimeMillis(), mFillX, mFillY, mFillColor);
+            mAutosave.fill(mBitmap);
+            addDirtyCanvasRect(changed.left, changed.top, changed.right, changed.bottom);
+            invalidate(mDirtyRect);
+            mDirtyRect.setEmpty();
+        }
+    };
+
+    // set the progress bar to part of its length, -1 hides it
+    private void setFillProgress(float progress){
+        invalidate(mFillProgressRect);
+        mFillProgress = progress;
+        if( progress < 0 ){
+            mFillProgressRect.setEmpty();
+            return;
+        }
+        float height = FILL_PROGRESS_HEIGHT * getResources().getDisplayMetrics().density;
+        mFillProgressRect.set(0, 0, Math.round(getWidth() * Math.min(progress, 1)), Math.round(height));
+        invalidate(mFillProgressRect);
+    }
+
+    // the progress bar along the top of the view
+    private void drawFillProgress(Canvas canvas){
+        canvas.drawRect(mFillProgressRect, mPaintFillProgress);
+    }
+
+    /**
+     * told on the UI thread when the view starts or stops drawing together with others.
+     */
+    public interface OnSessionListener {
+        void onSessionJoined();
+
+        // error is null if leaveSession() was called
+        void onSessionLeft(IOException error);
+    }
+
+    public void setOnSessionListener(OnSessionListener listener){
+        mSessionListener = listener;
+    }
+
+    // let other devices join this one's drawing, which starts over blank.
+    // return false if the drawing can't be shared right now.
+    public boolean hostSession(){
+        if( !canJoinSession() ) return false;
+        mCollaboration.host();
+        return true;
+    }
+
+    // draw together with the device at host, instead of on this drawing
+    public boolean joinSession(String host){
+        if( !canJoinSession() ) return false;
+        mCollaboration.join(host);
         return true;
     }
 
+    // draw alone again, keeping the drawing
+    public void leaveSession(){
+        if( !mCollaboration.isConnected() ) return;
+        sessionLeft(null);
+    }
+
+    private void sessionLeft(IOException error){
+        mCollaboration.leave();
+        mSession = null;
+        mHistory.unpin();
+        invalidate(); // the remote strokes in progress go away
+        if( mSessionListener != null ) mSessionListener.onSessionLeft(error);
+    }
+
+    // return whether the view is drawing with others, or trying to connect
+    public boolean isInSession(){
+        return mCollaboration.isConnected();
+    }
+
+    public boolean isHostingSession(){
+        return mCollaboration.isHosting();
+    }
+
+    private boolean canJoinSession(){
+        return !mRestoring && !mFiller.isRunning();
+    }
+
+    // what the server sends, on the UI thread
+    private final Collaboration.OnSyncListener syncListener = new Collaboration.OnSyncListener() {
+        @Override
+        public void onJoined(int peer) {
+            // everyone draws the same strokes from a blank drawing
+            setTiledMode(false);
+            setEraserMode(false);
+            setFillMode(false);
+            clearDrawing();
+            mSession = new SyncSession(syncTarget);
+            mSession.setPeer(peer);
+            mHistory.pin(0);
+            if( mSessionListener != null ) mSessionListener.onSessionJoined();
+        }
+
+        @Override
+        public void onBatch(int peer, byte[] batch) {
+            if( mSession == null ) return;
+            try {
+                mSession.receive(peer, batch, 0, batch.length);
+            } catch( IllegalArgumentException e ){
+                // not something a peer of this version sent, the drawings can't agree anymore
+                sessionLeft(new IOException(e));
+                return;
+            }
+            scheduleSync();
+        }
+
+        @Override
+        public void onLeft(IOException error) {
+            sessionLeft(error);
+        }
+    };
+
+    // sync with the others on the next frame, once for everything that happens until then
+    private void scheduleSync(){
+        if( mSyncScheduled ) return;
+        mSyncScheduled = true;
+        ViewCompat.postOnAnimation(this, syncFrame);
+    }
+
+    // send this frame's batch, draw the remote strokes that are in turn, and redraw where
+    // the ones in progress moved
+    private final Runnable syncFrame = new Runnable() {
+        @Override
+        public void run() {
+            mSyncScheduled = false;
+            if( mSession == null ) return;
+
+            byte[] batch = mSession.takeBatch();
+            if( batch != null ) mCollaboration.send(batch);
+            if( mSession.apply() ){
+                // the memory limit mustn't drop the strokes the server hasn't sent back,
+                // apply() may have to take them back. after a local clear they're all there is.
+                mHistory.pin(Math.max(0, mHistory.getDrawnCount() - mSession.getPendingCount()));
+            }
+
+            if( mSession.hasBounds() ){
+                addDirtyCanvasRect((int) Math.floor(mSession.getBoundsLeft()), (int) Math.floor(mSession.getBoundsTop()),
+                        (int) Math.ceil(mSession.getBoundsRight()), (int) Math.ceil(mSession.getBoundsBottom()));
+                mSession.clearBounds();
+            }
+            if( !mDirtyRect.isEmpty() ){
+                invalidate(mDirtyRect);
+                mDirtyRect.setEmpty();
+            }
+        }
+    };
+
+    // applies the shared strokes and clears to the drawing, through the history like
+    // local ones, so undo and the autosave see them
+    private final SyncSession.Target syncTarget = new SyncSession.Target() {
+        @Override
+        public void takeBack(int count) {
+            // they're after the pinned step, so all of them can be taken back at once
+            if( !mHistory.undoTo(mHistory.getDrawnCount() - count) ){
+                throw new IllegalStateException("can't take back " + count + " strokes, the history has "
+                        + mHistory.getDrawnCount());
+            }
+            long time = SystemClock.uptimeMillis();
+            for( int i = 0; i < count; ++i ){
+                mTouchLog.undo(time);
+                mAutosave.undo(mBitmap);
+            }
+            invalidateDrawing();
+        }
+
+        @Override
+        public void draw(Stroke stroke) {
+            historySurface.draw(stroke);
+            recordStroke(stroke);
+            mTouchLog.stroke(SystemClock.uptimeMillis(), stroke);
+            addStrokeBounds(stroke);
+        }
+
+        @Override
+        public void clear() {
+            clearDrawing();
+        }
+    };
+
+    // the strokes other peers are drawing, as plain paths through their points. they're
+    // drawn properly (stamped, smoothed) once they're finished.
+    private int drawRemoteStrokes(Canvas canvas){
+        List<SyncSession.RemoteStroke> strokes = mSession.getLiveStrokes();
+        for( int s = 0; s < strokes.size(); ++s ){
+            SyncSession.RemoteStroke stroke = strokes.get(s);
+            float[] points = stroke.getPoints();
+            mRemotePath.rewind();
+            mRemotePath.moveTo(points[0], points[1]);
+            for( int i = 1; i < stroke.getPointCount(); ++i ){
+                mRemotePath.lineTo(points[i * 2], points[i * 2 + 1]);
+            }
+            mPaintRemote.setColor(stroke.getColor());
+            mPaintRemote.setStrokeWidth(stroke.getWidth());
+            canvas.drawPath(mRemotePath, mPaintRemote);
+        }
+        return strokes.size();
+    }
+
+    // redraw the box around a stroke drawn into the active layer
+    private void addStrokeBounds(Stroke stroke){
+        float left = Float.MAX_VALUE, top = Float.MAX_VALUE, right = -Float.MAX_VALUE, bottom = -Float.MAX_VALUE;
+        for( int i = 0; i < stroke.getPointCount(); ++i ){
+            left = Math.min(left, stroke.getX(i));
+            top = Math.min(top, stroke.getY(i));
+            right = Math.max(right, stroke.getX(i));
+            bottom = Math.max(bottom, stroke.getY(i));
+        }
+        float pad = stroke.getWidth() / 2 + 2;
+        int dirtyLeft = (int) Math.floor(left - pad), dirtyTop = (int) Math.floor(top - pad);
+        int dirtyRight = (int) Math.ceil(right + pad), dirtyBottom = (int) Math.ceil(bottom + pad);
+        addDirtyCanvasRect(dirtyLeft, dirtyTop, dirtyRight, dirtyBottom);
+        mLayers.addBounds(mLayers.getActive(), dirtyLeft, dirtyTop, dirtyRight, dirtyBottom);
+    }
+
+    // erase along the line from where the finger erased last to (x, y).
+    // the eraser is the same size on screen however far it's zoomed.
+    private void eraseTo(int pointerID, float x, float y){
+        float startX = mEraserXs[pointerID], startY = mEraserYs[pointerID];
+        float radius = ERASER_RADIUS / mScale;
+        float distance = (float) Math.hypot(x - startX, y - startY);
+        int steps = Math.max(1, (int) Math.ceil(distance / radius));
+        for( int step = 1; step <= steps; ++step ){
+            float t = (float) step / steps;
+            eraseAt(startX + t * (x - startX), startY + t * (y - startY), radius);
+        }
+        mEraserXs[pointerID] = x;
+        mEraserYs[pointerID] = y;
+    }
+
+    // erase the strokes within radius of (x, y), and log which ones for the timelapse
+    private void eraseAt(float x, float y, float radius){
+        int erased = mHistory.erase(x, y, radius);
+        for( int i = 0; i < erased; ++i ){
+            mTouchLog.erase(SystemClock.uptimeMillis(), mHistory.getErasedStep(i));
+        }
+        mErasedStrokes += erased;
+    }
+
     // method for when user touches screen
-    private void touchStarted(float x, float y, int lineID){
-        Path path;
-        Point point;
-
-        // if there is already a path of lineID
-        if( pathMap.containsKey(lineID) ){
-            path = pathMap.get(lineID);     // get the Path
-            path.reset(); // reset Path because new touch has started
-            point = previousPointMap.get(lineID); // get Path's last point
+    private void touchStarted(float x, float y, int lineID, long time){
+        if( lineID < 0 || lineID >= StrokeBuilder.MAX_POINTERS ) return; // too many fingers
+
+        // stamped strokes go straight into the bitmap, or the mask if translucent
+        if( !mTiledMode && usesStamps(mBrushHardness) ){
+            startCoverage();
+            mBrush.begin(lineID, mCoverageCanvas, mPaintLine.getStrokeWidth(), mBrushHardness);
+            mStampedPointers |= 1 << lineID;
         } else {
-            path = new Path();
-            pathMap.put(lineID, path);  // add the Path to Map
-            point = new Point(); // create a new Point
-            previousPointMap.put(lineID, point); // add the Point
+            mStampedPointers &= ~(1 << lineID);
         }
 
-        // move to coordinates of the touch
-        path.moveTo(x, y);
-        point.x = (int) x;
-        point.y = (int) y;
+        if( mStrokes.start(lineID, x, y) && !mTiledMode ){
+            addInk(mPaintLine.getColor()); // it's in the bitmap before it's in the history
+            mTouchLog.down(lineID, time, x, y, mPaintLine.getColor(), mPaintLine.getStrokeWidth());
+            if( mSession != null ){
+                mSession.start(lineID, x, y, mPaintLine.getColor(), mPaintLine.getStrokeWidth(),
+                        isStamped(lineID) ? mBrushHardness : 1);
+                scheduleSync();
+            }
+        }
     }
 
     // method for when user drags along the screen
     private void touchMoved(MotionEvent motionEvent){
+        // samples batched into this event before the current one
+        int historySize = mUseHistoricalSamples ? motionEvent.getHistorySize() : 0;
+
         // for each of the pointers in the given MotionEvent
         for( int i=0; i < motionEvent.getPointerCount(); ++i ){
             int pointerID = motionEvent.getPointerId(i);
-            int pointerIndex = motionEvent.findPointerIndex(pointerID);
 
             // if there is a path associated with pointer
-            if( pathMap.containsKey(pointerID) ){
-                float newX = motionEvent.getX(pointerIndex);
-                float newY = motionEvent.getY(pointerIndex);
-
-                // get the path and prev point associated with this pointer
-                Path path = pathMap.get(pointerID);
-                Point point = previousPointMap.get(pointerID);
-
-                // calc distance moved from prev point.
-                float diffX = Math.abs(newX - point.x);
-                float diffY = Math.abs(newY - point.y);
-
-                // if distance is significant enough to matter
-                if( diffX >= TOUCH_TOLERANCE || diffY >= TOUCH_TOLERANCE ){
-                    path.quadTo(point.x, point.y, (newX + point.x)/2, (newY + point.y)/2);
+            if( mStrokes.isActive(pointerID) ){
+                // oldest historical sample first, the current position last
+                for( int h = 0; h <= historySize; ++h ){
+                    float newX = toCanvasX(h < historySize ? motionEvent.getHistoricalX(i, h) : motionEvent.getX(i));
+                    float newY = toCanvasY(h < historySize ? motionEvent.getHistoricalY(i, h) : motionEvent.getY(i));
+                    if( mStrokes.move(pointerID, newX, newY) && mSession != null ){
+                        mSession.move(pointerID, newX, newY);
+                    }
+                    if( !mTiledMode ){
+                        mTouchLog.move(pointerID, h < historySize
+                                ? motionEvent.getHistoricalEventTime(h) : motionEvent.getEventTime(), newX, newY);
+                    }
+                }
+                if( isStamped(pointerID) ) continue; // stamped already, the pending end is stamped in onDraw()
+                updatePendingPath(pointerID);
 
-                    // store the new coords
-                    point.x = (int) newX;
-                    point.y = (int) newY;
+                if( mIncrementalCommit && mStrokes.getSegmentCount(pointerID) >= FLUSH_SEGMENTS ){
+                    flushPath(pointerID);
                 }
             }
         }
     } // end touchMoved()
 
+    // rebuild the part of a finger's path that isn't final yet
+    private void updatePendingPath(int lineID){
+        if( mPendingPaths[lineID] != null ) mPendingPaths[lineID].rewind();
+        mStrokes.pending(lineID, pendingSink);
+    }
+
     // method for when user finishes a touch
-    private void touchEnded(int lineID){
-        Path path = pathMap.get(lineID); // get corresponding Path
-        mCanvas.drawPath(path, mPaintLine);     // draw to Canvas
-        path.reset(); // reset the path
+    // the path is already on screen (but for the final curve, which is in the dirty bounds),
+    // so moving it into the bitmap doesn't need a full redraw
+    private void touchEnded(int lineID, long time){
+        if( !mStrokes.end(lineID) ) return; // adds the rest of the path
+        long commitStart = mPerf.isEnabled() ? System.nanoTime() : 0;
+        if( mPendingPaths[lineID] != null ) mPendingPaths[lineID].rewind();
+
+        // keep the stroke for undo, a single point didn't draw anything
+        boolean stamped = isStamped(lineID);
+        Stroke stroke = null;
+        if( !mTiledMode && mStrokes.getPointCount(lineID) > 1 ){
+            stroke = mStrokes.toStroke(lineID, mPaintLine.getColor(), mPaintLine.getStrokeWidth(),
+                    stamped ? mBrushHardness : 1);
+        }
+        if( mSession != null ){
+            stroke = mSession.end(lineID, stroke); // the one the others draw, rounded like it's sent
+            scheduleSync();
+        }
+        if( !mTiledMode ) mTouchLog.up(lineID, time, stroke != null);
+
+        if( stamped ){
+            mStampedPointers &= ~(1 << lineID); // end() stamped the rest of it
+        } else {
+            Path path = mPaths[lineID]; // get corresponding Path
+            if( mTiledMode ){
+                mTiles.drawPath(path, mPaintLine);
+            } else if( mInkMaskInUse ){
+                mInkMaskCanvas.drawPath(path, mPaintOpaque);
+            } else {
+                mCanvas.drawPath(path, mPaintLine);     // draw to Canvas
+            }
+            path.reset(); // reset the path
+        }
+
+        if( stroke != null ) mPendingStrokes.add(stroke);
+        if( mStrokes.getActivePointers() == 0 ){
+            // when the last translucent stroke ends, blend the mask into the bitmap
+            if( mInkMaskInUse ){
+                mPaintOpaque.setColor(mPaintLine.getColor()); // ALPHA_8 bitmaps are drawn in the paint's color
+                mCanvas.drawBitmap(mInkMask, 0, 0, mPaintOpaque);
+                mInkMask.eraseColor(Color.TRANSPARENT);
+                mInkMaskInUse = false;
+            }
+            // and the stamped ones' coverage
+            if( mCoverageInUse ){
+                mCanvas.drawBitmap(mCoverage, 0, 0, mPaintCoverage);
+                mCoverage.eraseColor(Color.BLACK);
+                mCoverageInUse = false;
+            }
+
+            // the bitmap has exactly the strokes so far now
+            recordStrokes(mPendingStrokes);
+            mPendingStrokes.clear();
+        }
+
+        if( commitStart != 0 ) mPerf.recordCommit((System.nanoTime() - commitStart) / 1000);
     }
 
-    // save the current image to the Gallery
-    public void saveImage(){
-        fixMediaDir(); // fixes bug in Android 4.4
+    // add a finished stroke to the undo history and the autosave
+    private void recordStroke(Stroke stroke){
+        addInk(stroke.getColor());
+        mHistory.add(stroke);
+        mAutosave.stroke(stroke, mBitmap);
+    }
 
-        // name file eSketch + timestamp
-        final String filename = "eSketch" + System.currentTimeMillis() + ".jpg";
+    // add strokes that were finished together, once all of them are in the bitmap
+    private void recordStrokes(List<Stroke> strokes){
+        for( Stroke stroke : strokes ){
+            addInk(stroke.getColor());
+        }
+        mHistory.addAll(strokes);
+        mAutosave.strokes(strokes, mBitmap);
+    }
 
-        // insert image on the device
-        String location = MediaStore.Images.Media.insertImage(
-                getContext().getContentResolver(), mBitmap, filename, "eSketch Drawing"
-        );
+    // return whether pointer's stroke is stamped instead of stroked as a path
+    private boolean isStamped(int pointer){
+        return (mStampedPointers & (1 << pointer)) != 0;
+    }
 
-        if( location != null ){
-            // notify user image was saved successfully
-            Toast msg = Toast.makeText( getContext(), R.string.message_saved, Toast.LENGTH_SHORT);
-            msg.setGravity(Gravity.CENTER, msg.getXOffset()/2, msg.getYOffset()/2);
-            msg.show();
+    // return whether a stroke with a brush this hard is stamped
+    private boolean usesStamps(float hardness){
+        return mStampStrokes || hardness < 1;
+    }
+
+    // collect the stamps in the coverage layer until the last stamped stroke ends
+    private void startCoverage(){
+        if( mCoverageInUse ) return;
+        if( mCoverage == null ) createCoverage();
+        StampBrush.setCoverageColor(mPaintCoverage, mPaintLine.getColor());
+        mCoverageInUse = true;
+    }
+
+    // allocate the coverage layer at the bitmap's size, with nothing stamped
+    private void createCoverage(){
+        mCoverage = Bitmap.createBitmap(mBitmap.getWidth(), mBitmap.getHeight(), Bitmap.Config.ARGB_8888);
+        mCoverage.eraseColor(Color.BLACK);
+        mCoverageCanvas = new Canvas(mCoverage);
+    }
+
+    // collect translucent ink in the mask until the last stroke ends
+    private void startInkMask(){
+        if( mInkMaskInUse ) return;
+        if( mInkMask == null ) createInkMask();
+        mPaintOpaque.set(mPaintLine);
+        mPaintOpaque.setAlpha(255);
+        mInkMaskInUse = true;
+    }
+
+    // allocate the ink mask at the bitmap's size
+    private void createInkMask(){
+        mInkMask = Bitmap.createBitmap(mBitmap.getWidth(), mBitmap.getHeight(), Bitmap.Config.ALPHA_8);
+        mInkMaskCanvas = new Canvas(mInkMask);
+    }
+
+    // draw everything but the end of a long path into the bitmap (or the mask, for
+    // translucent colors) and restart the path where it ended.
+    // nothing changes on screen so there's nothing to invalidate.
+    private void flushPath(int lineID){
+        Path path = mPaths[lineID];
+
+        if( mTiledMode ){
+            // tiles have no mask, translucent paths are only drawn into them when they end
+            if( Color.alpha(mPaintLine.getColor()) != 255 ) return;
+            mTiles.drawPath(path, mPaintLine);
+        } else if( Color.alpha(mPaintLine.getColor()) == 255 && !mInkMaskInUse ){
+            mCanvas.drawPath(path, mPaintLine);
         } else {
-            // notify user image was NOT saved successfully
-            Toast msg = Toast.makeText( getContext(), R.string.message_error_saving, Toast.LENGTH_SHORT);
-            msg.setGravity(Gravity.CENTER, msg.getXOffset()/2, msg.getYOffset()/2);
-            msg.show();
+            startInkMask();
+            mInkMaskCanvas.drawPath(path, mPaintOpaque);
         }
+
+        path.reset();
+        path.moveTo(mStrokes.getEndX(lineID), mStrokes.getEndY(lineID));
+        mStrokes.resetSegmentCount(lineID);
     }
 
-    // this fixes a bug in Android 4.4 (https://code.google.com/p/android/issues/detail?id=75447)
-    // where it happens when the user hasn't taken a photo on the device before (i.e. gallery is empty and hasn't been initialized.)
-    void fixMediaDir(){
-        File sdcard = Environment.getExternalStorageDirectory();
-        if (sdcard != null) {
-            File mediaDir = new File(sdcard, "DCIM/Camera");
-            if (!mediaDir.exists()) {
-                mediaDir.mkdirs();
-            }
+    // grow the dirty region to cover the box around some path segments.
+    // the stroke sticks out of it by half the line width (round caps too),
+    // plus 2px for anti-aliasing and the border around brush tips
+    private void addDirtyBounds(float left, float top, float right, float bottom){
+        float pad = mPaintLine.getStrokeWidth() / 2 + 2;
+        int dirtyLeft = (int) Math.floor(left - pad), dirtyTop = (int) Math.floor(top - pad);
+        int dirtyRight = (int) Math.ceil(right + pad), dirtyBottom = (int) Math.ceil(bottom + pad);
+        addDirtyCanvasRect(dirtyLeft, dirtyTop, dirtyRight, dirtyBottom);
+
+        // what's drawn goes into the active layer, which may have been empty so far
+        if( !mTiledMode ) mLayers.addBounds(mLayers.getActive(), dirtyLeft, dirtyTop, dirtyRight, dirtyBottom);
+    }
+
+    // the drawing changed inside a box (drawing coordinates): grow the dirty region to
+    // where it is on screen, and make the mipmaps there again
+    private void addDirtyCanvasRect(int left, int top, int right, int bottom){
+        mDirtyRect.union((int) Math.floor((left - mOriginX) * mScale) - 1,
+                (int) Math.floor((top - mOriginY) * mScale) - 1,
+                (int) Math.ceil((right - mOriginX) * mScale) + 1,
+                (int) Math.ceil((bottom - mOriginY) * mScale) + 1);
+        if( !mTiledMode ) mMipmaps.invalidate(left, top, right, bottom);
+    }
+
+    // the whole drawing changed
+    private void invalidateDrawing(){
+        mMipmaps.invalidateAll();
+        invalidate();
+    }
+
+    // zoom and pan with two fingers: the point of the drawing under their midpoint stays
+    // under it, and the drawing scales with how far apart they are. return whether the
+    // event was used, otherwise it draws.
+    private boolean zoomTouch(MotionEvent motionEvent){
+        int action = motionEvent.getActionMasked();
+        if( action == MotionEvent.ACTION_DOWN ){
+            mZooming = false;
+            mZoomEnded = false;
+            return false;
+        }
+        if( mZoomEnded ){
+            // the fingers left after a zoom don't draw
+            if( action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL ) mZoomEnded = false;
+            return true;
+        }
+
+        if( !mZooming ){
+            if( action != MotionEvent.ACTION_POINTER_DOWN || motionEvent.getPointerCount() != 2 ) return false;
+            startZoom(motionEvent);
+            return true;
+        }
+
+        if( action == MotionEvent.ACTION_MOVE ){
+            int first = motionEvent.findPointerIndex(mZoomPointers[0]);
+            int second = motionEvent.findPointerIndex(mZoomPointers[1]);
+            if( first < 0 || second < 0 ) return true;
+            float x0 = motionEvent.getX(first), y0 = motionEvent.getY(first);
+            float x1 = motionEvent.getX(second), y1 = motionEvent.getY(second);
+            float distance = Math.max(1, (float) Math.hypot(x1 - x0, y1 - y0));
+            float scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, mZoomStartScale * distance / mZoomStartDistance));
+            setViewport(mZoomCanvasX - (x0 + x1) / 2 / scale, mZoomCanvasY - (y0 + y1) / 2 / scale, scale);
+        } else if( action == MotionEvent.ACTION_POINTER_UP || action == MotionEvent.ACTION_UP
+                || action == MotionEvent.ACTION_CANCEL ){
+            // lifting any finger ends the zoom
+            mZooming = false;
+            mZoomEnded = action == MotionEvent.ACTION_POINTER_UP;
         }
+        return true;
+    }
+
+    // the second finger came down: what the first one drew stays, unless it just started
+    private void startZoom(MotionEvent motionEvent){
+        int drawn = mTiledMode ? 0 : mHistory.getDrawnCount();
+        for( int bits = mStrokes.getActivePointers(); bits != 0; bits &= bits - 1 ){
+            touchEnded(Integer.numberOfTrailingZeros(bits), motionEvent.getEventTime());
+        }
+        if( mStrokes.hasBounds() ){
+            addDirtyBounds(mStrokes.getBoundsLeft(), mStrokes.getBoundsTop(),
+                    mStrokes.getBoundsRight(), mStrokes.getBoundsBottom());
+            mStrokes.clearBounds();
+        }
+        if( mErasedStrokes > 0 ) mAutosave.erase(mBitmap);
+        mErasedStrokes = 0;
+        if( !mTiledMode && mHistory.getDrawnCount() > drawn
+                && motionEvent.getEventTime() - mFirstDownTime < TAKE_BACK_MILLIS ){
+            undo();
+        }
+        invalidate(mDirtyRect);
+        mDirtyRect.setEmpty();
+
+        mZooming = true;
+        mZoomPointers[0] = motionEvent.getPointerId(0);
+        mZoomPointers[1] = motionEvent.getPointerId(1);
+        float x0 = motionEvent.getX(0), y0 = motionEvent.getY(0);
+        float x1 = motionEvent.getX(1), y1 = motionEvent.getY(1);
+        mZoomStartDistance = Math.max(1, (float) Math.hypot(x1 - x0, y1 - y0));
+        mZoomStartScale = mScale;
+        mZoomCanvasX = toCanvasX((x0 + x1) / 2);
+        mZoomCanvasY = toCanvasY((y0 + y1) / 2);
+    }
+
+    // save the current image to the Gallery. this returns right away, the listener
+    // set with setOnExportListener() is told when the image is saved.
+    public void saveImage(){
+        if( mTiledMode ){
+            // save what the view shows of the tiled canvas
+            Bitmap visible = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+            drawTiled(new Canvas(visible), true);
+            mExporter.export(visible, getWidth(), getHeight()); // copied before it returns
+            visible.recycle();
+        } else if( isFlat() ){
+            mExporter.export(mBitmap, getWidth(), getHeight());
+        } else {
+            Bitmap flat = flattenLayers();
+            mExporter.export(flat, getWidth(), getHeight());
+            flat.recycle();
+        }
+    }
+
+    // save the drawing as an SVG or PDF file in Downloads, its strokes as vector paths.
+    // strokes the undo history has dropped, and everything up to the last fill, are only
+    // in its start checkpoint, which goes in as an image under the rest. returns false in tiled mode, which keeps no strokes,
+    // and with more than one layer, since the history only has the active layer's.
+    public boolean saveVector(ImageExporter.VectorFormat format){
+        if( mTiledMode || mLayers.size() > 1 ) return false;
+
+        List<Stroke> strokes = new ArrayList<>(mHistory.getDrawnCount());
+        for( int i = mHistory.getStartIndex(); i < mHistory.getDrawnCount(); ++i ){
+            if( !mHistory.isErased(i) ) strokes.add(mHistory.getStroke(i));
+        }
+        // the exporter copies the start before it returns
+        LayerSnapshot start = mHistory.getStart();
+        Bitmap image = start == null ? null : start.toBitmap(layerBackground());
+        mExporter.exportVector(format, image, strokes, getWidth(), getHeight());
+        if( image != null ) image.recycle();
+        return true;
+    }
+
+    // listener told on the UI thread when saveImage() or saveVector() is done
+    public void setOnExportListener(ImageExporter.OnExportListener listener){
+        mExporter.setOnExportListener(listener);
+    }
+
+    // choose the saved image's file format and quality (0-100)
+    public void setExportFormat(Bitmap.CompressFormat format, int quality){
+        mExporter.setFormat(format, quality);
     }
 
     // TODO: share image via text, facebook, google+, etc.  or just save and share via gallery app
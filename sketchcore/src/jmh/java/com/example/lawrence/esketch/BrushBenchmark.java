@@ -0,0 +1,144 @@
+package com.example.lawrence.esketch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * stroking a touch stream's paths vs stamping a pre-rasterized tip along them.
+ *
+ * Java2D stands in for Skia like in SimplifiedRasterBenchmark. Each benchmark draws
+ * the whole stream once, the way eSketchView commits it: strokePaths() strokes each
+ * stroke's path once, stampTips() stamps a tip every 10% of the width (at least 1 px)
+ * at whole pixels. On the device the bigger win is that a stamped stroke's final part
+ * isn't drawn again every frame while the finger is down, which this doesn't measure.
+ * The number of stamps is printed when the benchmark starts.
+ *
+ * Stamping doesn't beat stroking everywhere: on the scribble stream it's a little slower
+ * (about 149 vs 143 ms at 5 px, 247 vs 216 ms at 20 px). So hard brushes are stroked as
+ * paths, and stamping is only used for soft brushes, which a path can't draw.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BrushBenchmark {
+
+    @Param({"scribble", "handwriting"})
+    public String stream;
+
+    @Param({"5", "20"})
+    public float width;
+
+    private final List<Stroke> mStrokes = new ArrayList<>();
+    private final List<Path2D.Float> mPaths = new ArrayList<>();
+    private BufferedImage mImage;
+    private Graphics2D mGraphics;
+    private BufferedImage mTip;
+    private Stamper mStamper;
+
+    @Setup
+    public void setUp() throws IOException {
+        TouchStream touches = TouchStream.load(stream, 1);
+
+        final Path2D.Float[] current = new Path2D.Float[1];
+        StrokeBuilder builder = new StrokeBuilder(new SegmentSink() {
+            @Override
+            public void moveTo(int pointer, float x, float y) {
+                current[0] = new Path2D.Float();
+                current[0].moveTo(x, y);
+            }
+
+            @Override
+            public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+                current[0].quadTo(controlX, controlY, endX, endY);
+            }
+
+            @Override
+            public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                                float endX, float endY) {
+                current[0].curveTo(control1X, control1Y, control2X, control2Y, endX, endY);
+            }
+        });
+        builder.setSimplifyTolerance(1);
+        for (int i = 0; i < touches.size; ++i) {
+            if (touches.actions[i] == TouchStream.DOWN) {
+                builder.start(0, touches.xs[i], touches.ys[i]);
+            } else if (touches.actions[i] == TouchStream.MOVE) {
+                builder.move(0, touches.xs[i], touches.ys[i]);
+            } else if (builder.end(0) && builder.getPointCount(0) > 1) {
+                mPaths.add(current[0]);
+                mStrokes.add(builder.toStroke(0, 0xFF000000, width));
+            }
+        }
+
+        mImage = new BufferedImage(1080 + 400, 1920 + 400, BufferedImage.TYPE_INT_ARGB);
+        mGraphics = mImage.createGraphics();
+        mGraphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        mGraphics.setStroke(new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        mGraphics.setColor(Color.BLACK);
+
+        // the tip is made once, like BrushTipCache does
+        int size = (int) Math.ceil(width) + 2;
+        mTip = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D tip = mTip.createGraphics();
+        tip.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        tip.setColor(Color.BLACK);
+        tip.fill(new Ellipse2D.Float((size - width) / 2, (size - width) / 2, width, width));
+        tip.dispose();
+
+        final int half = size / 2;
+        mStamper = new Stamper(new Stamper.Target() {
+            @Override
+            public void stamp(int pointer, float x, float y) {
+                mGraphics.drawImage(mTip, Math.round(x) - half, Math.round(y) - half, null);
+            }
+        });
+        mStamper.setSpacing(0, Math.max(1, width * 0.1f));
+        mGraphics.setComposite(AlphaComposite.SrcOver);
+
+        stampTips();
+        System.out.println();
+        System.out.println(stream + " at " + width + "px: " + mStrokes.size() + " strokes, "
+                + mStamper.getStampCount() + " stamps");
+    }
+
+    @Benchmark
+    public BufferedImage strokePaths() {
+        for (int i = 0; i < mPaths.size(); ++i) {
+            mGraphics.draw(mPaths.get(i));
+        }
+        return mImage;
+    }
+
+    @Benchmark
+    public BufferedImage stampTips() {
+        for (int i = 0; i < mStrokes.size(); ++i) {
+            StrokeBuilder.replay(mStrokes.get(i), mStamper);
+        }
+        return mImage;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.lawrence.esketch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * how long a bucket fill of a 4K (3840 x 2160) picture takes.
+ *
+ * "blank" fills the whole picture. "strokes" first draws a touch stream's strokes
+ * three times side by side (anti-aliased, 5 px wide) so the region has ragged edges
+ * and holes, then fills the background around them. The pixels are put back before
+ * each fill, outside the measured time. The goal is under 100 ms.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FloodFillBenchmark {
+
+    private static final int WIDTH = 3840;
+    private static final int HEIGHT = 2160;
+
+    @Param({"blank", "strokes"})
+    public String picture;
+
+    @Param({"0", "32"})
+    public int tolerance;
+
+    private int[] mPicture;
+    private int[] mPixels;
+    private FloodFill mFill;
+    private int mSeedX;
+    private int mSeedY;
+
+    @Setup
+    public void setUp() throws IOException {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, WIDTH, HEIGHT);
+
+        if (picture.equals("strokes")) {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setStroke(new BasicStroke(5, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            graphics.setColor(Color.BLACK);
+
+            TouchStream touches = TouchStream.load("scribble", 1);
+            for (int copy = 0; copy < 3; ++copy) {
+                float left = copy * 1380, top = 120;
+                Path2D.Float path = null;
+                for (int i = 0; i < touches.size; ++i) {
+                    if (touches.actions[i] == TouchStream.DOWN) {
+                        path = new Path2D.Float();
+                        path.moveTo(left + touches.xs[i], top + touches.ys[i]);
+                    } else if (touches.actions[i] == TouchStream.MOVE) {
+                        path.lineTo(left + touches.xs[i], top + touches.ys[i]);
+                    } else {
+                        graphics.draw(path);
+                    }
+                }
+            }
+        }
+        graphics.dispose();
+
+        mPicture = image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+        mPixels = new int[mPicture.length];
+        mFill = new FloodFill(mPixels, WIDTH, HEIGHT);
+
+        // the first background pixel
+        int seed = 0;
+        while (mPicture[seed] != 0xFFFFFFFF) ++seed;
+        mSeedX = seed % WIDTH;
+        mSeedY = seed / WIDTH;
+
+        restore();
+        mFill.fill(mSeedX, mSeedY, 0xFFFF0000, tolerance);
+        System.out.println();
+        System.out.println(picture + " within " + tolerance + ": " + mFill.getFilledCount() + " pixels filled of "
+                + mPixels.length);
+    }
+
+    @Setup(Level.Invocation)
+    public void restore() {
+        System.arraycopy(mPicture, 0, mPixels, 0, mPixels.length);
+    }
+
+    @Benchmark
+    public long fill() {
+        mFill.fill(mSeedX, mSeedY, 0xFFFF0000, tolerance);
+        return mFill.getFilledCount();
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.lawrence.esketch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * how long StrokeRasterizer takes to draw a touch stream's strokes into a phone screen
+ * sized picture, with 1 to 8 threads. Throughput should go up with the threads until
+ * there are no more cores (the pool never has more threads than asked for), so run it
+ * on a machine with at least as many cores as threads.
+ * The stream is drawn with 4 fingers, 5 px wide at full size, or as a quarter size thumbnail.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RasterizerBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    @Param({"scribble", "handwriting"})
+    public String stream;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"1", "0.25"})
+    public float scale;
+
+    private final List<Stroke> mStrokes = new ArrayList<>();
+    private ForkJoinPool mPool;
+    private StrokeRasterizer mRasterizer;
+    private int[] mPixels;
+
+    @Setup
+    public void setUp() throws IOException {
+        TouchStream touches = TouchStream.load(stream, 4);
+        StrokeBuilder builder = new StrokeBuilder(new SegmentSink() {
+            @Override
+            public void moveTo(int pointer, float x, float y) {
+            }
+
+            @Override
+            public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+            }
+
+            @Override
+            public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                                float endX, float endY) {
+            }
+        });
+        for (int i = 0; i < touches.size; ++i) {
+            int pointer = touches.pointers[i];
+            if (touches.actions[i] == TouchStream.DOWN) {
+                builder.start(pointer, touches.xs[i], touches.ys[i]);
+            } else if (touches.actions[i] == TouchStream.MOVE) {
+                builder.move(pointer, touches.xs[i], touches.ys[i]);
+            } else if (builder.end(pointer)) {
+                mStrokes.add(builder.toStroke(pointer, 0xFF000000, 5));
+            }
+        }
+
+        mPool = new ForkJoinPool(threads);
+        mRasterizer = new StrokeRasterizer(mPool);
+        mPixels = new int[(int) (WIDTH * scale) * (int) (HEIGHT * scale)];
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Benchmark
+    public int[] render() {
+        Arrays.fill(mPixels, 0xFFFFFFFF);
+        mRasterizer.draw(mStrokes, mPixels, (int) (WIDTH * scale), (int) (HEIGHT * scale), scale);
+        return mPixels;
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.lawrence.esketch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * how long the shake detector takes for a batch of accelerometer samples, 50 Hz while
+ * walking with the phone in a pocket (the samples it sees most).
+ *
+ * A batch replaces batchSize wakeups of the CPU, so it has to cost far less than one
+ * wakeup: well under 100 us.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShakeDetectorBenchmark {
+
+    private static final float G = 9.81f;
+    private static final long PERIOD = 20000000L; // 50 Hz, in nanoseconds
+    private static final int SAMPLES = 50 * 3600; // an hour
+
+    @Param({"20"})
+    public int batchSize;
+
+    private ShakeDetector mDetector;
+    private final long[] mTimes = new long[SAMPLES];
+    private final float[] mValues = new float[3 * SAMPLES];
+    private long[] mBatchTimes;
+    private float[] mBatchValues;
+    private int mNext;
+    private long mTimeOffset; // the hour repeats, later each time
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; ++i) {
+            double t = i / 50.0;
+            mTimes[i] = i * PERIOD;
+            mValues[3 * i] = (float) (1.5 * Math.sin(2 * Math.PI * t)) + 0.05f * (float) random.nextGaussian();
+            mValues[3 * i + 1] = (float) (G + 4 * Math.sin(4 * Math.PI * t)) + 0.05f * (float) random.nextGaussian();
+            mValues[3 * i + 2] = 0.05f * (float) random.nextGaussian();
+        }
+        mBatchTimes = new long[batchSize];
+        mBatchValues = new float[3 * batchSize];
+        mDetector = new ShakeDetector(new ShakeDetector.OnShakeListener() {
+            @Override
+            public void onShake() {
+                throw new IllegalStateException("walking isn't shaking");
+            }
+        });
+    }
+
+    @Benchmark
+    public long batch() {
+        if (mNext + batchSize > SAMPLES) {
+            mNext = 0;
+            mTimeOffset += SAMPLES * PERIOD;
+        }
+        for (int i = 0; i < batchSize; ++i) {
+            mBatchTimes[i] = mTimes[mNext + i] + mTimeOffset;
+        }
+        System.arraycopy(mValues, 3 * mNext, mBatchValues, 0, 3 * batchSize);
+        mNext += batchSize;
+        mDetector.process(mBatchTimes, mBatchValues, batchSize);
+        return mDetector.getSampleCount();
+    }
+}
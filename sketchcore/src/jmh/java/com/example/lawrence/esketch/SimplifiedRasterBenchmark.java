@@ -0,0 +1,109 @@
+package com.example.lawrence.esketch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * how long it takes to rasterize a touch stream's strokes, with and without simplifying.
+ *
+ * Java2D stands in for Android's Skia here (both flatten curves into edges and scan
+ * them with anti-aliasing), so the numbers show how much a simplified path saves
+ * relative to the unsimplified one, not what a device takes. The number of points and
+ * segments before and after simplifying is printed when the benchmark starts.
+ * Run a recorded stream with -p stream=/path/to/recording.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimplifiedRasterBenchmark {
+
+    @Param({"scribble", "handwriting", "slow"})
+    public String stream;
+
+    @Param({"0", "0.5", "1", "2"})
+    public float simplify;
+
+    private final List<Path2D.Float> mPaths = new ArrayList<>();
+    private BufferedImage mImage;
+    private Graphics2D mGraphics;
+
+    @Setup
+    public void setUp() throws IOException {
+        TouchStream touches = TouchStream.load(stream, 1);
+
+        final Path2D.Float[] current = new Path2D.Float[1];
+        StrokeBuilder builder = new StrokeBuilder(new SegmentSink() {
+            @Override
+            public void moveTo(int pointer, float x, float y) {
+                current[0] = new Path2D.Float();
+                current[0].moveTo(x, y);
+            }
+
+            @Override
+            public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+                current[0].quadTo(controlX, controlY, endX, endY);
+            }
+
+            @Override
+            public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                                float endX, float endY) {
+                current[0].curveTo(control1X, control1Y, control2X, control2Y, endX, endY);
+            }
+        });
+        builder.setSimplifyTolerance(simplify);
+
+        long raw = 0, stored = 0, segments = 0;
+        for (int i = 0; i < touches.size; ++i) {
+            if (touches.actions[i] == TouchStream.DOWN) {
+                builder.start(0, touches.xs[i], touches.ys[i]);
+            } else if (touches.actions[i] == TouchStream.MOVE) {
+                if (builder.move(0, touches.xs[i], touches.ys[i]) && simplify == 0) ++segments;
+            } else if (builder.end(0)) {
+                mPaths.add(current[0]);
+                raw += builder.getPointCount(0);
+                stored += builder.toStroke(0, 0, 5).getPointCount();
+                if (simplify > 0) segments += (builder.getCurvePointCount(0) - 1) / 3;
+            }
+        }
+        System.out.println();
+        System.out.println(stream + " simplified within " + simplify + "px: " + raw + " points stored as "
+                + stored + ", " + segments + " segments in " + mPaths.size() + " strokes");
+
+        mImage = new BufferedImage(1080 + 400, 1920 + 400, BufferedImage.TYPE_INT_ARGB);
+        mGraphics = mImage.createGraphics();
+        mGraphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        mGraphics.setStroke(new BasicStroke(5, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        mGraphics.setColor(Color.BLACK);
+    }
+
+    @Benchmark
+    public BufferedImage rasterize() {
+        for (int i = 0; i < mPaths.size(); ++i) {
+            mGraphics.draw(mPaths.get(i));
+        }
+        return mImage;
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.lawrence.esketch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * how many touch points per second StrokeBuilder turns into segments.
+ *
+ * One operation is one touch event, so the score is points per second, and with
+ * -prof gc (-PjmhProfilers=gc) gc.alloc.rate.norm is the bytes allocated per point
+ * (it should be 0, a point makes at most one segment). The pointers parameter shows
+ * how the cost changes with the number of fingers drawing at once, and simplify the
+ * cost of fitting curves (StrokeSimplifier, tolerance in pixels) instead of drawing
+ * through every point.
+ * Run a recorded stream with -p stream=/path/to/recording.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StrokeBuilderBenchmark {
+
+    private static final int EVENTS = 1024; // touch events per benchmark call
+
+    @Param({"scribble", "handwriting", "slow"})
+    public String stream;
+
+    @Param({"1", "2", "5", "10"})
+    public int pointers;
+
+    @Param({"0", "1"})
+    public float simplify;
+
+    private TouchStream mStream;
+    private StrokeBuilder mBuilder;
+    private int mNext; // next event of the stream, it starts over at the end
+
+    @Setup
+    public void setUp(final Blackhole blackhole) throws IOException {
+        mStream = TouchStream.load(stream, pointers);
+
+        // stands in for android.graphics.Path, so the segments can't be optimized away
+        mBuilder = new StrokeBuilder(new SegmentSink() {
+            @Override
+            public void moveTo(int pointer, float x, float y) {
+                blackhole.consume(x);
+                blackhole.consume(y);
+            }
+
+            @Override
+            public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+                blackhole.consume(endX);
+                blackhole.consume(endY);
+            }
+
+            @Override
+            public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                                float endX, float endY) {
+                blackhole.consume(endX);
+                blackhole.consume(endY);
+            }
+        });
+        mBuilder.setSimplifyTolerance(simplify);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public boolean points() {
+        TouchStream stream = mStream;
+        StrokeBuilder builder = mBuilder;
+        int next = mNext;
+
+        for (int i = 0; i < EVENTS; ++i) {
+            int pointer = stream.pointers[next];
+            switch (stream.actions[next]) {
+                case TouchStream.DOWN:
+                    builder.start(pointer, stream.xs[next], stream.ys[next]);
+                    break;
+                case TouchStream.MOVE:
+                    builder.move(pointer, stream.xs[next], stream.ys[next]);
+                    break;
+                default:
+                    builder.end(pointer);
+                    break;
+            }
+            if (++next == stream.size) next = 0;
+        }
+
+        mNext = next;
+        builder.clearBounds(); // like the view does once per event batch
+        return builder.hasBounds();
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.lawrence.esketch;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * points per second through StrokeEncoder and StrokeDecoder, for a touch stream's strokes.
+ *
+ * The "points" counter is the rate to look at. When the benchmark starts it prints how
+ * big the encoded drawing is next to the same drawing as a full screen JPEG (quality
+ * 100, like the app's save), encoded by ImageIO.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StrokeCodecBenchmark {
+
+    @Param({"scribble", "handwriting", "slow"})
+    public String stream;
+
+    // points encoded or decoded
+    @AuxCounters
+    @State(Scope.Thread)
+    public static class Counter {
+        public long points;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            points = 0;
+        }
+    }
+
+    private final List<Stroke> mStrokes = new ArrayList<>();
+    private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+    private byte[] mEncoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        TouchStream touches = TouchStream.load(stream, 1);
+
+        StrokeBuilder builder = new StrokeBuilder(new SegmentSink() {
+            @Override
+            public void moveTo(int pointer, float x, float y) {
+            }
+
+            @Override
+            public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+            }
+
+            @Override
+            public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                                float endX, float endY) {
+            }
+        });
+        for (int i = 0; i < touches.size; ++i) {
+            if (touches.actions[i] == TouchStream.DOWN) {
+                builder.start(0, touches.xs[i], touches.ys[i]);
+            } else if (touches.actions[i] == TouchStream.MOVE) {
+                builder.move(0, touches.xs[i], touches.ys[i]);
+            } else if (builder.end(0)) {
+                mStrokes.add(builder.toStroke(0, 0xFF000000 | mStrokes.size() / 20 * 0x302010, 5));
+            }
+        }
+        mEncoded = encode(new Counter());
+
+        int jpeg = jpegSize();
+        System.out.println();
+        System.out.println(stream + ": " + mStrokes.size() + " strokes encoded in " + mEncoded.length
+                + " bytes, JPEG " + jpeg + " bytes (" + jpeg / mEncoded.length + "x)");
+    }
+
+    @Benchmark
+    public byte[] encode(Counter counter) throws IOException {
+        mOut.reset();
+        StrokeEncoder encoder = new StrokeEncoder(mOut);
+        for (int i = 0; i < mStrokes.size(); ++i) {
+            encoder.write(mStrokes.get(i));
+        }
+        encoder.finish();
+        counter.points += encoder.getPointCount();
+        return mOut.toByteArray();
+    }
+
+    @Benchmark
+    public int decode(Counter counter) throws IOException {
+        StrokeDecoder decoder = new StrokeDecoder(new ByteArrayInputStream(mEncoded));
+        int points = 0;
+        Stroke stroke;
+        while ((stroke = decoder.read()) != null) {
+            points += stroke.getPointCount();
+        }
+        counter.points += points;
+        return points;
+    }
+
+    // the drawing on a white phone screen as a JPEG
+    private int jpegSize() throws IOException {
+        BufferedImage image = new BufferedImage(1080, 1920, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, 1080, 1920);
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setStroke(new BasicStroke(5, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        for (Stroke stroke : mStrokes) {
+            Path2D.Float path = new Path2D.Float();
+            path.moveTo(stroke.getX(0), stroke.getY(0));
+            for (int i = 1; i < stroke.getPointCount(); ++i) {
+                path.lineTo(stroke.getX(i), stroke.getY(i));
+            }
+            graphics.setColor(new Color(stroke.getColor()));
+            graphics.draw(path);
+        }
+        graphics.dispose();
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MemoryCacheImageOutputStream out = new MemoryCacheImageOutputStream(bytes);
+        writer.setOutput(out);
+        writer.write(null, new IIOImage(image, null, null), param);
+        out.close();
+        writer.dispose();
+        return bytes.size();
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.lawrence.esketch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * how long the eraser's hit test takes on a drawing with many strokes.
+ *
+ * The touch stream's strokes are copied over the screen again and again (shifted a
+ * little each time) until there are strokeCount of them, then random points are hit tested.
+ * The eraser needs a hit test on 50k strokes in under 1 ms, on either stream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StrokeIndexBenchmark {
+
+    @Param({"scribble", "handwriting"})
+    public String stream;
+
+    @Param({"5000", "50000"})
+    public int strokeCount;
+
+    @Param({"16"})
+    public float radius;
+
+    @Param({"64"})
+    public float cellSize;
+
+    private StrokeIndex mIndex;
+    private final float[] mPoints = new float[2 * 1024];
+    private int mNext;
+
+    @Setup
+    public void setUp() throws IOException {
+        TouchStream touches = TouchStream.load(stream, 1);
+        mIndex = new StrokeIndex(cellSize);
+
+        float[] points = new float[2 * 4096];
+        int count = 0;
+        Random random = new Random(1);
+        while (mIndex.size() < strokeCount) {
+            float dx = random.nextFloat() * 100 - 50, dy = random.nextFloat() * 100 - 50;
+            for (int i = 0; i < touches.size && mIndex.size() < strokeCount; ++i) {
+                if (touches.actions[i] == TouchStream.DOWN) count = 0;
+                if (count < points.length / 2) {
+                    points[2 * count] = touches.xs[i] + dx;
+                    points[2 * count + 1] = touches.ys[i] + dy;
+                    ++count;
+                }
+                if (touches.actions[i] == TouchStream.UP && count > 1) {
+                    mIndex.add(new Stroke(0xFF000000, 5, points, count));
+                }
+            }
+        }
+
+        for (int i = 0; i < mPoints.length; i += 2) {
+            mPoints[i] = random.nextFloat() * 1080;
+            mPoints[i + 1] = random.nextFloat() * 1920;
+        }
+    }
+
+    @Benchmark
+    public int hitTest() {
+        int i = mNext;
+        mNext = (mNext + 2) % mPoints.length;
+        return mIndex.queryPoint(mPoints[i], mPoints[i + 1], radius);
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.lawrence.esketch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * how long a timelapse seek takes in a session of 100k touch events, drawn with Java2D
+ * into a phone screen sized image (the app draws with Android's Canvas instead).
+ *
+ * The touch stream is drawn again and again (shifted a little each time, 8 ms between
+ * samples) until there are 100k events, the whole session is played once to take the
+ * checkpoints, then it seeks to random times. When the benchmark starts it prints how
+ * many checkpoints were kept and how much memory each one takes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimelapseBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int EVENTS = 100000;
+
+    @Param({"scribble", "handwriting"})
+    public String stream;
+
+    @Param({"1000", "5000"})
+    public int checkpointInterval;
+
+    @Param({"256"})
+    public int memoryLimitMb;
+
+    // draws into a BufferedImage, checkpoints are copies of its pixels
+    private static class ImageSurface implements Timelapse.Surface<int[]> {
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        final Graphics2D graphics = image.createGraphics();
+        final Path2D.Float[] paths = new Path2D.Float[StrokeBuilder.MAX_POINTERS];
+        final int[] colors = new int[StrokeBuilder.MAX_POINTERS];
+        final float[] widths = new float[StrokeBuilder.MAX_POINTERS];
+
+        ImageSurface() {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        }
+
+        @Override
+        public int[] snapshot() {
+            return pixels.clone();
+        }
+
+        @Override
+        public void restore(int[] checkpoint) {
+            if (checkpoint == null) Arrays.fill(pixels, 0xFFFFFFFF);
+            else System.arraycopy(checkpoint, 0, pixels, 0, pixels.length);
+        }
+
+        @Override
+        public long sizeOf(int[] checkpoint) {
+            return checkpoint.length * 4L;
+        }
+
+        @Override
+        public void release(int[] checkpoint) {
+        }
+
+        @Override
+        public void begin(int pointer, int color, float width) {
+            if (paths[pointer] == null) paths[pointer] = new Path2D.Float();
+            colors[pointer] = color;
+            widths[pointer] = width;
+        }
+
+        @Override
+        public void end(int pointer) {
+            graphics.setColor(new Color(colors[pointer], true));
+            graphics.setStroke(new BasicStroke(widths[pointer], BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            graphics.draw(paths[pointer]);
+        }
+
+        @Override
+        public void draw(Stroke stroke) {
+            // the log here has no whole strokes, this is what they would cost
+            begin(0, stroke.getColor(), stroke.getWidth());
+            StrokeBuilder.replay(stroke, this);
+            end(0);
+        }
+
+        @Override
+        public void fill(int x, int y, int color) {
+            new FloodFill(pixels, WIDTH, HEIGHT).fill(x, y, color, 32);
+        }
+
+        @Override
+        public void moveTo(int pointer, float x, float y) {
+            paths[pointer].reset();
+            paths[pointer].moveTo(x, y);
+        }
+
+        @Override
+        public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+            paths[pointer].quadTo(controlX, controlY, endX, endY);
+        }
+
+        @Override
+        public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                            float endX, float endY) {
+            paths[pointer].curveTo(control1X, control1Y, control2X, control2Y, endX, endY);
+        }
+    }
+
+    private Timelapse<int[]> mTimelapse;
+    private final long[] mSeeks = new long[1024];
+    private int mNext;
+
+    @Setup
+    public void setUp() throws IOException {
+        TouchStream touches = TouchStream.load(stream, 1);
+        TouchLog log = new TouchLog();
+        Random random = new Random(1);
+        long time = 0;
+        int strokes = 0;
+        while (log.size() < EVENTS) {
+            float dx = random.nextFloat() * 100 - 50, dy = random.nextFloat() * 100 - 50;
+            for (int i = 0; i < touches.size; ++i) {
+                time += 8;
+                float x = touches.xs[i] + dx, y = touches.ys[i] + dy;
+                if (touches.actions[i] == TouchStream.DOWN) {
+                    log.down(0, time, x, y, 0xFF000000 | strokes++ * 0x010203, 5);
+                } else if (touches.actions[i] == TouchStream.MOVE) {
+                    log.move(0, time, x, y);
+                } else {
+                    log.up(0, time);
+                }
+            }
+        }
+
+        mTimelapse = new Timelapse<>(log, new ImageSurface(), null, checkpointInterval, memoryLimitMb * 1024L * 1024);
+        long start = System.nanoTime();
+        mTimelapse.seekTo(log.getDuration());
+        long played = (System.nanoTime() - start) / 1000000;
+
+        System.out.println();
+        System.out.println(stream + ": " + log.size() + " events (" + log.getByteCount() / 1024 + " KB) played in "
+                + played + " ms, " + mTimelapse.getCheckpointCount() + " checkpoints of "
+                + WIDTH * HEIGHT * 4 / 1024 + " KB every " + mTimelapse.getCheckpointInterval() + " events");
+
+        for (int i = 0; i < mSeeks.length; ++i) {
+            mSeeks[i] = random.nextInt(log.getDuration() + 1);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mTimelapse.release();
+    }
+
+    @Benchmark
+    public int seek() {
+        mTimelapse.seekTo(mSeeks[mNext]);
+        mNext = (mNext + 1) % mSeeks.length;
+        return mTimelapse.getPosition();
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.lawrence.esketch;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * touch input for the benchmarks: a list of (action, pointer, x, y) events.
+ *
+ * Either made up ("scribble", "handwriting", "slow") or read from a recorded file with one
+ * event per line: "d x y" (finger down), "m x y" (move) or "u" (up). Recordings are
+ * of one finger; for more fingers, copies of the stream are moved apart and interleaved.
+ */
+public class TouchStream {
+
+    public static final int DOWN = 0;
+    public static final int MOVE = 1;
+    public static final int UP = 2;
+
+    private int[] mActions = new int[4096];
+    private float[] mXs = new float[4096];
+    private float[] mYs = new float[4096];
+    private int mCount;
+
+    // all events of all fingers, set by load()
+    public int[] actions;
+    public int[] pointers;
+    public float[] xs;
+    public float[] ys;
+    public int size;
+
+    // the stream called name (a made up one or the path of a recording), drawn with pointerCount fingers
+    public static TouchStream load(String name, int pointerCount) throws IOException {
+        TouchStream stream = new TouchStream();
+        if (name.equals("scribble")) {
+            stream.scribble();
+        } else if (name.equals("handwriting")) {
+            stream.handwriting();
+        } else if (name.equals("slow")) {
+            stream.slow();
+        } else {
+            stream.read(name);
+        }
+        stream.interleave(pointerCount);
+        return stream;
+    }
+
+    private void add(int action, float x, float y) {
+        if (mCount == mActions.length) {
+            mActions = Arrays.copyOf(mActions, mCount * 2);
+            mXs = Arrays.copyOf(mXs, mCount * 2);
+            mYs = Arrays.copyOf(mYs, mCount * 2);
+        }
+        mActions[mCount] = action;
+        mXs[mCount] = x;
+        mYs[mCount] = y;
+        ++mCount;
+    }
+
+    // fast random strokes all over a phone screen, some samples too close to draw
+    private void scribble() {
+        Random random = new Random(1);
+        for (int stroke = 0; stroke < 200; ++stroke) {
+            float x = 100 + random.nextFloat() * 880;
+            float y = 100 + random.nextFloat() * 1720;
+            double angle = random.nextDouble() * 2 * Math.PI;
+            add(DOWN, x, y);
+            int points = 50 + random.nextInt(250);
+            for (int i = 0; i < points; ++i) {
+                angle += random.nextGaussian() * 0.3;
+                float step = 2 + random.nextFloat() * 10;
+                x = Math.max(0, Math.min(1080, x + step * (float) Math.cos(angle)));
+                y = Math.max(0, Math.min(1920, y + step * (float) Math.sin(angle)));
+                add(MOVE, x, y);
+            }
+            add(UP, x, y);
+        }
+    }
+
+    // slow small loops going right, like cursive writing
+    private void handwriting() {
+        Random random = new Random(2);
+        for (int word = 0; word < 200; ++word) {
+            float left = 50 + (word % 8) * 120;
+            float base = 200 + (word / 8) * 60;
+            add(DOWN, left, base);
+            float x = left, y = base;
+            for (int i = 1; i <= 120; ++i) {
+                double t = i * 0.15;
+                x = left + i * 0.8f + 12 * (float) Math.sin(t) + random.nextFloat();
+                y = base - 20 * (float) Math.abs(Math.sin(t / 2)) + random.nextFloat();
+                add(MOVE, x, y);
+            }
+            add(UP, x, y);
+        }
+    }
+
+    // long, slow strokes that hardly turn, like shading or outlines
+    private void slow() {
+        Random random = new Random(3);
+        for (int stroke = 0; stroke < 100; ++stroke) {
+            float x = 200 + random.nextFloat() * 680;
+            float y = 200 + random.nextFloat() * 1520;
+            double angle = random.nextDouble() * 2 * Math.PI;
+            double turn = random.nextGaussian() * 0.01;
+            add(DOWN, x, y);
+            for (int i = 0; i < 300; ++i) {
+                angle += turn;
+                x += 6 * (float) Math.cos(angle) + 0.3f * random.nextFloat();
+                y += 6 * (float) Math.sin(angle) + 0.3f * random.nextFloat();
+                add(MOVE, x, y);
+            }
+            add(UP, x, y);
+        }
+    }
+
+    private void read(String path) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts[0].equals("d") || parts[0].equals("m")) {
+                    add(parts[0].equals("d") ? DOWN : MOVE, Float.parseFloat(parts[1]), Float.parseFloat(parts[2]));
+                } else if (parts[0].equals("u")) {
+                    add(UP, 0, 0);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (mCount == 0) throw new IOException(path + " has no touch events");
+    }
+
+    // finger k draws the stream moved by k * 40 pixels, one event of each finger in turn
+    private void interleave(int pointerCount) {
+        size = mCount * pointerCount;
+        actions = new int[size];
+        pointers = new int[size];
+        xs = new float[size];
+        ys = new float[size];
+        for (int i = 0; i < mCount; ++i) {
+            for (int k = 0; k < pointerCount; ++k) {
+                int e = i * pointerCount + k;
+                actions[e] = mActions[i];
+                pointers[e] = k;
+                xs[e] = mXs[i] + k * 40;
+                ys[e] = mYs[i] + k * 40;
+            }
+        }
+    }
+}
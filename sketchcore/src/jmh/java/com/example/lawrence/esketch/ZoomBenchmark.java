@@ -0,0 +1,130 @@
+package com.example.lawrence.esketch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * how long a frame of a 4K (3840 x 2160) drawing zoomed out to 1/4 takes, the way the
+ * view draws it with and without the mipmap pyramid (Java2D standing in for Canvas).
+ *
+ * "fullSize" filters the whole drawing down to the frame, which is what a zoomed out
+ * frame costs without the pyramid. "mipmap" draws level 2 (1/4 size) into the frame
+ * instead. "refreshStroke" is what the pyramid costs after a stroke: making levels 1 to 3
+ * again under a 96 x 96 box. A frame has 16.6 ms at 60 fps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZoomBenchmark {
+
+    private static final int WIDTH = 3840;
+    private static final int HEIGHT = 2160;
+    private static final int LEVELS = 3;
+    private static final int BOX = 96;
+
+    private BufferedImage mDrawing;
+    private final BufferedImage[] mLevels = new BufferedImage[LEVELS + 1];
+    private BufferedImage mFrame;
+    private Graphics2D mFrameGraphics;
+    private int mBoxX;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDrawing = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = mDrawing.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, WIDTH, HEIGHT);
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setStroke(new BasicStroke(5, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        graphics.setColor(Color.BLACK);
+
+        // the touch stream's strokes side by side, so the whole drawing has detail
+        TouchStream touches = TouchStream.load("scribble", 1);
+        for (int copy = 0; copy < 3; ++copy) {
+            float left = copy * 1380, top = 120;
+            Path2D.Float path = null;
+            for (int i = 0; i < touches.size; ++i) {
+                if (touches.actions[i] == TouchStream.DOWN) {
+                    path = new Path2D.Float();
+                    path.moveTo(left + touches.xs[i], top + touches.ys[i]);
+                } else if (touches.actions[i] == TouchStream.MOVE) {
+                    path.lineTo(left + touches.xs[i], top + touches.ys[i]);
+                } else {
+                    graphics.draw(path);
+                }
+            }
+        }
+        graphics.dispose();
+
+        for (int level = 1; level <= LEVELS; ++level) {
+            mLevels[level] = new BufferedImage(WIDTH >> level, HEIGHT >> level, BufferedImage.TYPE_INT_ARGB);
+        }
+        refresh(0, 0, WIDTH, HEIGHT);
+
+        mFrame = new BufferedImage(WIDTH / 4, HEIGHT / 4, BufferedImage.TYPE_INT_ARGB);
+        mFrameGraphics = mFrame.createGraphics();
+        mFrameGraphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mFrameGraphics.dispose();
+    }
+
+    // make the levels again under the box, each from the one before, aligned to whole blocks
+    private void refresh(int left, int top, int right, int bottom) {
+        BufferedImage source = mDrawing;
+        for (int level = 1; level <= LEVELS; ++level) {
+            int size = 1 << level;
+            int dstLeft = left >> level, dstTop = top >> level;
+            int dstRight = (right + size - 1) >> level, dstBottom = (bottom + size - 1) >> level;
+            Graphics2D graphics = mLevels[level].createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(source, dstLeft, dstTop, dstRight, dstBottom,
+                    dstLeft << 1, dstTop << 1, dstRight << 1, dstBottom << 1, null);
+            graphics.dispose();
+            source = mLevels[level];
+        }
+    }
+
+    @Benchmark
+    public BufferedImage fullSize() {
+        mFrameGraphics.drawImage(mDrawing, 0, 0, mFrame.getWidth(), mFrame.getHeight(), null);
+        return mFrame;
+    }
+
+    @Benchmark
+    public BufferedImage mipmap() {
+        mFrameGraphics.drawImage(mLevels[2], 0, 0, null);
+        return mFrame;
+    }
+
+    @Benchmark
+    public BufferedImage refreshStroke() {
+        // a different box each time, across the drawing
+        mBoxX = (mBoxX + 517) % (WIDTH - BOX);
+        refresh(mBoxX, 1000, mBoxX + BOX, 1000 + BOX);
+        return mLevels[LEVELS];
+    }
+}
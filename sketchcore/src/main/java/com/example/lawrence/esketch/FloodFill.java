@@ -0,0 +1,187 @@
+package com.example.lawrence.esketch;
+
+import java.util.Arrays;
+
+/**
+ * fills the region of similar color around a pixel, in an array of ARGB pixels.
+ *
+ * Scanline fill (Heckbert's seed fill from Graphics Gems): a span of the region is filled
+ * left and right as far as it goes in one pass over the row, and only the runs above and
+ * below it are pushed on a stack, not single pixels. Each row of the region is read about
+ * twice and written once, in order, so it runs at close to memory speed.
+ *
+ * A pixel is in the region if none of its channels (alpha too) differs from the seed
+ * pixel's by more than the tolerance. Filled pixels are marked in a bit set, so a fill
+ * color that is itself within the tolerance doesn't make the fill go round in circles.
+ * Also keeps the box around the filled pixels, so only that part needs to be copied back.
+ *
+ * fill() runs on one thread; cancel() and getFilledCount() may be called from others.
+ */
+public class FloodFill {
+
+    // check for cancel() after this many spans
+    private static final int CANCEL_CHECK_SPANS = 64;
+
+    private final int[] mPixels;
+    private final int mWidth;
+    private final int mHeight;
+
+    private final long[] mFilled; // a bit for each pixel
+    private int[] mStack = new int[4 * 1024]; // y, left, right, dy of each run to look at
+    private int mStackSize;
+
+    private volatile boolean mCancelled;
+    private volatile long mFilledCount;
+
+    // box around the filled pixels, empty when left >= right
+    private int mLeft;
+    private int mTop;
+    private int mRight;
+    private int mBottom;
+
+    // fill pixels, width x height of them row by row. they are changed in place.
+    public FloodFill(int[] pixels, int width, int height) {
+        if (pixels.length < width * height) throw new IllegalArgumentException("too few pixels");
+        mPixels = pixels;
+        mWidth = width;
+        mHeight = height;
+        mFilled = new long[(width * height + 63) >>> 6];
+    }
+
+    // fill the region around (x, y) with color, where the channels are within tolerance
+    // (0-255) of those at (x, y). return false if it was cancelled, what was filled
+    // until then stays filled.
+    public boolean fill(int x, int y, int color, int tolerance) {
+        Arrays.fill(mFilled, 0);
+        mStackSize = 0;
+        mFilledCount = 0;
+        mLeft = mTop = Integer.MAX_VALUE;
+        mRight = mBottom = Integer.MIN_VALUE;
+        if (x < 0 || x >= mWidth || y < 0 || y >= mHeight) return !mCancelled;
+
+        int target = mPixels[y * mWidth + x];
+        if (tolerance <= 0 && target == color) return !mCancelled; // nothing would change
+
+        // a run of one pixel, looked at from both sides
+        push(y, x, x, 1);
+        push(y + 1, x, x, -1);
+
+        int[] pixels = mPixels;
+        long[] filled = mFilled;
+        int spans = 0;
+        while (mStackSize > 0) {
+            if (++spans % CANCEL_CHECK_SPANS == 0 && mCancelled) return false;
+
+            // the run from left to right of the row before was filled, look at this row next to it
+            mStackSize -= 4;
+            int dy = mStack[mStackSize + 3];
+            int row = mStack[mStackSize] + dy;
+            int left = mStack[mStackSize + 1];
+            int right = mStack[mStackSize + 2];
+            int base = row * mWidth;
+
+            // fill leftwards from the run's left end
+            int i = left;
+            while (i >= 0 && inside(base + i, target, tolerance)) {
+                pixels[base + i] = color;
+                filled[(base + i) >>> 6] |= 1L << (base + i);
+                --i;
+            }
+
+            boolean skipFirst = i == left; // the run's left end isn't in the region
+            int spanLeft = i + 1;
+            if (!skipFirst) {
+                if (spanLeft < left) push(row, spanLeft, left - 1, -dy); // leaks back around the left
+                i = left + 1;
+            }
+            do {
+                if (!skipFirst) {
+                    // fill rightwards to the end of the span
+                    while (i < mWidth && inside(base + i, target, tolerance)) {
+                        pixels[base + i] = color;
+                        filled[(base + i) >>> 6] |= 1L << (base + i);
+                        ++i;
+                    }
+                    addSpan(row, spanLeft, i);
+                    push(row, spanLeft, i - 1, dy);
+                    if (i > right + 1) push(row, right + 1, i - 1, -dy); // leaks back around the right
+                }
+                skipFirst = false;
+
+                // the next span that touches the run
+                ++i;
+                while (i <= right && !inside(base + i, target, tolerance)) ++i;
+                spanLeft = i;
+            } while (i <= right);
+        }
+        return true;
+    }
+
+    // stop a fill that is running, it returns false soon after
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    // allow fills again after cancel()
+    public void resetCancel() {
+        mCancelled = false;
+    }
+
+    // pixels filled so far by the running (or last) fill
+    public long getFilledCount() {
+        return mFilledCount;
+    }
+
+    // return whether the last fill changed anything
+    public boolean isEmpty() {
+        return mLeft >= mRight;
+    }
+
+    // the box around the filled pixels (right and bottom exclusive)
+    public int getLeft() {
+        return mLeft;
+    }
+
+    public int getTop() {
+        return mTop;
+    }
+
+    public int getRight() {
+        return mRight;
+    }
+
+    public int getBottom() {
+        return mBottom;
+    }
+
+    private boolean inside(int i, int target, int tolerance) {
+        if ((mFilled[i >>> 6] & (1L << i)) != 0) return false;
+        int pixel = mPixels[i];
+        if (pixel == target) return true;
+        if (tolerance <= 0) return false;
+        return Math.abs((pixel >>> 24) - (target >>> 24)) <= tolerance
+                && Math.abs((pixel >> 16 & 0xff) - (target >> 16 & 0xff)) <= tolerance
+                && Math.abs((pixel >> 8 & 0xff) - (target >> 8 & 0xff)) <= tolerance
+                && Math.abs((pixel & 0xff) - (target & 0xff)) <= tolerance;
+    }
+
+    // grow the box and the count by the pixels from left to right (exclusive) of row
+    private void addSpan(int row, int left, int right) {
+        if (left >= right) return;
+        mLeft = Math.min(mLeft, left);
+        mRight = Math.max(mRight, right);
+        mTop = Math.min(mTop, row);
+        mBottom = Math.max(mBottom, row + 1);
+        mFilledCount += right - left;
+    }
+
+    // look at the run from left to right of row + dy later, if that row is in the picture
+    private void push(int row, int left, int right, int dy) {
+        if (row + dy < 0 || row + dy >= mHeight || left > right) return;
+        if (mStackSize + 4 > mStack.length) mStack = Arrays.copyOf(mStack, mStack.length * 2);
+        mStack[mStackSize++] = row;
+        mStack[mStackSize++] = left;
+        mStack[mStackSize++] = right;
+        mStack[mStackSize++] = dy;
+    }
+}
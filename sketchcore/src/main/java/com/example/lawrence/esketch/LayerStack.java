@@ -0,0 +1,434 @@
+package com.example.lawrence.esketch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * layers of a drawing, with the layers below and above the active one kept flattened.
+ *
+ * Only the active layer is drawn on, so the visible layers below it are kept composited
+ * into one image (on the background) and the ones above it into another. A frame draws
+ * at most three images however many layers there are: below, the active layer, above.
+ *
+ * Each layer keeps the box around everything ever drawn on it. When a layer that is in
+ * a composite changes (drawn on, hidden, faded, moved, removed) only its box is marked
+ * dirty in the composites, and update() draws just the dirty part of them again from
+ * the layers in it. A layer that was never drawn on has no image at all, it gets one when
+ * it becomes active (and gives it back if it's left empty). The bottom layer of a new
+ * stack is the background, which is opaque and covers the whole drawing.
+ *
+ * The drawing can be resized both ways. It never needs to be bigger than the view it's
+ * in and what was drawn on it (getDrawnWidth(), getDrawnHeight()), so it can be cropped
+ * to that without losing anything.
+ *
+ * @param <I> type of an image, e.g. a Bitmap
+ */
+public class LayerStack<I> {
+
+    /**
+     * makes and composites the images.
+     */
+    public interface Surface<I> {
+        // a new image of the size, filled with the background or transparent
+        I create(int width, int height, boolean background);
+
+        // a copy of image at the new size: cropped at the right and bottom, or grown there
+        // with the new part as in create(). image won't be used again.
+        I resize(I image, int width, int height, boolean background);
+
+        // image isn't used anymore
+        void release(I image);
+
+        // memory used by an image
+        long sizeOf(I image);
+
+        // fill the box of composite with the background, or make it transparent
+        void clear(I composite, boolean background, int left, int top, int right, int bottom);
+
+        // draw layer on top of composite with opacity (0-255), only inside the box
+        void draw(I composite, I layer, int opacity, int left, int top, int right, int bottom);
+    }
+
+    private static class Layer<I> {
+        final int id;
+        final boolean background;
+        I image;
+        boolean visible = true;
+        int opacity = 255;
+        final Box bounds = new Box(); // what it covers: all of it for the background
+        final Box drawn = new Box(); // around what was drawn on it
+
+        Layer(int id, boolean background) {
+            this.id = id;
+            this.background = background;
+        }
+    }
+
+    // a box, empty when left >= right or top >= bottom
+    private static class Box {
+        int left;
+        int top;
+        int right;
+        int bottom;
+
+        boolean isEmpty() {
+            return left >= right || top >= bottom;
+        }
+
+        void setEmpty() {
+            left = top = right = bottom = 0;
+        }
+
+        void set(int left, int top, int right, int bottom) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        void union(int left, int top, int right, int bottom) {
+            if (left >= right || top >= bottom) return;
+            if (isEmpty()) {
+                set(left, top, right, bottom);
+                return;
+            }
+            this.left = Math.min(this.left, left);
+            this.top = Math.min(this.top, top);
+            this.right = Math.max(this.right, right);
+            this.bottom = Math.max(this.bottom, bottom);
+        }
+
+        void union(Box box) {
+            union(box.left, box.top, box.right, box.bottom);
+        }
+
+        void clip(int width, int height) {
+            right = Math.min(right, width);
+            bottom = Math.min(bottom, height);
+            if (isEmpty()) setEmpty();
+        }
+    }
+
+    private final Surface<I> mSurface;
+    private int mWidth;
+    private int mHeight;
+
+    private final List<Layer<I>> mLayers = new ArrayList<>(); // bottom first
+    private int mActive;
+    private int mNextId;
+
+    // the composites and the part of them that needs to be drawn again
+    private I mBelow;
+    private I mAbove;
+    private final Box mBelowDirty = new Box();
+    private final Box mAboveDirty = new Box();
+    private long mRedrawnPixels; // area of the composites drawn again so far
+
+    // starts with just the background layer
+    public LayerStack(Surface<I> surface, int width, int height) {
+        mSurface = surface;
+        mWidth = width;
+        mHeight = height;
+        reset();
+    }
+
+    // release all the layers and start over with a blank background
+    public void reset() {
+        reset(1, 0);
+    }
+
+    // release all the layers and start over with count blank ones, e.g. to put saved
+    // layers back. the one at index background is the background (none if it's -1), and
+    // the bottom one is active.
+    public void reset(int count, int background) {
+        if (count < 1) throw new IllegalArgumentException("count < 1");
+        for (Layer<I> layer : mLayers) {
+            if (layer.image != null) mSurface.release(layer.image);
+        }
+        mLayers.clear();
+        releaseComposites();
+
+        for (int i = 0; i < count; ++i) {
+            Layer<I> layer = new Layer<>(mNextId++, i == background);
+            if (layer.background) layer.bounds.set(0, 0, mWidth, mHeight);
+            mLayers.add(layer);
+        }
+        mActive = 0;
+    }
+
+    // the drawing has a new size, crop or grow every image to it
+    public void resize(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        for (Layer<I> layer : mLayers) {
+            if (layer.image != null) layer.image = mSurface.resize(layer.image, width, height, layer.background);
+            layer.drawn.clip(width, height);
+            if (layer.background) layer.bounds.set(0, 0, width, height);
+            else layer.bounds.clip(width, height);
+        }
+        releaseComposites(); // made again at the new size
+    }
+
+    public int size() {
+        return mLayers.size();
+    }
+
+    public int getActive() {
+        return mActive;
+    }
+
+    // the image of the active layer, where drawing happens. made if the layer has none yet.
+    public I getActiveImage() {
+        Layer<I> layer = mLayers.get(mActive);
+        if (layer.image == null) layer.image = mSurface.create(mWidth, mHeight, layer.background);
+        return layer.image;
+    }
+
+    // a layer's image, null if it has none
+    public I getImage(int index) {
+        return mLayers.get(index).image;
+    }
+
+    // draw on layer index from now on
+    public void setActive(int index) {
+        checkIndex(index);
+        if (index == mActive) return;
+
+        // the layers from one to the other swap composites
+        dirtyBetween(mActive, index);
+        releaseIfEmpty(mLayers.get(mActive));
+        mActive = index;
+    }
+
+    // add an empty layer just above the active one, return its index. it costs no memory
+    // until it's drawn on.
+    public int add() {
+        int index = mActive + 1;
+        mLayers.add(index, new Layer<I>(mNextId++, false));
+        return index;
+    }
+
+    // remove a layer, there is always one left. if it was the active one, the one below
+    // it (or the new bottom one) becomes active.
+    public void remove(int index) {
+        checkIndex(index);
+        if (mLayers.size() == 1) throw new IllegalStateException("can't remove the last layer");
+
+        Layer<I> layer = mLayers.remove(index);
+        mBelowDirty.union(layer.bounds);
+        mAboveDirty.union(layer.bounds);
+        if (layer.image != null) mSurface.release(layer.image);
+
+        if (index < mActive) {
+            --mActive;
+        } else if (index == mActive) {
+            mActive = Math.max(0, index - 1);
+            Box bounds = mLayers.get(mActive).bounds; // it leaves its composite
+            mBelowDirty.union(bounds);
+            mAboveDirty.union(bounds);
+        }
+    }
+
+    // move the layer at from to to, the others in between shift by one. the active layer
+    // stays active.
+    public void move(int from, int to) {
+        checkIndex(from);
+        checkIndex(to);
+        if (from == to) return;
+
+        dirtyBetween(from, to);
+        Layer<I> active = mLayers.get(mActive);
+        mLayers.add(to, mLayers.remove(from));
+        mActive = mLayers.indexOf(active);
+    }
+
+    public void setVisible(int index, boolean visible) {
+        Layer<I> layer = mLayers.get(index);
+        if (layer.visible == visible) return;
+        layer.visible = visible;
+        dirtyComposite(index, layer.bounds);
+    }
+
+    public boolean isVisible(int index) {
+        return mLayers.get(index).visible;
+    }
+
+    // how opaque the layer is drawn, 0-255
+    public void setOpacity(int index, int opacity) {
+        Layer<I> layer = mLayers.get(index);
+        opacity = Math.max(0, Math.min(255, opacity));
+        if (layer.opacity == opacity) return;
+        layer.opacity = opacity;
+        dirtyComposite(index, layer.bounds);
+    }
+
+    public int getOpacity(int index) {
+        return mLayers.get(index).opacity;
+    }
+
+    // a number that stays with the layer when it moves, for naming it
+    public int getId(int index) {
+        return mLayers.get(index).id;
+    }
+
+    // return whether the layer is the background the stack started with
+    public boolean isBackground(int index) {
+        return mLayers.get(index).background;
+    }
+
+    // something was drawn on a layer inside the box
+    public void addBounds(int index, int left, int top, int right, int bottom) {
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, mWidth);
+        bottom = Math.min(bottom, mHeight);
+        Layer<I> layer = mLayers.get(index);
+        layer.bounds.union(left, top, right, bottom);
+        layer.drawn.union(left, top, right, bottom);
+        if (index != mActive) dirtyComposite(index, left, top, right, bottom);
+    }
+
+    // return whether a layer has never been drawn on
+    public boolean isEmpty(int index) {
+        return mLayers.get(index).bounds.isEmpty();
+    }
+
+    // how far right anything was drawn on any layer, 0 if nothing was
+    public int getDrawnWidth() {
+        int width = 0;
+        for (Layer<I> layer : mLayers) {
+            if (!layer.drawn.isEmpty()) width = Math.max(width, layer.drawn.right);
+        }
+        return width;
+    }
+
+    // how far down anything was drawn on any layer, 0 if nothing was
+    public int getDrawnHeight() {
+        int height = 0;
+        for (Layer<I> layer : mLayers) {
+            if (!layer.drawn.isEmpty()) height = Math.max(height, layer.drawn.bottom);
+        }
+        return height;
+    }
+
+    // draw the dirty parts of the composites again. call before getBelow() and getAbove().
+    public void update() {
+        mBelow = update(mBelow, mBelowDirty, 0, mActive, true);
+        mAbove = update(mAbove, mAboveDirty, mActive + 1, mLayers.size(), false);
+    }
+
+    // the visible layers below the active one flattened on the background, null if there
+    // are none (then nothing is under the active layer)
+    public I getBelow() {
+        return mBelow;
+    }
+
+    // the visible layers above the active one flattened, null if there's nothing to draw
+    public I getAbove() {
+        return mAbove;
+    }
+
+    // memory used by a layer's image, 0 if it has none
+    public long getByteCount(int index) {
+        I image = mLayers.get(index).image;
+        return image == null ? 0 : mSurface.sizeOf(image);
+    }
+
+    // memory used by the layers and the composites
+    public long getByteCount() {
+        long bytes = getCompositeByteCount();
+        for (int i = 0; i < mLayers.size(); ++i) {
+            bytes += getByteCount(i);
+        }
+        return bytes;
+    }
+
+    public long getCompositeByteCount() {
+        return (mBelow == null ? 0 : mSurface.sizeOf(mBelow)) + (mAbove == null ? 0 : mSurface.sizeOf(mAbove));
+    }
+
+    // pixels of the composites drawn again by update() so far
+    public long getRedrawnPixels() {
+        return mRedrawnPixels;
+    }
+
+    // bring composite up to date with the layers from start to end (exclusive), making it
+    // if it's needed and releasing it if not. return the composite.
+    private I update(I composite, Box dirty, int start, int end, boolean background) {
+        boolean needed = background ? start < end : hasImages(start, end);
+        if (!needed) {
+            if (composite != null) mSurface.release(composite);
+            dirty.setEmpty();
+            return null;
+        }
+        if (composite == null) {
+            composite = mSurface.create(mWidth, mHeight, background);
+            dirty.set(0, 0, mWidth, mHeight);
+        }
+        if (dirty.isEmpty()) return composite;
+
+        mSurface.clear(composite, background, dirty.left, dirty.top, dirty.right, dirty.bottom);
+        for (int i = start; i < end; ++i) {
+            Layer<I> layer = mLayers.get(i);
+            if (layer.image == null || !layer.visible || layer.opacity == 0) continue;
+
+            // only the part of the dirty box the layer has something in
+            Box bounds = layer.bounds;
+            int left = Math.max(dirty.left, bounds.left), top = Math.max(dirty.top, bounds.top);
+            int right = Math.min(dirty.right, bounds.right), bottom = Math.min(dirty.bottom, bounds.bottom);
+            if (left < right && top < bottom) {
+                mSurface.draw(composite, layer.image, layer.opacity, left, top, right, bottom);
+            }
+        }
+        mRedrawnPixels += (long) (dirty.right - dirty.left) * (dirty.bottom - dirty.top);
+        dirty.setEmpty();
+        return composite;
+    }
+
+    private boolean hasImages(int start, int end) {
+        for (int i = start; i < end; ++i) {
+            Layer<I> layer = mLayers.get(i);
+            if (layer.image != null && layer.visible) return true;
+        }
+        return false;
+    }
+
+    // mark the box dirty in the composite the layer at index is in
+    private void dirtyComposite(int index, Box box) {
+        dirtyComposite(index, box.left, box.top, box.right, box.bottom);
+    }
+
+    private void dirtyComposite(int index, int left, int top, int right, int bottom) {
+        if (index < mActive) mBelowDirty.union(left, top, right, bottom);
+        else if (index > mActive) mAboveDirty.union(left, top, right, bottom);
+    }
+
+    // the layers from a to b (both included) change places, mark them dirty in both composites
+    private void dirtyBetween(int a, int b) {
+        for (int i = Math.min(a, b); i <= Math.max(a, b); ++i) {
+            Box bounds = mLayers.get(i).bounds;
+            mBelowDirty.union(bounds);
+            mAboveDirty.union(bounds);
+        }
+    }
+
+    private void releaseIfEmpty(Layer<I> layer) {
+        if (layer.image != null && layer.bounds.isEmpty()) {
+            mSurface.release(layer.image);
+            layer.image = null;
+        }
+    }
+
+    private void releaseComposites() {
+        if (mBelow != null) mSurface.release(mBelow);
+        if (mAbove != null) mSurface.release(mAbove);
+        mBelow = null;
+        mAbove = null;
+        mBelowDirty.setEmpty();
+        mAboveDirty.setEmpty();
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mLayers.size()) throw new IndexOutOfBoundsException("no layer " + index);
+    }
+}
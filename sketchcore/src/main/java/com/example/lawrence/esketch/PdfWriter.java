@@ -0,0 +1,262 @@
+package com.example.lawrence.esketch;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * writes a drawing as a one page PDF file, one pixel to a point.
+ *
+ * The page's content is deflated as it's written. Its length, the line alphas it uses
+ * and the cross reference table are only known at the end, so those objects come
+ * after the content (PDF allows references to objects further on).
+ */
+public class PdfWriter extends VectorWriter {
+
+    // object numbers
+    private static final int CATALOG = 1;
+    private static final int PAGES = 2;
+    private static final int PAGE = 3;
+    private static final int CONTENTS = 4;
+    private static final int RESOURCES = 5;
+    private static final int LENGTH = 6;
+    private static final int IMAGE = 7;
+    private static final int OBJECTS = 8; // one more than the last
+
+    // counts what reaches the file, for the cross reference table
+    private static class CountingStream extends FilterOutputStream {
+        long count;
+
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            ++count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private final CountingStream mFile;
+    private final long[] mOffsets = new long[OBJECTS];
+
+    private DeflaterOutputStream mContent; // open while strokes are written
+    private long mContentStart;
+    private boolean mHasImage;
+    private final boolean[] mAlphas = new boolean[256]; // line alphas used
+
+    // graphics state in the content so far, only changes are written
+    private int mColor = -1;
+    private float mLineWidth = -1;
+    private int mAlpha = 255;
+
+    private float mCurrentX; // end of the last segment, quadratics are written as cubics
+    private float mCurrentY;
+
+    // a width x height (pixels) drawing
+    public PdfWriter(OutputStream out, int width, int height) throws IOException {
+        this(new CountingStream(out), width, height);
+    }
+
+    private PdfWriter(CountingStream file, int width, int height) throws IOException {
+        super(file, width, height);
+        mFile = file;
+
+        print("%PDF-1.4\n");
+        startObject(CATALOG);
+        print("<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+        startObject(PAGES);
+        print("<< /Type /Pages /Kids [3 0 R] /Count 1 >>\nendobj\n");
+        startObject(PAGE);
+        print("<< /Type /Page /Parent 2 0 R /MediaBox [0 0 ");
+        print(width);
+        print(' ');
+        print(height);
+        print("] /Resources 5 0 R /Contents 4 0 R >>\nendobj\n");
+    }
+
+    @Override
+    public void image(byte[] jpeg, int width, int height) throws IOException {
+        if (mContent != null) throw new IllegalStateException("image after strokes");
+
+        startObject(IMAGE);
+        print("<< /Type /XObject /Subtype /Image /Width ");
+        print(width);
+        print(" /Height ");
+        print(height);
+        print(" /ColorSpace /DeviceRGB /BitsPerComponent 8 /Filter /DCTDecode /Length ");
+        print(jpeg.length);
+        print(" >>\nstream\n");
+        printBytes(jpeg);
+        print("\nendstream\nendobj\n");
+        mHasImage = true;
+
+        startContent();
+        // images fill the unit square bottom up, turn it over and stretch it over the image's pixels
+        print("q ");
+        print(width);
+        print(" 0 0 ");
+        print(-height);
+        print(" 0 ");
+        print(height);
+        print(" cm /Im0 Do Q\n");
+    }
+
+    @Override
+    public void write(Stroke stroke) throws IOException {
+        if (mContent == null) startContent();
+
+        int color = stroke.getColor() & 0xffffff;
+        if (color != mColor) {
+            mColor = color;
+            print(((color >> 16) & 0xff) / 255f);
+            print(' ');
+            print(((color >> 8) & 0xff) / 255f);
+            print(' ');
+            print((color & 0xff) / 255f);
+            print(" RG\n");
+        }
+        int alpha = stroke.getColor() >>> 24;
+        if (alpha != mAlpha) {
+            mAlpha = alpha;
+            mAlphas[alpha] = true;
+            print("/A");
+            print(alpha);
+            print(" gs\n");
+        }
+        if (stroke.getWidth() != mLineWidth) {
+            mLineWidth = stroke.getWidth();
+            print(mLineWidth);
+            print(" w\n");
+        }
+        writePath(stroke);
+        print("S\n");
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (mContent == null) startContent();
+
+        // end the content, its length is the next object
+        setOutput(mFile);
+        mContent.finish();
+        long length = mFile.count - mContentStart;
+        print("\nendstream\nendobj\n");
+        startObject(LENGTH);
+        print(length);
+        print("\nendobj\n");
+
+        startObject(RESOURCES);
+        print("<< /ExtGState <<");
+        for (int alpha = 0; alpha < 256; ++alpha) {
+            if (!mAlphas[alpha]) continue;
+            print(" /A");
+            print(alpha);
+            print(" << /CA ");
+            print(alpha / 255f);
+            print(" >>");
+        }
+        print(" >>");
+        if (mHasImage) print(" /XObject << /Im0 7 0 R >>");
+        print(" >>\nendobj\n");
+
+        flushBuffer();
+        long xref = mFile.count;
+        print("xref\n0 ");
+        print(OBJECTS);
+        print("\n0000000000 65535 f\r\n");
+        for (int i = 1; i < OBJECTS; ++i) {
+            if (mOffsets[i] == 0) {
+                print("0000000000 65535 f\r\n"); // no image
+                continue;
+            }
+            String offset = Long.toString(mOffsets[i]);
+            for (int pad = offset.length(); pad < 10; ++pad) print('0');
+            print(offset);
+            print(" 00000 n\r\n");
+        }
+        print("trailer\n<< /Size ");
+        print(OBJECTS);
+        print(" /Root 1 0 R >>\nstartxref\n");
+        print(xref);
+        print("\n%%EOF\n");
+        flushBuffer();
+        mFile.flush();
+    }
+
+    // start the page's content: white paper, y pointing down like on screen, round caps
+    private void startContent() throws IOException {
+        startObject(CONTENTS);
+        print("<< /Length 6 0 R /Filter /FlateDecode >>\nstream\n");
+        flushBuffer();
+        mContentStart = mFile.count;
+        mContent = new DeflaterOutputStream(mFile) {
+            @Override
+            public void close() {
+                // the file goes on after the content
+            }
+        };
+        setOutput(mContent);
+
+        print("1 g 0 0 ");
+        print(mWidth);
+        print(' ');
+        print(mHeight);
+        print(" re f\n");
+        print("1 0 0 -1 0 ");
+        print(mHeight);
+        print(" cm 1 J 4 M\n");
+    }
+
+    private void startObject(int number) throws IOException {
+        flushBuffer();
+        mOffsets[number] = mFile.count;
+        print(number);
+        print(" 0 obj\n");
+    }
+
+    @Override
+    protected void moveTo(float x, float y) throws IOException {
+        print(x);
+        print(' ');
+        print(y);
+        print(" m\n");
+        mCurrentX = x;
+        mCurrentY = y;
+    }
+
+    @Override
+    protected void quadTo(float controlX, float controlY, float endX, float endY) throws IOException {
+        // the same curve as a cubic: each control point 2/3 of the way to the quadratic's
+        cubicTo(mCurrentX + 2 * (controlX - mCurrentX) / 3, mCurrentY + 2 * (controlY - mCurrentY) / 3,
+                endX + 2 * (controlX - endX) / 3, endY + 2 * (controlY - endY) / 3,
+                endX, endY);
+    }
+
+    @Override
+    protected void cubicTo(float control1X, float control1Y, float control2X, float control2Y,
+                           float endX, float endY) throws IOException {
+        print(control1X);
+        print(' ');
+        print(control1Y);
+        print(' ');
+        print(control2X);
+        print(' ');
+        print(control2Y);
+        print(' ');
+        print(endX);
+        print(' ');
+        print(endY);
+        print(" c\n");
+        mCurrentX = endX;
+        mCurrentY = endY;
+    }
+}
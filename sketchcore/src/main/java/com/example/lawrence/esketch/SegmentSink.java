@@ -0,0 +1,18 @@
+package com.example.lawrence.esketch;
+
+/**
+ * gets the path segments a StrokeBuilder makes out of touch points.
+ * On Android these go straight into an android.graphics.Path.
+ */
+public interface SegmentSink {
+
+    // a finger's path starts at (x, y)
+    void moveTo(int pointer, float x, float y);
+
+    // the finger's path continues with a quadratic curve
+    void quadTo(int pointer, float controlX, float controlY, float endX, float endY);
+
+    // the finger's path continues with a cubic curve (made by StrokeSimplifier)
+    void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                 float endX, float endY);
+}
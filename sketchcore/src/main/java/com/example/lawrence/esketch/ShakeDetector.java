@@ -0,0 +1,165 @@
+package com.example.lawrence.esketch;
+
+/**
+ * decides from accelerometer samples when the device is being shaken.
+ *
+ * Samples come in batches (see ShakeSensor). Gravity is tracked with a low-pass filter
+ * and taken out, which leaves the acceleration the user causes. A "jolt" is when that
+ * goes above the threshold (it has to drop well below again before the next one counts).
+ * MIN_JOLTS jolts within WINDOW make a shake. After a shake the detector waits for
+ * COOLDOWN and then for QUIET without jolts, so one long shake is reported once.
+ *
+ * Plain Java with no Android classes, so it can be tested and benchmarked on the JVM.
+ * Not thread-safe.
+ */
+public class ShakeDetector {
+
+    /**
+     * told when a shake is detected.
+     */
+    public interface OnShakeListener {
+        void onShake();
+    }
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    public static final float DEFAULT_THRESHOLD = 13; // m/s^2 on top of gravity
+
+    static final int MIN_JOLTS = 3;
+    static final long WINDOW = 1000 * NANOS_PER_MILLI;
+    static final long COOLDOWN = 1500 * NANOS_PER_MILLI;
+    static final long QUIET = 500 * NANOS_PER_MILLI;
+
+    // how slowly the gravity estimate follows the samples
+    private static final float GRAVITY_TIME_CONSTANT = 0.5f; // seconds
+    // a jolt ends when the acceleration falls below this part of the threshold
+    private static final float RELEASE = 0.75f;
+
+    private static final int ARMED = 0;    // looking for jolts
+    private static final int COOLING = 1;  // shake reported, waiting for it to stop
+
+    private final OnShakeListener mListener;
+    private float mThresholdSquared;
+    private float mReleaseSquared;
+
+    private int mState = ARMED;
+    private boolean mHaveGravity;
+    private float mGravityX;
+    private float mGravityY;
+    private float mGravityZ;
+    private long mLastTime;
+
+    private boolean mInJolt;
+    private final long[] mJoltTimes = new long[MIN_JOLTS]; // ring of the latest jolts
+    private int mJoltCount;
+    private long mCoolUntil;
+    private long mLastLoud; // last time the acceleration was above the threshold
+
+    // counters
+    private long mSamples;
+    private long mBatches;
+    private int mShakes;
+
+    public ShakeDetector(OnShakeListener listener) {
+        mListener = listener;
+        setThreshold(DEFAULT_THRESHOLD);
+    }
+
+    // acceleration (m/s^2, without gravity) a jolt has to reach
+    public void setThreshold(float threshold) {
+        mThresholdSquared = threshold * threshold;
+        mReleaseSquared = mThresholdSquared * RELEASE * RELEASE;
+    }
+
+    // run a batch of count samples: times in nanoseconds, values as x, y, z per sample
+    public void process(long[] times, float[] values, int count) {
+        if (count == 0) return;
+        ++mBatches;
+        mSamples += count;
+
+        for (int i = 0; i < count; ++i) {
+            sample(times[i], values[3 * i], values[3 * i + 1], values[3 * i + 2]);
+        }
+    }
+
+    private void sample(long time, float x, float y, float z) {
+        if (!mHaveGravity) {
+            // start from the first sample, so there is no jump while the filter settles
+            mGravityX = x;
+            mGravityY = y;
+            mGravityZ = z;
+            mLastTime = time;
+            mHaveGravity = true;
+            return;
+        }
+
+        // low-pass the samples to get gravity, weighted by the time since the last sample
+        float dt = Math.max(time - mLastTime, 0) / 1e9f;
+        mLastTime = time;
+        float alpha = GRAVITY_TIME_CONSTANT / (GRAVITY_TIME_CONSTANT + dt);
+        mGravityX = alpha * mGravityX + (1 - alpha) * x;
+        mGravityY = alpha * mGravityY + (1 - alpha) * y;
+        mGravityZ = alpha * mGravityZ + (1 - alpha) * z;
+
+        float linearX = x - mGravityX;
+        float linearY = y - mGravityY;
+        float linearZ = z - mGravityZ;
+        float magnitude = linearX * linearX + linearY * linearY + linearZ * linearZ;
+
+        boolean jolt = false;
+        if (magnitude > mThresholdSquared) {
+            mLastLoud = time;
+            if (!mInJolt) {
+                mInJolt = true;
+                jolt = true;
+            }
+        } else if (magnitude < mReleaseSquared) {
+            mInJolt = false;
+        }
+
+        if (mState == COOLING) {
+            if (time >= mCoolUntil && time - mLastLoud >= QUIET) {
+                mState = ARMED;
+                mJoltCount = 0;
+            }
+            return;
+        }
+
+        if (!jolt) return;
+        mJoltTimes[mJoltCount % MIN_JOLTS] = time;
+        ++mJoltCount;
+
+        // the oldest of the last MIN_JOLTS jolts is the one about to be overwritten
+        if (mJoltCount >= MIN_JOLTS && time - mJoltTimes[mJoltCount % MIN_JOLTS] <= WINDOW) {
+            mState = COOLING;
+            mCoolUntil = time + COOLDOWN;
+            ++mShakes;
+            if (mListener != null) mListener.onShake();
+        }
+    }
+
+    // forget the samples seen so far (the counters are kept)
+    public void reset() {
+        mState = ARMED;
+        mHaveGravity = false;
+        mInJolt = false;
+        mJoltCount = 0;
+    }
+
+    public int getShakeCount() {
+        return mShakes;
+    }
+
+    public long getSampleCount() {
+        return mSamples;
+    }
+
+    public long getBatchCount() {
+        return mBatches;
+    }
+
+    // wakeups avoided by getting samples in batches instead of one at a time
+    public long getWakeupsSaved() {
+        return mSamples - mBatches;
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.lawrence.esketch;
+
+/**
+ * places brush stamps along the path segments of each finger, one every so many pixels
+ * of distance traveled.
+ *
+ * Curves are cut into straight pieces that stay within FLATNESS of the curve (Wang's
+ * formula, so the number of pieces only depends on how much the curve bends), and the
+ * pieces are walked with what's left of the spacing carried over from the piece before.
+ * So stamps stay evenly spaced however the path is split into segments, and a slow
+ * stroke doesn't pile up stamps where the touch points are close together.
+ *
+ * The first stamp goes at the start of the first piece, not at moveTo(), so a finger
+ * that touches down and lifts without moving stamps nothing (like a path that is only
+ * a moveTo draws nothing). State is kept per pointer in arrays; nothing allocates.
+ */
+public class Stamper implements SegmentSink {
+
+    // how far (px) the straight pieces may be from the curve
+    public static final float FLATNESS = 0.1f;
+
+    // more pieces than this for one curve isn't worth it, it's a scribble
+    private static final int MAX_PIECES = 64;
+
+    /**
+     * gets the stamps, centered on (x, y).
+     */
+    public interface Target {
+        void stamp(int pointer, float x, float y);
+    }
+
+    private final Target mTarget;
+
+    private final float[] mSpacing = new float[StrokeBuilder.MAX_POINTERS];
+    private final float[] mX = new float[StrokeBuilder.MAX_POINTERS]; // where each path is
+    private final float[] mY = new float[StrokeBuilder.MAX_POINTERS];
+    private final float[] mToNext = new float[StrokeBuilder.MAX_POINTERS]; // distance to the next stamp
+    private int mStampCount;
+
+    public Stamper(Target target) {
+        mTarget = target;
+    }
+
+    // stamp pointer's path every spacing pixels (at least 0.1), from its next moveTo()
+    public void setSpacing(int pointer, float spacing) {
+        mSpacing[pointer] = Math.max(0.1f, spacing);
+    }
+
+    public float getSpacing(int pointer) {
+        return mSpacing[pointer];
+    }
+
+    // carry on pointer's path from where other's is, with the same spacing and the
+    // stamps falling in the same places. used to stamp a path's end that isn't final
+    // yet without changing where the final stamps go.
+    public void continueFrom(Stamper other, int pointer) {
+        mSpacing[pointer] = other.mSpacing[pointer];
+        mX[pointer] = other.mX[pointer];
+        mY[pointer] = other.mY[pointer];
+        mToNext[pointer] = other.mToNext[pointer];
+    }
+
+    // stamps made since the stamper was created, for benchmarks and tests
+    public int getStampCount() {
+        return mStampCount;
+    }
+
+    @Override
+    public void moveTo(int pointer, float x, float y) {
+        mX[pointer] = x;
+        mY[pointer] = y;
+        mToNext[pointer] = 0;
+    }
+
+    @Override
+    public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+        float startX = mX[pointer];
+        float startY = mY[pointer];
+        float ddx = startX - 2 * controlX + endX;
+        float ddy = startY - 2 * controlY + endY;
+        int pieces = pieces((float) Math.sqrt(ddx * ddx + ddy * ddy) / 4);
+
+        for (int i = 1; i <= pieces; ++i) {
+            float t = (float) i / pieces;
+            float u = 1 - t;
+            lineTo(pointer,
+                    u * u * startX + 2 * u * t * controlX + t * t * endX,
+                    u * u * startY + 2 * u * t * controlY + t * t * endY);
+        }
+    }
+
+    @Override
+    public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                        float endX, float endY) {
+        float startX = mX[pointer];
+        float startY = mY[pointer];
+        float ddx1 = startX - 2 * control1X + control2X;
+        float ddy1 = startY - 2 * control1Y + control2Y;
+        float ddx2 = control1X - 2 * control2X + endX;
+        float ddy2 = control1Y - 2 * control2Y + endY;
+        float bend = (float) Math.sqrt(Math.max(ddx1 * ddx1 + ddy1 * ddy1, ddx2 * ddx2 + ddy2 * ddy2));
+        int pieces = pieces(bend * 3 / 4);
+
+        for (int i = 1; i <= pieces; ++i) {
+            float t = (float) i / pieces;
+            float u = 1 - t;
+            float a = u * u * u, b = 3 * u * u * t, c = 3 * u * t * t, d = t * t * t;
+            lineTo(pointer,
+                    a * startX + b * control1X + c * control2X + d * endX,
+                    a * startY + b * control1Y + c * control2Y + d * endY);
+        }
+    }
+
+    // Wang's formula: a curve whose second differences are this big needs this many pieces
+    private static int pieces(float bend) {
+        int pieces = (int) Math.ceil(Math.sqrt(bend / FLATNESS));
+        return Math.max(1, Math.min(MAX_PIECES, pieces));
+    }
+
+    // stamp along the straight line from where the path is to (x, y)
+    private void lineTo(int pointer, float x, float y) {
+        float startX = mX[pointer];
+        float startY = mY[pointer];
+        float dx = x - startX;
+        float dy = y - startY;
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        if (length == 0) return;
+
+        float spacing = mSpacing[pointer];
+        float along = mToNext[pointer];
+        while (along <= length) {
+            float t = along / length;
+            mTarget.stamp(pointer, startX + t * dx, startY + t * dy);
+            ++mStampCount;
+            along += spacing;
+        }
+        mToNext[pointer] = along - length;
+        mX[pointer] = x;
+        mY[pointer] = y;
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.lawrence.esketch;
+
+import java.util.Arrays;
+
+/**
+ * a finished line: its color, width, brush hardness and the points the finger went through.
+ * the line itself is drawn through the points the same way a finger's path is
+ * (see StrokeBuilder.replay()). a simplified stroke's points are the start and then
+ * the two control points and end of each cubic curve instead.
+ */
+public class Stroke {
+
+    private final int mColor;
+    private final float mWidth;
+    private final float mHardness; // 1 for a hard edge, less for a softer one
+    private final float[] mPoints; // x, y pairs
+    private final boolean mCurves; // points are cubic curves (made by StrokeSimplifier)
+
+    // copies the first pointCount points (x, y pairs) of points
+    public Stroke(int color, float width, float[] points, int pointCount) {
+        this(color, width, points, pointCount, false);
+    }
+
+    public Stroke(int color, float width, float[] points, int pointCount, boolean curves) {
+        this(color, width, 1, points, pointCount, curves);
+    }
+
+    public Stroke(int color, float width, float hardness, float[] points, int pointCount, boolean curves) {
+        mColor = color;
+        mWidth = width;
+        mHardness = hardness;
+        mPoints = Arrays.copyOf(points, pointCount * 2);
+        mCurves = curves;
+    }
+
+    // return the line's color
+    public int getColor() {
+        return mColor;
+    }
+
+    // return the line's width
+    public float getWidth() {
+        return mWidth;
+    }
+
+    // return how hard the brush's edge is, from 0 (fades out from the middle) to 1 (solid)
+    public float getHardness() {
+        return mHardness;
+    }
+
+    // return whether the points are the control points of cubic curves
+    public boolean isCurves() {
+        return mCurves;
+    }
+
+    // return how many points the line goes through
+    public int getPointCount() {
+        return mPoints.length / 2;
+    }
+
+    public float getX(int i) {
+        return mPoints[i * 2];
+    }
+
+    public float getY(int i) {
+        return mPoints[i * 2 + 1];
+    }
+
+    // rough memory used by the stroke (object headers + point array)
+    public long getByteCount() {
+        return 32 + 16 + mPoints.length * 4L;
+    }
+}
@@ -0,0 +1,343 @@
+package com.example.lawrence.esketch;
+
+import java.util.Arrays;
+
+/**
+ * turns the touch points of each finger into smooth path segments.
+ *
+ * A point closer than TOUCH_TOLERANCE to the last one (on both axes) is skipped. Every
+ * other point becomes the control point of a quadratic curve that ends halfway to the
+ * next point, so the path goes smoothly around the corners of the polyline.
+ *
+ * The state of each finger is kept in arrays indexed by pointer id, and the points of
+ * a stroke go into arrays that are reused, so start(), move() and end() don't allocate
+ * once the arrays have grown to fit. Also keeps the bounding box of everything added
+ * since clearBounds(), for redrawing only the part of the screen that changed.
+ *
+ * With a simplify tolerance, each finger's points go through a StrokeSimplifier instead,
+ * and the path is made of the cubic curves it fits. The last bit of the path isn't final
+ * until a few points later, pending() gives it for drawing meanwhile.
+ */
+public class StrokeBuilder {
+
+    // used to determine whether user moved a finger enough to draw again
+    public static final float TOUCH_TOLERANCE = 5;
+
+    // pointer ids are reused starting from 0, so they stay small. fingers with
+    // larger ids than this are ignored.
+    public static final int MAX_POINTERS = 32;
+
+    private static final int INITIAL_POINT_CAPACITY = 1024;
+
+    private final SegmentSink mSink;
+
+    private final float[] mPreviousX = new float[MAX_POINTERS]; // previous positions of each finger
+    private final float[] mPreviousY = new float[MAX_POINTERS];
+    private final float[] mEndX = new float[MAX_POINTERS]; // where each finger's path currently ends
+    private final float[] mEndY = new float[MAX_POINTERS];
+    private final int[] mSegmentCounts = new int[MAX_POINTERS];
+    private int mActivePointers; // bit i is set while pointer i is drawing
+
+    // points each finger went through (x, y pairs)
+    private final float[][] mPoints = new float[MAX_POINTERS][];
+    private final int[] mPointCounts = new int[MAX_POINTERS];
+
+    // points of each finger's simplified curves: the start, then two control points and
+    // the end of each curve. only kept if they are fewer than the points.
+    private final float[][] mCurvePoints = new float[MAX_POINTERS][];
+    private final int[] mCurvePointCounts = new int[MAX_POINTERS];
+
+    // when above 0, paths are fitted with curves within this many pixels of the points
+    private float mSimplifyTolerance;
+    private final StrokeSimplifier[] mSimplifiers = new StrokeSimplifier[MAX_POINTERS];
+    private int mSimplifiedPointers; // bit i is set if pointer i's stroke is simplified
+    private final float[] mPendingBounds = new float[4];
+
+    // box around what was added since clearBounds(), empty when left > right
+    private float mLeft = Float.MAX_VALUE;
+    private float mTop = Float.MAX_VALUE;
+    private float mRight = -Float.MAX_VALUE;
+    private float mBottom = -Float.MAX_VALUE;
+
+    public StrokeBuilder(SegmentSink sink) {
+        mSink = sink;
+    }
+
+    // fit strokes with cubic curves that stay within tolerance pixels of the points,
+    // 0 to draw through every point. applies from the next stroke on.
+    public void setSimplifyTolerance(float tolerance) {
+        mSimplifyTolerance = tolerance;
+    }
+
+    public float getSimplifyTolerance() {
+        return mSimplifyTolerance;
+    }
+
+    // a finger touched down, return false if its id is too big to track
+    public boolean start(int pointer, float x, float y) {
+        if (pointer < 0 || pointer >= MAX_POINTERS) return false;
+
+        mActivePointers |= 1 << pointer;
+        mPreviousX[pointer] = x;
+        mPreviousY[pointer] = y;
+        mEndX[pointer] = x;
+        mEndY[pointer] = y;
+        mSegmentCounts[pointer] = 0;
+        mPointCounts[pointer] = 0;
+        mCurvePointCounts[pointer] = 0;
+        addPoint(mPoints, mPointCounts, pointer, x, y);
+        addBounds(x, y, x, y);
+
+        if (mSimplifyTolerance > 0) {
+            if (mSimplifiers[pointer] == null) mSimplifiers[pointer] = new StrokeSimplifier();
+            mSimplifiers[pointer].begin(pointer, x, y, mSimplifyTolerance, mCurveSink);
+            addPoint(mCurvePoints, mCurvePointCounts, pointer, x, y);
+            mSimplifiedPointers |= 1 << pointer;
+        } else {
+            mSimplifiedPointers &= ~(1 << pointer);
+        }
+
+        mSink.moveTo(pointer, x, y);
+        return true;
+    }
+
+    // a finger moved, return whether the point was used (not too close to the last one)
+    public boolean move(int pointer, float x, float y) {
+        if (!isActive(pointer)) return false;
+
+        float pointX = mPreviousX[pointer];
+        float pointY = mPreviousY[pointer];
+
+        // if distance is significant enough to matter
+        if (Math.abs(x - pointX) < TOUCH_TOLERANCE && Math.abs(y - pointY) < TOUCH_TOLERANCE) return false;
+        addPoint(mPoints, mPointCounts, pointer, x, y);
+
+        if ((mSimplifiedPointers & (1 << pointer)) != 0) {
+            // the pending curve changes, redraw where it was and where it is now
+            mPreviousX[pointer] = x;
+            mPreviousY[pointer] = y;
+            addPendingBounds(pointer);
+            mSimplifiers[pointer].add(x, y);
+            addPendingBounds(pointer);
+            return true;
+        }
+
+        float endX = (x + pointX) / 2;
+        float endY = (y + pointY) / 2;
+
+        // the curve stays inside the box around its start, control point and end
+        float startX = mEndX[pointer];
+        float startY = mEndY[pointer];
+        addBounds(
+                Math.min(startX, Math.min(pointX, endX)),
+                Math.min(startY, Math.min(pointY, endY)),
+                Math.max(startX, Math.max(pointX, endX)),
+                Math.max(startY, Math.max(pointY, endY))
+        );
+
+        // the new coords are the next control point
+        mPreviousX[pointer] = x;
+        mPreviousY[pointer] = y;
+        mEndX[pointer] = endX;
+        mEndY[pointer] = endY;
+        ++mSegmentCounts[pointer];
+
+        mSink.quadTo(pointer, pointX, pointY, endX, endY);
+        return true;
+    }
+
+    // a finger lifted, return false if it wasn't drawing. its points stay readable until it starts again.
+    public boolean end(int pointer) {
+        if (!isActive(pointer)) return false;
+        if ((mSimplifiedPointers & (1 << pointer)) != 0) {
+            addPendingBounds(pointer);
+            mSimplifiers[pointer].finish(); // the rest of the path
+        }
+        mActivePointers &= ~(1 << pointer);
+        return true;
+    }
+
+    // stop tracking every finger
+    public void cancel() {
+        mActivePointers = 0;
+    }
+
+    public boolean isActive(int pointer) {
+        return pointer >= 0 && pointer < MAX_POINTERS && (mActivePointers & (1 << pointer)) != 0;
+    }
+
+    // bit i is set while pointer i is drawing
+    public int getActivePointers() {
+        return mActivePointers;
+    }
+
+    // segments added since the finger started or resetSegmentCount()
+    public int getSegmentCount(int pointer) {
+        return mSegmentCounts[pointer];
+    }
+
+    // call when a path was cut at its end, see getEndX()/getEndY()
+    public void resetSegmentCount(int pointer) {
+        mSegmentCounts[pointer] = 0;
+    }
+
+    // where the finger's path currently ends
+    public float getEndX(int pointer) {
+        return mEndX[pointer];
+    }
+
+    public float getEndY(int pointer) {
+        return mEndY[pointer];
+    }
+
+    // the points (x, y pairs) the finger went through, only the first getPointCount() are used
+    public float[] getPoints(int pointer) {
+        return mPoints[pointer];
+    }
+
+    public int getPointCount(int pointer) {
+        return mPointCounts[pointer];
+    }
+
+    // copy the finger's points into a Stroke. a simplified stroke keeps its curves, unless
+    // its points are fewer (a very wiggly stroke needs almost a curve per point)
+    public Stroke toStroke(int pointer, int color, float width) {
+        return toStroke(pointer, color, width, 1);
+    }
+
+    public Stroke toStroke(int pointer, int color, float width, float hardness) {
+        if ((mSimplifiedPointers & (1 << pointer)) != 0 && mCurvePointCounts[pointer] < mPointCounts[pointer]) {
+            return new Stroke(color, width, hardness, mCurvePoints[pointer], mCurvePointCounts[pointer], true);
+        }
+        return new Stroke(color, width, hardness, mPoints[pointer], mPointCounts[pointer], false);
+    }
+
+    // send the part of a simplified finger's path that isn't final yet to sink
+    // (starting with moveTo), return false if there is none
+    public boolean pending(int pointer, SegmentSink sink) {
+        if (!isActive(pointer) || (mSimplifiedPointers & (1 << pointer)) == 0) return false;
+        if (!mSimplifiers[pointer].hasPending()) return false;
+        mSimplifiers[pointer].pending(pointer, sink);
+        return true;
+    }
+
+    // points of a simplified finger's curves (start, then two control points and end per curve)
+    public float[] getCurvePoints(int pointer) {
+        return mCurvePoints[pointer];
+    }
+
+    public int getCurvePointCount(int pointer) {
+        return mCurvePointCounts[pointer];
+    }
+
+    // return whether anything was added since clearBounds()
+    public boolean hasBounds() {
+        return mLeft <= mRight;
+    }
+
+    public float getBoundsLeft() {
+        return mLeft;
+    }
+
+    public float getBoundsTop() {
+        return mTop;
+    }
+
+    public float getBoundsRight() {
+        return mRight;
+    }
+
+    public float getBoundsBottom() {
+        return mBottom;
+    }
+
+    public void clearBounds() {
+        mLeft = Float.MAX_VALUE;
+        mTop = Float.MAX_VALUE;
+        mRight = -Float.MAX_VALUE;
+        mBottom = -Float.MAX_VALUE;
+    }
+
+    // send the segments of a finished stroke to sink (as pointer 0), the same ones
+    // that were made while it was drawn
+    public static void replay(Stroke stroke, SegmentSink sink) {
+        sink.moveTo(0, stroke.getX(0), stroke.getY(0));
+        if (stroke.isCurves()) {
+            for (int i = 1; i + 2 < stroke.getPointCount(); i += 3) {
+                sink.cubicTo(0, stroke.getX(i), stroke.getY(i), stroke.getX(i + 1), stroke.getY(i + 1),
+                        stroke.getX(i + 2), stroke.getY(i + 2));
+            }
+            return;
+        }
+        for (int i = 1; i < stroke.getPointCount(); ++i) {
+            float pointX = stroke.getX(i - 1);
+            float pointY = stroke.getY(i - 1);
+            sink.quadTo(0, pointX, pointY, (stroke.getX(i) + pointX) / 2, (stroke.getY(i) + pointY) / 2);
+        }
+    }
+
+    // gets the simplified curves, they're final
+    private final SegmentSink mCurveSink = new SegmentSink() {
+        @Override
+        public void moveTo(int pointer, float x, float y) {
+            // the simplifiers only send curves
+        }
+
+        @Override
+        public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+            // the simplifiers only send curves
+        }
+
+        @Override
+        public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                            float endX, float endY) {
+            // the curve stays inside the box around its start, control points and end
+            float startX = mEndX[pointer];
+            float startY = mEndY[pointer];
+            addBounds(
+                    Math.min(Math.min(startX, endX), Math.min(control1X, control2X)),
+                    Math.min(Math.min(startY, endY), Math.min(control1Y, control2Y)),
+                    Math.max(Math.max(startX, endX), Math.max(control1X, control2X)),
+                    Math.max(Math.max(startY, endY), Math.max(control1Y, control2Y))
+            );
+
+            mEndX[pointer] = endX;
+            mEndY[pointer] = endY;
+            ++mSegmentCounts[pointer];
+            addPoint(mCurvePoints, mCurvePointCounts, pointer, control1X, control1Y);
+            addPoint(mCurvePoints, mCurvePointCounts, pointer, control2X, control2Y);
+            addPoint(mCurvePoints, mCurvePointCounts, pointer, endX, endY);
+
+            mSink.cubicTo(pointer, control1X, control1Y, control2X, control2Y, endX, endY);
+        }
+    };
+
+    private void addPendingBounds(int pointer) {
+        if (!mSimplifiers[pointer].hasPending()) return;
+        mSimplifiers[pointer].getPendingBounds(mPendingBounds);
+        addBounds(mPendingBounds[0], mPendingBounds[1], mPendingBounds[2], mPendingBounds[3]);
+    }
+
+    private void addBounds(float left, float top, float right, float bottom) {
+        mLeft = Math.min(mLeft, left);
+        mTop = Math.min(mTop, top);
+        mRight = Math.max(mRight, right);
+        mBottom = Math.max(mBottom, bottom);
+    }
+
+    // remember a point of a finger's stroke in allPoints[pointer]
+    private static void addPoint(float[][] allPoints, int[] counts, int pointer, float x, float y) {
+        float[] points = allPoints[pointer];
+        int count = counts[pointer];
+        if (points == null) {
+            points = new float[INITIAL_POINT_CAPACITY * 2];
+            allPoints[pointer] = points;
+        } else if (count * 2 == points.length) {
+            points = Arrays.copyOf(points, points.length * 2);
+            allPoints[pointer] = points;
+        }
+        points[count * 2] = x;
+        points[count * 2 + 1] = y;
+        counts[pointer] = count + 1;
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.lawrence.esketch;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * reads back the strokes a StrokeEncoder wrote, one at a time.
+ *
+ * Only the stroke being read is kept, so drawings of any size can be read. A stream
+ * that stops before the end of the drawing throws EOFException, anything that isn't
+ * a drawing (or is from a newer version) throws IOException. read() skips the marks
+ * StrokeEncoder.mark() wrote, readRecord() stops at them.
+ * Not thread safe.
+ */
+public class StrokeDecoder {
+
+    private final InputStream mIn;
+    private final byte[] mBuffer = new byte[8192];
+    private int mPosition;
+    private int mLimit;
+
+    private final float mScale; // fixed point to pixels
+
+    private int mColor;
+    private float mWidth;
+    private float mHardness = 1;
+    private int mLastX;
+    private int mLastY;
+    private float[] mPoints = new float[256];
+    private boolean mFinished;
+    private int mMark = -1; // the mark readRecord() stopped at
+
+    // start reading a drawing from in. in isn't closed by the decoder.
+    public StrokeDecoder(InputStream in) throws IOException {
+        mIn = in;
+        if (readInt() != StrokeEncoder.MAGIC) throw new IOException("not an eSketch drawing");
+        int version = readByte();
+        if (version > StrokeEncoder.VERSION) throw new IOException("drawing version " + version + " not supported");
+        int fractionBits = readByte();
+        if (fractionBits > 16) throw new IOException("bad fixed point: " + fractionBits);
+        mScale = 1f / (1 << fractionBits);
+    }
+
+    // return the next stroke of the drawing, or null when the drawing is done
+    public Stroke read() throws IOException {
+        Stroke stroke;
+        do {
+            stroke = readRecord();
+        } while (stroke == null && mMark >= 0);
+        return stroke;
+    }
+
+    // return the next stroke, or null at a mark (then getMark() returns it) or when the
+    // drawing is done
+    public Stroke readRecord() throws IOException {
+        mMark = -1;
+        while (!mFinished) {
+            int tag = readByte();
+            switch (tag) {
+                case StrokeEncoder.END:
+                    mFinished = true;
+                    break;
+                case StrokeEncoder.COLOR:
+                    mColor = readInt();
+                    break;
+                case StrokeEncoder.WIDTH:
+                    mWidth = readVarint() * mScale;
+                    break;
+                case StrokeEncoder.HARDNESS:
+                    mHardness = readByte() / 255f;
+                    break;
+                case StrokeEncoder.MARK:
+                    mMark = readByte();
+                    return null;
+                case StrokeEncoder.STROKE:
+                case StrokeEncoder.CURVES:
+                    int count = readVarint();
+                    if (count < 0) throw new IOException("bad point count: " + count);
+                    readPoints(count);
+                    return new Stroke(mColor, mWidth, mHardness, mPoints, count, tag == StrokeEncoder.CURVES);
+                default:
+                    throw new IOException("unknown record " + tag);
+            }
+        }
+        return null;
+    }
+
+    // the mark the last readRecord() stopped at, -1 if it didn't stop at one
+    public int getMark() {
+        return mMark;
+    }
+
+    private void readPoints(int count) throws IOException {
+        if (mPoints.length < count * 2) {
+            mPoints = Arrays.copyOf(mPoints, Math.max(count * 2, mPoints.length * 2));
+        }
+        int x = mLastX, y = mLastY;
+        for (int i = 0; i < count * 2; i += 2) {
+            x += unzigzag(readVarint());
+            y += unzigzag(readVarint());
+            mPoints[i] = x * mScale;
+            mPoints[i + 1] = y * mScale;
+        }
+        mLastX = x;
+        mLastY = y;
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int readVarint() throws IOException {
+        // fast path: the whole varint is in the buffer
+        if (mLimit - mPosition >= 5) {
+            int b = mBuffer[mPosition++];
+            if (b >= 0) return b;
+            int value = b & 0x7f;
+            for (int shift = 7; shift < 35; shift += 7) {
+                b = mBuffer[mPosition++];
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IOException("varint too long");
+        }
+
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("varint too long");
+    }
+
+    private int readInt() throws IOException {
+        return readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+    }
+
+    private int readByte() throws IOException {
+        if (mPosition == mLimit) fill();
+        return mBuffer[mPosition++] & 0xff;
+    }
+
+    private void fill() throws IOException {
+        int read = mIn.read(mBuffer, 0, mBuffer.length);
+        if (read <= 0) throw new EOFException("drawing cut short");
+        mPosition = 0;
+        mLimit = read;
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.lawrence.esketch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * writes strokes to a stream in the compact eSketch drawing format, one at a time.
+ *
+ * The format (version 3):
+ *   header: "eSkD", version byte, fraction bits byte
+ *   records, each starting with a tag byte:
+ *     COLOR   4 bytes ARGB, the color of the strokes after it
+ *     WIDTH   varint, the width of the strokes after it
+ *     HARDNESS byte, the brush hardness of the strokes after it (0-255 for 0-1, 255 until
+ *             it is written; version 2)
+ *     STROKE  varint point count, then the points
+ *     CURVES  same as STROKE, for a stroke of cubic curves (see Stroke)
+ *     MARK    byte, a step between strokes that the drawing itself doesn't have, for
+ *             whoever wrote it (e.g. undo in the autosave's journal; version 3)
+ *     END     the drawing is done
+ *
+ * Coordinates are fixed point with FRACTION_BITS bits after the point (1/8 px). Each
+ * point is stored as the zigzag varint difference from the point before it, the first
+ * point of a stroke from the last point of the stroke before. A finger moves a few
+ * pixels between samples, so most coordinates take one byte. COLOR, WIDTH and HARDNESS
+ * are only written when they change.
+ *
+ * Only the stroke being written is kept, so drawings of any size can be written. A
+ * drawing can also be appended to a stream bit by bit with flush(), and left unfinished.
+ * Not thread safe.
+ */
+public class StrokeEncoder {
+
+    static final int MAGIC = 0x65536B44; // "eSkD"
+    static final int VERSION = 3;
+    static final int FRACTION_BITS = 3;
+
+    // record tags
+    static final int END = 0;
+    static final int COLOR = 1;
+    static final int WIDTH = 2;
+    static final int STROKE = 3;
+    static final int CURVES = 4;
+    static final int HARDNESS = 5;
+    static final int MARK = 6;
+
+    private final OutputStream mOut;
+    private final byte[] mBuffer = new byte[8192];
+    private int mBuffered;
+
+    // what the decoder will have when it reads the next record
+    private int mColor;
+    private int mWidth = -1;
+    private int mHardness = 255;
+    private int mLastX;
+    private int mLastY;
+
+    private long mPointCount;
+    private long mByteCount;
+
+    // start a drawing on out. out isn't closed by the encoder.
+    public StrokeEncoder(OutputStream out) throws IOException {
+        mOut = out;
+        writeInt(MAGIC);
+        writeByte(VERSION);
+        writeByte(FRACTION_BITS);
+    }
+
+    // add a stroke to the drawing
+    public void write(Stroke stroke) throws IOException {
+        if (stroke.getColor() != mColor || mWidth == -1) {
+            mColor = stroke.getColor();
+            writeByte(COLOR);
+            writeInt(mColor);
+        }
+        int width = toFixed(stroke.getWidth());
+        if (width != mWidth) {
+            mWidth = width;
+            writeByte(WIDTH);
+            writeVarint(width);
+        }
+
+        int hardness = Math.round(Math.max(0, Math.min(1, stroke.getHardness())) * 255);
+        if (hardness != mHardness) {
+            mHardness = hardness;
+            writeByte(HARDNESS);
+            writeByte(hardness);
+        }
+
+        int count = stroke.getPointCount();
+        writeByte(stroke.isCurves() ? CURVES : STROKE);
+        writeVarint(count);
+        for (int i = 0; i < count; ++i) {
+            // differences of the rounded values, so rounding errors don't add up
+            int x = toFixed(stroke.getX(i));
+            int y = toFixed(stroke.getY(i));
+            writeVarint(zigzag(x - mLastX));
+            writeVarint(zigzag(y - mLastY));
+            mLastX = x;
+            mLastY = y;
+        }
+        mPointCount += count;
+    }
+
+    // add a mark (0-255) after the strokes so far, see StrokeDecoder.readRecord()
+    public void mark(int mark) throws IOException {
+        writeByte(MARK);
+        writeByte(mark);
+    }
+
+    // end the drawing and write out everything buffered
+    public void finish() throws IOException {
+        writeByte(END);
+        flush();
+    }
+
+    // write out everything buffered, without ending the drawing
+    public void flush() throws IOException {
+        mOut.write(mBuffer, 0, mBuffered);
+        mByteCount += mBuffered;
+        mBuffered = 0;
+        mOut.flush();
+    }
+
+    // return how many points were written
+    public long getPointCount() {
+        return mPointCount;
+    }
+
+    // return how many bytes were written (or buffered) so far, header included
+    public long getByteCount() {
+        return mByteCount + mBuffered;
+    }
+
+    static int toFixed(float value) {
+        return Math.round(value * (1 << FRACTION_BITS));
+    }
+
+    // small negative and positive numbers to small unsigned ones: 0, -1, 1, -2, 2 ...
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private void writeVarint(int value) throws IOException {
+        if (mBuffered > mBuffer.length - 5) drain();
+        while ((value & ~0x7f) != 0) {
+            mBuffer[mBuffered++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        mBuffer[mBuffered++] = (byte) value;
+    }
+
+    private void writeInt(int value) throws IOException {
+        if (mBuffered > mBuffer.length - 4) drain();
+        mBuffer[mBuffered++] = (byte) (value >>> 24);
+        mBuffer[mBuffered++] = (byte) (value >>> 16);
+        mBuffer[mBuffered++] = (byte) (value >>> 8);
+        mBuffer[mBuffered++] = (byte) value;
+    }
+
+    private void writeByte(int value) throws IOException {
+        if (mBuffered == mBuffer.length) drain();
+        mBuffer[mBuffered++] = (byte) value;
+    }
+
+    // make room in the buffer
+    private void drain() throws IOException {
+        mOut.write(mBuffer, 0, mBuffered);
+        mByteCount += mBuffered;
+        mBuffered = 0;
+    }
+}
@@ -0,0 +1,463 @@
+package com.example.lawrence.esketch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * undo/redo for strokes.
+ *
+ * Keeping a copy of the drawing for every step would need a full bitmap per stroke.
+ * Instead a checkpoint (copy of the drawing) is taken every few strokes, and undo
+ * restores the closest checkpoint before the wanted step and draws the strokes after it
+ * again. So an undo never replays more than checkpointInterval - 1 strokes.
+ *
+ * When checkpoints and strokes use more than the memory limit, the oldest checkpoint
+ * and the strokes before the next one are dropped, so those steps can't be undone anymore.
+ * Steps after pin() are never dropped, they have to stay undoable.
+ *
+ * The strokes after the oldest checkpoint are also in a StrokeIndex, so erase() can find
+ * the ones under the eraser. An erased stroke stays in the history (undo and redo skip
+ * it), and the box it covered is drawn again without it, from the oldest checkpoint and
+ * the strokes in the box. The checkpoints after it are fixed up the same way.
+ * Erasing isn't a step of its own, it can't be undone.
+ *
+ * Steps the history can't draw again, like a bucket fill, are added with addSnapshot():
+ * the drawing is checkpointed right after one, so undo replays from that checkpoint or
+ * one before the step, and redo restores it. The strokes before such a step are baked
+ * into its checkpoint, so they leave the index and can't be erased anymore; erase()
+ * redraws from that checkpoint instead of the oldest one.
+ *
+ * @param <C> type of a checkpoint, e.g. a Bitmap
+ */
+public class StrokeHistory<C> {
+
+    /**
+     * the drawing the history works on.
+     */
+    public interface Surface<C> {
+        // return a copy of what is drawn now
+        C snapshot();
+
+        // replace the drawing with a checkpoint, or blank it if checkpoint is null
+        void restore(C checkpoint);
+
+        // draw one stroke on top of the drawing
+        void draw(Stroke stroke);
+
+        // memory used by a checkpoint
+        long sizeOf(C checkpoint);
+
+        // a checkpoint was dropped and won't be used again
+        void release(C checkpoint);
+
+        // only change the part of target (a checkpoint, or the drawing if null) inside the
+        // box: replace it with the same part of start (blank if null), and draw strokes on
+        // target inside the box, until endRegion()
+        void beginRegion(C target, C start, int left, int top, int right, int bottom);
+
+        void endRegion();
+    }
+
+    // cell size of the stroke index, about the width of a finger
+    private static final float INDEX_CELL_SIZE = 64;
+
+    // a stroke in the history (null for an addSnapshot() step), its id in the index (-1 if
+    // it isn't in it), and whether it was erased
+    private static class Entry {
+        final Stroke stroke;
+        final int id;
+        boolean erased;
+
+        Entry(Stroke stroke, int id) {
+            this.stroke = stroke;
+            this.id = id;
+        }
+    }
+
+    // copy of the drawing after the first `index` strokes
+    private static class Checkpoint<C> {
+        int index;
+        final C image;
+        final long bytes;
+
+        Checkpoint(int index, C image, long bytes) {
+            this.index = index;
+            this.image = image;
+            this.bytes = bytes;
+        }
+    }
+
+    private final Surface<C> mSurface;
+    private final int mCheckpointInterval;
+    private long mMemoryLimit;
+
+    // strokes after the oldest checkpoint. the ones at mCurrent and after were undone
+    // and can be redone.
+    private final List<Entry> mStrokes = new ArrayList<>();
+    private int mCurrent;
+    private final StrokeIndex mIndex = new StrokeIndex(INDEX_CELL_SIZE);
+    private final float[] mBounds = new float[4]; // reused by erase()
+    private int[] mErased = new int[16]; // steps the last erase() erased
+    private int mDropped; // steps trim() dropped since the last reset()
+    // the strokes from here on are in the index, and erase() redraws from the checkpoint
+    // at this step. the ones before are under an addSnapshot() step, or were added after
+    // one was undone, and stay as they are.
+    private int mBase;
+    private int mPinned = -1; // trim() keeps this step undoable, -1 if none
+
+    // ordered by index, the first one is where the history starts (null image = blank)
+    private final List<Checkpoint<C>> mCheckpoints = new ArrayList<>();
+
+    private long mStrokeBytes;
+    private long mCheckpointBytes;
+    private int mLastReplayCount; // strokes drawn by the last undo
+
+    public StrokeHistory(Surface<C> surface, int checkpointInterval, long memoryLimit) {
+        if (checkpointInterval < 1) throw new IllegalArgumentException("checkpointInterval < 1");
+
+        mSurface = surface;
+        mCheckpointInterval = checkpointInterval;
+        mMemoryLimit = memoryLimit;
+        mCheckpoints.add(new Checkpoint<C>(0, null, 0));
+    }
+
+    // change how much memory strokes and checkpoints may use
+    public void setMemoryLimit(long memoryLimit) {
+        mMemoryLimit = memoryLimit;
+        trim();
+    }
+
+    public long getMemoryLimit() {
+        return mMemoryLimit;
+    }
+
+    // memory used by the strokes and checkpoints kept now
+    public long getByteCount() {
+        return mStrokeBytes + mCheckpointBytes;
+    }
+
+    // return how many strokes the last undo had to draw again
+    public int getLastReplayCount() {
+        return mLastReplayCount;
+    }
+
+    // return how many checkpoints are kept, including the starting one
+    public int getCheckpointCount() {
+        return mCheckpoints.size();
+    }
+
+    // return the checkpoint the drawn strokes start from (null = blank): the oldest one,
+    // or the one after the last drawn addSnapshot() step. the drawing is this with the
+    // strokes from getStartIndex() to getDrawnCount() drawn on top.
+    public C getStart() {
+        return checkpointAt(getStartIndex()).image;
+    }
+
+    public int getStartIndex() {
+        for (int i = mCurrent - 1; i >= 0; --i) {
+            if (mStrokes.get(i).stroke == null) return i + 1;
+        }
+        return 0;
+    }
+
+    // return how many strokes are drawn now (not undone), counting from getStart()
+    public int getDrawnCount() {
+        return mCurrent;
+    }
+
+    // return the stroke of a step, null if it was added with addSnapshot()
+    public Stroke getStroke(int index) {
+        return mStrokes.get(index).stroke;
+    }
+
+    // return whether a stroke was erased, it isn't drawn then
+    public boolean isErased(int index) {
+        return mStrokes.get(index).erased;
+    }
+
+    // return the i-th step the last erase() erased, counting every step since the last
+    // reset() from 0 (so it doesn't change when old steps are dropped)
+    public int getErasedStep(int i) {
+        return mErased[i];
+    }
+
+    public boolean canUndo() {
+        return mCurrent > 0;
+    }
+
+    public boolean canRedo() {
+        return mCurrent < mStrokes.size();
+    }
+
+    // record a stroke that was just drawn on the surface. this throws away the redo steps.
+    public void add(Stroke stroke) {
+        addAll(Collections.singletonList(stroke));
+    }
+
+    // record strokes that were drawn on the surface together, e.g. by several fingers at
+    // once. the surface may only be checkpointed once all of them are on it, so undo can
+    // replay up to strokes.size() more than checkpointInterval - 1 strokes.
+    public void addAll(List<Stroke> strokes) {
+        if (strokes.isEmpty()) return;
+        // with the base undone, erase() needs a new one. the surface already has these
+        // strokes, so they go under it.
+        boolean rebase = dropRedo();
+
+        for (Stroke stroke : strokes) {
+            mStrokes.add(new Entry(stroke, rebase ? -1 : mIndex.add(stroke)));
+            mStrokeBytes += stroke.getByteCount();
+            ++mCurrent;
+        }
+
+        // checkpoint every few strokes so undo never has to replay many
+        if (rebase || mCurrent - lastCheckpoint().index >= mCheckpointInterval) {
+            checkpoint();
+        }
+        if (rebase) mBase = mCurrent;
+
+        trim();
+    }
+
+    // record a step that was just done on the surface but can't be drawn again, e.g. a
+    // bucket fill. this throws away the redo steps, and the strokes before it can't be
+    // erased anymore.
+    public void addSnapshot() {
+        dropRedo();
+
+        // they're in the checkpoint below for good
+        for (int i = mBase; i < mCurrent; ++i) {
+            Entry entry = mStrokes.get(i);
+            if (entry.id >= 0) mIndex.remove(entry.id);
+        }
+        mStrokes.add(new Entry(null, -1));
+        ++mCurrent;
+        checkpoint();
+        mBase = mCurrent;
+
+        trim();
+    }
+
+    private void checkpoint() {
+        C image = mSurface.snapshot();
+        long bytes = mSurface.sizeOf(image);
+        mCheckpoints.add(new Checkpoint<>(mCurrent, image, bytes));
+        mCheckpointBytes += bytes;
+    }
+
+    // keep the steps after the first `step` drawn ones undoable (see undoTo()), however
+    // much memory they take, until unpin() or another pin()
+    public void pin(int step) {
+        if (step < 0 || step > mCurrent) throw new IllegalArgumentException("can't pin step " + step);
+        mPinned = step;
+        trim();
+    }
+
+    public void unpin() {
+        mPinned = -1;
+        trim();
+    }
+
+    // take back the last stroke, return false if there is nothing to undo
+    public boolean undo() {
+        if (!canUndo()) return false;
+        restoreTo(mCurrent - 1);
+        return true;
+    }
+
+    // take back all the steps after the first `step` drawn ones, replaying from a single
+    // checkpoint. return false, and take back nothing, if fewer are drawn or some of them
+    // were dropped.
+    public boolean undoTo(int step) {
+        if (step < 0 || step > mCurrent) return false;
+        if (step < mCurrent) restoreTo(step);
+        return true;
+    }
+
+    private void restoreTo(int step) {
+        mCurrent = step;
+
+        // start from the closest checkpoint at or before mCurrent and replay the rest.
+        // there's one right after each addSnapshot() step, so the rest are strokes.
+        int c = mCheckpoints.size() - 1;
+        while (mCheckpoints.get(c).index > mCurrent) --c;
+        Checkpoint<C> checkpoint = mCheckpoints.get(c);
+
+        mSurface.restore(checkpoint.image);
+        for (int i = checkpoint.index; i < mCurrent; ++i) {
+            if (!mStrokes.get(i).erased) mSurface.draw(mStrokes.get(i).stroke);
+        }
+        mLastReplayCount = mCurrent - checkpoint.index;
+    }
+
+    // draw the last undone stroke again, return false if there is nothing to redo
+    public boolean redo() {
+        if (!canRedo()) return false;
+
+        Entry entry = mStrokes.get(mCurrent);
+        ++mCurrent;
+        if (entry.stroke == null) {
+            mSurface.restore(checkpointAt(mCurrent).image);
+        } else if (!entry.erased) {
+            mSurface.draw(entry.stroke);
+        }
+        return true;
+    }
+
+    // erase the drawn strokes that pass within radius of (x, y), and draw what was under
+    // them again. return how many were erased.
+    public int erase(float x, float y, float radius) {
+        int found = mIndex.queryPoint(x, y, radius);
+        if (found == 0) return 0;
+
+        float left = Float.POSITIVE_INFINITY, top = left;
+        float right = Float.NEGATIVE_INFINITY, bottom = right;
+        int first = mCurrent; // oldest erased stroke
+        int erased = 0;
+        for (int i = 0; i < found; ++i) {
+            int id = mIndex.getResult(i);
+            int position = position(id);
+            if (position >= mCurrent) continue; // undone, not on the drawing
+
+            mIndex.getBounds(id, mBounds);
+            left = Math.min(left, mBounds[0]);
+            top = Math.min(top, mBounds[1]);
+            right = Math.max(right, mBounds[2]);
+            bottom = Math.max(bottom, mBounds[3]);
+            mStrokes.get(position).erased = true;
+            mIndex.remove(id); // keeps the query's results
+            first = Math.min(first, position);
+            if (erased == mErased.length) mErased = Arrays.copyOf(mErased, erased * 2);
+            mErased[erased++] = mDropped + position;
+        }
+        if (erased == 0) return 0;
+
+        // whole pixels, so the strokes drawn again cover exactly what they did
+        int regionLeft = (int) Math.floor(left), regionTop = (int) Math.floor(top);
+        int regionRight = (int) Math.ceil(right), regionBottom = (int) Math.ceil(bottom);
+        int count = mIndex.queryBox(regionLeft, regionTop, regionRight, regionBottom);
+
+        // the drawing, and the checkpoints that had the erased strokes in them
+        C start = checkpointAt(mBase).image;
+        redrawRegion(null, mCurrent, start, count, regionLeft, regionTop, regionRight, regionBottom);
+        for (int c = 1; c < mCheckpoints.size(); ++c) {
+            Checkpoint<C> checkpoint = mCheckpoints.get(c);
+            if (checkpoint.index > first) {
+                redrawRegion(checkpoint.image, checkpoint.index, start, count,
+                        regionLeft, regionTop, regionRight, regionBottom);
+            }
+        }
+        return erased;
+    }
+
+    // draw the box of target again: start, then the strokes before end that the last
+    // queryBox() found
+    private void redrawRegion(C target, int end, C start, int count, int left, int top, int right, int bottom) {
+        mSurface.beginRegion(target, start, left, top, right, bottom);
+        for (int i = 0; i < count; ++i) {
+            int position = position(mIndex.getResult(i));
+            if (position < end) mSurface.draw(mStrokes.get(position).stroke);
+        }
+        mSurface.endRegion();
+    }
+
+    // where the stroke with index id is in mStrokes (ids go up along the list from mBase)
+    private int position(int id) {
+        int low = mBase, high = mStrokes.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleId = mStrokes.get(middle).id;
+            if (middleId < id) low = middle + 1;
+            else if (middleId > id) high = middle - 1;
+            else return middle;
+        }
+        throw new IllegalStateException("stroke " + id + " isn't in the history");
+    }
+
+    // forget everything, the drawing starts over blank
+    public void clear() {
+        reset(null);
+    }
+
+    // forget everything, the drawing starts over from start (null = blank).
+    // the history keeps start and releases it when it's not needed anymore.
+    public void reset(C start) {
+        for (Checkpoint<C> checkpoint : mCheckpoints) {
+            if (checkpoint.image != null) mSurface.release(checkpoint.image);
+        }
+        mCheckpoints.clear();
+        long bytes = start == null ? 0 : mSurface.sizeOf(start);
+        mCheckpoints.add(new Checkpoint<>(0, start, bytes));
+        mStrokes.clear();
+        mIndex.clear();
+        mCurrent = 0;
+        mDropped = 0;
+        mBase = 0;
+        if (mPinned > 0) mPinned = 0; // the steps from now on stay
+        mStrokeBytes = 0;
+        mCheckpointBytes = bytes;
+    }
+
+    private Checkpoint<C> lastCheckpoint() {
+        return mCheckpoints.get(mCheckpoints.size() - 1);
+    }
+
+    // the checkpoint at a step, there must be one
+    private Checkpoint<C> checkpointAt(int index) {
+        for (int c = mCheckpoints.size() - 1; c >= 0; --c) {
+            if (mCheckpoints.get(c).index == index) return mCheckpoints.get(c);
+        }
+        throw new IllegalStateException("no checkpoint at step " + index);
+    }
+
+    private static long byteCount(Entry entry) {
+        return entry.stroke == null ? 0 : entry.stroke.getByteCount();
+    }
+
+    // forget the undone steps, and the checkpoints taken after them. return true if the
+    // base checkpoint of erase() was one of them (an addSnapshot() step was undone).
+    private boolean dropRedo() {
+        while (mStrokes.size() > mCurrent) {
+            Entry entry = mStrokes.remove(mStrokes.size() - 1);
+            mStrokeBytes -= byteCount(entry);
+            if (entry.id >= 0) mIndex.remove(entry.id);
+        }
+        while (lastCheckpoint().index > mCurrent) {
+            Checkpoint<C> checkpoint = mCheckpoints.remove(mCheckpoints.size() - 1);
+            mCheckpointBytes -= checkpoint.bytes;
+            mSurface.release(checkpoint.image);
+        }
+        mPinned = Math.min(mPinned, mCurrent);
+        return mBase > mCurrent;
+    }
+
+    // drop the oldest checkpoint (and the strokes only it can replay) until under the limit.
+    // the newest checkpoint is always kept, and so are the ones the current and the pinned
+    // step replay from.
+    private void trim() {
+        while (getByteCount() > mMemoryLimit && mCheckpoints.size() > 1
+                && mCheckpoints.get(1).index <= mCurrent
+                && (mPinned < 0 || mCheckpoints.get(1).index <= mPinned)) {
+            Checkpoint<C> oldest = mCheckpoints.remove(0);
+            mCheckpointBytes -= oldest.bytes;
+            if (oldest.image != null) mSurface.release(oldest.image);
+
+            // the next checkpoint becomes the start of the history
+            int dropped = mCheckpoints.get(0).index;
+            List<Entry> before = mStrokes.subList(0, dropped);
+            for (Entry entry : before) {
+                mStrokeBytes -= byteCount(entry);
+                if (entry.id >= 0) mIndex.remove(entry.id); // part of the start checkpoint now
+            }
+            before.clear();
+            mCurrent -= dropped;
+            mDropped += dropped;
+            mBase = Math.max(0, mBase - dropped);
+            if (mPinned >= 0) mPinned -= dropped;
+            for (Checkpoint<C> checkpoint : mCheckpoints) {
+                checkpoint.index -= dropped;
+            }
+        }
+    }
+}
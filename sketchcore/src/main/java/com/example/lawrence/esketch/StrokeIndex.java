@@ -0,0 +1,508 @@
+package com.example.lawrence.esketch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * finds the strokes at a point or in a box, for the eraser.
+ *
+ * The drawing is split into square cells. Each cell lists the runs of segments of a
+ * stroke whose boxes overlap it, so a query only looks at the cells it covers and only
+ * tests the segments that are in them. Cells are kept in a hash table, so strokes can be
+ * anywhere.
+ *
+ * Each cell also keeps a copy of its runs' points, one run after another. With many
+ * strokes, reading each one's own points costs the most, since they're all over memory;
+ * the copies keep what a query reads together. They are shorts, in 1/SCALE px from the
+ * cell's corner, so they take half the memory of the strokes' points. A point that is
+ * about as far from a stroke as it reaches (within SLACK, where rounding the copy could
+ * matter), and a run too far from its cell to fit in a short, are tested on the stroke.
+ *
+ * Strokes get increasing ids when they are added, so sorting ids sorts strokes from
+ * the first drawn to the last. Query results are kept until the next query.
+ * Not thread safe.
+ */
+public class StrokeIndex {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int CURVE_STEPS = 8; // lines a cubic is split into for hit testing
+
+    // copies of points are in 1/SCALE px, which puts them within 1/(2 SCALE) px in x and
+    // y. a point closer than SLACK to a stroke's reach is tested on the stroke instead.
+    private static final float SCALE = 8;
+    private static final float SLACK = 1 / SCALE;
+
+    // what testing a run's copy says
+    private static final int MISS = 0;
+    private static final int HIT = 1;
+    private static final int NEAR = 2; // test the stroke
+
+    private final float mCellSize;
+
+    // hash table of cells: key (cell x, cell y) -> runs of (stroke id, start of their
+    // points, left | top << 16, right | bottom << 16 of the box around them), and the
+    // points. a run's id is ~id if its copy didn't fit, and then its box means nothing.
+    private static final int RUN = 4;
+    private long[] mKeys = new long[256];
+    private int[][] mRuns = new int[256][];
+    private int[] mRunLengths = new int[256];      // ints used in each mRuns array
+    private short[][] mPoints = new short[256][];  // x, y of each run's points
+    private int[] mPointLengths = new int[256];    // shorts used in each mPoints array
+    private int mCellCount;
+
+    private final List<Stroke> mStrokes = new ArrayList<>(); // by id, null once removed
+    private float[] mBounds = new float[256];                // left, top, right, bottom by id
+    private float[] mHalfWidths = new float[64];             // by id
+    private boolean[] mCurves = new boolean[64];             // whether each id's segments are cubics
+    private int mSize;
+
+    // query results, and the query each id was last found by
+    private int[] mResults = new int[64];
+    private int[] mSeen = new int[64];
+    private int mQuery;
+
+    private final float[] mBox = new float[4]; // reused for segment boxes
+
+    public StrokeIndex(float cellSize) {
+        mCellSize = cellSize;
+        Arrays.fill(mKeys, EMPTY);
+    }
+
+    // add a stroke, return its id
+    public int add(Stroke stroke) {
+        int id = mStrokes.size();
+        mStrokes.add(stroke);
+        if (mBounds.length < (id + 1) * 4) mBounds = Arrays.copyOf(mBounds, mBounds.length * 2);
+        if (mSeen.length <= id) {
+            mSeen = Arrays.copyOf(mSeen, mSeen.length * 2);
+            mHalfWidths = Arrays.copyOf(mHalfWidths, mHalfWidths.length * 2);
+            mCurves = Arrays.copyOf(mCurves, mCurves.length * 2);
+        }
+        mHalfWidths[id] = stroke.getWidth() / 2;
+        mCurves[id] = stroke.isCurves();
+        ++mSize;
+
+        float left = Float.POSITIVE_INFINITY, top = left;
+        float right = Float.NEGATIVE_INFINITY, bottom = right;
+        // the cells the last segment went in, where this one continues its run
+        int lastLeft = 0, lastTop = 0, lastRight = -1, lastBottom = -1;
+        int segments = segmentCount(stroke);
+        for (int segment = 0; segment < segments; ++segment) {
+            segmentBounds(stroke, segment, mBox);
+            left = Math.min(left, mBox[0]);
+            top = Math.min(top, mBox[1]);
+            right = Math.max(right, mBox[2]);
+            bottom = Math.max(bottom, mBox[3]);
+
+            int cellLeft = cell(mBox[0]), cellTop = cell(mBox[1]);
+            int cellRight = cell(mBox[2]), cellBottom = cell(mBox[3]);
+            for (int cy = cellTop; cy <= cellBottom; ++cy) {
+                for (int cx = cellLeft; cx <= cellRight; ++cx) {
+                    int slot = find(cx, cy, true);
+                    if (cx >= lastLeft && cx <= lastRight && cy >= lastTop && cy <= lastBottom) {
+                        // the segment starts where the last one ended
+                        addPoints(slot, stroke, lastPoint(stroke, segment - 1) + 1, lastPoint(stroke, segment), cx, cy);
+                    } else {
+                        addRun(slot, id);
+                        addPoints(slot, stroke, firstPoint(stroke, segment), lastPoint(stroke, segment), cx, cy);
+                    }
+                }
+            }
+            lastLeft = cellLeft;
+            lastTop = cellTop;
+            lastRight = cellRight;
+            lastBottom = cellBottom;
+        }
+        mBounds[id * 4] = left;
+        mBounds[id * 4 + 1] = top;
+        mBounds[id * 4 + 2] = right;
+        mBounds[id * 4 + 3] = bottom;
+        return id;
+    }
+
+    // take a stroke out
+    public void remove(int id) {
+        Stroke stroke = mStrokes.get(id);
+        if (stroke == null) return;
+
+        int segments = segmentCount(stroke);
+        for (int segment = 0; segment < segments; ++segment) {
+            segmentBounds(stroke, segment, mBox);
+            for (int cy = cell(mBox[1]); cy <= cell(mBox[3]); ++cy) {
+                for (int cx = cell(mBox[0]); cx <= cell(mBox[2]); ++cx) {
+                    removeRuns(find(cx, cy, false), id);
+                }
+            }
+        }
+        mStrokes.set(id, null);
+        --mSize;
+    }
+
+    // take all strokes out (ids keep counting up)
+    public void clear() {
+        for (int id = 0; id < mStrokes.size(); ++id) {
+            mStrokes.set(id, null);
+        }
+        Arrays.fill(mKeys, EMPTY);
+        Arrays.fill(mRunLengths, 0);
+        Arrays.fill(mPointLengths, 0);
+        mCellCount = 0;
+        mSize = 0;
+    }
+
+    // return how many strokes are in the index
+    public int size() {
+        return mSize;
+    }
+
+    public Stroke get(int id) {
+        return mStrokes.get(id);
+    }
+
+    // box around what the stroke covers (half its width around its line, plus 1px of
+    // anti-aliasing) as left, top, right, bottom
+    public void getBounds(int id, float[] bounds) {
+        System.arraycopy(mBounds, id * 4, bounds, 0, 4);
+    }
+
+    // find the strokes whose line passes within radius of (x, y) (counting their width),
+    // return how many there are. getResult() has their ids, oldest first.
+    public int queryPoint(float x, float y, float radius) {
+        ++mQuery;
+        int count = 0;
+        for (int cy = cell(y - radius); cy <= cell(y + radius); ++cy) {
+            for (int cx = cell(x - radius); cx <= cell(x + radius); ++cx) {
+                int slot = find(cx, cy, false);
+                if (slot < 0) continue;
+
+                // the point in the copies' units
+                float localX = (x - cx * mCellSize) * SCALE, localY = (y - cy * mCellSize) * SCALE;
+                int[] runs = mRuns[slot];
+                int length = mRunLengths[slot];
+                for (int r = 0; r < length; r += RUN) {
+                    int id = runs[r] < 0 ? ~runs[r] : runs[r];
+                    if (mSeen[id] == mQuery) continue; // already found
+
+                    float reach = radius + mHalfWidths[id];
+                    int hit = NEAR;
+                    if (runs[r] >= 0) {
+                        // how far the point is outside the run's box on each side
+                        float inside = Math.max(0, reach - SLACK) * SCALE, outside = (reach + SLACK) * SCALE;
+                        float left = localX - (short) runs[r + 2], top = localY - (runs[r + 2] >> 16);
+                        float right = (short) runs[r + 3] - localX, bottom = (runs[r + 3] >> 16) - localY;
+                        if (left < -outside || top < -outside || right < -outside || bottom < -outside) {
+                            continue; // this run is too far away, another one of the stroke may not be
+                        }
+                        float farX = Math.max(left, right), farY = Math.max(top, bottom);
+                        if (farX * farX + farY * farY <= inside * inside) {
+                            hit = HIT; // all of the box is in reach
+                        } else {
+                            int end = r + RUN < length ? runs[r + RUN + 1] : mPointLengths[slot];
+                            hit = hits(mPoints[slot], runs[r + 1], end, mCurves[id], localX, localY, reach);
+                        }
+                    }
+                    if (hit == HIT || hit == NEAR && hits(mStrokes.get(id), x, y, reach)) {
+                        mSeen[id] = mQuery;
+                        count = addResult(count, id);
+                    }
+                }
+            }
+        }
+        Arrays.sort(mResults, 0, count);
+        return count;
+    }
+
+    // find the strokes that may cover part of the box, return how many there are.
+    // getResult() has their ids, oldest first.
+    public int queryBox(float left, float top, float right, float bottom) {
+        ++mQuery;
+        int count = 0;
+        for (int cy = cell(top); cy <= cell(bottom); ++cy) {
+            for (int cx = cell(left); cx <= cell(right); ++cx) {
+                int slot = find(cx, cy, false);
+                if (slot < 0) continue;
+
+                int[] runs = mRuns[slot];
+                for (int r = 0; r < mRunLengths[slot]; r += RUN) {
+                    int id = runs[r] < 0 ? ~runs[r] : runs[r];
+                    if (mSeen[id] == mQuery) continue;
+                    mSeen[id] = mQuery;
+                    int b = id * 4;
+                    if (mBounds[b] <= right && mBounds[b + 1] <= bottom
+                            && mBounds[b + 2] >= left && mBounds[b + 3] >= top) {
+                        count = addResult(count, id);
+                    }
+                }
+            }
+        }
+        Arrays.sort(mResults, 0, count);
+        return count;
+    }
+
+    // id of the i-th stroke found by the last query
+    public int getResult(int i) {
+        return mResults[i];
+    }
+
+    private int addResult(int count, int id) {
+        if (count == mResults.length) mResults = Arrays.copyOf(mResults, count * 2);
+        mResults[count] = id;
+        return count + 1;
+    }
+
+    // ---- segments ----
+
+    // a stroke's segments: lines between its points, or its cubic curves and the line
+    // after the last one if it doesn't end on a whole curve
+    private static int segmentCount(Stroke stroke) {
+        int count = stroke.isCurves() ? (stroke.getPointCount() + 1) / 3 : stroke.getPointCount() - 1;
+        return Math.max(1, count); // a lone point is one empty segment
+    }
+
+    // the index of the segment's first point, and its last
+    private static int firstPoint(Stroke stroke, int segment) {
+        return stroke.isCurves() ? segment * 3 : segment;
+    }
+
+    private static int lastPoint(Stroke stroke, int segment) {
+        int last = stroke.isCurves() ? segment * 3 + 3 : segment + 1;
+        return Math.min(last, stroke.getPointCount() - 1);
+    }
+
+    // box around the segment's points (a curve stays inside the box around its control
+    // points, and a smoothed line inside the box around the points), grown by what it covers
+    private static void segmentBounds(Stroke stroke, int segment, float[] box) {
+        int first = firstPoint(stroke, segment);
+        int last = lastPoint(stroke, segment);
+        float left = stroke.getX(first), top = stroke.getY(first), right = left, bottom = top;
+        for (int i = first + 1; i <= last; ++i) {
+            left = Math.min(left, stroke.getX(i));
+            top = Math.min(top, stroke.getY(i));
+            right = Math.max(right, stroke.getX(i));
+            bottom = Math.max(bottom, stroke.getY(i));
+        }
+        float pad = stroke.getWidth() / 2 + 1;
+        box[0] = left - pad;
+        box[1] = top - pad;
+        box[2] = right + pad;
+        box[3] = bottom + pad;
+    }
+
+    // whether any segment of the stroke passes within reach of (x, y)
+    private static boolean hits(Stroke stroke, float x, float y, float reach) {
+        float reachSquared = reach * reach;
+        int segments = segmentCount(stroke);
+        for (int segment = 0; segment < segments; ++segment) {
+            int p = firstPoint(stroke, segment);
+            int q = lastPoint(stroke, segment);
+
+            if (stroke.isCurves() && q == p + 3) {
+                // follow the curve in short lines
+                float startX = stroke.getX(p), startY = stroke.getY(p);
+                for (int step = 1; step <= CURVE_STEPS; ++step) {
+                    float t = (float) step / CURVE_STEPS, u = 1 - t;
+                    float b0 = u * u * u, b1 = 3 * t * u * u, b2 = 3 * t * t * u, b3 = t * t * t;
+                    float endX = b0 * stroke.getX(p) + b1 * stroke.getX(p + 1) + b2 * stroke.getX(p + 2) + b3 * stroke.getX(p + 3);
+                    float endY = b0 * stroke.getY(p) + b1 * stroke.getY(p + 1) + b2 * stroke.getY(p + 2) + b3 * stroke.getY(p + 3);
+                    if (distanceSquared(x, y, startX, startY, endX, endY) <= reachSquared) return true;
+                    startX = endX;
+                    startY = endY;
+                }
+            } else {
+                if (distanceSquared(x, y, stroke.getX(p), stroke.getY(p), stroke.getX(q), stroke.getY(q))
+                        <= reachSquared) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // whether the line through the copied points start to end (x, y pairs, in the cell's
+    // units) passes within reach px of (x, y): HIT, MISS, or NEAR if it's too close to tell.
+    // the same lines as the stroke's (see hits(Stroke, ...)).
+    private static int hits(short[] points, int start, int end, boolean curves, float x, float y, float reach) {
+        float inside = Math.max(0, reach - SLACK) * SCALE, outside = (reach + SLACK) * SCALE;
+        float insideSquared = inside * inside, outsideSquared = outside * outside;
+        if (end - start == 2) {
+            // a lone point
+            float d = distanceSquared(x, y, points[start], points[start + 1], points[start], points[start + 1]);
+            return d <= insideSquared ? HIT : d <= outsideSquared ? NEAR : MISS;
+        }
+        int result = MISS;
+        int p = start;
+        while (p + 2 < end) {
+            if (curves && p + 6 < end) {
+                float startX = points[p], startY = points[p + 1];
+                for (int step = 1; step <= CURVE_STEPS; ++step) {
+                    float t = (float) step / CURVE_STEPS, u = 1 - t;
+                    float b0 = u * u * u, b1 = 3 * t * u * u, b2 = 3 * t * t * u, b3 = t * t * t;
+                    float endX = b0 * points[p] + b1 * points[p + 2] + b2 * points[p + 4] + b3 * points[p + 6];
+                    float endY = b0 * points[p + 1] + b1 * points[p + 3] + b2 * points[p + 5] + b3 * points[p + 7];
+                    float d = distanceSquared(x, y, startX, startY, endX, endY);
+                    if (d <= insideSquared) return HIT;
+                    if (d <= outsideSquared) result = NEAR;
+                    startX = endX;
+                    startY = endY;
+                }
+                p += 6;
+            } else {
+                // a line, or what's left after the last whole curve as one
+                int q = curves ? end - 2 : p + 2;
+                float d = distanceSquared(x, y, points[p], points[p + 1], points[q], points[q + 1]);
+                if (d <= insideSquared) return HIT;
+                if (d <= outsideSquared) result = NEAR;
+                p = q;
+            }
+        }
+        return result;
+    }
+
+    // squared distance from (x, y) to the line from (x0, y0) to (x1, y1)
+    private static float distanceSquared(float x, float y, float x0, float y0, float x1, float y1) {
+        float dx = x1 - x0, dy = y1 - y0;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = lengthSquared == 0 ? 0 : ((x - x0) * dx + (y - y0) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        float ex = x0 + t * dx - x, ey = y0 + t * dy - y;
+        return ex * ex + ey * ey;
+    }
+
+    // ---- cells ----
+
+    private int cell(float coordinate) {
+        return (int) Math.floor(coordinate / mCellSize);
+    }
+
+    // start a run of stroke id in a cell, its points come next
+    private void addRun(int slot, int id) {
+        int length = mRunLengths[slot];
+        int[] runs = mRuns[slot];
+        if (runs == null) {
+            runs = mRuns[slot] = new int[8];
+        } else if (length == runs.length) {
+            runs = mRuns[slot] = Arrays.copyOf(runs, length * 2);
+        }
+        runs[length] = id;
+        runs[length + 1] = mPointLengths[slot];
+        runs[length + 2] = Short.MAX_VALUE & 0xffff | Short.MAX_VALUE << 16;
+        runs[length + 3] = Short.MIN_VALUE & 0xffff | Short.MIN_VALUE << 16;
+        mRunLengths[slot] = length + RUN;
+    }
+
+    // copy points first to last of stroke to the end of cell (cx, cy), in its last run,
+    // and grow the run's box around them. if one doesn't fit the run is marked to be
+    // tested on the stroke.
+    private void addPoints(int slot, Stroke stroke, int first, int last, int cx, int cy) {
+        int length = mPointLengths[slot];
+        short[] points = mPoints[slot];
+        int needed = length + (last - first + 1) * 2;
+        if (points == null) {
+            points = mPoints[slot] = new short[Math.max(32, needed)];
+        } else if (needed > points.length) {
+            points = mPoints[slot] = Arrays.copyOf(points, Math.max(needed, points.length * 2));
+        }
+
+        int[] runs = mRuns[slot];
+        int run = mRunLengths[slot] - RUN;
+        int left = (short) runs[run + 2], top = runs[run + 2] >> 16;
+        int right = (short) runs[run + 3], bottom = runs[run + 3] >> 16;
+        float originX = cx * mCellSize, originY = cy * mCellSize;
+        boolean fits = true;
+        for (int i = first; i <= last; ++i) {
+            int x = Math.round((stroke.getX(i) - originX) * SCALE);
+            int y = Math.round((stroke.getY(i) - originY) * SCALE);
+            fits &= x == (short) x && y == (short) y;
+            points[length++] = (short) x;
+            points[length++] = (short) y;
+            left = Math.min(left, (short) x);
+            top = Math.min(top, (short) y);
+            right = Math.max(right, (short) x);
+            bottom = Math.max(bottom, (short) y);
+        }
+        mPointLengths[slot] = length;
+
+        runs[run + 2] = left & 0xffff | top << 16;
+        runs[run + 3] = right & 0xffff | bottom << 16;
+        if (!fits && runs[run] >= 0) runs[run] = ~runs[run];
+    }
+
+    // drop all runs of stroke id from a cell, keeping the others (and their points) in order
+    private void removeRuns(int slot, int id) {
+        if (slot < 0) return;
+        int[] runs = mRuns[slot];
+        short[] points = mPoints[slot];
+        int length = mRunLengths[slot];
+        int kept = 0, keptPoints = 0;
+        for (int r = 0; r < length; r += RUN) {
+            int start = runs[r + 1];
+            int end = r + RUN < length ? runs[r + RUN + 1] : mPointLengths[slot];
+            if (runs[r] == id || runs[r] == ~id) continue;
+            System.arraycopy(points, start, points, keptPoints, end - start);
+            runs[kept] = runs[r];
+            runs[kept + 1] = keptPoints;
+            runs[kept + 2] = runs[r + 2];
+            runs[kept + 3] = runs[r + 3];
+            keptPoints += end - start;
+            kept += RUN;
+        }
+        mRunLengths[slot] = kept;
+        mPointLengths[slot] = keptPoints;
+    }
+
+    // slot of cell (cx, cy) in the hash table, or -1 if it isn't there and create is false.
+    // empty cells stay in the table, so slots never move except when it grows.
+    private int find(int cx, int cy, boolean create) {
+        long key = (long) cx << 32 | (cy & 0xffffffffL);
+        int mask = mKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (mKeys[slot] != EMPTY) {
+            if (mKeys[slot] == key) return slot;
+            slot = (slot + 1) & mask;
+        }
+        if (!create) return -1;
+
+        if ((mCellCount + 1) * 2 > mKeys.length) {
+            grow();
+            return find(cx, cy, true);
+        }
+        mKeys[slot] = key;
+        mRunLengths[slot] = 0;
+        mPointLengths[slot] = 0;
+        ++mCellCount;
+        return slot;
+    }
+
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    // double the hash table
+    private void grow() {
+        long[] keys = mKeys;
+        int[][] runs = mRuns;
+        int[] lengths = mRunLengths;
+        short[][] points = mPoints;
+        int[] pointLengths = mPointLengths;
+        mKeys = new long[keys.length * 2];
+        mRuns = new int[keys.length * 2][];
+        mRunLengths = new int[keys.length * 2];
+        mPoints = new short[keys.length * 2][];
+        mPointLengths = new int[keys.length * 2];
+        Arrays.fill(mKeys, EMPTY);
+
+        int mask = mKeys.length - 1;
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] == EMPTY) continue;
+            int slot = hash(keys[i]) & mask;
+            while (mKeys[slot] != EMPTY) slot = (slot + 1) & mask;
+            mKeys[slot] = keys[i];
+            mRuns[slot] = runs[i];
+            mRunLengths[slot] = lengths[i];
+            mPoints[slot] = points[i];
+            mPointLengths[slot] = pointLengths[i];
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.example.lawrence.esketch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * draws strokes into ARGB pixels without android.graphics, so a drawing can be rendered
+ * on a server (thumbnails, exports) and not only on a device.
+ *
+ * A stroke is drawn the way eSketchView draws it with mPaintLine: through its points as
+ * StrokeBuilder.replay() sends them (quadratic curves ending halfway to the next point),
+ * anti-aliased, with round caps, in the stroke's color and width. The curves are cut into
+ * straight pieces within FLATNESS of them (finer than Stamper's), and a pixel is covered by how far its center is from
+ * the nearest piece: fully within half the width, fading out over one pixel at the edge.
+ * Since it's the nearest piece of the whole stroke, the parts of a stroke that overlap
+ * are drawn once, like one path. Lines thinner than a pixel are drawn a pixel wide and
+ * fainter, like Skia's hairlines. Soft strokes (hardness below 1) are drawn hard.
+ *
+ * The picture is split into TILE_SIZE x TILE_SIZE tiles, drawn in parallel on a
+ * ForkJoinPool. A tile gets every stroke that reaches it, in order; tiles don't share
+ * pixels, so they need no locking. (ForkJoinPool is API 21 on Android, this is for servers.)
+ */
+public class StrokeRasterizer {
+
+    public static final int TILE_SIZE = 64;
+
+    // how far (px) the straight pieces may be from the curve
+    public static final float FLATNESS = 0.05f;
+
+    private static final int MAX_PIECES = 256;
+
+    // pieces of a stroke are looked at in runs this long, the runs that don't reach a tile are skipped
+    private static final int RUN = 16;
+
+    // a stroke cut into straight pieces, in pixels
+    private static class Outline {
+        final float[] points; // x, y pairs, a piece goes from each point to the next
+        final int pointCount;
+        final int[] runs; // left, top, right, bottom of the pixels each run of pieces may touch
+        final float reach; // how far from the pieces the ink goes: half the width and the fading pixel
+        final int color;
+        final float alpha; // of the color, 0-1, fainter for hairlines
+        final int left; // pixels the ink may touch
+        final int top;
+        final int right;
+        final int bottom;
+
+        Outline(float[] points, int pointCount, float width, int color) {
+            this.points = points;
+            this.pointCount = pointCount;
+            this.reach = Math.max(width, 1) / 2 + 0.5f;
+            this.color = color;
+            this.alpha = (color >>> 24) / 255f * (width > 0 ? Math.min(1, width) : 1);
+
+            runs = new int[(pointCount - 2) / RUN * 4 + 4];
+            for (int run = 0; run < runs.length; run += 4) {
+                // a run's pieces go from its first point to the first point of the next run
+                int first = run / 4 * RUN;
+                int last = Math.min(pointCount - 1, first + RUN);
+                float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+                float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+                for (int i = first * 2; i <= last * 2; i += 2) {
+                    minX = Math.min(minX, points[i]);
+                    maxX = Math.max(maxX, points[i]);
+                    minY = Math.min(minY, points[i + 1]);
+                    maxY = Math.max(maxY, points[i + 1]);
+                }
+                runs[run] = (int) Math.floor(minX - reach);
+                runs[run + 1] = (int) Math.floor(minY - reach);
+                runs[run + 2] = (int) Math.ceil(maxX + reach);
+                runs[run + 3] = (int) Math.ceil(maxY + reach);
+            }
+
+            int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+            int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+            for (int run = 0; run < runs.length; run += 4) {
+                left = Math.min(left, runs[run]);
+                top = Math.min(top, runs[run + 1]);
+                right = Math.max(right, runs[run + 2]);
+                bottom = Math.max(bottom, runs[run + 3]);
+            }
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+    }
+
+    private final ForkJoinPool mPool;
+
+    public StrokeRasterizer(ForkJoinPool pool) {
+        mPool = pool;
+    }
+
+    // a width x height picture of the strokes scaled by scale, on background
+    public int[] render(List<Stroke> strokes, int width, int height, float scale, int background) {
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, background);
+        draw(strokes, pixels, width, height, scale);
+        return pixels;
+    }
+
+    // draw the strokes scaled by scale on top of pixels (width x height, ARGB like
+    // Bitmap.getPixels() gives them). returns when all the tiles are done.
+    public void draw(List<Stroke> strokes, int[] pixels, int width, int height, float scale) {
+        List<Outline> outlines = new ArrayList<>(strokes.size());
+        for (Stroke stroke : strokes) {
+            Outline outline = outline(stroke, scale);
+            if (outline != null) outlines.add(outline);
+        }
+
+        int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int tiles = columns * ((height + TILE_SIZE - 1) / TILE_SIZE);
+        if (tiles == 0 || outlines.isEmpty()) return;
+        // a few tasks per thread, so a thread that drew blank tiles can take over others
+        int tilesPerTask = Math.max(1, tiles / (mPool.getParallelism() * 4));
+        mPool.invoke(new TileTask(outlines, pixels, width, height, columns, 0, tiles, tilesPerTask));
+    }
+
+    // null if the stroke draws nothing (only a start, like a path that is only a moveTo)
+    private static Outline outline(Stroke stroke, final float scale) {
+        if (stroke.getPointCount() < 2) return null;
+
+        final float[][] points = {new float[stroke.getPointCount() * 4]};
+        final int[] count = {0};
+        StrokeBuilder.replay(stroke, new SegmentSink() {
+            private float mX;
+            private float mY;
+
+            @Override
+            public void moveTo(int pointer, float x, float y) {
+                lineTo(x, y);
+            }
+
+            @Override
+            public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+                float ddx = mX - 2 * controlX + endX;
+                float ddy = mY - 2 * controlY + endY;
+                int pieces = pieces((float) Math.sqrt(ddx * ddx + ddy * ddy) * scale / 4);
+                float startX = mX, startY = mY;
+                for (int i = 1; i <= pieces; ++i) {
+                    float t = (float) i / pieces;
+                    float u = 1 - t;
+                    lineTo(u * u * startX + 2 * u * t * controlX + t * t * endX,
+                            u * u * startY + 2 * u * t * controlY + t * t * endY);
+                }
+            }
+
+            @Override
+            public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                                float endX, float endY) {
+                float ddx1 = mX - 2 * control1X + control2X;
+                float ddy1 = mY - 2 * control1Y + control2Y;
+                float ddx2 = control1X - 2 * control2X + endX;
+                float ddy2 = control1Y - 2 * control2Y + endY;
+                float bend = (float) Math.sqrt(Math.max(ddx1 * ddx1 + ddy1 * ddy1, ddx2 * ddx2 + ddy2 * ddy2));
+                int pieces = pieces(bend * scale * 3 / 4);
+                float startX = mX, startY = mY;
+                for (int i = 1; i <= pieces; ++i) {
+                    float t = (float) i / pieces;
+                    float u = 1 - t;
+                    float a = u * u * u, b = 3 * u * u * t, c = 3 * u * t * t, d = t * t * t;
+                    lineTo(a * startX + b * control1X + c * control2X + d * endX,
+                            a * startY + b * control1Y + c * control2Y + d * endY);
+                }
+            }
+
+            // add a point (in stroke coordinates) to the outline
+            private void lineTo(float x, float y) {
+                mX = x;
+                mY = y;
+                if (count[0] * 2 == points[0].length) points[0] = Arrays.copyOf(points[0], points[0].length * 2);
+                points[0][count[0] * 2] = x * scale;
+                points[0][count[0] * 2 + 1] = y * scale;
+                ++count[0];
+            }
+        });
+        return new Outline(points[0], count[0], stroke.getWidth() * scale, stroke.getColor());
+    }
+
+    // Wang's formula, like Stamper's
+    private static int pieces(float bend) {
+        int pieces = (int) Math.ceil(Math.sqrt(bend / FLATNESS));
+        return Math.max(1, Math.min(MAX_PIECES, pieces));
+    }
+
+    /**
+     * draws a range of tiles, splitting it in halves for other threads while it's big.
+     */
+    private static class TileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Outline> mOutlines;
+        private final int[] mPixels;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mColumns;
+        private final int mFrom; // tiles, row by row
+        private final int mTo;
+        private final int mTilesPerTask;
+        // where each row of the tile the stroke being drawn covered starts and ends
+        private final int[] mRowLefts = new int[TILE_SIZE];
+        private final int[] mRowRights = new int[TILE_SIZE];
+
+        TileTask(List<Outline> outlines, int[] pixels, int width, int height, int columns,
+                 int from, int to, int tilesPerTask) {
+            mOutlines = outlines;
+            mPixels = pixels;
+            mWidth = width;
+            mHeight = height;
+            mColumns = columns;
+            mFrom = from;
+            mTo = to;
+            mTilesPerTask = tilesPerTask;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom > mTilesPerTask) {
+                int middle = (mFrom + mTo) >>> 1;
+                invokeAll(new TileTask(mOutlines, mPixels, mWidth, mHeight, mColumns, mFrom, middle, mTilesPerTask),
+                        new TileTask(mOutlines, mPixels, mWidth, mHeight, mColumns, middle, mTo, mTilesPerTask));
+                return;
+            }
+
+            float[] coverage = new float[TILE_SIZE * TILE_SIZE]; // of the stroke being drawn, 0-1
+            Arrays.fill(mRowLefts, TILE_SIZE);
+            for (int tile = mFrom; tile < mTo; ++tile) {
+                int left = (tile % mColumns) * TILE_SIZE;
+                int top = (tile / mColumns) * TILE_SIZE;
+                drawTile(left, top, Math.min(mWidth, left + TILE_SIZE), Math.min(mHeight, top + TILE_SIZE), coverage);
+            }
+        }
+
+        private void drawTile(int left, int top, int right, int bottom, float[] coverage) {
+            for (int o = 0; o < mOutlines.size(); ++o) {
+                Outline outline = mOutlines.get(o);
+                if (outline.right <= left || outline.left >= right
+                        || outline.bottom <= top || outline.top >= bottom) continue;
+
+                int[] runs = outline.runs;
+                for (int run = 0; run < runs.length; run += 4) {
+                    if (runs[run + 2] <= left || runs[run] >= right
+                            || runs[run + 3] <= top || runs[run + 1] >= bottom) continue;
+                    int first = run / 4 * RUN;
+                    coverRun(outline, first, Math.min(outline.pointCount - 1, first + RUN),
+                            left, top, right, bottom, coverage);
+                }
+
+                for (int y = 0; y < TILE_SIZE; ++y) {
+                    int row = y * TILE_SIZE;
+                    int pixelRow = (top + y) * mWidth + left;
+                    for (int x = mRowLefts[y]; x < mRowRights[y]; ++x) {
+                        float covered = coverage[row + x];
+                        if (covered == 0) continue;
+                        coverage[row + x] = 0;
+                        mPixels[pixelRow + x] = blend(mPixels[pixelRow + x], outline.color, covered * outline.alpha);
+                    }
+                    mRowLefts[y] = TILE_SIZE;
+                    mRowRights[y] = 0;
+                }
+            }
+        }
+
+        // cover the tile with the pieces from point first to point last
+        private void coverRun(Outline outline, int first, int last,
+                              int left, int top, int right, int bottom, float[] coverage) {
+            float[] points = outline.points;
+            float reach = outline.reach;
+            for (int i = first * 2 + 2; i <= last * 2; i += 2) {
+                float x0 = points[i - 2], y0 = points[i - 1], x1 = points[i], y1 = points[i + 1];
+                int pieceLeft = Math.max(left, (int) Math.floor(Math.min(x0, x1) - reach));
+                int pieceTop = Math.max(top, (int) Math.floor(Math.min(y0, y1) - reach));
+                int pieceRight = Math.min(right, (int) Math.ceil(Math.max(x0, x1) + reach));
+                int pieceBottom = Math.min(bottom, (int) Math.ceil(Math.max(y0, y1) + reach));
+                if (pieceLeft >= pieceRight || pieceTop >= pieceBottom) continue;
+
+                cover(x0, y0, x1, y1, reach, pieceLeft - left, pieceTop - top,
+                        pieceRight - left, pieceBottom - top, left, top, coverage, mRowLefts, mRowRights);
+            }
+        }
+    }
+
+    // how much of each pixel in the box (tile coordinates) the piece from (x0, y0) to
+    // (x1, y1) covers, kept in coverage if it's more than what other pieces covered.
+    // rowLefts and rowRights grow to the part of each row it went through.
+    private static void cover(float x0, float y0, float x1, float y1, float reach,
+                              int left, int top, int right, int bottom, int tileLeft, int tileTop,
+                              float[] coverage, int[] rowLefts, int[] rowRights) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float lengthSquared = dx * dx + dy * dy;
+        float toT = lengthSquared == 0 ? 0 : 1 / lengthSquared;
+        float outside = reach * reach;
+        float inside = reach > 1 ? (reach - 1) * (reach - 1) : -1;
+
+        for (int y = top; y < bottom; ++y) {
+            float centerY = tileTop + y + 0.5f - y0;
+
+            // only the part of the piece less than reach above or below the row can
+            // reach its pixels, so only go along the row as far as that part goes
+            float from = Math.min(0, dx), to = Math.max(0, dx);
+            if (dy != 0) {
+                float t0 = Math.max(0, Math.min((centerY - reach) / dy, (centerY + reach) / dy));
+                float t1 = Math.min(1, Math.max((centerY - reach) / dy, (centerY + reach) / dy));
+                if (t0 > t1) continue;
+                from = Math.min(t0 * dx, t1 * dx);
+                to = Math.max(t0 * dx, t1 * dx);
+            }
+            int rowLeft = Math.max(left, (int) Math.floor(x0 + from - reach) - tileLeft);
+            int rowRight = Math.min(right, (int) Math.ceil(x0 + to + reach) - tileLeft);
+            if (rowLeft >= rowRight) continue;
+            if (rowLeft < rowLefts[y]) rowLefts[y] = rowLeft;
+            if (rowRight > rowRights[y]) rowRights[y] = rowRight;
+
+            int row = y * TILE_SIZE;
+            for (int x = rowLeft; x < rowRight; ++x) {
+                float before = coverage[row + x];
+                if (before == 1) continue; // another piece covers all of it
+                float centerX = tileLeft + x + 0.5f - x0;
+                // nearest point of the piece to the pixel's center
+                float t = (centerX * dx + centerY * dy) * toT;
+                if (t < 0) t = 0;
+                else if (t > 1) t = 1;
+                float ex = centerX - t * dx;
+                float ey = centerY - t * dy;
+                float distanceSquared = ex * ex + ey * ey;
+                if (distanceSquared >= outside) continue;
+
+                float covered = distanceSquared <= inside ? 1 : Math.min(1, reach - (float) Math.sqrt(distanceSquared));
+                if (covered > before) coverage[row + x] = covered;
+            }
+        }
+    }
+
+    // color (its alpha replaced with alpha, 0-1) drawn over pixel, neither premultiplied
+    static int blend(int pixel, int color, float alpha) {
+        int pixelAlpha = pixel >>> 24;
+        if (pixelAlpha == 255) {
+            // the usual case, an opaque picture
+            return 0xFF000000
+                    | mix((pixel >> 16) & 0xFF, (color >> 16) & 0xFF, alpha) << 16
+                    | mix((pixel >> 8) & 0xFF, (color >> 8) & 0xFF, alpha) << 8
+                    | mix(pixel & 0xFF, color & 0xFF, alpha);
+        }
+
+        float under = pixelAlpha / 255f * (1 - alpha); // how much of the pixel shows through
+        float a = alpha + under;
+        if (a <= 0) return pixel;
+        float colorShare = alpha / a;
+        return Math.round(a * 255) << 24
+                | mix((pixel >> 16) & 0xFF, (color >> 16) & 0xFF, colorShare) << 16
+                | mix((pixel >> 8) & 0xFF, (color >> 8) & 0xFF, colorShare) << 8
+                | mix(pixel & 0xFF, color & 0xFF, colorShare);
+    }
+
+    private static int mix(int from, int to, float amount) {
+        return (int) (from + (to - from) * amount + 0.5f);
+    }
+}
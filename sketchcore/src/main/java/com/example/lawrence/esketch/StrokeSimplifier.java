@@ -0,0 +1,296 @@
+package com.example.lawrence.esketch;
+
+/**
+ * fits the points of one finger with as few cubic curves as it can, while it draws.
+ *
+ * Points go into a window that starts where the last curve ended. After each point,
+ * one cubic is fitted through the whole window (least squares, like Schneider's curve
+ * fitting in Graphics Gems). While it passes within the tolerance of every point, the
+ * window keeps growing. When it doesn't, the previous fit (without the new point) is
+ * sent to the sink and a new window starts at its end. A window never holds more than
+ * WINDOW points, so a curve is sent at most WINDOW points after it started.
+ *
+ * Each curve starts in the direction the last one ended, so the joins are smooth.
+ * The current fit of the window can be drawn with pending() until it is sent.
+ * Doesn't allocate after construction.
+ */
+public class StrokeSimplifier {
+
+    public static final int WINDOW = 32;
+
+    private final float[] mXs = new float[WINDOW];
+    private final float[] mYs = new float[WINDOW];
+    private final float[] mParams = new float[WINDOW]; // where on the curve each point should be
+    private int mCount;
+    private int mPointer;
+
+    private float mToleranceSquared;
+    private SegmentSink mSink;
+
+    // direction the window's curve has to start in, (0, 0) for the first curve
+    private float mTangentX;
+    private float mTangentY;
+
+    // the best fit of the window so far, from its first point to its last
+    private float mC1X, mC1Y, mC2X, mC2Y;
+
+    // the last fit() result
+    private float mFitC1X, mFitC1Y, mFitC2X, mFitC2Y;
+
+    private int mCurves; // curves sent since begin()
+
+    // start fitting a stroke at (x, y), curves go to sink as pointer's
+    public void begin(int pointer, float x, float y, float tolerance, SegmentSink sink) {
+        mPointer = pointer;
+        mToleranceSquared = tolerance * tolerance;
+        mSink = sink;
+        mTangentX = 0;
+        mTangentY = 0;
+        mCurves = 0;
+        mXs[0] = x;
+        mYs[0] = y;
+        mCount = 1;
+    }
+
+    // the next point of the stroke
+    public void add(float x, float y) {
+        if (x == mXs[mCount - 1] && y == mYs[mCount - 1]) return; // adds nothing
+
+        if (mCount == WINDOW) {
+            // the window is full, the curve through it is final
+            send();
+            restart(mCount - 1);
+        }
+        mXs[mCount] = x;
+        mYs[mCount] = y;
+        ++mCount;
+
+        if (fit(mCount)) {
+            keepFit();
+            return;
+        }
+
+        // the curve without the new point was close enough, send that one
+        --mCount;
+        send();
+        restart(mCount - 1);
+        mXs[1] = x;
+        mYs[1] = y;
+        mCount = 2;
+        fit(mCount); // 2 points always fit
+        keepFit();
+    }
+
+    // the stroke ended, send the rest of it
+    public void finish() {
+        if (mCount >= 2) send();
+        mCount = 0;
+    }
+
+    // return how many curves were sent since begin()
+    public int getCurveCount() {
+        return mCurves;
+    }
+
+    // return whether there is a fit that wasn't sent yet
+    public boolean hasPending() {
+        return mCount >= 2;
+    }
+
+    // send the current fit of the window (not final yet) to sink, for drawing
+    public void pending(int pointer, SegmentSink sink) {
+        if (mCount < 2) return;
+        sink.moveTo(pointer, mXs[0], mYs[0]);
+        sink.cubicTo(pointer, mC1X, mC1Y, mC2X, mC2Y, mXs[mCount - 1], mYs[mCount - 1]);
+    }
+
+    // box around the window's points and the pending curve, as left, top, right, bottom
+    public void getPendingBounds(float[] bounds) {
+        float left = mXs[0], top = mYs[0], right = left, bottom = top;
+        for (int i = 1; i < mCount; ++i) {
+            left = Math.min(left, mXs[i]);
+            top = Math.min(top, mYs[i]);
+            right = Math.max(right, mXs[i]);
+            bottom = Math.max(bottom, mYs[i]);
+        }
+        if (mCount >= 2) {
+            // the curve stays inside the box around its control points
+            left = Math.min(left, Math.min(mC1X, mC2X));
+            top = Math.min(top, Math.min(mC1Y, mC2Y));
+            right = Math.max(right, Math.max(mC1X, mC2X));
+            bottom = Math.max(bottom, Math.max(mC1Y, mC2Y));
+        }
+        bounds[0] = left;
+        bounds[1] = top;
+        bounds[2] = right;
+        bounds[3] = bottom;
+    }
+
+    private void keepFit() {
+        mC1X = mFitC1X;
+        mC1Y = mFitC1Y;
+        mC2X = mFitC2X;
+        mC2Y = mFitC2Y;
+    }
+
+    // send the kept fit, which ends at the window's last point
+    private void send() {
+        float endX = mXs[mCount - 1];
+        float endY = mYs[mCount - 1];
+        mSink.cubicTo(mPointer, mC1X, mC1Y, mC2X, mC2Y, endX, endY);
+        ++mCurves;
+
+        // the next curve leaves in the direction this one arrived
+        float tx = endX - mC2X;
+        float ty = endY - mC2Y;
+        if (tx == 0 && ty == 0) {
+            tx = endX - mXs[0];
+            ty = endY - mYs[0];
+        }
+        float length = (float) Math.sqrt(tx * tx + ty * ty);
+        mTangentX = length == 0 ? 0 : tx / length;
+        mTangentY = length == 0 ? 0 : ty / length;
+    }
+
+    // start the window at point first, keeping the points after it
+    private void restart(int first) {
+        int count = mCount - first;
+        System.arraycopy(mXs, first, mXs, 0, count);
+        System.arraycopy(mYs, first, mYs, 0, count);
+        mCount = count;
+    }
+
+    // fit a cubic through the first count points of the window into mFit*,
+    // return whether it's within the tolerance of all of them
+    private boolean fit(int count) {
+        float x0 = mXs[0], y0 = mYs[0];
+        float x3 = mXs[count - 1], y3 = mYs[count - 1];
+
+        // tangents at both ends: the start one is fixed after the first curve,
+        // the end one points back along the last points
+        float t1x = mTangentX, t1y = mTangentY;
+        if (t1x == 0 && t1y == 0) {
+            t1x = mXs[1] - x0;
+            t1y = mYs[1] - y0;
+        }
+        float length = (float) Math.sqrt(t1x * t1x + t1y * t1y);
+        if (length == 0) return false; // a repeated point, keep the last fit
+        t1x /= length;
+        t1y /= length;
+        float t2x = mXs[count - 2] - x3;
+        float t2y = mYs[count - 2] - y3;
+        length = (float) Math.sqrt(t2x * t2x + t2y * t2y);
+        if (length == 0) return false;
+        t2x /= length;
+        t2y /= length;
+
+        chordLengthParams(count);
+        solve(count, t1x, t1y, t2x, t2y);
+        float error = maxError(count);
+        if (error <= mToleranceSquared) return true;
+
+        // a close miss often fits after moving each point to the nearest spot on the curve
+        if (error < 4 * mToleranceSquared) {
+            reparameterize(count);
+            solve(count, t1x, t1y, t2x, t2y);
+            return maxError(count) <= mToleranceSquared;
+        }
+        return false;
+    }
+
+    // place the points on the curve by the distance along the polyline
+    private void chordLengthParams(int count) {
+        mParams[0] = 0;
+        for (int i = 1; i < count; ++i) {
+            float dx = mXs[i] - mXs[i - 1];
+            float dy = mYs[i] - mYs[i - 1];
+            mParams[i] = mParams[i - 1] + (float) Math.sqrt(dx * dx + dy * dy);
+        }
+        float total = mParams[count - 1];
+        for (int i = 1; i < count; ++i) {
+            mParams[i] /= total;
+        }
+    }
+
+    // least squares distances of the control points from the ends along the tangents
+    private void solve(int count, float t1x, float t1y, float t2x, float t2y) {
+        float x0 = mXs[0], y0 = mYs[0];
+        float x3 = mXs[count - 1], y3 = mYs[count - 1];
+
+        double c00 = 0, c01 = 0, c11 = 0, r0 = 0, r1 = 0;
+        for (int i = 0; i < count; ++i) {
+            float u = mParams[i];
+            float v = 1 - u;
+            float b0 = v * v * v, b1 = 3 * u * v * v, b2 = 3 * u * u * v, b3 = u * u * u;
+            float a1x = t1x * b1, a1y = t1y * b1;
+            float a2x = t2x * b2, a2y = t2y * b2;
+            c00 += a1x * a1x + a1y * a1y;
+            c01 += a1x * a2x + a1y * a2y;
+            c11 += a2x * a2x + a2y * a2y;
+            float restX = mXs[i] - (x0 * (b0 + b1) + x3 * (b2 + b3));
+            float restY = mYs[i] - (y0 * (b0 + b1) + y3 * (b2 + b3));
+            r0 += a1x * restX + a1y * restY;
+            r1 += a2x * restX + a2y * restY;
+        }
+
+        float dx = x3 - x0, dy = y3 - y0;
+        float chord = (float) Math.sqrt(dx * dx + dy * dy);
+        double det = c00 * c11 - c01 * c01;
+        float alpha1 = 0, alpha2 = 0;
+        if (Math.abs(det) > 1e-12) {
+            alpha1 = (float) ((r0 * c11 - r1 * c01) / det);
+            alpha2 = (float) ((c00 * r1 - c01 * r0) / det);
+        }
+
+        // nonsense (or too few points to say): use a third of the chord, as for a straight line
+        float minimum = 1e-3f * chord;
+        if (alpha1 < minimum || alpha2 < minimum) {
+            alpha1 = chord / 3;
+            alpha2 = chord / 3;
+        }
+        mFitC1X = x0 + t1x * alpha1;
+        mFitC1Y = y0 + t1y * alpha1;
+        mFitC2X = x3 + t2x * alpha2;
+        mFitC2Y = y3 + t2y * alpha2;
+    }
+
+    // largest squared distance from a point to where the curve is at its parameter
+    private float maxError(int count) {
+        float x0 = mXs[0], y0 = mYs[0];
+        float x3 = mXs[count - 1], y3 = mYs[count - 1];
+        float max = 0;
+        for (int i = 1; i < count - 1; ++i) {
+            float u = mParams[i];
+            float v = 1 - u;
+            float b0 = v * v * v, b1 = 3 * u * v * v, b2 = 3 * u * u * v, b3 = u * u * u;
+            float dx = b0 * x0 + b1 * mFitC1X + b2 * mFitC2X + b3 * x3 - mXs[i];
+            float dy = b0 * y0 + b1 * mFitC1Y + b2 * mFitC2Y + b3 * y3 - mYs[i];
+            max = Math.max(max, dx * dx + dy * dy);
+        }
+        return max;
+    }
+
+    // one Newton-Raphson step towards the closest spot on the curve for each point
+    private void reparameterize(int count) {
+        float x0 = mXs[0], y0 = mYs[0];
+        float x3 = mXs[count - 1], y3 = mYs[count - 1];
+        for (int i = 1; i < count - 1; ++i) {
+            float u = mParams[i];
+            float v = 1 - u;
+
+            // the curve, its first and second derivative at u
+            float qx = v * v * v * x0 + 3 * u * v * v * mFitC1X + 3 * u * u * v * mFitC2X + u * u * u * x3;
+            float qy = v * v * v * y0 + 3 * u * v * v * mFitC1Y + 3 * u * u * v * mFitC2Y + u * u * u * y3;
+            float d1x = 3 * (v * v * (mFitC1X - x0) + 2 * u * v * (mFitC2X - mFitC1X) + u * u * (x3 - mFitC2X));
+            float d1y = 3 * (v * v * (mFitC1Y - y0) + 2 * u * v * (mFitC2Y - mFitC1Y) + u * u * (y3 - mFitC2Y));
+            float d2x = 6 * (v * (mFitC2X - 2 * mFitC1X + x0) + u * (x3 - 2 * mFitC2X + mFitC1X));
+            float d2y = 6 * (v * (mFitC2Y - 2 * mFitC1Y + y0) + u * (y3 - 2 * mFitC2Y + mFitC1Y));
+
+            float ex = qx - mXs[i], ey = qy - mYs[i];
+            float denominator = d1x * d1x + d1y * d1y + ex * d2x + ey * d2y;
+            if (denominator == 0) continue;
+            float next = u - (ex * d1x + ey * d1y) / denominator;
+            mParams[i] = Math.max(0, Math.min(1, next));
+        }
+    }
+}
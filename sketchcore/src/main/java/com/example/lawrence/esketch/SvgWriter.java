@@ -0,0 +1,116 @@
+package com.example.lawrence.esketch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * writes a drawing as an SVG file, each stroke a path element.
+ */
+public class SvgWriter extends VectorWriter {
+
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final OutputStream mOut;
+
+    // a width x height (pixels) drawing
+    public SvgWriter(OutputStream out, int width, int height) throws IOException {
+        super(out, width, height);
+        mOut = out;
+
+        print("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        print("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" width=\"");
+        print(width);
+        print("\" height=\"");
+        print(height);
+        print("\" viewBox=\"0 0 ");
+        print(width);
+        print(' ');
+        print(height);
+        print("\">\n<rect width=\"100%\" height=\"100%\" fill=\"#fff\"/>\n");
+        print("<g fill=\"none\" stroke-linecap=\"round\">\n");
+    }
+
+    @Override
+    public void image(byte[] jpeg, int width, int height) throws IOException {
+        print("<image width=\"");
+        print(width);
+        print("\" height=\"");
+        print(height);
+        print("\" xlink:href=\"data:image/jpeg;base64,");
+        for (int i = 0; i < jpeg.length; i += 3) {
+            int bits = (jpeg[i] & 0xff) << 16;
+            if (i + 1 < jpeg.length) bits |= (jpeg[i + 1] & 0xff) << 8;
+            if (i + 2 < jpeg.length) bits |= jpeg[i + 2] & 0xff;
+            print(BASE64[bits >> 18 & 63]);
+            print(BASE64[bits >> 12 & 63]);
+            print(i + 1 < jpeg.length ? BASE64[bits >> 6 & 63] : '=');
+            print(i + 2 < jpeg.length ? BASE64[bits & 63] : '=');
+        }
+        print("\"/>\n");
+    }
+
+    @Override
+    public void write(Stroke stroke) throws IOException {
+        int color = stroke.getColor();
+        print("<path stroke=\"#");
+        for (int shift = 20; shift >= 0; shift -= 4) {
+            print(HEX[color >> shift & 0xf]);
+        }
+        int alpha = color >>> 24;
+        if (alpha != 255) {
+            print("\" stroke-opacity=\"");
+            print(alpha / 255f);
+        }
+        print("\" stroke-width=\"");
+        print(stroke.getWidth());
+        print("\" d=\"");
+        writePath(stroke);
+        print("\"/>\n");
+    }
+
+    @Override
+    public void finish() throws IOException {
+        print("</g>\n</svg>\n");
+        flushBuffer();
+        mOut.flush();
+    }
+
+    @Override
+    protected void moveTo(float x, float y) throws IOException {
+        print('M');
+        print(x);
+        print(' ');
+        print(y);
+    }
+
+    @Override
+    protected void quadTo(float controlX, float controlY, float endX, float endY) throws IOException {
+        print('Q');
+        print(controlX);
+        print(' ');
+        print(controlY);
+        print(' ');
+        print(endX);
+        print(' ');
+        print(endY);
+    }
+
+    @Override
+    protected void cubicTo(float control1X, float control1Y, float control2X, float control2Y,
+                           float endX, float endY) throws IOException {
+        print('C');
+        print(control1X);
+        print(' ');
+        print(control1Y);
+        print(' ');
+        print(control2X);
+        print(' ');
+        print(control2Y);
+        print(' ');
+        print(endX);
+        print(' ');
+        print(endY);
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.lawrence.esketch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * a peer's connection to a SyncServer: sends the batches of a SyncSession and hands
+ * over the frames the server sends.
+ *
+ * Connecting, reading and writing all happen on threads of the client's own, so none of
+ * its methods block. The listener is called on the reading thread.
+ */
+public class SyncClient {
+
+    /**
+     * told what the server sends, on the client's reading thread.
+     */
+    public interface Listener {
+        // connected, the server gave this peer an id
+        void onJoined(int peer);
+
+        // a batch peer sent, in the server's order
+        void onBatch(int peer, byte[] batch);
+
+        // the connection is gone, e is null if close() was called
+        void onClosed(IOException e);
+    }
+
+    private static final int CONNECT_TIMEOUT = 10000; // ms
+    private static final byte[] CLOSE = new byte[0]; // tells the writer to stop
+
+    private final Listener mListener;
+    private final LinkedBlockingQueue<byte[]> mOutgoing = new LinkedBlockingQueue<>();
+    private volatile Socket mSocket;
+    private volatile boolean mClosed;
+
+    public SyncClient(Listener listener) {
+        mListener = listener;
+    }
+
+    // connect to the server at host:port, the listener is told when it's done
+    public void connect(final String host, final int port) {
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read(host, port);
+            }
+        }, "SyncClient read");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    // send a batch, after the ones sent before it
+    public void send(byte[] batch) {
+        if (batch.length > SyncServer.MAX_BATCH) throw new IllegalArgumentException("batch too big");
+        byte[] frame = new byte[batch.length + 8];
+        SyncServer.writeInt(frame, 0, batch.length + 4);
+        System.arraycopy(batch, 0, frame, 8, batch.length);
+        mOutgoing.add(frame);
+    }
+
+    // leave the drawing
+    public void close() {
+        mClosed = true;
+        mOutgoing.add(CLOSE);
+        Socket socket = mSocket;
+        if (socket != null) SyncServer.closeQuietly(socket);
+    }
+
+    private void read(String host, int port) {
+        IOException error = null;
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            mSocket = socket;
+            if (mClosed) return;
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            int peer = in.readInt();
+            startWriter(socket);
+            mListener.onJoined(peer);
+
+            while (!mClosed) {
+                int length = in.readInt();
+                if (length < 4 || length > SyncServer.MAX_BATCH + 4) throw new IOException("bad frame length " + length);
+                int sender = in.readInt();
+                byte[] batch = new byte[length - 4];
+                in.readFully(batch);
+                mListener.onBatch(sender, batch);
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            SyncServer.closeQuietly(socket);
+            mOutgoing.add(CLOSE);
+            mListener.onClosed(mClosed ? null : error);
+        }
+    }
+
+    private void startWriter(final Socket socket) {
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    while (true) {
+                        byte[] frame = mOutgoing.take();
+                        if (frame == CLOSE) return;
+                        out.write(frame);
+                        if (mOutgoing.isEmpty()) out.flush();
+                    }
+                } catch (IOException | InterruptedException e) {
+                    SyncServer.closeQuietly(socket); // the reader tells the listener
+                }
+            }
+        }, "SyncClient write");
+        writer.setDaemon(true);
+        writer.start();
+    }
+}
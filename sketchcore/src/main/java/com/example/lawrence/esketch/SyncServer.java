@@ -0,0 +1,205 @@
+package com.example.lawrence.esketch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * a small server that puts the batches of every peer of a shared drawing in one order
+ * and sends them all to every peer, the sender included (see SyncSession).
+ *
+ * Peers connect over TCP. The server first writes the peer's id (4 bytes), then every
+ * frame it has sent so far, so a peer that joins late draws the drawing up to now, then
+ * the frames as they come. A frame is its length (4 bytes), the sending peer's id
+ * (4 bytes) and the batch. Peers send their batches as frames too, with any id.
+ *
+ * Each peer has a thread reading its frames and one writing to it, so a slow peer only
+ * holds itself up. Meant for a few devices on a local network, or peers in the same
+ * process for testing: every frame is kept for peers that join later.
+ */
+public class SyncServer {
+
+    // the biggest batch a peer may send
+    public static final int MAX_BATCH = 1 << 20;
+
+    private static final byte[] CLOSE = new byte[0]; // tells a writer to stop
+
+    private final ServerSocket mServerSocket;
+    private final List<byte[]> mLog = new ArrayList<>(); // every frame sent, in order
+    private final List<Peer> mPeers = new ArrayList<>();
+    private int mNextPeer = 1;
+    private volatile boolean mClosed;
+
+    private class Peer {
+        final int id;
+        final Socket socket;
+        final LinkedBlockingQueue<byte[]> outgoing = new LinkedBlockingQueue<>();
+
+        Peer(int id, Socket socket) {
+            this.id = id;
+            this.socket = socket;
+        }
+    }
+
+    // listen on port (0 for any free one) on every address, or only the loopback one
+    public SyncServer(int port, boolean loopbackOnly) throws IOException {
+        mServerSocket = loopbackOnly
+                ? new ServerSocket(port, 50, InetAddress.getByName(null))
+                : new ServerSocket(port);
+    }
+
+    // start taking peers, on a thread of its own
+    public void start() {
+        Thread accepter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "SyncServer");
+        accepter.setDaemon(true);
+        accepter.start();
+    }
+
+    public int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    // peers connected now
+    public int getPeerCount() {
+        synchronized (mLog) {
+            return mPeers.size();
+        }
+    }
+
+    // frames sent so far
+    public int getFrameCount() {
+        synchronized (mLog) {
+            return mLog.size();
+        }
+    }
+
+    // stop taking peers and drop the ones connected
+    public void close() {
+        mClosed = true;
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        synchronized (mLog) {
+            for (Peer peer : mPeers) {
+                closeQuietly(peer.socket);
+            }
+            mPeers.clear();
+        }
+    }
+
+    private void accept() {
+        while (!mClosed) {
+            Socket socket;
+            try {
+                socket = mServerSocket.accept();
+                socket.setTcpNoDelay(true); // batches are small and late ones show
+            } catch (IOException e) {
+                return; // closed
+            }
+
+            final Peer peer;
+            synchronized (mLog) {
+                peer = new Peer(mNextPeer++, socket);
+                // the drawing so far, then the new frames as they are sent
+                peer.outgoing.addAll(mLog);
+                mPeers.add(peer);
+            }
+            startThread(new Runnable() {
+                @Override
+                public void run() {
+                    write(peer);
+                }
+            }, "SyncServer write " + peer.id);
+            startThread(new Runnable() {
+                @Override
+                public void run() {
+                    read(peer);
+                }
+            }, "SyncServer read " + peer.id);
+        }
+    }
+
+    // take a peer's frames and send them to everyone in the order they come
+    private void read(Peer peer) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(peer.socket.getInputStream()));
+            while (true) {
+                int length = in.readInt();
+                if (length < 4 || length > MAX_BATCH + 4) throw new IOException("bad frame length " + length);
+                in.readInt(); // whatever peer id it says, it's this peer
+                byte[] frame = new byte[length + 4];
+                in.readFully(frame, 8, length - 4);
+                writeInt(frame, 0, length);
+                writeInt(frame, 4, peer.id);
+
+                synchronized (mLog) {
+                    mLog.add(frame);
+                    for (Peer other : mPeers) {
+                        other.outgoing.add(frame);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // the peer left, or sent something that isn't a frame
+        } finally {
+            synchronized (mLog) {
+                mPeers.remove(peer);
+            }
+            peer.outgoing.add(CLOSE);
+            closeQuietly(peer.socket);
+        }
+    }
+
+    // send a peer its id, then its frames as they are queued
+    private void write(Peer peer) {
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(peer.socket.getOutputStream()));
+            out.writeInt(peer.id);
+            out.flush();
+            while (true) {
+                byte[] frame = peer.outgoing.take();
+                if (frame == CLOSE) return;
+                out.write(frame);
+                if (peer.outgoing.isEmpty()) out.flush(); // what's queued goes out together
+            }
+        } catch (IOException | InterruptedException e) {
+            closeQuietly(peer.socket);
+        }
+    }
+
+    private static void startThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+}
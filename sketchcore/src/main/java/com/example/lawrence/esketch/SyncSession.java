@@ -0,0 +1,623 @@
+package com.example.lawrence.esketch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * one peer's side of a shared drawing: turns local strokes into batches of operations
+ * to send, and applies the operations every peer sent in the order the server put them.
+ *
+ * A batch is the operations of one frame, each starting with a tag byte:
+ *   BRUSH  4 bytes ARGB color, varint width, hardness byte (0-255), for the strokes after it
+ *   START  pointer byte, first point
+ *   MOVES  pointer byte, varint count, then the points
+ *   END    pointer byte, flags byte. DRAWN if the stroke draws anything (more than one
+ *          point), POINTS if the finished stroke isn't the points that were sent (e.g. it
+ *          was simplified), then a CURVES flag byte, a varint count and its points.
+ *   CLEAR  the drawing was cleared
+ * Coordinates are fixed point like in StrokeEncoder, each point the zigzag varint
+ * difference from the pointer's point before it. The moves of a finger during a frame
+ * go into one MOVES record, so a point takes 2 to 4 bytes instead of 8 for two floats.
+ *
+ * Every peer ends up with the same drawing because strokes and clears are drawn in the
+ * order the server sent them on, and the server sends a peer's own batches back to it too.
+ * A local stroke is drawn right away, then waits for its batch to come back. Remote
+ * operations that the server ordered before local strokes still waiting are drawn under
+ * them: the local strokes are taken back, the remote ones drawn, and the local ones drawn
+ * again on top (see Target). Remote strokes are shown while they are drawn (see
+ * getLiveStrokes()), and only drawn into the drawing by apply(), which waits for the
+ * local fingers to lift.
+ *
+ * Not thread safe, the caller sends the batches and hands over the ones received.
+ */
+public class SyncSession {
+
+    /**
+     * the drawing the operations are applied to.
+     */
+    public interface Target {
+        // take the last count strokes drawn back off the drawing, they're local ones
+        void takeBack(int count);
+
+        // draw a finished stroke on top of the drawing
+        void draw(Stroke stroke);
+
+        // clear the drawing
+        void clear();
+    }
+
+    /**
+     * a stroke another peer is drawing.
+     */
+    public static class RemoteStroke {
+        private final int mColor;
+        private final float mWidth;
+        private final float mHardness;
+        private float[] mPoints = new float[64]; // x, y pairs
+        private int mPointCount;
+        private Stroke mStroke; // the finished stroke once it ended
+
+        RemoteStroke(int color, float width, float hardness) {
+            mColor = color;
+            mWidth = width;
+            mHardness = hardness;
+        }
+
+        public int getColor() {
+            return mColor;
+        }
+
+        public float getWidth() {
+            return mWidth;
+        }
+
+        // the points (x, y pairs) so far, only the first getPointCount() are used
+        public float[] getPoints() {
+            return mPoints;
+        }
+
+        public int getPointCount() {
+            return mPointCount;
+        }
+
+        void add(float x, float y) {
+            if (mPoints.length < mPointCount * 2 + 2) mPoints = Arrays.copyOf(mPoints, mPoints.length * 2);
+            mPoints[mPointCount * 2] = x;
+            mPoints[mPointCount * 2 + 1] = y;
+            ++mPointCount;
+        }
+    }
+
+    // operation tags
+    static final int BRUSH = 1;
+    static final int START = 2;
+    static final int MOVES = 3;
+    static final int END = 4;
+    static final int CLEAR = 5;
+
+    // END flags
+    static final int DRAWN = 1;
+    static final int POINTS = 2;
+
+    private static final float SCALE = 1f / (1 << StrokeEncoder.FRACTION_BITS);
+    private static final Object CLEARED = new Object(); // a clear in mPending and mRemote
+
+    private int mPeer = -1; // this peer's id, set when the server tells
+
+    // the batch being made, and what the receivers will have when they read it
+    private byte[] mBatch = new byte[1024];
+    private int mBatchLength;
+    private int mColor;
+    private int mWidth = -1;
+    private int mHardness;
+    private final int[] mLastX = new int[StrokeBuilder.MAX_POINTERS];
+    private final int[] mLastY = new int[StrokeBuilder.MAX_POINTERS];
+
+    // each local finger's points since it started (fixed point), and the ones not sent yet
+    private final int[][] mPoints = new int[StrokeBuilder.MAX_POINTERS][];
+    private final int[] mPointCount = new int[StrokeBuilder.MAX_POINTERS];
+    private final int[] mUnsent = new int[StrokeBuilder.MAX_POINTERS];
+    private int mActivePointers; // bit i is set while local pointer i is drawing
+
+    // local strokes (and clears) drawn but not back from the server yet, oldest first
+    private final ArrayDeque<Object> mPending = new ArrayDeque<>();
+
+    // what the server sent that isn't applied yet, in its order: finished RemoteStrokes,
+    // CLEARED, and the Integer pointer of each local END that came back
+    private final ArrayDeque<Object> mRemote = new ArrayDeque<>();
+
+    // what each peer is drawing with and its fingers, by peer
+    private final Map<Integer, Peer> mPeers = new HashMap<>();
+    private final List<RemoteStroke> mLive = new ArrayList<>();
+
+    // box around the remote strokes that changed since clearBounds(), empty when left > right
+    private float mLeft = Float.MAX_VALUE;
+    private float mTop = Float.MAX_VALUE;
+    private float mRight = -Float.MAX_VALUE;
+    private float mBottom = -Float.MAX_VALUE;
+
+    private final Target mTarget;
+    private long mSentPoints;
+    private long mSentBytes;
+
+    private static class Peer {
+        int color;
+        float width;
+        float hardness = 1;
+        final int[] lastX = new int[StrokeBuilder.MAX_POINTERS];
+        final int[] lastY = new int[StrokeBuilder.MAX_POINTERS];
+        final RemoteStroke[] strokes = new RemoteStroke[StrokeBuilder.MAX_POINTERS];
+    }
+
+    public SyncSession(Target target) {
+        mTarget = target;
+    }
+
+    // the id the server gave this peer, its batches come back with it
+    public void setPeer(int peer) {
+        mPeer = peer;
+    }
+
+    public int getPeer() {
+        return mPeer;
+    }
+
+    // a local finger started a stroke with this brush
+    public void start(int pointer, float x, float y, int color, float width, float hardness) {
+        if (pointer < 0 || pointer >= StrokeBuilder.MAX_POINTERS) return;
+        int fixedWidth = StrokeEncoder.toFixed(width);
+        int fixedHardness = Math.round(Math.max(0, Math.min(1, hardness)) * 255);
+        if (color != mColor || fixedWidth != mWidth || fixedHardness != mHardness) {
+            mColor = color;
+            mWidth = fixedWidth;
+            mHardness = fixedHardness;
+            writeByte(BRUSH);
+            writeInt(color);
+            writeVarint(fixedWidth);
+            writeByte(fixedHardness);
+        }
+
+        flushMoves(pointer); // of the stroke before, if it's still in this batch
+        mPointCount[pointer] = 0;
+        mUnsent[pointer] = 0;
+        addPoint(pointer, x, y);
+        writeByte(START);
+        writeByte(pointer);
+        writePoint(pointer, mPoints[pointer][0], mPoints[pointer][1]);
+        mUnsent[pointer] = 0;
+        ++mSentPoints;
+        mActivePointers |= 1 << pointer;
+    }
+
+    // a local finger moved to a point its stroke uses
+    public void move(int pointer, float x, float y) {
+        if (!isActive(pointer)) return;
+        addPoint(pointer, x, y);
+    }
+
+    // a local finger lifted, its stroke is null if it didn't draw anything. return the
+    // stroke the other peers draw, which is the one to keep: its points are rounded to
+    // what's sent.
+    public Stroke end(int pointer, Stroke stroke) {
+        if (!isActive(pointer)) return stroke;
+        flushMoves(pointer);
+        mActivePointers &= ~(1 << pointer);
+
+        writeByte(END);
+        writeByte(pointer);
+        if (stroke == null) {
+            writeByte(0);
+            return null;
+        }
+
+        // the points sent, unless the finished stroke is different
+        int[] points = mPoints[pointer];
+        int count = mPointCount[pointer];
+        boolean same = !stroke.isCurves() && stroke.getPointCount() == count;
+        for (int i = 0; same && i < count; ++i) {
+            same = StrokeEncoder.toFixed(stroke.getX(i)) == points[i * 2]
+                    && StrokeEncoder.toFixed(stroke.getY(i)) == points[i * 2 + 1];
+        }
+        float[] rounded = new float[stroke.getPointCount() * 2];
+        if (same) {
+            writeByte(DRAWN);
+        } else {
+            writeByte(DRAWN | POINTS);
+            writeByte(stroke.isCurves() ? 1 : 0);
+            writeVarint(stroke.getPointCount());
+        }
+        for (int i = 0; i < stroke.getPointCount(); ++i) {
+            int x = StrokeEncoder.toFixed(stroke.getX(i)), y = StrokeEncoder.toFixed(stroke.getY(i));
+            if (!same) writePoint(pointer, x, y);
+            rounded[i * 2] = x * SCALE;
+            rounded[i * 2 + 1] = y * SCALE;
+        }
+
+        Stroke sent = new Stroke(mColor, mWidth * SCALE, mHardness / 255f, rounded,
+                stroke.getPointCount(), stroke.isCurves());
+        mPending.add(sent);
+        return sent;
+    }
+
+    // the drawing was cleared here
+    public void clear() {
+        for (int pointer = 0; pointer < StrokeBuilder.MAX_POINTERS; ++pointer) {
+            flushMoves(pointer);
+        }
+        mActivePointers = 0;
+        writeByte(CLEAR);
+        mPending.add(CLEARED);
+    }
+
+    // return whether a local finger is drawing
+    public boolean isActive(int pointer) {
+        return pointer >= 0 && pointer < StrokeBuilder.MAX_POINTERS && (mActivePointers & (1 << pointer)) != 0;
+    }
+
+    // return the operations since the last batch to send, null if there are none
+    public byte[] takeBatch() {
+        for (int pointer = 0; pointer < StrokeBuilder.MAX_POINTERS; ++pointer) {
+            flushMoves(pointer);
+        }
+        if (mBatchLength == 0) return null;
+        byte[] batch = Arrays.copyOf(mBatch, mBatchLength);
+        mSentBytes += mBatchLength;
+        mBatchLength = 0;
+        return batch;
+    }
+
+    // a batch from the server, sent by peer (maybe this one). remote strokes are shown
+    // live right away, and drawn into the drawing by apply().
+    public void receive(int peer, byte[] batch, int offset, int length) {
+        Reader in = new Reader(batch, offset, length);
+        if (peer == mPeer) {
+            receiveOwn(in);
+            return;
+        }
+
+        Peer state = mPeers.get(peer);
+        if (state == null) {
+            state = new Peer();
+            mPeers.put(peer, state);
+        }
+        while (in.hasMore()) {
+            int tag = in.readByte();
+            switch (tag) {
+                case BRUSH:
+                    state.color = in.readInt();
+                    state.width = in.readVarint() * SCALE;
+                    state.hardness = in.readByte() / 255f;
+                    break;
+                case START: {
+                    int pointer = in.readPointer();
+                    RemoteStroke stroke = new RemoteStroke(state.color, state.width, state.hardness);
+                    state.strokes[pointer] = stroke;
+                    mLive.add(stroke);
+                    readPoint(in, state, pointer, stroke);
+                    break;
+                }
+                case MOVES: {
+                    int pointer = in.readPointer();
+                    int count = in.readVarint();
+                    RemoteStroke stroke = state.strokes[pointer];
+                    if (stroke == null) throw new IllegalArgumentException("moves before start");
+                    for (int i = 0; i < count; ++i) {
+                        readPoint(in, state, pointer, stroke);
+                    }
+                    break;
+                }
+                case END: {
+                    int pointer = in.readPointer();
+                    int flags = in.readByte();
+                    RemoteStroke stroke = state.strokes[pointer];
+                    if (stroke == null) throw new IllegalArgumentException("end before start");
+                    state.strokes[pointer] = null;
+                    endRemote(in, state, pointer, stroke, flags);
+                    break;
+                }
+                case CLEAR:
+                    mRemote.add(CLEARED);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown operation " + tag);
+            }
+        }
+    }
+
+    // draw what the server sent into the drawing, return whether anything changed. waits
+    // while a local finger is drawing, since its stroke isn't in the drawing yet.
+    public boolean apply() {
+        if (mActivePointers != 0 || mRemote.isEmpty()) return false;
+
+        boolean takenBack = false; // the pending local strokes are off the drawing
+        while (!mRemote.isEmpty()) {
+            Object operation = mRemote.poll();
+            if (operation instanceof Integer) {
+                // a local stroke or clear came back, it's in its place
+                Object own = mPending.poll();
+                if (takenBack) mTarget.draw((Stroke) own);
+                continue;
+            }
+
+            RemoteStroke stroke = operation == CLEARED ? null : (RemoteStroke) operation;
+            if (stroke != null) {
+                mLive.remove(stroke);
+                addBounds(stroke.mStroke);
+            }
+            if (mPending.contains(CLEARED)) continue; // a local clear after it wiped it already
+
+            // the local strokes go back on top of it
+            if (!takenBack && !mPending.isEmpty()) {
+                mTarget.takeBack(mPending.size());
+                takenBack = true;
+            }
+            if (stroke != null) mTarget.draw(stroke.mStroke);
+            else mTarget.clear();
+        }
+
+        if (takenBack) {
+            for (Object own : mPending) {
+                mTarget.draw((Stroke) own);
+            }
+        }
+        return true;
+    }
+
+    // the strokes other peers are drawing, and the finished ones waiting for apply()
+    public List<RemoteStroke> getLiveStrokes() {
+        return mLive;
+    }
+
+    // local strokes and clears not back from the server yet
+    public int getPendingCount() {
+        return mPending.size();
+    }
+
+    // points and bytes of all the batches taken so far
+    public long getSentPoints() {
+        return mSentPoints;
+    }
+
+    public long getSentBytes() {
+        return mSentBytes;
+    }
+
+    // return whether remote strokes changed since clearBounds()
+    public boolean hasBounds() {
+        return mLeft <= mRight;
+    }
+
+    public float getBoundsLeft() {
+        return mLeft;
+    }
+
+    public float getBoundsTop() {
+        return mTop;
+    }
+
+    public float getBoundsRight() {
+        return mRight;
+    }
+
+    public float getBoundsBottom() {
+        return mBottom;
+    }
+
+    public void clearBounds() {
+        mLeft = mTop = Float.MAX_VALUE;
+        mRight = mBottom = -Float.MAX_VALUE;
+    }
+
+    // a batch this peer sent came back: its ENDs and CLEARs take their place in the order
+    private void receiveOwn(Reader in) {
+        while (in.hasMore()) {
+            int tag = in.readByte();
+            switch (tag) {
+                case BRUSH:
+                    in.readInt();
+                    in.readVarint();
+                    in.readByte();
+                    break;
+                case START:
+                    in.readPointer();
+                    in.readVarint();
+                    in.readVarint();
+                    break;
+                case MOVES: {
+                    in.readPointer();
+                    int count = in.readVarint();
+                    for (int i = 0; i < count * 2; ++i) in.readVarint();
+                    break;
+                }
+                case END: {
+                    int pointer = in.readPointer();
+                    int flags = in.readByte();
+                    if ((flags & POINTS) != 0) {
+                        in.readByte();
+                        int count = in.readVarint();
+                        for (int i = 0; i < count * 2; ++i) in.readVarint();
+                    }
+                    if ((flags & DRAWN) != 0) mRemote.add(pointer);
+                    break;
+                }
+                case CLEAR:
+                    mRemote.add(-1);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown operation " + tag);
+            }
+        }
+    }
+
+    // a remote finger lifted, its stroke is drawn in its turn
+    private void endRemote(Reader in, Peer state, int pointer, RemoteStroke stroke, int flags) {
+        if ((flags & DRAWN) == 0) {
+            mLive.remove(stroke);
+            addBounds(stroke);
+            return;
+        }
+        if ((flags & POINTS) != 0) {
+            boolean curves = in.readByte() != 0;
+            int count = in.readVarint();
+            float[] points = new float[count * 2];
+            for (int i = 0; i < count; ++i) {
+                state.lastX[pointer] += unzigzag(in.readVarint());
+                state.lastY[pointer] += unzigzag(in.readVarint());
+                points[i * 2] = state.lastX[pointer] * SCALE;
+                points[i * 2 + 1] = state.lastY[pointer] * SCALE;
+            }
+            stroke.mStroke = new Stroke(stroke.mColor, stroke.mWidth, stroke.mHardness, points, count, curves);
+        } else {
+            stroke.mStroke = new Stroke(stroke.mColor, stroke.mWidth, stroke.mHardness, stroke.mPoints,
+                    stroke.mPointCount, false);
+        }
+        mRemote.add(stroke);
+    }
+
+    private void readPoint(Reader in, Peer state, int pointer, RemoteStroke stroke) {
+        state.lastX[pointer] += unzigzag(in.readVarint());
+        state.lastY[pointer] += unzigzag(in.readVarint());
+        float x = state.lastX[pointer] * SCALE, y = state.lastY[pointer] * SCALE;
+        stroke.add(x, y);
+        float pad = stroke.mWidth / 2;
+        mLeft = Math.min(mLeft, x - pad);
+        mTop = Math.min(mTop, y - pad);
+        mRight = Math.max(mRight, x + pad);
+        mBottom = Math.max(mBottom, y + pad);
+    }
+
+    private void addBounds(RemoteStroke stroke) {
+        float pad = stroke.mWidth / 2;
+        for (int i = 0; i < stroke.mPointCount; ++i) {
+            float x = stroke.mPoints[i * 2], y = stroke.mPoints[i * 2 + 1];
+            mLeft = Math.min(mLeft, x - pad);
+            mTop = Math.min(mTop, y - pad);
+            mRight = Math.max(mRight, x + pad);
+            mBottom = Math.max(mBottom, y + pad);
+        }
+    }
+
+    private void addBounds(Stroke stroke) {
+        float pad = stroke.getWidth() / 2;
+        for (int i = 0; i < stroke.getPointCount(); ++i) {
+            mLeft = Math.min(mLeft, stroke.getX(i) - pad);
+            mTop = Math.min(mTop, stroke.getY(i) - pad);
+            mRight = Math.max(mRight, stroke.getX(i) + pad);
+            mBottom = Math.max(mBottom, stroke.getY(i) + pad);
+        }
+    }
+
+    // keep a local point, rounded to what's sent
+    private void addPoint(int pointer, float x, float y) {
+        int[] points = mPoints[pointer];
+        int count = mPointCount[pointer];
+        if (points == null || points.length < count * 2 + 2) {
+            points = mPoints[pointer] = points == null ? new int[256] : Arrays.copyOf(points, points.length * 2);
+        }
+        points[count * 2] = StrokeEncoder.toFixed(x);
+        points[count * 2 + 1] = StrokeEncoder.toFixed(y);
+        mPointCount[pointer] = count + 1;
+        ++mUnsent[pointer];
+    }
+
+    // write the pointer's points not sent yet as one MOVES record
+    private void flushMoves(int pointer) {
+        int unsent = mUnsent[pointer];
+        if (unsent == 0) return;
+        writeByte(MOVES);
+        writeByte(pointer);
+        writeVarint(unsent);
+        int[] points = mPoints[pointer];
+        for (int i = mPointCount[pointer] - unsent; i < mPointCount[pointer]; ++i) {
+            writePoint(pointer, points[i * 2], points[i * 2 + 1]);
+        }
+        mSentPoints += unsent;
+        mUnsent[pointer] = 0;
+    }
+
+    private void writePoint(int pointer, int x, int y) {
+        writeVarint(StrokeEncoder.zigzag(x - mLastX[pointer]));
+        writeVarint(StrokeEncoder.zigzag(y - mLastY[pointer]));
+        mLastX[pointer] = x;
+        mLastY[pointer] = y;
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private void ensureRoom(int bytes) {
+        if (mBatchLength + bytes > mBatch.length) {
+            mBatch = Arrays.copyOf(mBatch, Math.max(mBatch.length * 2, mBatchLength + bytes));
+        }
+    }
+
+    private void writeVarint(int value) {
+        ensureRoom(5);
+        while ((value & ~0x7f) != 0) {
+            mBatch[mBatchLength++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        mBatch[mBatchLength++] = (byte) value;
+    }
+
+    private void writeInt(int value) {
+        ensureRoom(4);
+        mBatch[mBatchLength++] = (byte) (value >>> 24);
+        mBatch[mBatchLength++] = (byte) (value >>> 16);
+        mBatch[mBatchLength++] = (byte) (value >>> 8);
+        mBatch[mBatchLength++] = (byte) value;
+    }
+
+    private void writeByte(int value) {
+        ensureRoom(1);
+        mBatch[mBatchLength++] = (byte) value;
+    }
+
+    // reads the operations of a batch, a batch that is cut short or makes no sense
+    // throws IllegalArgumentException
+    private static class Reader {
+        private final byte[] mBytes;
+        private int mPosition;
+        private final int mEnd;
+
+        Reader(byte[] bytes, int offset, int length) {
+            mBytes = bytes;
+            mPosition = offset;
+            mEnd = offset + length;
+        }
+
+        boolean hasMore() {
+            return mPosition < mEnd;
+        }
+
+        int readByte() {
+            if (mPosition >= mEnd) throw new IllegalArgumentException("batch cut short");
+            return mBytes[mPosition++] & 0xff;
+        }
+
+        int readPointer() {
+            int pointer = readByte();
+            if (pointer >= StrokeBuilder.MAX_POINTERS) throw new IllegalArgumentException("bad pointer " + pointer);
+            return pointer;
+        }
+
+        int readInt() {
+            return readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IllegalArgumentException("varint too long");
+        }
+    }
+}
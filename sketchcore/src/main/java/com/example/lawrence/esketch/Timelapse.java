@@ -0,0 +1,243 @@
+package com.example.lawrence.esketch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * plays a TouchLog back onto a surface, stroke by stroke, and seeks in it.
+ *
+ * The touch events are fed through a StrokeBuilder the same way eSketchView feeds its
+ * fingers, so the strokes come out with the same smoothing (without curve fitting, which
+ * is at most a pixel off). Strokes that were drawn all at once and fills are drawn at
+ * once too. Only the strokes still in the drawing at the end are played
+ * (TouchLog.getKeptStrokes()), so undone and erased ones never show up, and the last
+ * frame is the drawing. Every checkpointInterval events, at a moment no finger is
+ * down, a checkpoint (copy of the drawing) is taken. Seeking restores the closest
+ * checkpoint before the wanted time and plays the events after it, or just keeps
+ * playing when that is closer, so it never replays much more than an interval.
+ *
+ * Checkpoints are only taken the first time playback gets somewhere. When they use
+ * more than the memory limit, every other one is dropped and the interval doubles, so
+ * a long session keeps a bounded number of them at the cost of longer seeks.
+ *
+ * @param <C> type of a checkpoint, e.g. a Bitmap
+ */
+public class Timelapse<C> {
+
+    /**
+     * the drawing the timelapse plays onto. the segments of each finger's stroke come
+     * through the SegmentSink methods, between begin() and end().
+     */
+    public interface Surface<C> extends SegmentSink {
+        // return a copy of what is drawn now (no finger is down when this is called)
+        C snapshot();
+
+        // replace the drawing with a checkpoint, or blank it if checkpoint is null.
+        // strokes that began and didn't end are dropped.
+        void restore(C checkpoint);
+
+        // memory used by a checkpoint
+        long sizeOf(C checkpoint);
+
+        // a checkpoint was dropped and won't be used again
+        void release(C checkpoint);
+
+        // a finger starts a stroke of this color and width
+        void begin(int pointer, int color, float width);
+
+        // the finger lifted, its stroke goes into the drawing
+        void end(int pointer);
+
+        // draw a whole stroke into the drawing, while fingers may be drawing others
+        void draw(Stroke stroke);
+
+        // bucket fill the region around (x, y) with color, like the view does
+        void fill(int x, int y, int color);
+    }
+
+    // copy of the drawing after the first `index` events, which had `strokes` strokes
+    private static class Checkpoint<C> {
+        final int index;
+        final int strokes;
+        final C image;
+        final long bytes;
+
+        Checkpoint(int index, int strokes, C image, long bytes) {
+            this.index = index;
+            this.strokes = strokes;
+            this.image = image;
+            this.bytes = bytes;
+        }
+    }
+
+    private final TouchLog mLog;
+    private final Surface<C> mSurface;
+    private final StrokeBuilder mBuilder;
+    private final boolean[] mKept; // the strokes that are in the drawing at the end
+    private int mCheckpointInterval;
+    private final long mMemoryLimit;
+
+    // ordered by index, the first one is the drawing before the first event
+    private final List<Checkpoint<C>> mCheckpoints = new ArrayList<>();
+    private long mCheckpointBytes;
+
+    private int mPosition; // events played
+    private int mStrokes;  // strokes played, the next one is the log's mStrokes-th
+    private int mLastReplayCount; // events played by the last seek
+
+    // play log onto surface, starting from start (null = blank). start isn't released.
+    public Timelapse(TouchLog log, Surface<C> surface, C start, int checkpointInterval, long memoryLimit) {
+        if (checkpointInterval < 1) throw new IllegalArgumentException("checkpointInterval < 1");
+
+        mLog = log;
+        mSurface = surface;
+        mBuilder = new StrokeBuilder(surface);
+        mKept = log.getKeptStrokes();
+        mCheckpointInterval = checkpointInterval;
+        mMemoryLimit = memoryLimit;
+        mCheckpoints.add(new Checkpoint<>(0, 0, start, 0));
+        surface.restore(start);
+    }
+
+    // return how many events have been played
+    public int getPosition() {
+        return mPosition;
+    }
+
+    // ms from the first event to the last
+    public int getDuration() {
+        return mLog.getDuration();
+    }
+
+    // return how many events the last seek had to play
+    public int getLastReplayCount() {
+        return mLastReplayCount;
+    }
+
+    // return how many checkpoints are kept, including the starting one
+    public int getCheckpointCount() {
+        return mCheckpoints.size();
+    }
+
+    // memory used by the checkpoints (not counting the start)
+    public long getCheckpointBytes() {
+        return mCheckpointBytes;
+    }
+
+    // events between checkpoints now, it doubles each time they are thinned out
+    public int getCheckpointInterval() {
+        return mCheckpointInterval;
+    }
+
+    // bit i is set while pointer i is drawing
+    public int getActivePointers() {
+        return mBuilder.getActivePointers();
+    }
+
+    // show the drawing as it was time ms after the first event
+    public void seekTo(long time) {
+        seekToEvent(mLog.indexAfter(time));
+    }
+
+    // show the drawing after the first `index` events
+    public void seekToEvent(int index) {
+        index = Math.max(0, Math.min(index, mLog.size()));
+
+        // closest checkpoint at or before index
+        int low = 0, high = mCheckpoints.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (mCheckpoints.get(middle).index <= index) low = middle;
+            else high = middle - 1;
+        }
+        Checkpoint<C> checkpoint = mCheckpoints.get(low);
+
+        // going back, or jumping ahead past a checkpoint: start from the checkpoint
+        if (index < mPosition || checkpoint.index > mPosition) {
+            mBuilder.cancel();
+            mSurface.restore(checkpoint.image);
+            mPosition = checkpoint.index;
+            mStrokes = checkpoint.strokes;
+        }
+
+        mLastReplayCount = index - mPosition;
+        while (mPosition < index) {
+            play(mPosition);
+            ++mPosition;
+
+            if (mBuilder.getActivePointers() == 0
+                    && mPosition - lastCheckpoint().index >= mCheckpointInterval) {
+                addCheckpoint();
+            }
+        }
+    }
+
+    // drop every checkpoint, the timelapse can't be used after this
+    public void release() {
+        for (int c = 1; c < mCheckpoints.size(); ++c) {
+            mSurface.release(mCheckpoints.get(c).image);
+        }
+        mCheckpoints.clear();
+        mCheckpointBytes = 0;
+    }
+
+    private void play(int i) {
+        int pointer = mLog.getPointer(i);
+        int stroke;
+        switch (mLog.getAction(i)) {
+            case TouchLog.DOWN:
+                // a stroke that isn't kept isn't started, so its moves and lift do nothing
+                stroke = mStrokes++;
+                if (mKept[stroke] && pointer >= 0 && pointer < StrokeBuilder.MAX_POINTERS) {
+                    mSurface.begin(pointer, mLog.getColor(stroke), mLog.getWidth(stroke));
+                    mBuilder.start(pointer, mLog.getX(i), mLog.getY(i));
+                }
+                break;
+            case TouchLog.MOVE:
+                mBuilder.move(pointer, mLog.getX(i), mLog.getY(i));
+                break;
+            case TouchLog.UP:
+                if (mBuilder.end(pointer)) mSurface.end(pointer);
+                break;
+            case TouchLog.STROKE:
+                stroke = mStrokes++;
+                if (mKept[stroke]) mSurface.draw(mLog.getStroke(stroke));
+                break;
+            case TouchLog.FILL:
+                stroke = mStrokes++;
+                if (mKept[stroke]) mSurface.fill((int) mLog.getX(i), (int) mLog.getY(i), mLog.getColor(stroke));
+                break;
+            default:
+                // undo, redo, erase and restart took away what getKeptStrokes() left out
+                break;
+        }
+    }
+
+    private Checkpoint<C> lastCheckpoint() {
+        return mCheckpoints.get(mCheckpoints.size() - 1);
+    }
+
+    private void addCheckpoint() {
+        C image = mSurface.snapshot();
+        long bytes = mSurface.sizeOf(image);
+        mCheckpoints.add(new Checkpoint<>(mPosition, mStrokes, image, bytes));
+        mCheckpointBytes += bytes;
+
+        // over the limit: keep every other one, twice as far apart from now on
+        while (mCheckpointBytes > mMemoryLimit && mCheckpoints.size() > 2) {
+            List<Checkpoint<C>> kept = new ArrayList<>(mCheckpoints.size() / 2 + 1);
+            for (int c = 0; c < mCheckpoints.size(); ++c) {
+                Checkpoint<C> checkpoint = mCheckpoints.get(c);
+                if (c % 2 == 0) {
+                    kept.add(checkpoint);
+                } else {
+                    mCheckpointBytes -= checkpoint.bytes;
+                    mSurface.release(checkpoint.image);
+                }
+            }
+            mCheckpoints.clear();
+            mCheckpoints.addAll(kept);
+            mCheckpointInterval *= 2;
+        }
+    }
+}
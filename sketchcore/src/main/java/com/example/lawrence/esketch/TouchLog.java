@@ -0,0 +1,318 @@
+package com.example.lawrence.esketch;
+
+import java.util.Arrays;
+
+/**
+ * the touch input of a drawing session, in the order it was drawn, for Timelapse.
+ *
+ * Each event is what happened (a finger went down, moved or lifted), which pointer,
+ * when (ms since the first event) and where. The color and width of each stroke are
+ * kept once per DOWN, not per event. Everything is in plain growing arrays, about 14
+ * bytes an event.
+ *
+ * What else changes the drawing is logged too: strokes drawn all at once (someone
+ * else's, or ones put back from the autosave), fills, and what the undo history did
+ * (undo, redo, erase, and starting over after a fill). getKeptStrokes() plays those
+ * like StrokeHistory does to find the strokes that are still in the drawing at the end.
+ *
+ * Not thread safe; hand a copy() to another thread.
+ */
+public class TouchLog {
+
+    // event types
+    public static final int DOWN = 0;
+    public static final int MOVE = 1;
+    public static final int UP = 2;
+    public static final int STROKE = 3;
+    public static final int UNDO = 4;
+    public static final int REDO = 5;
+    public static final int ERASE = 6;
+    public static final int FILL = 7;
+    public static final int RESTART = 8;
+
+    // events before the arrays first grow (about 220 KB). the view records every touch
+    // sample, so this is a minute or so of drawing without allocating.
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+
+    private byte[] mActions = new byte[INITIAL_CAPACITY];
+    private byte[] mPointers = new byte[INITIAL_CAPACITY];
+    private int[] mTimes = new int[INITIAL_CAPACITY];
+    private float[] mXs = new float[INITIAL_CAPACITY];
+    private float[] mYs = new float[INITIAL_CAPACITY];
+    private int mSize;
+    private long mStartTime; // time of the first event, times are kept relative to it
+
+    // color and width of the n-th stroke: the n-th DOWN, STROKE or FILL event (a fill
+    // counts as a stroke here, with width 0). the stroke of a STROKE event is kept too.
+    private int[] mColors = new int[64];
+    private float[] mWidths = new float[64];
+    private Stroke[] mWholeStrokes = new Stroke[64];
+    private int mStrokeCount;
+
+    // a finger touched down at (x, y) to draw a stroke of this color and width.
+    // time is in ms, from any clock that never goes back (e.g. MotionEvent times).
+    public void down(int pointer, long time, float x, float y, int color, float width) {
+        addStroke(color, width, null);
+        add(DOWN, pointer, time, x, y);
+    }
+
+    public void move(int pointer, long time, float x, float y) {
+        add(MOVE, pointer, time, x, y);
+    }
+
+    // the finger lifted and its stroke went into the history
+    public void up(int pointer, long time) {
+        up(pointer, time, true);
+    }
+
+    // the finger lifted. kept is false if its stroke didn't go into the history (a tap
+    // that drew nothing). the history gets the strokes once every finger is up.
+    public void up(int pointer, long time, boolean kept) {
+        add(UP, pointer, time, kept ? 1 : 0, 0);
+    }
+
+    // a whole stroke was drawn and went into the history at once
+    public void stroke(long time, Stroke stroke) {
+        addStroke(stroke.getColor(), stroke.getWidth(), stroke);
+        add(STROKE, 0, time, 0, 0);
+    }
+
+    // the history took back its last step
+    public void undo(long time) {
+        add(UNDO, 0, time, 0, 0);
+    }
+
+    public void redo(long time) {
+        add(REDO, 0, time, 0, 0);
+    }
+
+    // the history erased a step. step counts the history's steps since it last
+    // started over, from 0 (StrokeHistory.getErasedStep()).
+    public void erase(long time, int step) {
+        add(ERASE, 0, time, step, 0);
+    }
+
+    // the region around (x, y) was bucket filled with color, and went into the history
+    public void fill(long time, int x, int y, int color) {
+        addStroke(color, 0, null);
+        add(FILL, 0, time, x, y);
+    }
+
+    // the history started over from the drawing as it is (e.g. on another layer):
+    // nothing before can be undone or erased anymore
+    public void restart(long time) {
+        add(RESTART, 0, time, 0, 0);
+    }
+
+    private void addStroke(int color, float width, Stroke stroke) {
+        if (mStrokeCount == mColors.length) {
+            mColors = Arrays.copyOf(mColors, mStrokeCount * 2);
+            mWidths = Arrays.copyOf(mWidths, mStrokeCount * 2);
+            mWholeStrokes = Arrays.copyOf(mWholeStrokes, mStrokeCount * 2);
+        }
+        mColors[mStrokeCount] = color;
+        mWidths[mStrokeCount] = width;
+        mWholeStrokes[mStrokeCount] = stroke;
+        ++mStrokeCount;
+    }
+
+    private void add(int action, int pointer, long time, float x, float y) {
+        if (mSize == mActions.length) {
+            int capacity = mSize * 2;
+            mActions = Arrays.copyOf(mActions, capacity);
+            mPointers = Arrays.copyOf(mPointers, capacity);
+            mTimes = Arrays.copyOf(mTimes, capacity);
+            mXs = Arrays.copyOf(mXs, capacity);
+            mYs = Arrays.copyOf(mYs, capacity);
+        }
+        if (mSize == 0) mStartTime = time;
+
+        // times never go back, so seeking can binary search them
+        int relative = (int) Math.min(Integer.MAX_VALUE, Math.max(0, time - mStartTime));
+        if (mSize > 0) relative = Math.max(relative, mTimes[mSize - 1]);
+
+        mActions[mSize] = (byte) action;
+        mPointers[mSize] = (byte) pointer;
+        mTimes[mSize] = relative;
+        mXs[mSize] = x;
+        mYs[mSize] = y;
+        ++mSize;
+    }
+
+    // forget every event
+    public void reset() {
+        mSize = 0;
+        Arrays.fill(mWholeStrokes, 0, mStrokeCount, null);
+        mStrokeCount = 0;
+    }
+
+    // return how many events there are
+    public int size() {
+        return mSize;
+    }
+
+    public int getAction(int i) {
+        return mActions[i];
+    }
+
+    public int getPointer(int i) {
+        return mPointers[i];
+    }
+
+    // ms since the first event
+    public int getTime(int i) {
+        return mTimes[i];
+    }
+
+    // ms from the first event to the last
+    public int getDuration() {
+        return mSize == 0 ? 0 : mTimes[mSize - 1];
+    }
+
+    public float getX(int i) {
+        return mXs[i];
+    }
+
+    public float getY(int i) {
+        return mYs[i];
+    }
+
+    // color and width of the n-th stroke (the n-th DOWN, STROKE or FILL event)
+    public int getColor(int stroke) {
+        return mColors[stroke];
+    }
+
+    public float getWidth(int stroke) {
+        return mWidths[stroke];
+    }
+
+    // the n-th stroke if it was a STROKE event, null otherwise
+    public Stroke getStroke(int stroke) {
+        return mWholeStrokes[stroke];
+    }
+
+    // return how many strokes there are (DOWN, STROKE and FILL events)
+    public int getStrokeCount() {
+        return mStrokeCount;
+    }
+
+    /**
+     * return which strokes are in the drawing after the last event: element n is false
+     * if the n-th stroke was undone and not redone, erased, thrown away as a redo step,
+     * or is a DOWN whose UP wasn't kept.
+     *
+     * The steps are counted like StrokeHistory does: the strokes of the fingers that are
+     * down go in together when the last one lifts, after whatever else went in while
+     * they were down, and RESTART makes everything so far final.
+     */
+    public boolean[] getKeptStrokes() {
+        boolean[] kept = new boolean[mStrokeCount];
+        boolean[] erased = new boolean[mStrokeCount];
+        int[] steps = new int[64]; // the stroke of each step since the last RESTART
+        int stepCount = 0, current = 0; // like StrokeHistory's mStrokes.size() and mCurrent
+
+        int[] downs = new int[StrokeBuilder.MAX_POINTERS]; // the stroke each finger draws
+        int[] lifted = new int[StrokeBuilder.MAX_POINTERS]; // kept strokes waiting for the last finger
+        int liftedCount = 0, activePointers = 0;
+
+        int stroke = 0;
+        for (int i = 0; i < mSize; ++i) {
+            int pointer = mPointers[i];
+            boolean tracked = pointer >= 0 && pointer < StrokeBuilder.MAX_POINTERS; // like Timelapse
+            int added = -1; // stroke of a new step
+            switch (mActions[i]) {
+                case DOWN:
+                    if (tracked) {
+                        downs[pointer] = stroke;
+                        activePointers |= 1 << pointer;
+                    }
+                    ++stroke;
+                    break;
+                case UP:
+                    if (tracked && (activePointers & (1 << pointer)) != 0) {
+                        if (mXs[i] != 0) lifted[liftedCount++] = downs[pointer];
+                        activePointers &= ~(1 << pointer);
+                    }
+                    break;
+                case STROKE:
+                case FILL:
+                    added = stroke++;
+                    break;
+                case UNDO:
+                    if (current > 0) --current;
+                    break;
+                case REDO:
+                    if (current < stepCount) ++current;
+                    break;
+                case ERASE:
+                    int step = (int) mXs[i];
+                    if (step < current) erased[steps[step]] = true;
+                    break;
+                case RESTART:
+                    keep(kept, erased, steps, current);
+                    stepCount = current = 0;
+                    break;
+            }
+
+            // new steps throw the redo steps away
+            if (added >= 0 || (activePointers == 0 && liftedCount > 0)) {
+                if (stepCount + liftedCount + 1 > steps.length) {
+                    steps = Arrays.copyOf(steps, (stepCount + liftedCount + 1) * 2);
+                }
+                stepCount = current;
+                if (added >= 0) steps[stepCount++] = added;
+                if (activePointers == 0) {
+                    for (int l = 0; l < liftedCount; ++l) steps[stepCount++] = lifted[l];
+                    liftedCount = 0;
+                }
+                current = stepCount;
+            }
+        }
+        keep(kept, erased, steps, current);
+        return kept;
+    }
+
+    // the first `current` steps are in the drawing, but for the erased ones
+    private static void keep(boolean[] kept, boolean[] erased, int[] steps, int current) {
+        for (int s = 0; s < current; ++s) {
+            kept[steps[s]] = !erased[steps[s]];
+        }
+    }
+
+    // index of the first event after time, size() if there is none
+    public int indexAfter(long time) {
+        int low = 0, high = mSize;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mTimes[middle] <= time) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    // a copy that doesn't change when this one does
+    public TouchLog copy() {
+        TouchLog copy = new TouchLog();
+        copy.mActions = Arrays.copyOf(mActions, Math.max(1, mSize));
+        copy.mPointers = Arrays.copyOf(mPointers, Math.max(1, mSize));
+        copy.mTimes = Arrays.copyOf(mTimes, Math.max(1, mSize));
+        copy.mXs = Arrays.copyOf(mXs, Math.max(1, mSize));
+        copy.mYs = Arrays.copyOf(mYs, Math.max(1, mSize));
+        copy.mSize = mSize;
+        copy.mStartTime = mStartTime;
+        copy.mColors = Arrays.copyOf(mColors, Math.max(1, mStrokeCount));
+        copy.mWidths = Arrays.copyOf(mWidths, Math.max(1, mStrokeCount));
+        copy.mWholeStrokes = Arrays.copyOf(mWholeStrokes, Math.max(1, mStrokeCount));
+        copy.mStrokeCount = mStrokeCount;
+        return copy;
+    }
+
+    // rough memory used by the arrays (and the STROKE events' strokes)
+    public long getByteCount() {
+        long bytes = mActions.length * 14L + mColors.length * 12L;
+        for (int n = 0; n < mStrokeCount; ++n) {
+            if (mWholeStrokes[n] != null) bytes += mWholeStrokes[n].getByteCount();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.lawrence.esketch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * writes a drawing to a vector file (see SvgWriter, PdfWriter) one stroke at a time.
+ *
+ * Strokes are drawn on white like the view draws them: round caps, the stroke's color
+ * and width, and the same segments StrokeBuilder.replay() makes. Nothing is rasterized
+ * and only the current stroke is kept, so the file can be printed at any size and
+ * writing it takes time and memory in proportion to the number of points.
+ *
+ * Call image() (optional) first, then write() for each stroke, then finish().
+ * The output stream isn't closed.
+ */
+public abstract class VectorWriter {
+
+    private OutputStream mOut;
+    private final byte[] mBuffer = new byte[8192];
+    private int mBuffered;
+    private final byte[] mDigits = new byte[20];
+
+    protected final int mWidth;
+    protected final int mHeight;
+
+    protected VectorWriter(OutputStream out, int width, int height) {
+        mOut = out;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    // draw a JPEG (width x height pixels) at the top left, under all strokes.
+    // used for the part of a drawing that isn't kept as strokes anymore.
+    public abstract void image(byte[] jpeg, int width, int height) throws IOException;
+
+    // add a stroke on top of the drawing
+    public abstract void write(Stroke stroke) throws IOException;
+
+    // end the file and write out everything buffered
+    public abstract void finish() throws IOException;
+
+    // the path's segments
+    protected abstract void moveTo(float x, float y) throws IOException;
+
+    protected abstract void quadTo(float controlX, float controlY, float endX, float endY) throws IOException;
+
+    protected abstract void cubicTo(float control1X, float control1Y, float control2X, float control2Y,
+                                    float endX, float endY) throws IOException;
+
+    // send the stroke's segments to moveTo(), quadTo() and cubicTo(), like StrokeBuilder.replay()
+    protected void writePath(Stroke stroke) throws IOException {
+        moveTo(stroke.getX(0), stroke.getY(0));
+        if (stroke.isCurves()) {
+            for (int i = 1; i + 2 < stroke.getPointCount(); i += 3) {
+                cubicTo(stroke.getX(i), stroke.getY(i), stroke.getX(i + 1), stroke.getY(i + 1),
+                        stroke.getX(i + 2), stroke.getY(i + 2));
+            }
+            return;
+        }
+        for (int i = 1; i < stroke.getPointCount(); ++i) {
+            float pointX = stroke.getX(i - 1);
+            float pointY = stroke.getY(i - 1);
+            quadTo(pointX, pointY, (stroke.getX(i) + pointX) / 2, (stroke.getY(i) + pointY) / 2);
+        }
+    }
+
+    // ---- output, all ASCII ----
+
+    protected void print(String text) throws IOException {
+        for (int i = 0; i < text.length(); ++i) {
+            print(text.charAt(i));
+        }
+    }
+
+    protected void print(char c) throws IOException {
+        if (mBuffered == mBuffer.length) flushBuffer();
+        mBuffer[mBuffered++] = (byte) c;
+    }
+
+    protected void print(long value) throws IOException {
+        if (value < 0) {
+            print('-');
+            value = -value;
+        }
+        int length = 0;
+        do {
+            mDigits[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (length > 0) {
+            print((char) mDigits[--length]);
+        }
+    }
+
+    // value with at most 2 decimals (1/100 px is finer than any printer)
+    protected void print(float value) throws IOException {
+        long hundredths = Math.round(value * 100.0);
+        if (hundredths < 0) {
+            print('-');
+            hundredths = -hundredths;
+        }
+        print(hundredths / 100);
+        int fraction = (int) (hundredths % 100);
+        if (fraction != 0) {
+            print('.');
+            print((char) ('0' + fraction / 10));
+            if (fraction % 10 != 0) print((char) ('0' + fraction % 10));
+        }
+    }
+
+    protected void printBytes(byte[] bytes) throws IOException {
+        flushBuffer();
+        mOut.write(bytes);
+    }
+
+    protected void flushBuffer() throws IOException {
+        mOut.write(mBuffer, 0, mBuffered);
+        mBuffered = 0;
+    }
+
+    // send what's printed from now on to out instead
+    protected void setOutput(OutputStream out) throws IOException {
+        flushBuffer();
+        mOut = out;
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.lawrence.esketch;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * checks the scanline fill against a plain pixel-by-pixel one.
+ */
+public class FloodFillTest {
+
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int BLACK = 0xFF000000;
+    private static final int RED = 0xFFFF0000;
+
+    // random walls, some of them a bit off white, so regions have ragged edges and holes
+    private static int[] picture(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, WHITE);
+        for (int i = 0; i < pixels.length; ++i) {
+            int r = random.nextInt(10);
+            if (r < 3) pixels[i] = BLACK;
+            else if (r == 3) pixels[i] = 0xFFF0F0F0;
+        }
+        return pixels;
+    }
+
+    // one pixel at a time, 4-connected, the way fill() should come out
+    private static int[] slowFill(int[] pixels, int width, int height, int x, int y, int color, int tolerance) {
+        int[] out = pixels.clone();
+        boolean[] seen = new boolean[pixels.length];
+        int target = pixels[y * width + x];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(y * width + x);
+        seen[y * width + x] = true;
+        while (!queue.isEmpty()) {
+            int i = queue.poll();
+            out[i] = color;
+            int px = i % width, py = i / width;
+            int[] next = {px > 0 ? i - 1 : -1, px < width - 1 ? i + 1 : -1,
+                    py > 0 ? i - width : -1, py < height - 1 ? i + width : -1};
+            for (int n : next) {
+                if (n >= 0 && !seen[n] && close(pixels[n], target, tolerance)) {
+                    seen[n] = true;
+                    queue.add(n);
+                }
+            }
+        }
+        return out;
+    }
+
+    private static boolean close(int a, int b, int tolerance) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            if (Math.abs((a >>> shift & 0xff) - (b >>> shift & 0xff)) > tolerance) return false;
+        }
+        return true;
+    }
+
+    @Test
+    public void fillsTheSameAsPixelByPixel() {
+        int width = 97, height = 61;
+        for (long seed = 0; seed < 20; ++seed) {
+            for (int tolerance : new int[]{0, 16}) {
+                int[] pixels = picture(width, height, seed);
+                int x = (int) (seed * 7 % width), y = (int) (seed * 13 % height);
+                int[] expected = slowFill(pixels, width, height, x, y, RED, tolerance);
+
+                FloodFill fill = new FloodFill(pixels, width, height);
+                assertTrue(fill.fill(x, y, RED, tolerance));
+                assertArrayEquals("seed " + seed + " tolerance " + tolerance, expected, pixels);
+            }
+        }
+    }
+
+    @Test
+    public void boxCoversWhatChanged() {
+        int width = 50, height = 40;
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, WHITE);
+        // a black frame from (10, 5) to (30, 25), filled inside
+        for (int x = 10; x <= 30; ++x) {
+            pixels[5 * width + x] = BLACK;
+            pixels[25 * width + x] = BLACK;
+        }
+        for (int y = 5; y <= 25; ++y) {
+            pixels[y * width + 10] = BLACK;
+            pixels[y * width + 30] = BLACK;
+        }
+
+        FloodFill fill = new FloodFill(pixels, width, height);
+        assertTrue(fill.fill(20, 15, RED, 0));
+        assertEquals(11, fill.getLeft());
+        assertEquals(6, fill.getTop());
+        assertEquals(30, fill.getRight());
+        assertEquals(25, fill.getBottom());
+        assertEquals(19 * 19, fill.getFilledCount());
+        assertEquals(WHITE, pixels[0]);
+    }
+
+    @Test
+    public void fillColorWithinTheToleranceStillStops() {
+        int[] pixels = new int[100 * 100];
+        Arrays.fill(pixels, WHITE);
+        FloodFill fill = new FloodFill(pixels, 100, 100);
+        assertTrue(fill.fill(50, 50, 0xFFFEFEFE, 8));
+        assertEquals(100 * 100, fill.getFilledCount());
+    }
+
+    @Test
+    public void cancelStopsTheFill() {
+        int[] pixels = new int[1000 * 1000];
+        FloodFill fill = new FloodFill(pixels, 1000, 1000);
+        fill.cancel();
+        assertFalse(fill.fill(0, 0, RED, 0));
+        assertTrue(fill.getFilledCount() < pixels.length);
+
+        Arrays.fill(pixels, 0); // start over
+        fill.resetCancel();
+        assertTrue(fill.fill(0, 0, RED, 0));
+        assertEquals(pixels.length, fill.getFilledCount());
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.lawrence.esketch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * checks that the composites match flattening the layers from scratch, and that only
+ * the changed parts of them are drawn again.
+ */
+public class LayerStackTest {
+
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+    private static final int BACKGROUND = -1;
+
+    // an image is a pixel array. a layer's pixels are 0 where nothing is drawn, a composite
+    // pixel is the top layer pixel drawn there shifted left 8 bits, with its opacity below.
+    private static class ArraySurface implements LayerStack.Surface<int[]> {
+        int live; // images not released yet
+
+        @Override
+        public int[] create(int width, int height, boolean background) {
+            ++live;
+            int[] image = new int[WIDTH * HEIGHT];
+            if (background) Arrays.fill(image, BACKGROUND);
+            return image;
+        }
+
+        @Override
+        public int[] resize(int[] image, int width, int height, boolean background) {
+            return image;
+        }
+
+        @Override
+        public void release(int[] image) {
+            --live;
+        }
+
+        @Override
+        public long sizeOf(int[] image) {
+            return image.length * 4;
+        }
+
+        @Override
+        public void clear(int[] composite, boolean background, int left, int top, int right, int bottom) {
+            for (int y = top; y < bottom; ++y) {
+                Arrays.fill(composite, y * WIDTH + left, y * WIDTH + right, background ? BACKGROUND : 0);
+            }
+        }
+
+        @Override
+        public void draw(int[] composite, int[] layer, int opacity, int left, int top, int right, int bottom) {
+            for (int y = top; y < bottom; ++y) {
+                for (int x = left; x < right; ++x) {
+                    int pixel = layer[y * WIDTH + x];
+                    if (pixel != 0) composite[y * WIDTH + x] = pixel << 8 | opacity;
+                }
+            }
+        }
+    }
+
+    private ArraySurface mSurface;
+    private LayerStack<int[]> mStack;
+
+    @Before
+    public void setUp() {
+        mSurface = new ArraySurface();
+        mStack = new LayerStack<>(mSurface, WIDTH, HEIGHT);
+        mStack.getActiveImage();
+    }
+
+    // fill a box of the active layer with its id + 1
+    private void drawBox(int left, int top, int right, int bottom) {
+        int[] image = mStack.getActiveImage();
+        int color = mStack.getId(mStack.getActive()) + 1;
+        for (int y = top; y < bottom; ++y) {
+            Arrays.fill(image, y * WIDTH + left, y * WIDTH + right, color);
+        }
+        mStack.addBounds(mStack.getActive(), left, top, right, bottom);
+    }
+
+    // what the layers from start to end (exclusive) flatten to, the slow way
+    private int[] flatten(int[][] images, int start, int end, boolean background) {
+        int[] out = new int[WIDTH * HEIGHT];
+        if (background) Arrays.fill(out, BACKGROUND);
+        for (int i = start; i < end; ++i) {
+            if (images[i] == null || !mStack.isVisible(i) || mStack.getOpacity(i) == 0) continue;
+            for (int p = 0; p < out.length; ++p) {
+                if (images[i][p] != 0) out[p] = images[i][p] << 8 | mStack.getOpacity(i);
+            }
+        }
+        return out;
+    }
+
+    @Test
+    public void compositesMatchFlatteningFromScratch() {
+        Random random = new Random(7);
+
+        for (int step = 0; step < 2000; ++step) {
+            int n = mStack.size();
+            int op = random.nextInt(7);
+            if (op == 0 && n < 8) {
+                mStack.add();
+            } else if (op == 1 && n > 1) {
+                mStack.remove(random.nextInt(n));
+            } else if (op == 2) {
+                mStack.move(random.nextInt(n), random.nextInt(n));
+            } else if (op == 3) {
+                mStack.setActive(random.nextInt(n));
+            } else if (op == 4) {
+                int i = random.nextInt(n);
+                mStack.setVisible(i, !mStack.isVisible(i));
+            } else if (op == 5) {
+                mStack.setOpacity(random.nextInt(n), random.nextInt(4) * 85);
+            } else {
+                int left = random.nextInt(WIDTH), top = random.nextInt(HEIGHT);
+                drawBox(left, top, Math.min(WIDTH, left + 1 + random.nextInt(10)),
+                        Math.min(HEIGHT, top + 1 + random.nextInt(10)));
+            }
+
+            n = mStack.size();
+            int[][] images = new int[n][];
+            for (int i = 0; i < n; ++i) images[i] = mStack.getImage(i);
+
+            mStack.update();
+            int active = mStack.getActive();
+            if (active > 0) {
+                assertArrayEquals("below, step " + step, flatten(images, 0, active, true), mStack.getBelow());
+            } else {
+                assertNull(mStack.getBelow());
+            }
+            if (mStack.getAbove() != null) {
+                assertArrayEquals("above, step " + step, flatten(images, active + 1, n, false), mStack.getAbove());
+            } else {
+                assertArrayEquals(new int[WIDTH * HEIGHT], flatten(images, active + 1, n, false));
+            }
+        }
+    }
+
+    @Test
+    public void hidingALayerOnlyRedrawsItsBox() {
+        drawBox(0, 0, WIDTH, HEIGHT);
+        mStack.setActive(mStack.add());
+        drawBox(5, 5, 10, 8);
+        mStack.setActive(mStack.add());
+        mStack.update();
+
+        long before = mStack.getRedrawnPixels();
+        mStack.setVisible(1, false);
+        mStack.update();
+        assertEquals(5 * 3, mStack.getRedrawnPixels() - before);
+        assertEquals(1, mStack.getBelow()[6 * WIDTH + 6] >> 8); // the background layer shows through
+    }
+
+    @Test
+    public void emptyLayersCostNoMemory() {
+        long bytes = mStack.getByteCount();
+        for (int i = 0; i < 10; ++i) mStack.add();
+        assertEquals(bytes, mStack.getByteCount());
+
+        // made for drawing, given back when left blank
+        mStack.setActive(5);
+        mStack.getActiveImage();
+        mStack.setActive(0);
+        assertEquals(0, mStack.getByteCount(5));
+
+        mStack.update();
+        assertNull(mStack.getAbove()); // nothing above to draw
+        assertEquals(1, mSurface.live);
+
+        mStack.reset();
+        mStack.update();
+        assertEquals(0, mSurface.live);
+    }
+
+    @Test
+    public void resetCanPutSavedLayersBack() {
+        drawBox(0, 0, WIDTH, HEIGHT);
+        mStack.reset(3, 1); // the background was moved up
+        assertEquals(3, mStack.size());
+        assertEquals(0, mStack.getActive());
+        assertFalse(mStack.isBackground(0));
+        assertTrue(mStack.isBackground(1));
+        assertFalse(mStack.isBackground(2));
+        assertTrue(mStack.isEmpty(0));
+        assertFalse(mStack.isEmpty(1)); // covers everything
+        assertEquals(0, mSurface.live); // images only once they're drawn on
+
+        mStack.setActive(2);
+        drawBox(5, 5, 10, 8);
+        mStack.setOpacity(0, 85);
+        mStack.update();
+        int[][] images = {mStack.getImage(0), mStack.getImage(1), mStack.getImage(2)};
+        assertArrayEquals(flatten(images, 0, 2, true), mStack.getBelow());
+        assertEquals(10, mStack.getDrawnWidth());
+    }
+
+    @Test
+    public void drawnSizeIsWhatACropKeeps() {
+        assertEquals(0, mStack.getDrawnWidth()); // the background alone covers nothing yet
+        assertEquals(0, mStack.getDrawnHeight());
+
+        drawBox(2, 3, 10, 12);
+        mStack.setActive(mStack.add());
+        drawBox(15, 1, 20, 5);
+        assertEquals(20, mStack.getDrawnWidth());
+        assertEquals(12, mStack.getDrawnHeight());
+
+        // cropping into what was drawn loses that part of it
+        mStack.resize(18, 25);
+        assertEquals(18, mStack.getDrawnWidth());
+        assertEquals(12, mStack.getDrawnHeight());
+        mStack.resize(18, 10);
+        assertEquals(10, mStack.getDrawnHeight());
+    }
+}
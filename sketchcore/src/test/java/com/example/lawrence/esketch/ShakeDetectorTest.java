@@ -0,0 +1,142 @@
+package com.example.lawrence.esketch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * runs the shake detector over accelerometer traces (50 Hz, delivered in batches like
+ * a batching sensor does) and checks what it reports. What a batch costs is measured
+ * by ShakeDetectorBenchmark.
+ */
+public class ShakeDetectorTest {
+
+    private static final float G = 9.81f;
+    private static final long PERIOD = 20000000L; // 50 Hz, in nanoseconds
+    private static final int BATCH = 20;          // 0.4s of samples per delivery
+
+    // a recorded trace: time and x, y, z of every sample
+    private static class Trace {
+        long[] times = new long[1024];
+        float[] values = new float[3 * 1024];
+        int count;
+        long time;
+        final Random random = new Random(42);
+
+        void add(float x, float y, float z) {
+            if (count == times.length) {
+                times = Arrays.copyOf(times, 2 * count);
+                values = Arrays.copyOf(values, 6 * count);
+            }
+            float noise = 0.05f;
+            times[count] = time;
+            values[3 * count] = x + noise * (float) random.nextGaussian();
+            values[3 * count + 1] = y + noise * (float) random.nextGaussian();
+            values[3 * count + 2] = z + noise * (float) random.nextGaussian();
+            ++count;
+            time += PERIOD;
+        }
+
+        // lying on a table
+        Trace still(double seconds) {
+            for (int i = 0; i < seconds * 50; ++i) add(0, 0, G);
+            return this;
+        }
+
+        // shaken back and forth along x
+        Trace shake(double seconds, double hz, double amplitude) {
+            for (int i = 0; i < seconds * 50; ++i) {
+                add((float) (amplitude * Math.sin(2 * Math.PI * hz * i / 50)), 0, G);
+            }
+            return this;
+        }
+
+        // in a pocket while walking: bouncing up and down and swaying a little
+        Trace walk(double seconds) {
+            for (int i = 0; i < seconds * 50; ++i) {
+                double t = i / 50.0;
+                add((float) (1.5 * Math.sin(2 * Math.PI * t)), (float) (G + 4 * Math.sin(4 * Math.PI * t)), 0);
+            }
+            return this;
+        }
+
+        // turned over (face up to face down and back) in half a second, then left alone
+        Trace flip(double seconds) {
+            for (int i = 0; i < 25; ++i) {
+                double angle = Math.PI * i / 25;
+                add(0, (float) (G * Math.sin(angle)), (float) (G * Math.cos(angle)));
+            }
+            for (int i = 0; i < seconds * 50; ++i) add(0, 0, -G);
+            for (int i = 0; i < 25; ++i) {
+                double angle = Math.PI - Math.PI * i / 25;
+                add(0, (float) (G * Math.sin(angle)), (float) (G * Math.cos(angle)));
+            }
+            return this;
+        }
+    }
+
+    private int mShakes;
+    private ShakeDetector mDetector;
+
+    @Before
+    public void setUp() {
+        mShakes = 0;
+        mDetector = new ShakeDetector(new ShakeDetector.OnShakeListener() {
+            @Override
+            public void onShake() {
+                ++mShakes;
+            }
+        });
+    }
+
+    // hand the trace to the detector BATCH samples at a time
+    private void play(Trace trace) {
+        long[] times = new long[BATCH];
+        float[] values = new float[3 * BATCH];
+        for (int start = 0; start < trace.count; start += BATCH) {
+            int count = Math.min(BATCH, trace.count - start);
+            System.arraycopy(trace.times, start, times, 0, count);
+            System.arraycopy(trace.values, 3 * start, values, 0, 3 * count);
+            mDetector.process(times, values, count);
+        }
+    }
+
+    @Test
+    public void ignoresNormalUse() {
+        play(new Trace().still(10).walk(30).still(2).flip(1).still(2).flip(3).walk(10));
+        assertEquals(0, mShakes);
+    }
+
+    @Test
+    public void reportsEachShakeOnce() {
+        play(new Trace().still(2).shake(2, 4, 25).still(3));
+        assertEquals(1, mShakes);
+
+        // a long shake is still one shake
+        play(new Trace().still(2).shake(8, 3, 20).still(3));
+        assertEquals(2, mShakes);
+
+        // separate shakes are reported separately
+        play(new Trace().shake(1.5, 4, 25).still(2.5).shake(1.5, 4, 25).still(1));
+        assertEquals(4, mShakes);
+    }
+
+    @Test
+    public void ignoresWeakShakes() {
+        play(new Trace().still(1).shake(3, 4, 8).still(1));
+        assertEquals(0, mShakes);
+    }
+
+    @Test
+    public void countsWakeupsSaved() {
+        Trace trace = new Trace().still(60);
+        play(trace);
+        assertEquals(trace.count, mDetector.getSampleCount());
+        assertEquals(trace.count / BATCH, mDetector.getBatchCount());
+        assertEquals(trace.count - trace.count / BATCH, mDetector.getWakeupsSaved());
+    }
+}
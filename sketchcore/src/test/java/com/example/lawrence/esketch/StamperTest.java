@@ -0,0 +1,89 @@
+package com.example.lawrence.esketch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * checks that stamps are spaced by distance traveled, however the path is cut up.
+ */
+public class StamperTest {
+
+    private final List<float[]> mStamps = new ArrayList<>();
+    private Stamper mStamper;
+
+    @Before
+    public void setUp() {
+        mStamper = new Stamper(new Stamper.Target() {
+            @Override
+            public void stamp(int pointer, float x, float y) {
+                mStamps.add(new float[]{x, y});
+            }
+        });
+        mStamper.setSpacing(0, 2);
+    }
+
+    @Test
+    public void stampsAreEvenlySpacedAcrossSegments() {
+        // a straight line cut into uneven pieces
+        mStamper.moveTo(0, 0, 0);
+        mStamper.quadTo(0, 1.5f, 0, 3, 0);
+        mStamper.quadTo(0, 3.25f, 0, 3.5f, 0);
+        mStamper.cubicTo(0, 5, 0, 8, 0, 10, 0);
+
+        assertEquals(6, mStamps.size()); // 0, 2, 4, 6, 8, 10
+        for (int i = 0; i < mStamps.size(); ++i) {
+            assertEquals(i * 2, mStamps.get(i)[0], 1e-4);
+            assertEquals(0, mStamps.get(i)[1], 0);
+        }
+    }
+
+    @Test
+    public void touchingDownWithoutMovingStampsNothing() {
+        mStamper.moveTo(0, 5, 5);
+        assertEquals(0, mStamps.size());
+        mStamper.quadTo(0, 5, 5, 5, 5);
+        assertEquals(0, mStamps.size());
+    }
+
+    @Test
+    public void stampsFollowCurves() {
+        // a half circle of radius 50 around (50, 0) as two cubics
+        float k = 0.5523f * 50;
+        mStamper.moveTo(0, 0, 0);
+        mStamper.cubicTo(0, 0, k, 50 - k, 50, 50, 50);
+        mStamper.cubicTo(0, 50 + k, 50, 100, k, 100, 0);
+
+        // 157 px long, the pieces are a bit shorter than the arc
+        assertTrue(mStamps.size() >= 78 && mStamps.size() <= 79);
+        for (float[] stamp : mStamps) {
+            assertEquals(50, Math.hypot(stamp[0] - 50, stamp[1]), 0.2);
+        }
+    }
+
+    @Test
+    public void continuingDoesNotMoveTheFinalStamps() {
+        mStamper.moveTo(0, 0, 0);
+        mStamper.quadTo(0, 2.5f, 0, 5, 0);
+        assertEquals(3, mStamps.size()); // 0, 2, 4
+
+        // the pending end is stamped by another stamper, the final one is untouched
+        Stamper pending = new Stamper(new Stamper.Target() {
+            @Override
+            public void stamp(int pointer, float x, float y) {
+                assertEquals(6, x, 1e-4);
+            }
+        });
+        pending.continueFrom(mStamper, 0);
+        pending.quadTo(0, 6, 0, 7, 0);
+        assertEquals(1, pending.getStampCount());
+
+        mStamper.quadTo(0, 7.5f, 0, 10, 0);
+        assertEquals(6, mStamps.size());
+        assertEquals(10, mStamps.get(5)[0], 1e-4);
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.lawrence.esketch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * checks the segments made from touch points, and that drawing doesn't allocate.
+ */
+public class StrokeBuilderTest {
+
+    // writes down the segments as text, e.g. "0 M 1.0 2.0" and "0 Q 1.0 2.0 3.0 4.0"
+    private static class RecordingSink implements SegmentSink {
+        final List<String> segments = new ArrayList<>();
+
+        @Override
+        public void moveTo(int pointer, float x, float y) {
+            segments.add(pointer + " M " + x + " " + y);
+        }
+
+        @Override
+        public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+            segments.add(pointer + " Q " + controlX + " " + controlY + " " + endX + " " + endY);
+        }
+
+        @Override
+        public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                            float endX, float endY) {
+            segments.add(pointer + " C " + control1X + " " + control1Y + " " + control2X + " " + control2Y
+                    + " " + endX + " " + endY);
+        }
+    }
+
+    private RecordingSink mSink;
+    private StrokeBuilder mBuilder;
+
+    @Before
+    public void setUp() {
+        mSink = new RecordingSink();
+        mBuilder = new StrokeBuilder(mSink);
+    }
+
+    @Test
+    public void curvesEndHalfwayToTheNextPoint() {
+        mBuilder.start(0, 0, 0);
+        assertTrue(mBuilder.move(0, 10, 0));
+        assertFalse(mBuilder.move(0, 12, 3)); // within the tolerance on both axes
+        assertTrue(mBuilder.move(0, 10, 20));
+        assertTrue(mBuilder.end(0));
+
+        assertEquals(3, mSink.segments.size());
+        assertEquals("0 M 0.0 0.0", mSink.segments.get(0));
+        assertEquals("0 Q 0.0 0.0 5.0 0.0", mSink.segments.get(1));
+        assertEquals("0 Q 10.0 0.0 10.0 10.0", mSink.segments.get(2));
+        assertEquals(3, mBuilder.getPointCount(0));
+        assertEquals(10, mBuilder.getEndX(0), 0);
+        assertEquals(10, mBuilder.getEndY(0), 0);
+    }
+
+    @Test
+    public void replayMakesTheSameSegments() {
+        mBuilder.start(3, 5, 5);
+        for (int i = 1; i < 50; ++i) {
+            mBuilder.move(3, 5 + i * 7, 5 + (i % 3) * 9);
+        }
+        mBuilder.end(3);
+        List<String> drawn = new ArrayList<>();
+        for (String segment : mSink.segments) {
+            drawn.add(segment.replaceFirst("^3 ", "0 "));
+        }
+
+        Stroke stroke = mBuilder.toStroke(3, 0xFF000000, 5);
+        RecordingSink replayed = new RecordingSink();
+        StrokeBuilder.replay(stroke, replayed);
+        assertEquals(drawn, replayed.segments);
+    }
+
+    @Test
+    public void tracksFingersSeparately() {
+        assertTrue(mBuilder.start(0, 0, 0));
+        assertTrue(mBuilder.start(1, 100, 100));
+        assertFalse(mBuilder.start(StrokeBuilder.MAX_POINTERS, 0, 0));
+        assertEquals(3, mBuilder.getActivePointers());
+
+        mBuilder.move(1, 120, 100);
+        assertEquals(0, mBuilder.getSegmentCount(0));
+        assertEquals(1, mBuilder.getSegmentCount(1));
+
+        assertTrue(mBuilder.end(0));
+        assertFalse(mBuilder.end(0));
+        assertFalse(mBuilder.move(0, 50, 50)); // not drawing anymore
+        assertEquals(2, mBuilder.getActivePointers());
+    }
+
+    @Test
+    public void boundsCoverTheSegments() {
+        mBuilder.start(0, 10, 10);
+        mBuilder.clearBounds();
+        assertFalse(mBuilder.hasBounds());
+
+        mBuilder.move(0, 30, 50);
+        assertTrue(mBuilder.hasBounds());
+        assertEquals(10, mBuilder.getBoundsLeft(), 0);
+        assertEquals(10, mBuilder.getBoundsTop(), 0);
+        assertEquals(20, mBuilder.getBoundsRight(), 0); // control point is the start, the end is halfway
+        assertEquals(30, mBuilder.getBoundsBottom(), 0);
+    }
+
+    @Test
+    public void drawingDoesNotAllocate() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+
+        StrokeBuilder builder = new StrokeBuilder(new SegmentSink() {
+            @Override
+            public void moveTo(int pointer, float x, float y) {
+            }
+
+            @Override
+            public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+            }
+
+            @Override
+            public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                                float endX, float endY) {
+            }
+        });
+        draw(builder); // grows the point arrays
+
+        long id = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(id);
+        draw(builder);
+        long allocated = allocations.getThreadAllocatedBytes(id) - before;
+        assertEquals(0, allocated);
+    }
+
+    // 3 fingers drawing 500 points each, then lifting
+    private static void draw(StrokeBuilder builder) {
+        for (int pointer = 0; pointer < 3; ++pointer) {
+            builder.start(pointer, pointer * 100, 0);
+        }
+        for (int i = 1; i < 500; ++i) {
+            for (int pointer = 0; pointer < 3; ++pointer) {
+                builder.move(pointer, pointer * 100 + (i % 10) * 6, i * 6);
+            }
+            builder.clearBounds();
+        }
+        for (int pointer = 0; pointer < 3; ++pointer) {
+            builder.end(pointer);
+        }
+    }
+}
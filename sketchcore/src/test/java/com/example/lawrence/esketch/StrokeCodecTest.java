@@ -0,0 +1,188 @@
+package com.example.lawrence.esketch;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * writes drawings with StrokeEncoder and reads them back with StrokeDecoder.
+ */
+public class StrokeCodecTest {
+
+    // rounding to 1/8 px is off by at most half of that
+    private static final float PRECISION = 1f / 16;
+
+    // strokes like a finger draws them: a few px between points, a few colors and widths
+    private static List<Stroke> drawing(int strokeCount, long seed) {
+        Random random = new Random(seed);
+        int[] colors = {0xFF000000, 0xFFFF0000, 0x800000FF};
+        List<Stroke> strokes = new ArrayList<>();
+        for (int s = 0; s < strokeCount; ++s) {
+            int count = 1 + random.nextInt(200);
+            float[] points = new float[count * 2];
+            float x = random.nextFloat() * 1080, y = random.nextFloat() * 1920;
+            double angle = random.nextDouble() * 2 * Math.PI;
+            for (int i = 0; i < count; ++i) {
+                angle += random.nextGaussian() * 0.2;
+                float step = 1 + random.nextFloat() * 8;
+                x += step * (float) Math.cos(angle);
+                y += step * (float) Math.sin(angle);
+                points[2 * i] = x;
+                points[2 * i + 1] = y;
+            }
+            int color = colors[s / 10 % colors.length];
+            float width = s / 25 % 2 == 0 ? 5 : 12.5f;
+            float hardness = s / 40 % 2 == 0 ? 1 : 0.5f;
+            strokes.add(new Stroke(color, width, hardness, points, count, random.nextInt(4) == 0));
+        }
+        return strokes;
+    }
+
+    private static byte[] encode(List<Stroke> strokes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StrokeEncoder encoder = new StrokeEncoder(bytes);
+        for (Stroke stroke : strokes) {
+            encoder.write(stroke);
+        }
+        encoder.finish();
+        assertEquals(bytes.size(), encoder.getByteCount());
+        return bytes.toByteArray();
+    }
+
+    private static List<Stroke> decode(byte[] bytes) throws IOException {
+        StrokeDecoder decoder = new StrokeDecoder(new ByteArrayInputStream(bytes));
+        List<Stroke> strokes = new ArrayList<>();
+        Stroke stroke;
+        while ((stroke = decoder.read()) != null) {
+            strokes.add(stroke);
+        }
+        assertNull(decoder.read());
+        return strokes;
+    }
+
+    @Test
+    public void roundTrips() throws IOException {
+        List<Stroke> strokes = drawing(100, 1);
+        List<Stroke> decoded = decode(encode(strokes));
+
+        assertEquals(strokes.size(), decoded.size());
+        for (int s = 0; s < strokes.size(); ++s) {
+            Stroke stroke = strokes.get(s), copy = decoded.get(s);
+            assertEquals(stroke.getColor(), copy.getColor());
+            assertEquals(stroke.getWidth(), copy.getWidth(), PRECISION);
+            assertEquals(stroke.getHardness(), copy.getHardness(), 1 / 255f);
+            assertEquals(stroke.isCurves(), copy.isCurves());
+            assertEquals(stroke.getPointCount(), copy.getPointCount());
+            for (int i = 0; i < stroke.getPointCount(); ++i) {
+                assertEquals(stroke.getX(i), copy.getX(i), PRECISION);
+                assertEquals(stroke.getY(i), copy.getY(i), PRECISION);
+            }
+        }
+    }
+
+    @Test
+    public void roundingDoesNotAddUp() throws IOException {
+        // tiny steps that each round the same way
+        float[] points = new float[2 * 10000];
+        for (int i = 0; i < 10000; ++i) {
+            points[2 * i] = 0.3f * i;
+            points[2 * i + 1] = 1000 - 0.07f * i;
+        }
+        Stroke copy = decode(encode(Arrays.asList(new Stroke(0xFF000000, 5, points, 10000)))).get(0);
+        for (int i = 0; i < 10000; ++i) {
+            assertEquals(points[2 * i], copy.getX(i), PRECISION);
+            assertEquals(points[2 * i + 1], copy.getY(i), PRECISION);
+        }
+    }
+
+    @Test
+    public void emptyDrawing() throws IOException {
+        byte[] bytes = encode(new ArrayList<Stroke>());
+        assertEquals(7, bytes.length);
+        assertTrue(decode(bytes).isEmpty());
+    }
+
+    @Test
+    public void isCompact() throws IOException {
+        List<Stroke> strokes = drawing(500, 2);
+        long points = 0;
+        for (Stroke stroke : strokes) {
+            points += stroke.getPointCount();
+        }
+        byte[] bytes = encode(strokes);
+
+        // 8 bytes a point as floats
+        assertTrue(bytes.length + " bytes for " + points + " points", bytes.length < points * 3);
+    }
+
+    @Test
+    public void marksComeBackBetweenStrokes() throws IOException {
+        List<Stroke> strokes = drawing(3, 5);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StrokeEncoder encoder = new StrokeEncoder(bytes);
+        encoder.write(strokes.get(0));
+        encoder.mark(7);
+        encoder.write(strokes.get(1));
+        encoder.flush(); // appended later, like a journal
+        encoder.mark(0);
+        encoder.write(strokes.get(2));
+        encoder.finish();
+
+        StrokeDecoder decoder = new StrokeDecoder(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(strokes.get(0).getColor(), decoder.readRecord().getColor());
+        assertNull(decoder.readRecord());
+        assertEquals(7, decoder.getMark());
+        assertEquals(strokes.get(1).getPointCount(), decoder.readRecord().getPointCount());
+        assertNull(decoder.readRecord());
+        assertEquals(0, decoder.getMark());
+        assertEquals(strokes.get(2).getX(0), decoder.readRecord().getX(0), PRECISION);
+        assertNull(decoder.readRecord());
+        assertEquals(-1, decoder.getMark()); // the end
+
+        // read() skips them
+        assertEquals(3, decode(bytes.toByteArray()).size());
+    }
+
+    @Test
+    public void cutShortThrows() throws IOException {
+        byte[] bytes = encode(drawing(10, 3));
+        StrokeDecoder decoder = new StrokeDecoder(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1)));
+        try {
+            while (decoder.read() != null) {
+                // keep reading
+            }
+            fail("read a cut short drawing");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void rejectsOtherData() throws IOException {
+        byte[] bytes = encode(drawing(1, 4));
+
+        byte[] jpeg = Arrays.copyOf(bytes, bytes.length);
+        jpeg[0] = (byte) 0xFF;
+        jpeg[1] = (byte) 0xD8;
+        byte[] newer = Arrays.copyOf(bytes, bytes.length);
+        newer[4] = StrokeEncoder.VERSION + 1;
+
+        for (byte[] data : Arrays.asList(jpeg, newer)) {
+            try {
+                new StrokeDecoder(new ByteArrayInputStream(data));
+                fail("read something that isn't a drawing");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+}
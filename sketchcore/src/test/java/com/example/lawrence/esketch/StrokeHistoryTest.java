@@ -0,0 +1,340 @@
+package com.example.lawrence.esketch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * checks that undo stays cheap and memory stays bounded over a long session.
+ */
+public class StrokeHistoryTest {
+
+    private static final int STROKES = 10000;
+    private static final int INTERVAL = 20;
+    private static final long CHECKPOINT_BYTES = 1080 * 1920 * 4; // a full screen ARGB_8888 bitmap
+    private static final long LIMIT = 64L * 1024 * 1024;
+
+    // the "drawing" is just the number of strokes on it, a checkpoint is a copy of that number
+    private static class CountingSurface implements StrokeHistory.Surface<Integer> {
+        int strokes;
+        int draws;
+        int live; // checkpoints not released yet
+        int regions; // regions drawn again
+        int regionDraws; // strokes drawn in them
+        boolean inRegion;
+
+        @Override
+        public Integer snapshot() {
+            ++live;
+            return strokes;
+        }
+
+        @Override
+        public void restore(Integer checkpoint) {
+            strokes = checkpoint == null ? 0 : checkpoint;
+        }
+
+        @Override
+        public void draw(Stroke stroke) {
+            if (inRegion) {
+                ++regionDraws;
+                return;
+            }
+            ++strokes;
+            ++draws;
+        }
+
+        @Override
+        public long sizeOf(Integer checkpoint) {
+            return CHECKPOINT_BYTES;
+        }
+
+        @Override
+        public void release(Integer checkpoint) {
+            --live;
+        }
+
+        @Override
+        public void beginRegion(Integer target, Integer start, int left, int top, int right, int bottom) {
+            ++regions;
+            inRegion = true;
+        }
+
+        @Override
+        public void endRegion() {
+            inRegion = false;
+        }
+    }
+
+    private CountingSurface mSurface;
+    private StrokeHistory<Integer> mHistory;
+
+    @Before
+    public void setUp() {
+        mSurface = new CountingSurface();
+        mHistory = new StrokeHistory<>(mSurface, INTERVAL, LIMIT);
+    }
+
+    private static Stroke stroke(int i) {
+        float[] points = new float[200];
+        for (int p = 0; p < points.length; ++p) {
+            points[p] = (i * 7 + p * 13) % 1000;
+        }
+        return new Stroke(0xFF000000, 5, points, points.length / 2);
+    }
+
+    // draw a stroke like the view does, then record it
+    private void draw(int i) {
+        ++mSurface.strokes;
+        mHistory.add(stroke(i));
+    }
+
+    @Test
+    public void memoryStaysUnderLimit() {
+        for (int i = 0; i < STROKES; ++i) {
+            draw(i);
+            assertTrue("history uses " + mHistory.getByteCount(), mHistory.getByteCount() <= LIMIT);
+        }
+        // the start of the history was evicted long ago, so every checkpoint left holds an image
+        assertEquals(mHistory.getCheckpointCount(), mSurface.live);
+    }
+
+    @Test
+    public void undoReplaysAtMostOneInterval() {
+        for (int i = 0; i < STROKES; ++i) {
+            draw(i);
+        }
+
+        int undone = 0;
+        while (mHistory.undo()) {
+            ++undone;
+            assertTrue("replayed " + mHistory.getLastReplayCount(), mHistory.getLastReplayCount() < INTERVAL);
+            assertEquals(STROKES - undone, mSurface.strokes);
+        }
+        assertTrue("nothing could be undone", undone > 0);
+
+        // everything undone can be redone
+        for (int i = 0; i < undone; ++i) {
+            assertTrue(mHistory.redo());
+        }
+        assertFalse(mHistory.redo());
+        assertEquals(STROKES, mSurface.strokes);
+    }
+
+    @Test
+    public void newStrokeDropsRedo() {
+        for (int i = 0; i < 50; ++i) {
+            draw(i);
+        }
+        mHistory.undo();
+        mHistory.undo();
+        assertTrue(mHistory.canRedo());
+
+        draw(50);
+        assertFalse(mHistory.canRedo());
+        assertEquals(49, mSurface.strokes);
+
+        mHistory.undo();
+        assertEquals(48, mSurface.strokes);
+    }
+
+    @Test
+    public void startAndDrawnStrokesMakeTheDrawing() {
+        for (int i = 0; i < STROKES; ++i) {
+            draw(i);
+        }
+        mHistory.undo();
+
+        // what an export draws: the start checkpoint, then the strokes after it
+        Integer start = mHistory.getStart();
+        assertNotNull(start); // the blank start was evicted
+        assertEquals(mSurface.strokes, start + mHistory.getDrawnCount());
+        assertEquals(stroke(STROKES - 2).getX(0), mHistory.getStroke(mHistory.getDrawnCount() - 1).getX(0), 0);
+    }
+
+    @Test
+    public void strokesAddedTogetherAreCheckpointedAfterTheLast() {
+        for (int i = 0; i < INTERVAL - 1; ++i) {
+            draw(i);
+        }
+        // three fingers lift at once: the drawing only matches a step after all of them
+        mSurface.strokes += 3;
+        mHistory.addAll(Arrays.asList(stroke(100), stroke(101), stroke(102)));
+        assertEquals(2, mHistory.getCheckpointCount());
+        assertEquals(INTERVAL + 2, mSurface.strokes);
+
+        // so the checkpoint has all of them, and undo gets back to each step in between
+        for (int i = 1; i <= 3; ++i) {
+            mHistory.undo();
+            assertEquals(INTERVAL + 2 - i, mSurface.strokes);
+        }
+    }
+
+    @Test
+    public void eraseRedrawsWhereTheStrokeWas() {
+        // 100 horizontal lines 10px apart
+        for (int i = 0; i < 100; ++i) {
+            ++mSurface.strokes;
+            mHistory.add(new Stroke(0xFF000000, 5, new float[]{0, i * 10, 100, i * 10}, 2));
+        }
+
+        assertEquals(1, mHistory.erase(50, 501, 1));
+        assertTrue(mHistory.isErased(50));
+        assertFalse(mHistory.isErased(49));
+        // the drawing and the checkpoints after stroke 50 (at 60, 80 and 100 strokes)
+        assertEquals(4, mSurface.regions);
+        assertEquals(0, mSurface.regionDraws); // the lines next to it don't reach into its box
+        assertEquals(0, mHistory.erase(50, 501, 1)); // already gone
+
+        // a wider eraser reaches the lines on both sides
+        assertEquals(2, mHistory.erase(50, 500, 8));
+        assertTrue(mHistory.isErased(49));
+        assertTrue(mHistory.isErased(51));
+
+        // undo doesn't draw erased strokes again
+        while (mHistory.getDrawnCount() > 55) mHistory.undo();
+        int draws = mSurface.draws;
+        mHistory.undo();
+        int erasedBefore = 0;
+        for (int i = 40; i < 54; ++i) {
+            if (mHistory.isErased(i)) ++erasedBefore;
+        }
+        assertEquals(14 - erasedBefore, mSurface.draws - draws);
+
+        // undone strokes can't be erased
+        assertEquals(0, mHistory.erase(50, 700, 1));
+    }
+
+    @Test
+    public void erasedStepsCountFromTheReset() {
+        // only a few checkpoints fit, so the oldest strokes are dropped
+        mHistory = new StrokeHistory<>(mSurface, INTERVAL, 4 * CHECKPOINT_BYTES);
+        for (int i = 0; i < 200; ++i) {
+            ++mSurface.strokes;
+            mHistory.add(new Stroke(0xFF000000, 5, new float[]{0, i * 10, 100, i * 10}, 2));
+        }
+        assertTrue(mHistory.getStart() != null);
+
+        assertEquals(2, mHistory.erase(50, 1905, 6));
+        assertEquals(190, mHistory.getErasedStep(0));
+        assertEquals(191, mHistory.getErasedStep(1));
+
+        mHistory.reset(null);
+        mHistory.add(new Stroke(0xFF000000, 5, new float[]{0, 0, 100, 0}, 2));
+        assertEquals(1, mHistory.erase(50, 0, 1));
+        assertEquals(0, mHistory.getErasedStep(0));
+    }
+
+    // a fill can't be replayed: the counting surface jumps by 1000 for it
+    private void fill() {
+        mSurface.strokes += 1000;
+        mHistory.addSnapshot();
+    }
+
+    private void line(int i) {
+        ++mSurface.strokes;
+        mHistory.add(new Stroke(0xFF000000, 5, new float[]{0, i * 10, 100, i * 10}, 2));
+    }
+
+    @Test
+    public void fillsAreStepsLikeStrokes() {
+        for (int i = 0; i < 25; ++i) {
+            draw(i);
+        }
+        fill();
+        for (int i = 0; i < 3; ++i) {
+            draw(i);
+        }
+        assertEquals(1028, mSurface.strokes);
+
+        // undo gets back before the fill, and the strokes before it are still there
+        for (int i = 0; i < 5; ++i) {
+            assertTrue(mHistory.undo());
+        }
+        assertEquals(24, mSurface.strokes);
+        assertTrue("replayed " + mHistory.getLastReplayCount(), mHistory.getLastReplayCount() < INTERVAL);
+
+        // redo puts the fill back
+        assertTrue(mHistory.redo());
+        assertTrue(mHistory.redo());
+        assertEquals(1025, mSurface.strokes);
+        assertTrue(mHistory.redo());
+        assertEquals(1026, mSurface.strokes);
+        assertEquals(26, mHistory.getStartIndex());
+        assertEquals(1025, (int) mHistory.getStart());
+        assertNull(mHistory.getStroke(25));
+    }
+
+    @Test
+    public void strokesUnderAFillStay() {
+        for (int i = 0; i < 10; ++i) {
+            line(i);
+        }
+        fill();
+        line(10);
+        line(11);
+
+        // lines before the fill are in it now, only the ones after can be erased
+        assertEquals(0, mHistory.erase(50, 50, 1));
+        assertEquals(1, mHistory.erase(50, 100, 1));
+        assertTrue(mHistory.isErased(11));
+
+        // with the fill undone and drawn over, the lines under it still stay, and so does
+        // the one drawing over it (the new checkpoint has it), but the ones after can be
+        // erased again
+        for (int i = 0; i < 3; ++i) {
+            mHistory.undo();
+        }
+        line(12);
+        line(13);
+        assertFalse(mHistory.canRedo());
+        assertEquals(0, mHistory.erase(50, 50, 1));
+        assertEquals(0, mHistory.erase(50, 120, 1));
+        assertEquals(1, mHistory.erase(50, 130, 1));
+        assertEquals(0, mHistory.getStartIndex());
+
+        mHistory.clear();
+        assertEquals(0, mSurface.live);
+    }
+
+    @Test
+    public void pinnedStepsStayUndoable() {
+        // room for a few checkpoints, but the last 200 strokes are pinned
+        mHistory = new StrokeHistory<>(mSurface, INTERVAL, 4 * CHECKPOINT_BYTES);
+        for (int i = 0; i < 100; ++i) {
+            draw(i);
+        }
+        mHistory.pin(mHistory.getDrawnCount());
+        for (int i = 0; i < 200; ++i) {
+            draw(i);
+        }
+        assertTrue(mHistory.getByteCount() > mHistory.getMemoryLimit());
+
+        // all of them go at once, replaying less than one interval
+        int draws = mSurface.draws;
+        assertTrue(mHistory.undoTo(mHistory.getDrawnCount() - 200));
+        assertEquals(100, mSurface.strokes);
+        assertTrue(mSurface.draws - draws < INTERVAL);
+        assertFalse(mHistory.undoTo(-1));
+        assertFalse(mHistory.undoTo(mHistory.getDrawnCount() + 1));
+
+        // unpinned and drawn over, the limit holds again
+        mHistory.unpin();
+        draw(300);
+        assertTrue(mHistory.getByteCount() <= mHistory.getMemoryLimit());
+    }
+
+    @Test
+    public void clearReleasesCheckpoints() {
+        for (int i = 0; i < 100; ++i) {
+            draw(i);
+        }
+        mHistory.clear();
+        assertEquals(0, mSurface.live);
+        assertEquals(0, mHistory.getByteCount());
+        assertFalse(mHistory.canUndo());
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.lawrence.esketch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * compares the index's answers with testing every stroke, also on a drawing of 50k
+ * strokes. How long a hit test takes is measured by StrokeIndexBenchmark.
+ */
+public class StrokeIndexTest {
+
+    private static final float CELL = 64;
+
+    // finger strokes of 1 to 60 points all over a phone screen, some of them curves
+    private static List<Stroke> strokes(int count, long seed) {
+        Random random = new Random(seed);
+        List<Stroke> strokes = new ArrayList<>();
+        for (int s = 0; s < count; ++s) {
+            int points = 1 + random.nextInt(60);
+            boolean curves = random.nextInt(3) == 0;
+            // mostly whole cubics, some with a line after them like a finger lifted mid-curve
+            if (curves) points = 1 + 3 * (1 + random.nextInt(10)) + (random.nextInt(4) == 0 ? 1 : 0);
+            float[] xy = new float[points * 2];
+            float x = random.nextFloat() * 1080, y = random.nextFloat() * 1920;
+            double angle = random.nextDouble() * 2 * Math.PI;
+            for (int i = 0; i < points; ++i) {
+                angle += random.nextGaussian() * 0.3;
+                x += 6 * (float) Math.cos(angle);
+                y += 6 * (float) Math.sin(angle);
+                xy[2 * i] = x;
+                xy[2 * i + 1] = y;
+            }
+            strokes.add(new Stroke(0xFF000000, 1 + random.nextInt(20), xy, points, curves));
+        }
+        return strokes;
+    }
+
+    // the strokes within radius of (x, y), by following every one of them
+    private static List<Integer> bruteForce(List<Stroke> strokes, boolean[] removed, float x, float y, float radius) {
+        List<Integer> found = new ArrayList<>();
+        for (int id = 0; id < strokes.size(); ++id) {
+            if (!removed[id] && hits(strokes.get(id), x, y, radius)) found.add(id);
+        }
+        return found;
+    }
+
+    // whether the stroke's line (cubics followed in 8 lines, like the index does) passes
+    // within radius of (x, y), counting its width
+    private static boolean hits(Stroke stroke, float x, float y, float radius) {
+        float reach = radius + stroke.getWidth() / 2;
+        reach *= reach;
+        int last = stroke.getPointCount() - 1;
+        if (last == 0) return distance(x, y, stroke.getX(0), stroke.getY(0), stroke.getX(0), stroke.getY(0)) <= reach;
+        int step = stroke.isCurves() ? 3 : 1;
+        for (int p = 0; p < last; p += step) {
+            int q = Math.min(p + step, last);
+            if (q == p + 3) {
+                float startX = stroke.getX(p), startY = stroke.getY(p);
+                for (int i = 1; i <= 8; ++i) {
+                    float t = i / 8f, u = 1 - t;
+                    float b0 = u * u * u, b1 = 3 * t * u * u, b2 = 3 * t * t * u, b3 = t * t * t;
+                    float endX = b0 * stroke.getX(p) + b1 * stroke.getX(p + 1) + b2 * stroke.getX(p + 2) + b3 * stroke.getX(p + 3);
+                    float endY = b0 * stroke.getY(p) + b1 * stroke.getY(p + 1) + b2 * stroke.getY(p + 2) + b3 * stroke.getY(p + 3);
+                    if (distance(x, y, startX, startY, endX, endY) <= reach) return true;
+                    startX = endX;
+                    startY = endY;
+                }
+            } else if (distance(x, y, stroke.getX(p), stroke.getY(p), stroke.getX(q), stroke.getY(q)) <= reach) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // squared distance from (x, y) to the line from (x0, y0) to (x1, y1)
+    private static float distance(float x, float y, float x0, float y0, float x1, float y1) {
+        float dx = x1 - x0, dy = y1 - y0;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((x - x0) * dx + (y - y0) * dy) / lengthSquared));
+        float ex = x0 + t * dx - x, ey = y0 + t * dy - y;
+        return ex * ex + ey * ey;
+    }
+
+    private static List<Integer> results(StrokeIndex index, int count) {
+        List<Integer> found = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            found.add(index.getResult(i));
+        }
+        return found;
+    }
+
+    @Test
+    public void findsWhatTestingEveryStrokeFinds() {
+        List<Stroke> strokes = strokes(2000, 1);
+        StrokeIndex index = new StrokeIndex(CELL);
+        for (Stroke stroke : strokes) {
+            index.add(stroke);
+        }
+        boolean[] removed = new boolean[strokes.size()];
+        Random random = new Random(2);
+        for (int i = 0; i < 300; ++i) {
+            int id = random.nextInt(strokes.size());
+            if (!removed[id]) index.remove(id);
+            removed[id] = true;
+        }
+
+        for (int query = 0; query < 200; ++query) {
+            float x = random.nextFloat() * 1080, y = random.nextFloat() * 1920;
+            float radius = random.nextFloat() * 40;
+            List<Integer> expected = bruteForce(strokes, removed, x, y, radius);
+            assertEquals(expected, results(index, index.queryPoint(x, y, radius)));
+        }
+    }
+
+    @Test
+    public void boxFindsEveryStrokeCoveringIt() {
+        List<Stroke> strokes = strokes(2000, 3);
+        StrokeIndex index = new StrokeIndex(CELL);
+        for (Stroke stroke : strokes) {
+            index.add(stroke);
+        }
+        float[] bounds = new float[4];
+        List<Integer> found = results(index, index.queryBox(300, 400, 500, 700));
+        for (int id = 0; id < strokes.size(); ++id) {
+            Stroke stroke = strokes.get(id);
+            boolean inside = false;
+            for (int i = 0; i < stroke.getPointCount(); ++i) {
+                inside |= stroke.getX(i) >= 300 && stroke.getX(i) <= 500 && stroke.getY(i) >= 400 && stroke.getY(i) <= 700;
+            }
+            index.getBounds(id, bounds);
+            boolean overlaps = bounds[0] <= 500 && bounds[1] <= 700 && bounds[2] >= 300 && bounds[3] >= 400;
+
+            // everything with a point in the box, nothing whose bounds miss it
+            if (inside) assertTrue("stroke " + id, found.contains(id));
+            if (!overlaps) assertFalse("stroke " + id, found.contains(id));
+        }
+    }
+
+    @Test
+    public void hitTestOn50kStrokesFindsWhatOneCellFinds() {
+        // a single cell holds every stroke, so it tests all of them
+        List<Stroke> strokes = strokes(50000, 4);
+        StrokeIndex index = new StrokeIndex(CELL);
+        StrokeIndex oneCell = new StrokeIndex(1e9f);
+        for (Stroke stroke : strokes) {
+            index.add(stroke);
+            oneCell.add(stroke);
+        }
+
+        Random random = new Random(5);
+        int found = 0;
+        for (int i = 0; i < 50; ++i) {
+            float x = random.nextFloat() * 1080, y = random.nextFloat() * 1920;
+            List<Integer> expected = results(oneCell, oneCell.queryPoint(x, y, 16));
+            assertEquals(expected, results(index, index.queryPoint(x, y, 16)));
+            found += expected.size();
+        }
+        assertTrue(found > 0);
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.lawrence.esketch;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * compares the rasterizer's pictures with Java2D's, which stands in for the device's
+ * Skia (like in SimplifiedRasterBenchmark): both draw the same paths anti-aliased, so
+ * they may only differ a little along the edges. Where a curve turns back on itself
+ * within the line's width, Java2D leaves out bits of ink that the exact outline (and
+ * the rasterizer) has, so a few pixels may be off by more.
+ */
+public class StrokeRasterizerTest {
+
+    private static final int WIDTH = 500;
+    private static final int HEIGHT = 400;
+    private static final int WHITE = 0xFFFFFFFF;
+
+    private static final ForkJoinPool sPool = new ForkJoinPool(4);
+
+    @AfterClass
+    public static void tearDownClass() {
+        sPool.shutdown();
+    }
+
+    // wandering strokes of different colors and widths up to maxWidth, some of them
+    // curves. the points are up to step apart.
+    private static List<Stroke> strokes(Random random, int count, float step, int maxWidth) {
+        List<Stroke> strokes = new ArrayList<>();
+        for (int s = 0; s < count; ++s) {
+            int pointCount = 2 + random.nextInt(40);
+            float[] points = new float[pointCount * 2];
+            float x = random.nextFloat() * WIDTH, y = random.nextFloat() * HEIGHT;
+            for (int i = 0; i < pointCount; ++i) {
+                points[i * 2] = x;
+                points[i * 2 + 1] = y;
+                x += (random.nextFloat() * 2 - 1) * step;
+                y += (random.nextFloat() * 2 - 1) * step;
+            }
+            int alpha = random.nextBoolean() ? 0xFF : 0x40 + random.nextInt(0xC0);
+            int color = alpha << 24 | random.nextInt(0x1000000);
+            float width = 1 + random.nextInt(maxWidth);
+            if (random.nextInt(4) == 0) {
+                points = simplify(points, pointCount);
+                strokes.add(new Stroke(color, width, 1, points, points.length / 2, true));
+            } else {
+                strokes.add(new Stroke(color, width, points, pointCount));
+            }
+        }
+        return strokes;
+    }
+
+    // the curves StrokeBuilder would keep for the points
+    private static float[] simplify(float[] points, int pointCount) {
+        StrokeBuilder builder = new StrokeBuilder(new Path2DSink(new Path2D.Float()));
+        builder.setSimplifyTolerance(1);
+        builder.start(0, points[0], points[1]);
+        for (int i = 1; i < pointCount; ++i) builder.move(0, points[i * 2], points[i * 2 + 1]);
+        builder.end(0);
+        return Arrays.copyOf(builder.getCurvePoints(0), builder.getCurvePointCount(0) * 2);
+    }
+
+    private static class Path2DSink implements SegmentSink {
+        final Path2D.Float path;
+
+        Path2DSink(Path2D.Float path) {
+            this.path = path;
+        }
+
+        @Override
+        public void moveTo(int pointer, float x, float y) {
+            path.moveTo(x, y);
+        }
+
+        @Override
+        public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+            path.quadTo(controlX, controlY, endX, endY);
+        }
+
+        @Override
+        public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                            float endX, float endY) {
+            path.curveTo(control1X, control1Y, control2X, control2Y, endX, endY);
+        }
+    }
+
+    // the strokes drawn by Java2D, like eSketchView draws them with mPaintLine
+    private static int[] java2d(List<Stroke> strokes, float scale) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, WIDTH, HEIGHT);
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        for (Stroke stroke : strokes) {
+            Path2DSink sink = new Path2DSink(new Path2D.Float());
+            StrokeBuilder.replay(stroke, sink);
+            sink.path.transform(AffineTransform.getScaleInstance(scale, scale));
+            graphics.setStroke(new BasicStroke(stroke.getWidth() * scale, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            graphics.setColor(new Color(stroke.getColor(), true));
+            graphics.draw(sink.path);
+        }
+        graphics.dispose();
+        return image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+    }
+
+    private static int difference(int a, int b) {
+        int most = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            most = Math.max(most, Math.abs(((a >> shift) & 0xFF) - ((b >> shift) & 0xFF)));
+        }
+        return most;
+    }
+
+    // on average within maxMean, and at most maxFar of the pixels off by more than 32
+    private static void assertLooksLike(int[] expected, int[] actual, double maxMean, double maxFar) {
+        long total = 0;
+        int far = 0, most = 0;
+        for (int i = 0; i < expected.length; ++i) {
+            int difference = difference(expected[i], actual[i]);
+            total += difference;
+            most = Math.max(most, difference);
+            if (difference > 32) ++far;
+        }
+        double mean = (double) total / expected.length;
+        String message = "mean difference " + mean + ", most " + most + ", " + far + " pixels off by more than 32";
+        assertTrue(message, mean < maxMean);
+        assertTrue(message, far < expected.length * maxFar);
+    }
+
+    @Test
+    public void looksLikeJava2D() {
+        // like touch input: points a few pixels apart, thin to medium lines
+        List<Stroke> strokes = strokes(new Random(1), 100, 12, 12);
+        int[] pixels = new StrokeRasterizer(sPool).render(strokes, WIDTH, HEIGHT, 1, WHITE);
+        assertLooksLike(java2d(strokes, 1), pixels, 1, 0.003);
+    }
+
+    @Test
+    public void scaledLooksLikeJava2D() {
+        List<Stroke> strokes = strokes(new Random(2), 100, 12, 12);
+        int[] pixels = new StrokeRasterizer(sPool).render(strokes, WIDTH, HEIGHT, 0.5f, WHITE);
+        assertLooksLike(java2d(strokes, 0.5f), pixels, 1, 0.003);
+    }
+
+    @Test
+    public void wideTightCurvesLookLikeJava2D() {
+        // bends tighter than the lines are wide: Java2D only approximates the edges there
+        // (further off the exact ones than the rasterizer), so these are compared looser
+        List<Stroke> strokes = strokes(new Random(3), 60, 30, 30);
+        int[] pixels = new StrokeRasterizer(sPool).render(strokes, WIDTH, HEIGHT, 1, WHITE);
+        assertLooksLike(java2d(strokes, 1), pixels, 1.5, 0.01);
+    }
+
+    @Test
+    public void sameOnOneThread() {
+        List<Stroke> strokes = strokes(new Random(4), 60, 30, 30);
+        ForkJoinPool one = new ForkJoinPool(1);
+        try {
+            assertArrayEquals(new StrokeRasterizer(one).render(strokes, WIDTH, HEIGHT, 1, WHITE),
+                    new StrokeRasterizer(sPool).render(strokes, WIDTH, HEIGHT, 1, WHITE));
+        } finally {
+            one.shutdown();
+        }
+    }
+
+    @Test
+    public void translucentStrokeCoversItsCrossingOnce() {
+        // a loop: the stroke crosses itself at (100, 100)
+        float[] points = {50, 100, 150, 100, 150, 150, 100, 150, 100, 50, 100, 20};
+        Stroke stroke = new Stroke(0x80000000, 10, points, points.length / 2);
+        int[] pixels = new StrokeRasterizer(sPool).render(Arrays.asList(stroke), WIDTH, HEIGHT, 1, WHITE);
+        int crossing = pixels[100 * WIDTH + 100];
+        assertNotEquals(WHITE, crossing);
+        assertEquals(pixels[100 * WIDTH + 70], crossing); // along a single part of it
+    }
+
+    @Test
+    public void aTouchWithoutMovingDrawsNothing() {
+        Stroke dot = new Stroke(0xFF000000, 20, new float[]{100, 100}, 1);
+        int[] pixels = new StrokeRasterizer(sPool).render(Arrays.asList(dot), WIDTH, HEIGHT, 1, WHITE);
+        for (int pixel : pixels) assertEquals(WHITE, pixel);
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.lawrence.esketch;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * checks that simplified strokes stay within the tolerance of the touch points,
+ * and how many fewer points they need.
+ */
+public class StrokeSimplifierTest {
+
+    private static final float TOLERANCE = 1;
+
+    // keeps the sent curves as a point chain like Stroke's: start, then control, control, end
+    private static class CurveSink implements SegmentSink {
+        float[] points = new float[2 * 4096];
+        int count;
+
+        void add(float x, float y) {
+            points[2 * count] = x;
+            points[2 * count + 1] = y;
+            ++count;
+        }
+
+        @Override
+        public void moveTo(int pointer, float x, float y) {
+            add(x, y);
+        }
+
+        @Override
+        public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+            fail("simplified strokes are made of cubics");
+        }
+
+        @Override
+        public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                            float endX, float endY) {
+            add(control1X, control1Y);
+            add(control2X, control2Y);
+            add(endX, endY);
+        }
+    }
+
+    // a slow, wobbly stroke: loops like handwriting, plus some touch noise
+    private static float[] handwriting(int points, long seed) {
+        Random random = new Random(seed);
+        float[] xy = new float[2 * points];
+        for (int i = 0; i < points; ++i) {
+            double t = i * 0.12;
+            xy[2 * i] = (float) (i * 1.5 + 15 * Math.sin(t)) + 0.3f * random.nextFloat();
+            xy[2 * i + 1] = (float) (300 + 25 * Math.cos(t * 0.7)) + 0.3f * random.nextFloat();
+        }
+        return xy;
+    }
+
+    // run points through a StrokeBuilder like touch input, return the curves sent
+    private static CurveSink simplify(float[] xy, float tolerance, StrokeBuilder[] used) {
+        CurveSink sink = new CurveSink();
+        StrokeBuilder builder = new StrokeBuilder(sink);
+        builder.setSimplifyTolerance(tolerance);
+        builder.start(0, xy[0], xy[1]);
+        for (int i = 2; i < xy.length; i += 2) {
+            builder.move(0, xy[i], xy[i + 1]);
+        }
+        builder.end(0);
+        used[0] = builder;
+        return sink;
+    }
+
+    @Test
+    public void staysWithinTolerance() {
+        for (long seed = 0; seed < 20; ++seed) {
+            float[] xy = handwriting(600, seed);
+            StrokeBuilder[] builder = new StrokeBuilder[1];
+            CurveSink curves = simplify(xy, TOLERANCE, builder);
+
+            // every point far enough from the one before it was used, and must be near the curves
+            float lastX = xy[0], lastY = xy[1];
+            for (int i = 2; i < xy.length; i += 2) {
+                if (Math.abs(xy[i] - lastX) < StrokeBuilder.TOUCH_TOLERANCE
+                        && Math.abs(xy[i + 1] - lastY) < StrokeBuilder.TOUCH_TOLERANCE) continue;
+                lastX = xy[i];
+                lastY = xy[i + 1];
+                float distance = distance(curves, lastX, lastY);
+                assertTrue("point " + i / 2 + " is " + distance + "px away", distance <= TOLERANCE + 0.05f);
+            }
+        }
+    }
+
+    @Test
+    public void storesFewerPoints() {
+        // a slow, steady arc: hundreds of nearly collinear segments without simplifying
+        Random random = new Random(5);
+        float[] xy = new float[2 * 2000];
+        for (int i = 0; i < 2000; ++i) {
+            double t = i * 0.002;
+            xy[2 * i] = (float) (500 * Math.cos(t)) + 0.3f * random.nextFloat();
+            xy[2 * i + 1] = (float) (500 * Math.sin(t)) + 0.3f * random.nextFloat();
+        }
+        StrokeBuilder[] builder = new StrokeBuilder[1];
+        simplify(xy, TOLERANCE, builder);
+        int raw = builder[0].getPointCount(0);
+        Stroke stroke = builder[0].toStroke(0, 0xFF000000, 5);
+        int stored = stroke.getPointCount();
+
+        assertTrue(stroke.isCurves());
+        assertEquals(builder[0].getCurvePointCount(0), stored);
+        assertTrue(raw + " points stored as " + stored, stored * 5 < raw);
+    }
+
+    @Test
+    public void drawsFewerSegments() {
+        // tight loops need more curves, but still far fewer than one per point
+        float[] xy = handwriting(2000, 7);
+        StrokeBuilder[] builder = new StrokeBuilder[1];
+        CurveSink curves = simplify(xy, TOLERANCE, builder);
+        int segments = (curves.count - 1) / 3;
+        int raw = builder[0].getPointCount(0);
+        assertTrue(raw + " points drawn with " + segments + " curves", segments * 4 < raw);
+    }
+
+    @Test
+    public void keepsPointsWhenCurvesTakeMoreRoom() {
+        // a sharp corner at every point needs a curve per point
+        float[] xy = new float[2 * 100];
+        for (int i = 0; i < 100; ++i) {
+            xy[2 * i] = i * 8;
+            xy[2 * i + 1] = (i % 2) * 20;
+        }
+        StrokeBuilder[] builder = new StrokeBuilder[1];
+        simplify(xy, TOLERANCE, builder);
+
+        Stroke stroke = builder[0].toStroke(0, 0xFF000000, 5);
+        assertTrue(builder[0].getCurvePointCount(0) > builder[0].getPointCount(0));
+        assertFalse(stroke.isCurves());
+        assertEquals(100, stroke.getPointCount());
+    }
+
+    @Test
+    public void straightLineIsOneCurve() {
+        float[] xy = new float[2 * 300];
+        for (int i = 0; i < 300; ++i) {
+            xy[2 * i] = 10 + i * 6;
+            xy[2 * i + 1] = 20 + i * 3;
+        }
+        StrokeBuilder[] builder = new StrokeBuilder[1];
+        CurveSink curves = simplify(xy, TOLERANCE, builder);
+
+        // the window is cut every WINDOW points, even on a straight line
+        int expected = (299 + StrokeSimplifier.WINDOW - 2) / (StrokeSimplifier.WINDOW - 1);
+        assertEquals(1 + 3 * expected, curves.count);
+    }
+
+    @Test
+    public void replayMatchesDrawnCurves() {
+        float[] xy = handwriting(400, 3);
+        StrokeBuilder[] builder = new StrokeBuilder[1];
+        CurveSink drawn = simplify(xy, TOLERANCE, builder);
+
+        CurveSink replayed = new CurveSink();
+        Stroke stroke = new Stroke(0xFF000000, 5, builder[0].getCurvePoints(0), builder[0].getCurvePointCount(0), true);
+        StrokeBuilder.replay(stroke, replayed);
+        assertEquals(drawn.count, replayed.count);
+        for (int i = 0; i < 2 * drawn.count; ++i) {
+            assertEquals(drawn.points[i], replayed.points[i], 0);
+        }
+    }
+
+    // closest distance from (x, y) to the curves, found by walking along them finely
+    private static float distance(CurveSink curves, float x, float y) {
+        float best = Float.MAX_VALUE;
+        float[] p = curves.points;
+        for (int c = 0; c + 3 < curves.count; c += 3) {
+            for (int step = 0; step <= 400; ++step) {
+                float u = step / 400f;
+                float v = 1 - u;
+                float b0 = v * v * v, b1 = 3 * u * v * v, b2 = 3 * u * u * v, b3 = u * u * u;
+                float cx = b0 * p[2 * c] + b1 * p[2 * c + 2] + b2 * p[2 * c + 4] + b3 * p[2 * c + 6];
+                float cy = b0 * p[2 * c + 1] + b1 * p[2 * c + 3] + b2 * p[2 * c + 5] + b3 * p[2 * c + 7];
+                best = Math.min(best, (float) Math.hypot(cx - x, cy - y));
+            }
+        }
+        return best;
+    }
+}
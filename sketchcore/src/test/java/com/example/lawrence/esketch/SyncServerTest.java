@@ -0,0 +1,196 @@
+package com.example.lawrence.esketch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * a load test: many peers draw at once through a SyncServer on the loopback address,
+ * and all of them end up with the same drawing.
+ */
+public class SyncServerTest {
+
+    private static final int PEERS = 24;
+    private static final int STROKES = 40; // per peer
+    private static final long TIMEOUT = 60; // s
+
+    private SyncServer mServer;
+
+    // a peer drawing on its own thread. the session is only used while holding its lock,
+    // like a view only uses it on the UI thread.
+    private static class Peer implements SyncClient.Listener {
+        final SyncSessionTest.ListTarget target = new SyncSessionTest.ListTarget();
+        final SyncSession session = new SyncSession(target);
+        final SyncClient client = new SyncClient(this);
+        final CountDownLatch joined = new CountDownLatch(1);
+        volatile IOException error;
+        int received; // batches from every peer
+
+        @Override
+        public void onJoined(int peer) {
+            synchronized (session) {
+                session.setPeer(peer);
+            }
+            joined.countDown();
+        }
+
+        @Override
+        public void onBatch(int peer, byte[] batch) {
+            synchronized (session) {
+                session.receive(peer, batch, 0, batch.length);
+                session.apply();
+                ++received;
+            }
+        }
+
+        @Override
+        public void onClosed(IOException e) {
+            error = e;
+        }
+
+        // draw strokes a frame at a time, one point per frame, sending a batch each frame
+        void draw(long seed) throws InterruptedException {
+            Random random = new Random(seed);
+            for (int s = 0; s < STROKES; ++s) {
+                float x = random.nextFloat() * 1000, y = random.nextFloat() * 1000;
+                int count = 2 + random.nextInt(20);
+                float[] points = new float[count * 2];
+                for (int i = 0; i < count; ++i) {
+                    synchronized (session) {
+                        if (i == 0) session.start(0, x, y, 0xFF000000 | random.nextInt(), 6, 1);
+                        else session.move(0, x, y);
+                        points[i * 2] = x;
+                        points[i * 2 + 1] = y;
+                        if (i == count - 1) target.draw(session.end(0, new Stroke(0, 0, points, count)));
+                        byte[] batch = session.takeBatch();
+                        if (batch != null) client.send(batch);
+                        session.apply();
+                    }
+                    x += random.nextFloat() * 16 - 8;
+                    y += random.nextFloat() * 16 - 8;
+                    if (random.nextInt(4) == 0) Thread.sleep(1);
+                }
+            }
+        }
+
+        int received() {
+            synchronized (session) {
+                return received;
+            }
+        }
+
+        int pending() {
+            synchronized (session) {
+                return session.getPendingCount();
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new SyncServer(0, true);
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.close();
+    }
+
+    @Test
+    public void manyPeersConverge() throws Exception {
+        final List<Peer> peers = new ArrayList<>();
+        for (int i = 0; i < PEERS; ++i) {
+            Peer peer = new Peer();
+            peer.client.connect("localhost", mServer.getPort());
+            assertTrue(peer.joined.await(TIMEOUT, TimeUnit.SECONDS));
+            peers.add(peer);
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        final List<Throwable> failures = new ArrayList<>();
+        for (int i = 0; i < PEERS; ++i) {
+            final Peer peer = peers.get(i);
+            final long seed = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        peer.draw(seed);
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) thread.join();
+        assertTrue(failures.toString(), failures.isEmpty());
+
+        // the server has every batch once each peer got all of its own back. only then is
+        // the frame count final, and every peer has to get that many.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT);
+        for (Peer peer : peers) {
+            while (peer.pending() > 0) {
+                assertNull(peer.error);
+                assertTrue("timed out", System.nanoTime() < deadline);
+                Thread.sleep(5);
+            }
+        }
+        int frames = mServer.getFrameCount();
+        for (Peer peer : peers) {
+            while (peer.received() < frames) {
+                assertNull(peer.error);
+                assertTrue("timed out", System.nanoTime() < deadline);
+                Thread.sleep(5);
+            }
+        }
+
+        List<Stroke> expected;
+        synchronized (peers.get(0).session) {
+            expected = new ArrayList<>(peers.get(0).target.strokes);
+        }
+        assertEquals(PEERS * STROKES, expected.size());
+        for (Peer peer : peers) {
+            synchronized (peer.session) {
+                SyncSessionTest.assertSameStrokes(expected, peer.target.strokes);
+            }
+            peer.client.close();
+        }
+    }
+
+    @Test
+    public void lateJoinerGetsTheDrawingSoFar() throws Exception {
+        Peer first = new Peer();
+        first.client.connect("localhost", mServer.getPort());
+        assertTrue(first.joined.await(TIMEOUT, TimeUnit.SECONDS));
+        first.draw(1);
+        while (first.session.getPendingCount() > 0) Thread.sleep(5);
+
+        Peer late = new Peer();
+        late.client.connect("localhost", mServer.getPort());
+        assertTrue(late.joined.await(TIMEOUT, TimeUnit.SECONDS));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT);
+        while (late.received() < mServer.getFrameCount()) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+        synchronized (late.session) {
+            SyncSessionTest.assertSameStrokes(first.target.strokes, late.target.strokes);
+        }
+        first.client.close();
+        late.client.close();
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.lawrence.esketch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * sends strokes between SyncSessions through a stand-in for the server that puts the
+ * batches in an order of its choosing, and checks every peer ends up with the same drawing.
+ */
+public class SyncSessionTest {
+
+    // a drawing that is just its strokes, in the order they're drawn
+    static class ListTarget implements SyncSession.Target {
+        final List<Stroke> strokes = new ArrayList<>();
+        int takenBack;
+
+        @Override
+        public void takeBack(int count) {
+            assertTrue(count <= strokes.size());
+            for (int i = 0; i < count; ++i) strokes.remove(strokes.size() - 1);
+            takenBack += count;
+        }
+
+        @Override
+        public void draw(Stroke stroke) {
+            strokes.add(stroke);
+        }
+
+        @Override
+        public void clear() {
+            strokes.clear();
+        }
+    }
+
+    // a peer: its drawing, its session, and the batches it sent that the server hasn't taken
+    private static class Peer {
+        final ListTarget target = new ListTarget();
+        final SyncSession session = new SyncSession(target);
+        final List<byte[]> outbox = new ArrayList<>();
+
+        Peer(int id) {
+            session.setPeer(id);
+        }
+
+        // draw a stroke locally like the view does: drawn right away, then sent
+        void draw(Random random, int pointer) {
+            int count = 2 + random.nextInt(30);
+            float[] points = new float[count * 2];
+            float x = random.nextFloat() * 1000, y = random.nextFloat() * 1000;
+            session.start(pointer, x, y, 0xFF000000 | random.nextInt(), 1 + random.nextInt(20), 1);
+            points[0] = x;
+            points[1] = y;
+            for (int i = 1; i < count; ++i) {
+                x += random.nextFloat() * 20 - 10;
+                y += random.nextFloat() * 20 - 10;
+                session.move(pointer, x, y);
+                points[i * 2] = x;
+                points[i * 2 + 1] = y;
+            }
+            Stroke stroke = new Stroke(0, 0, points, count); // the brush is the session's
+            target.draw(session.end(pointer, stroke));
+            outbox.add(session.takeBatch());
+        }
+    }
+
+    static void assertSameStrokes(List<Stroke> expected, List<Stroke> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int s = 0; s < expected.size(); ++s) {
+            Stroke a = expected.get(s), b = actual.get(s);
+            assertEquals("color of " + s, a.getColor(), b.getColor());
+            assertEquals(a.getWidth(), b.getWidth(), 0);
+            assertEquals(a.getHardness(), b.getHardness(), 0);
+            assertEquals(a.isCurves(), b.isCurves());
+            assertEquals(a.getPointCount(), b.getPointCount());
+            for (int i = 0; i < a.getPointCount(); ++i) {
+                assertEquals(a.getX(i), b.getX(i), 0);
+                assertEquals(a.getY(i), b.getY(i), 0);
+            }
+        }
+    }
+
+    @Test
+    public void remoteStrokesMatchTheLocalOnes() {
+        Peer sender = new Peer(1);
+        Peer receiver = new Peer(2);
+        Random random = new Random(1);
+        for (int i = 0; i < 50; ++i) sender.draw(random, i % 3);
+
+        for (byte[] batch : sender.outbox) {
+            sender.session.receive(1, batch, 0, batch.length);
+            receiver.session.receive(1, batch, 0, batch.length);
+        }
+        assertTrue(sender.session.apply());
+        assertTrue(receiver.session.apply());
+        assertEquals(0, sender.session.getPendingCount());
+        assertEquals(0, sender.target.takenBack); // nothing came between, so nothing moved
+        assertSameStrokes(sender.target.strokes, receiver.target.strokes);
+        assertTrue(receiver.session.getLiveStrokes().isEmpty());
+
+        // half of two floats, brushes and record headers included
+        double bytesPerPoint = (double) sender.session.getSentBytes() / sender.session.getSentPoints();
+        assertTrue("bytes per point: " + bytesPerPoint, bytesPerPoint < 4);
+    }
+
+    @Test
+    public void simplifiedStrokesAreSentWhole() {
+        Peer sender = new Peer(1);
+        Peer receiver = new Peer(2);
+        sender.session.start(0, 10, 10, 0xFF00FF00, 4, 0.5f);
+        sender.session.move(0, 20, 15);
+        sender.session.move(0, 30, 30);
+        float[] curve = {10, 10, 14.2f, 11, 25, 22, 30, 30};
+        Stroke sent = sender.session.end(0, new Stroke(0, 0, 1, curve, 4, true));
+        byte[] batch = sender.session.takeBatch();
+
+        receiver.session.receive(1, batch, 0, batch.length);
+        receiver.session.apply();
+        assertEquals(1, receiver.target.strokes.size());
+        assertTrue(receiver.target.strokes.get(0).isCurves());
+        assertEquals(0.5f, receiver.target.strokes.get(0).getHardness(), 1f / 255);
+        assertSameStrokes(receiver.target.strokes, Collections.singletonList(sent));
+    }
+
+    @Test
+    public void peersConvergeWhateverTheServerOrder() {
+        Random random = new Random(5);
+        Peer[] peers = {new Peer(1), new Peer(2), new Peer(3)};
+        List<byte[]> log = new ArrayList<>();
+        List<Integer> senders = new ArrayList<>();
+
+        for (int step = 0; step < 600; ++step) {
+            Peer peer = peers[random.nextInt(peers.length)];
+            int op = random.nextInt(20);
+            if (op < 12) {
+                peer.draw(random, random.nextInt(2));
+            } else if (op == 12) {
+                peer.session.clear();
+                peer.target.clear();
+                peer.outbox.add(peer.session.takeBatch());
+            } else if (op < 17) {
+                // the server takes the oldest batch of a peer and sends it to everyone
+                int id = random.nextInt(peers.length);
+                if (peers[id].outbox.isEmpty()) continue;
+                byte[] batch = peers[id].outbox.remove(0);
+                log.add(batch);
+                senders.add(id + 1);
+                for (Peer other : peers) other.session.receive(id + 1, batch, 0, batch.length);
+            } else {
+                peer.session.apply();
+            }
+        }
+
+        // the rest, then what the server would have ended up with
+        for (int id = 0; id < peers.length; ++id) {
+            for (byte[] batch : peers[id].outbox) {
+                for (Peer other : peers) other.session.receive(id + 1, batch, 0, batch.length);
+                log.add(batch);
+                senders.add(id + 1);
+            }
+        }
+        ListTarget server = new ListTarget();
+        SyncSession replay = new SyncSession(server);
+        for (int i = 0; i < log.size(); ++i) replay.receive(senders.get(i), log.get(i), 0, log.get(i).length);
+        replay.apply();
+
+        for (Peer peer : peers) {
+            peer.session.apply();
+            assertEquals(0, peer.session.getPendingCount());
+            assertSameStrokes(server.strokes, peer.target.strokes);
+        }
+        assertTrue(peers[0].target.takenBack > 0); // strokes did get reordered
+    }
+
+    @Test
+    public void remoteStrokesWaitForLocalFingers() {
+        Peer local = new Peer(1);
+        Peer remote = new Peer(2);
+        remote.draw(new Random(3), 0);
+        byte[] batch = remote.outbox.get(0);
+
+        local.session.start(0, 5, 5, 0xFF000000, 3, 1);
+        local.session.receive(2, batch, 0, batch.length);
+        assertEquals(1, local.session.getLiveStrokes().size()); // shown, not drawn
+        assertTrue(local.session.hasBounds());
+        assertFalse(local.session.apply());
+
+        local.session.move(0, 50, 50);
+        local.target.draw(local.session.end(0, new Stroke(0, 0, new float[]{5, 5, 50, 50}, 2)));
+        assertTrue(local.session.apply());
+
+        // the remote stroke came first, so it goes under the local one
+        assertEquals(2, local.target.strokes.size());
+        assertSameStrokes(remote.target.strokes, local.target.strokes.subList(0, 1));
+        assertTrue(local.session.getLiveStrokes().isEmpty());
+    }
+}
@@ -0,0 +1,378 @@
+package com.example.lawrence.esketch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * checks that seeking shows the same drawing as playing from the start, without
+ * replaying much, that checkpoints stay under the memory limit, and that the last frame
+ * is what the undo history ends up with.
+ */
+public class TimelapseTest {
+
+    private static final int INTERVAL = 500;
+    private static final long CHECKPOINT_BYTES = 1080 * 1920 * 4; // a full screen ARGB_8888 bitmap
+    private static final int LONGEST_STROKE = 2 * (1 + 320 + 1); // events, of two fingers at once
+
+    // the "drawing" is a hash of every segment drawn into it, in order. each finger's
+    // live stroke has its own hash, which goes into the drawing when it ends.
+    private static class HashingSurface implements Timelapse.Surface<Long> {
+        long drawing;
+        final long[] live = new long[StrokeBuilder.MAX_POINTERS];
+        int checkpoints; // not released yet
+
+        private void add(int pointer, float... values) {
+            for (float value : values) {
+                live[pointer] = live[pointer] * 31 + Float.floatToIntBits(value);
+            }
+        }
+
+        @Override
+        public void moveTo(int pointer, float x, float y) {
+            add(pointer, x, y);
+        }
+
+        @Override
+        public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+            add(pointer, controlX, controlY, endX, endY);
+        }
+
+        @Override
+        public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                            float endX, float endY) {
+            add(pointer, control1X, control1Y, control2X, control2Y, endX, endY);
+        }
+
+        @Override
+        public Long snapshot() {
+            ++checkpoints;
+            return drawing;
+        }
+
+        @Override
+        public void restore(Long checkpoint) {
+            drawing = checkpoint == null ? 0 : checkpoint;
+        }
+
+        @Override
+        public long sizeOf(Long checkpoint) {
+            return CHECKPOINT_BYTES;
+        }
+
+        @Override
+        public void release(Long checkpoint) {
+            --checkpoints;
+        }
+
+        @Override
+        public void begin(int pointer, int color, float width) {
+            live[pointer] = color * 31L + Float.floatToIntBits(width);
+        }
+
+        @Override
+        public void end(int pointer) {
+            drawing = drawing * 31 + live[pointer];
+        }
+
+        @Override
+        public void draw(Stroke stroke) {
+            drawing = drawing * 31 + stroke.getColor();
+        }
+
+        @Override
+        public void fill(int x, int y, int color) {
+            drawing = drawing * 31 + color;
+        }
+    }
+
+    // the "drawing" is the colors of what was drawn into it, in order. every stroke in
+    // theLastFrameIsTheDrawing() has a color of its own.
+    private static class ColorSurface implements Timelapse.Surface<List<Integer>> {
+        List<Integer> drawing = new ArrayList<>();
+        final int[] colors = new int[StrokeBuilder.MAX_POINTERS];
+
+        @Override
+        public List<Integer> snapshot() {
+            return new ArrayList<>(drawing);
+        }
+
+        @Override
+        public void restore(List<Integer> checkpoint) {
+            drawing = checkpoint == null ? new ArrayList<Integer>() : new ArrayList<>(checkpoint);
+        }
+
+        @Override
+        public long sizeOf(List<Integer> checkpoint) {
+            return checkpoint.size() * 4;
+        }
+
+        @Override
+        public void release(List<Integer> checkpoint) {
+        }
+
+        @Override
+        public void begin(int pointer, int color, float width) {
+            colors[pointer] = color;
+        }
+
+        @Override
+        public void end(int pointer) {
+            drawing.add(colors[pointer]);
+        }
+
+        @Override
+        public void draw(Stroke stroke) {
+            drawing.add(stroke.getColor());
+        }
+
+        @Override
+        public void fill(int x, int y, int color) {
+            drawing.add(color);
+        }
+
+        @Override
+        public void moveTo(int pointer, float x, float y) {
+        }
+
+        @Override
+        public void quadTo(int pointer, float controlX, float controlY, float endX, float endY) {
+        }
+
+        @Override
+        public void cubicTo(int pointer, float control1X, float control1Y, float control2X, float control2Y,
+                            float endX, float endY) {
+        }
+    }
+
+    // the drawing is the colors on it. a color is only at its line's y (see line()), so a
+    // region is the colors with their y in the box.
+    private static class LineSurface implements StrokeHistory.Surface<List<Integer>> {
+        List<Integer> drawing = new ArrayList<>();
+        private List<Integer> mRegion; // what beginRegion() draws on
+        private int mTop, mBottom;
+
+        @Override
+        public List<Integer> snapshot() {
+            return new ArrayList<>(drawing);
+        }
+
+        @Override
+        public void restore(List<Integer> checkpoint) {
+            drawing = checkpoint == null ? new ArrayList<Integer>() : new ArrayList<>(checkpoint);
+        }
+
+        @Override
+        public void draw(Stroke stroke) {
+            if (mRegion == null) {
+                drawing.add(stroke.getColor());
+            } else if (inRegion(stroke.getColor())) {
+                mRegion.add(stroke.getColor());
+            }
+        }
+
+        @Override
+        public long sizeOf(List<Integer> checkpoint) {
+            return 0;
+        }
+
+        @Override
+        public void release(List<Integer> checkpoint) {
+        }
+
+        @Override
+        public void beginRegion(List<Integer> target, List<Integer> start, int left, int top, int right, int bottom) {
+            mRegion = target == null ? drawing : target;
+            mTop = top;
+            mBottom = bottom;
+            for (int i = mRegion.size() - 1; i >= 0; --i) {
+                if (inRegion(mRegion.get(i))) mRegion.remove(i);
+            }
+            if (start == null) return;
+            for (int color : start) {
+                if (inRegion(color)) mRegion.add(color);
+            }
+        }
+
+        @Override
+        public void endRegion() {
+            mRegion = null;
+        }
+
+        private boolean inRegion(int color) {
+            return color * 10 >= mTop && color * 10 <= mBottom;
+        }
+    }
+
+    // a horizontal line of its own, 10px below the one of the color before
+    private static Stroke line(int color) {
+        float y = color * 10;
+        return new Stroke(color, 2, new float[]{0, y, 50, y, 100, y}, 3);
+    }
+
+    // about 100k events, with two fingers drawing at once now and then
+    private static TouchLog session() {
+        TouchLog log = new TouchLog();
+        Random random = new Random(1);
+        long time = 1000;
+        for (int stroke = 0; log.size() < 100000; ++stroke) {
+            int fingers = stroke % 10 == 0 ? 2 : 1;
+            float[] x = new float[fingers], y = new float[fingers];
+            for (int f = 0; f < fingers; ++f) {
+                x[f] = random.nextFloat() * 1080;
+                y[f] = random.nextFloat() * 1920;
+                log.down(f, time, x[f], y[f], 0xFF000000 | stroke, 1 + stroke % 20);
+            }
+            int points = 20 + random.nextInt(300);
+            for (int i = 0; i < points; ++i) {
+                time += 8;
+                for (int f = 0; f < fingers; ++f) {
+                    x[f] += random.nextFloat() * 20 - 10;
+                    y[f] += random.nextFloat() * 20 - 10;
+                    log.move(f, time, x[f], y[f]);
+                }
+            }
+            for (int f = 0; f < fingers; ++f) {
+                log.up(f, time);
+            }
+            time += 200;
+        }
+        return log;
+    }
+
+    // what the surface shows after playing the first `index` events from the start
+    private static HashingSurface played(TouchLog log, int index) {
+        HashingSurface surface = new HashingSurface();
+        new Timelapse<>(log, surface, null, Integer.MAX_VALUE, Long.MAX_VALUE).seekToEvent(index);
+        return surface;
+    }
+
+    @Test
+    public void seekingShowsWhatPlayingShows() {
+        TouchLog log = session();
+        HashingSurface surface = new HashingSurface();
+        Timelapse<Long> timelapse = new Timelapse<>(log, surface, null, INTERVAL, Long.MAX_VALUE);
+        timelapse.seekTo(log.getDuration()); // play it all once, taking the checkpoints
+
+        Random random = new Random(2);
+        for (int seek = 0; seek < 50; ++seek) {
+            int index = random.nextInt(log.size() + 1);
+            timelapse.seekToEvent(index);
+            HashingSurface expected = played(log, index);
+
+            assertEquals("seek to " + index, expected.drawing, surface.drawing);
+            for (int bits = timelapse.getActivePointers(); bits != 0; bits &= bits - 1) {
+                int pointer = Integer.numberOfTrailingZeros(bits);
+                assertEquals("seek to " + index, expected.live[pointer], surface.live[pointer]);
+            }
+            // a checkpoint is taken at the first moment no finger is down after each interval
+            assertTrue(timelapse.getLastReplayCount() <= INTERVAL + LONGEST_STROKE);
+        }
+    }
+
+    // a session logged the way the view logs it, next to a StrokeHistory doing the same:
+    // strokes of one or two fingers, taps, someone else's strokes (some while fingers are
+    // down), undo, redo, erase and fills
+    @Test
+    public void theLastFrameIsTheDrawing() {
+        TouchLog log = new TouchLog();
+        LineSurface drawing = new LineSurface();
+        StrokeHistory<List<Integer>> history = new StrokeHistory<>(drawing, 5, Long.MAX_VALUE);
+        Random random = new Random(3);
+        long time = 0;
+        int next = 1; // color of the next stroke
+        for (int op = 0; op < 3000; ++op) {
+            time += 10;
+            int what = random.nextInt(12);
+            if (what < 4) {
+                int fingers = 1 + random.nextInt(2);
+                List<Stroke> strokes = new ArrayList<>();
+                for (int f = 0; f < fingers; ++f) {
+                    strokes.add(line(next++));
+                    log.down(f, time, 0, strokes.get(f).getY(0), strokes.get(f).getColor(), 2);
+                }
+                for (int p = 1; p < 3; ++p) {
+                    for (int f = 0; f < fingers; ++f) {
+                        log.move(f, time, strokes.get(f).getX(p), strokes.get(f).getY(p));
+                    }
+                }
+                // the history gets them when the last finger lifts, after the remote stroke
+                log.up(0, time);
+                if (fingers == 2) {
+                    if (random.nextBoolean()) {
+                        Stroke remote = line(next++);
+                        drawing.draw(remote);
+                        history.add(remote);
+                        log.stroke(time, remote);
+                    }
+                    log.up(1, time);
+                }
+                for (Stroke stroke : strokes) {
+                    drawing.draw(stroke);
+                }
+                history.addAll(strokes);
+            } else if (what == 4) {
+                log.down(0, time, 5, 5, next++, 2); // a tap, nothing goes into the history
+                log.up(0, time, false);
+            } else if (what == 5) {
+                Stroke remote = line(next++);
+                drawing.draw(remote);
+                history.add(remote);
+                log.stroke(time, remote);
+            } else if (what < 8) {
+                if (history.undo()) log.undo(time);
+            } else if (what == 8) {
+                if (history.redo()) log.redo(time);
+            } else if (what < 11) {
+                if (history.getDrawnCount() == 0) continue;
+                Stroke erased = history.getStroke(random.nextInt(history.getDrawnCount()));
+                if (erased == null) continue; // a fill
+                int count = history.erase(50, erased.getY(0), 1);
+                for (int i = 0; i < count; ++i) {
+                    log.erase(time, history.getErasedStep(i));
+                }
+            } else if (random.nextInt(5) == 0) {
+                // a fill, a step the history can't draw again
+                int color = next++;
+                drawing.drawing.add(color);
+                history.addSnapshot();
+                log.fill(time, 0, 0, color);
+            }
+        }
+
+        // a finger's stroke is drawn when it lifts, but goes into the history with the
+        // others', so only which strokes are drawn has to be the same, not their order
+        ColorSurface surface = new ColorSurface();
+        new Timelapse<>(log, surface, null, 100, Long.MAX_VALUE).seekToEvent(log.size());
+        List<Integer> expected = new ArrayList<>(drawing.drawing);
+        Collections.sort(expected);
+        Collections.sort(surface.drawing);
+        assertEquals(expected, surface.drawing);
+    }
+
+    @Test
+    public void checkpointsStayUnderTheLimit() {
+        TouchLog log = session();
+        long limit = 16 * CHECKPOINT_BYTES;
+        HashingSurface surface = new HashingSurface();
+        Timelapse<Long> timelapse = new Timelapse<>(log, surface, null, 100, limit);
+
+        timelapse.seekTo(log.getDuration());
+        assertTrue(timelapse.getCheckpointBytes() <= limit);
+        assertTrue(timelapse.getCheckpointCount() > 8); // thinned out, not emptied
+        assertEquals(timelapse.getCheckpointCount() - 1, surface.checkpoints);
+        assertTrue(timelapse.getCheckpointInterval() > 100);
+
+        // seeking back replays about one (grown) interval, not half the session
+        timelapse.seekTo(log.getDuration() / 2);
+        assertTrue(timelapse.getLastReplayCount() < log.size() / 8);
+
+        timelapse.release();
+        assertEquals(0, surface.checkpoints);
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.lawrence.esketch;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.InflaterInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * checks the SVG and PDF files written from strokes, and that writing them doesn't allocate.
+ */
+public class VectorWriterTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    // a zigzag of 50 points
+    private static Stroke stroke(int color, float width, float offset, boolean curves) {
+        float[] points = new float[100];
+        for (int i = 0; i < 50; ++i) {
+            points[2 * i] = offset + i * 4.5f;
+            points[2 * i + 1] = offset + (i % 2) * 7.25f;
+        }
+        return new Stroke(color, width, points, curves ? 49 : 50, curves);
+    }
+
+    private static void draw(VectorWriter writer, int strokes) throws IOException {
+        for (int i = 0; i < strokes; ++i) {
+            writer.write(stroke(i % 2 == 0 ? 0xFF102030 : 0x80FF0000, 5 + i % 3, i, i % 4 == 0));
+        }
+    }
+
+    @Test
+    public void svgIsWellFormed() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SvgWriter writer = new SvgWriter(bytes, 1080, 1920);
+        writer.image(new byte[]{1, 2, 3, 4}, 100, 200);
+        draw(writer, 10);
+        writer.finish();
+
+        Document svg = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals("1080", svg.getDocumentElement().getAttribute("width"));
+
+        Element image = (Element) svg.getElementsByTagName("image").item(0);
+        assertEquals("data:image/jpeg;base64,AQIDBA==", image.getAttribute("xlink:href"));
+
+        NodeList paths = svg.getElementsByTagName("path");
+        assertEquals(10, paths.getLength());
+        Element first = (Element) paths.item(0);
+        assertEquals("#102030", first.getAttribute("stroke"));
+        assertEquals("5", first.getAttribute("stroke-width"));
+        assertTrue(first.getAttribute("d").startsWith("M0 0C"));
+        Element second = (Element) paths.item(1);
+        assertEquals("#ff0000", second.getAttribute("stroke"));
+        assertEquals("0.5", second.getAttribute("stroke-opacity"));
+        assertTrue(second.getAttribute("d").startsWith("M1 1Q1 1 3.25 4.63Q"));
+    }
+
+    @Test
+    public void pdfIsReadable() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PdfWriter writer = new PdfWriter(bytes, 1080, 1920);
+        draw(writer, 10);
+        writer.finish();
+        String pdf = new String(bytes.toByteArray(), ASCII);
+
+        assertTrue(pdf.startsWith("%PDF-1.4\n"));
+        assertTrue(pdf.endsWith("%%EOF\n"));
+
+        // every object in the cross reference table is where it says
+        int xref = Integer.parseInt(pdf.substring(pdf.lastIndexOf("startxref\n") + 10, pdf.lastIndexOf("\n%%EOF")));
+        assertTrue(pdf.startsWith("xref\n0 8\n", xref));
+        Matcher entries = Pattern.compile("(\\d{10}) 00000 n").matcher(pdf.substring(xref));
+        int objects = 0;
+        while (entries.find()) {
+            ++objects;
+            assertTrue(pdf.startsWith(objects + " 0 obj\n", Integer.parseInt(entries.group(1))));
+        }
+        assertEquals(6, objects); // no image
+
+        // the page's content has all the strokes
+        int start = pdf.indexOf("stream\n", pdf.indexOf("4 0 obj")) + 7;
+        int end = pdf.indexOf("\nendstream", start);
+        Matcher length = Pattern.compile("6 0 obj\n(\\d+)\n").matcher(pdf);
+        assertTrue(length.find());
+        assertEquals(end - start, Integer.parseInt(length.group(1)));
+
+        InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(bytes.toByteArray(), start, end - start));
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            content.write(buffer, 0, read);
+        }
+        String page = new String(content.toByteArray(), ASCII);
+        assertTrue(page.contains("1 0 0 -1 0 1920 cm 1 J"));
+        assertEquals(10, page.split("\nS\n", -1).length - 1);
+        assertTrue(page.contains("/A128 gs"));
+        assertTrue(pdf.contains("/A128 << /CA 0.5 >>"));
+        assertFalse(pdf.contains("/XObject"));
+    }
+
+    @Test
+    public void strokesDoNotAllocate() throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        long id = Thread.currentThread().getId();
+
+        OutputStream nowhere = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        Stroke[] strokes = new Stroke[10];
+        for (int i = 0; i < strokes.length; ++i) {
+            strokes[i] = stroke(0xFF000000 + i, 5, i, i % 2 == 0);
+        }
+
+        for (VectorWriter writer : new VectorWriter[]{
+                new SvgWriter(nowhere, 1080, 1920), new PdfWriter(nowhere, 1080, 1920)}) {
+            for (int i = 0; i < 2000; ++i) {
+                writer.write(strokes[i % strokes.length]); // warm up
+            }
+
+            // until the JIT has compiled everything it wants to, a round can allocate
+            // (interpreted code doesn't get escape analysis), so a few rounds get a
+            // chance. a writer that allocates per stroke does it in every round.
+            long allocated = -1;
+            for (int round = 0; round < 5 && allocated != 0; ++round) {
+                long before = allocations.getThreadAllocatedBytes(id);
+                for (int i = 0; i < 1000; ++i) {
+                    writer.write(strokes[i % strokes.length]);
+                }
+                allocated = allocations.getThreadAllocatedBytes(id) - before;
+            }
+            assertEquals(writer.getClass().getSimpleName(), 0, allocated);
+            writer.finish();
+        }
+    }
+}